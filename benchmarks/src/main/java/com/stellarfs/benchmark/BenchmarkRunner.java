@@ -0,0 +1,44 @@
+package com.stellarfs.benchmark;
+
+import org.openjdk.jmh.Main;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Entry point of the benchmark jar. Takes the usual JMH options, and unless a
+ * result format or file is given, also writes the results as JSON to
+ * jmh-results/&lt;timestamp&gt;.json, so every run can be compared with
+ * {@link ResultComparison} later.
+ */
+public final class BenchmarkRunner {
+
+    static final Path RESULTS_DIR = Paths.get("jmh-results");
+
+    private BenchmarkRunner() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        List<String> options = new ArrayList<>(Arrays.asList(args));
+        if (!options.contains("-rf") && !options.contains("-rff") && !listsOrHelps(options)) {
+            Files.createDirectories(RESULTS_DIR);
+            String timestamp = LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss"));
+            Path result = RESULTS_DIR.resolve(timestamp + ".json");
+            options.addAll(Arrays.asList("-rf", "json", "-rff", result.toString()));
+        }
+        Main.main(options.toArray(new String[0]));
+    }
+
+    // Options that print something and run nothing
+    private static boolean listsOrHelps(List<String> options) {
+        return options.stream().anyMatch(option -> option.equals("-h") || option.equals("-l")
+                || option.equals("-lp") || option.equals("-lrf") || option.equals("-lprof"));
+    }
+}
@@ -0,0 +1,144 @@
+package com.stellarfs.benchmark;
+
+import com.stellarfs.model.dto.FileDTO;
+import com.stellarfs.repository.FileRepository;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Lookup latency of the file metadata catalog against the linear scan it
+ * replaced, at catalog sizes up to one million files.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class FileRepositoryBenchmark {
+
+    static final String[] TYPES = {"pdf", "image", "document", "archive", "video", "audio", "code", "text"};
+
+    @Param({"10000", "1000000"})
+    int files;
+
+    // Distinct owners; each owns files / owners entries
+    @Param({"10000"})
+    int owners;
+
+    FileRepository repository;
+    List<FileDTO> list;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        repository = new FileRepository();
+        list = new ArrayList<>(files);
+        LocalDateTime now = LocalDateTime.now();
+        for (int i = 0; i < files; i++) {
+            FileDTO file = newFile(i, owners, now);
+            repository.save(file);
+            list.add(file);
+        }
+    }
+
+    static FileDTO newFile(int i, int owners, LocalDateTime now) {
+        return new FileDTO(
+                "file-" + i,
+                "name-" + i + ".dat",
+                TYPES[i % TYPES.length],
+                1024L * (i % 4096),
+                now.minusSeconds(i),
+                "owner-" + (i % owners),
+                Collections.singletonList("read"),
+                "/data/" + (i % 100) + "/" + (i % 1000) + "/",
+                1);
+    }
+
+    @Benchmark
+    public FileDTO findById() {
+        return repository.findById("file-" + ThreadLocalRandom.current().nextInt(files));
+    }
+
+    @Benchmark
+    @Threads(4)
+    public FileDTO findByIdContended() {
+        return repository.findById("file-" + ThreadLocalRandom.current().nextInt(files));
+    }
+
+    @Benchmark
+    public List<FileDTO> findByOwner() {
+        return repository.findByOwner("owner-" + ThreadLocalRandom.current().nextInt(owners));
+    }
+
+    @Benchmark
+    public List<FileDTO> findByPathPrefix() {
+        int i = ThreadLocalRandom.current().nextInt(1000);
+        return repository.findByPathPrefix("/data/" + (i % 100) + "/" + i + "/");
+    }
+
+    @Benchmark
+    public FileDTO saveExisting() {
+        int i = ThreadLocalRandom.current().nextInt(files);
+        return repository.save(list.get(i));
+    }
+
+    @Benchmark
+    public List<FileDTO> searchSelective() {
+        return repository.search("name-" + ThreadLocalRandom.current().nextInt(files) + ".", 0, 50);
+    }
+
+    @Benchmark
+    public List<FileDTO> searchFirstPage() {
+        return repository.search("owner-" + ThreadLocalRandom.current().nextInt(owners), 0, 50);
+    }
+
+    @Benchmark
+    public List<FileDTO> findRecent() {
+        return repository.findRecent(5);
+    }
+
+    @Benchmark
+    public List<FileDTO> findRecentAfter() {
+        FileDTO from = list.get(ThreadLocalRandom.current().nextInt(files));
+        return repository.findRecentAfter(from.getLastModified(), from.getId(), 20);
+    }
+
+    // Baseline: the full sort getRecentFiles did before the recency index
+    @Benchmark
+    public List<FileDTO> sortRecent() {
+        return list.stream()
+                .sorted(Comparator.comparing(FileDTO::getLastModified).reversed())
+                .limit(5)
+                .collect(Collectors.toList());
+    }
+
+    // Baseline: the O(n) stream scan FileServiceImpl used before the catalog
+    @Benchmark
+    public FileDTO linearScanById() {
+        String id = "file-" + ThreadLocalRandom.current().nextInt(files);
+        return list.stream()
+                .filter(file -> file.getId().equals(id))
+                .findFirst()
+                .orElse(null);
+    }
+}
@@ -0,0 +1,110 @@
+package com.stellarfs.benchmark;
+
+import com.stellarfs.model.dto.FileDTO;
+import com.stellarfs.model.dto.FilePageDTO;
+import com.stellarfs.repository.FileRepository;
+import com.stellarfs.repository.FileVersionRepository;
+import com.stellarfs.service.impl.FileServiceImpl;
+import com.stellarfs.storage.ChunkStore;
+import com.stellarfs.storage.FileStorage;
+import com.stellarfs.storage.UploadSessions;
+import com.stellarfs.storage.VersionStore;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * File service queries behind the search, recent files and owner endpoints,
+ * through {@link FileServiceImpl} rather than the catalog alone, at catalog
+ * sizes up to one million files.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class FileServiceBenchmark {
+
+    @Param({"10000", "1000000"})
+    int files;
+
+    @Param({"10000"})
+    int owners;
+
+    Path dir;
+    FileServiceImpl service;
+    // Cursor of the first page of 20, for a second-page query
+    String secondPage;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("file-service-bench");
+        String uploads = dir.resolve("uploads").toString();
+        FileRepository repository = new FileRepository();
+        LocalDateTime now = LocalDateTime.now();
+        for (int i = 0; i < files; i++) {
+            repository.save(FileRepositoryBenchmark.newFile(i, owners, now));
+        }
+        // A non-empty catalog, so no mock files are seeded
+        FileStorage storage = new FileStorage(uploads, 8 << 20, new ChunkStore(uploads, 16384, 65536, 262144),
+                new VersionStore(uploads, 5, 10, 4096));
+        service = new FileServiceImpl(repository, new FileVersionRepository(), storage,
+                new UploadSessions(storage, 8 << 20, 86_400_000, 1000));
+        secondPage = service.getRecentFiles(20, null).getNextCursor();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        try (Stream<Path> paths = Files.walk(dir)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    // One name matches
+    @Benchmark
+    public List<FileDTO> searchFilesSelective() {
+        return service.searchFiles("name-" + ThreadLocalRandom.current().nextInt(files) + ".", 0, 50);
+    }
+
+    // files / owners match; first page only
+    @Benchmark
+    public List<FileDTO> searchFilesFirstPage() {
+        return service.searchFiles("owner-" + ThreadLocalRandom.current().nextInt(owners), 0, 50);
+    }
+
+    @Benchmark
+    public List<FileDTO> getRecentFiles() {
+        return service.getRecentFiles(5);
+    }
+
+    @Benchmark
+    public FilePageDTO getRecentFilesSecondPage() {
+        return service.getRecentFiles(20, secondPage);
+    }
+
+    @Benchmark
+    public List<FileDTO> getFilesByOwner() {
+        return service.getFilesByOwner("owner-" + ThreadLocalRandom.current().nextInt(owners));
+    }
+}
@@ -0,0 +1,70 @@
+package com.stellarfs.benchmark;
+
+import com.stellarfs.storage.MetadataLog;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Durable metadata write throughput. Every put waits for its fsync, so a
+ * single writer is bounded by sync latency while concurrent writers share
+ * syncs through group commit.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class MetadataLogBenchmark {
+
+    Path dir;
+    MetadataLog log;
+    byte[] record;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("metadata-bench");
+        log = new MetadataLog(dir.toString(), true, 100_000);
+        // Roughly the size of an encoded FileDTO
+        record = new byte[300];
+        ThreadLocalRandom.current().nextBytes(record);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        log.close();
+        try (Stream<Path> files = Files.walk(dir)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Benchmark
+    public void putSingleWriter() {
+        log.put("files", "file-" + ThreadLocalRandom.current().nextInt(1_000_000), record);
+    }
+
+    @Benchmark
+    @Threads(16)
+    public void putSixteenWriters() {
+        log.put("files", "file-" + ThreadLocalRandom.current().nextInt(1_000_000), record);
+    }
+}
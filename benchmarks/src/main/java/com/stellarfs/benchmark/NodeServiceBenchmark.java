@@ -0,0 +1,120 @@
+package com.stellarfs.benchmark;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.stellarfs.model.dto.NodeMetricHistoryDTO;
+import com.stellarfs.repository.NodeMetricRepository;
+import com.stellarfs.service.impl.HostMetricsProbe;
+import com.stellarfs.service.impl.MetricCollector;
+import com.stellarfs.service.impl.NodeJobRunner;
+import com.stellarfs.service.impl.NodeMetricStream;
+import com.stellarfs.service.impl.NodeServiceImpl;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Node metric history and cluster summary queries through
+ * {@link NodeServiceImpl}, by number of nodes with history and samples kept
+ * per node (720 is an hour, 17280 a day at the default 5 second interval).
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class NodeServiceBenchmark {
+
+    static final long SAMPLE_MILLIS = 5000;
+
+    @Param({"4", "64"})
+    int nodes;
+
+    @Param({"720", "17280"})
+    int history;
+
+    MetricCollector collector;
+    NodeMetricStream stream;
+    NodeJobRunner jobs;
+    NodeServiceImpl service;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        NodeMetricRepository repository = new NodeMetricRepository(history);
+        // Scheduled collection would append behind the benchmark's back; a day's interval keeps it quiet
+        collector = new MetricCollector(1, TimeUnit.DAYS.toMillis(1), 0, "");
+        stream = new NodeMetricStream(new ObjectMapper(), 16, 1, 1_800_000, 4, 5000);
+        jobs = new NodeJobRunner(1, 8, 100);
+        service = new NodeServiceImpl(repository, stream, collector, jobs,
+                new HostMetricsProbe(false, "/proc", "."), 5000, "node-1");
+
+        // Separate from the service's own mock nodes, whose seeded samples are hourly
+        long now = System.currentTimeMillis();
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        for (int n = 0; n < nodes; n++) {
+            for (int i = history - 1; i >= 0; i--) {
+                repository.append(node(n), now - i * SAMPLE_MILLIS, random.nextDouble(100),
+                        random.nextDouble(100), random.nextDouble(100), random.nextDouble(500));
+            }
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        collector.close();
+        stream.close();
+        jobs.close();
+    }
+
+    // Raw samples of the last hour
+    @Benchmark
+    public List<NodeMetricHistoryDTO> getNodeMetricHistoryHour() {
+        return service.getNodeMetricHistory(randomNode(), "cpu", 1);
+    }
+
+    // The whole day thinned to a chart's worth of points
+    @Benchmark
+    public List<NodeMetricHistoryDTO> getNodeMetricHistoryDownsampled() {
+        return service.getNodeMetricHistory(randomNode(), "cpu", 24, null, 300);
+    }
+
+    @Benchmark
+    public List<NodeMetricHistoryDTO> getNodeMetricHistoryHourlyRollup() {
+        return service.getNodeMetricHistory(randomNode(), "memory", 24, "1h", null);
+    }
+
+    @Benchmark
+    public Map<String, Double> getSystemMetricsSummary() {
+        return service.getSystemMetricsSummary();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public Map<String, Double> getSystemMetricsSummaryContended() {
+        return service.getSystemMetricsSummary();
+    }
+
+    private String randomNode() {
+        return node(ThreadLocalRandom.current().nextInt(nodes));
+    }
+
+    private static String node(int n) {
+        return "bench-node-" + n;
+    }
+}
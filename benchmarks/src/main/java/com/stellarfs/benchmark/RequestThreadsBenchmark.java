@@ -0,0 +1,140 @@
+package com.stellarfs.benchmark;
+
+import com.stellarfs.StellarFsApplication;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.web.servlet.context.ServletWebServerApplicationContext;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Uploads and listings against the running application, with requests handled
+ * on Tomcat's worker pool and on virtual threads (stellarfs.threads.virtual).
+ * More clients than pool threads are kept busy, so with platform threads the
+ * pool caps concurrency; compare ops/s in the throughput runs and p0.99 in
+ * the sample time runs:
+ *
+ *     java -jar benchmarks/target/benchmarks.jar RequestThreadsBenchmark
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RequestThreadsBenchmark {
+
+    // Clients per benchmark; more than the request pool below
+    static final int CLIENTS = 256;
+    static final int POOL_THREADS = 64;
+    static final int UPLOAD_BYTES = 64 * 1024;
+    // Uploads cycle through this many names, so later ones store new versions
+    static final int NAMES = 1000;
+    static final String BOUNDARY = "stellarfs-benchmark-boundary";
+
+    @Param({"false", "true"})
+    boolean virtual;
+
+    Path dir;
+    ServletWebServerApplicationContext context;
+    HttpClient client;
+    String base;
+    byte[] content;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        dir = Files.createTempDirectory("request-bench");
+        context = (ServletWebServerApplicationContext) new SpringApplicationBuilder(StellarFsApplication.class)
+                .run("--server.port=0",
+                        "--server.tomcat.threads.max=" + POOL_THREADS,
+                        "--stellarfs.threads.virtual=" + virtual,
+                        "--stellarfs.storage.upload-dir=" + dir.resolve("uploads"),
+                        "--stellarfs.replication.dir=" + dir.resolve("replicas"),
+                        "--stellarfs.metadata.dir=" + dir.resolve("metadata"),
+                        "--stellarfs.activity.dir=" + dir.resolve("activity"),
+                        "--jwt.secret=" + "b".repeat(64),
+                        "--jwt.expiration=3600000",
+                        "--frontend.url=http://localhost",
+                        "--logging.level.root=WARN");
+        base = "http://localhost:" + context.getWebServer().getPort();
+        client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .build();
+        content = new byte[UPLOAD_BYTES];
+        ThreadLocalRandom.current().nextBytes(content);
+
+        // Something to list
+        for (int i = 0; i < NAMES; i++) {
+            upload("file-" + i + ".bin");
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        context.close();
+        try (Stream<Path> files = Files.walk(dir)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Benchmark
+    @Threads(CLIENTS)
+    public int upload() throws Exception {
+        return upload("file-" + ThreadLocalRandom.current().nextInt(NAMES) + ".bin");
+    }
+
+    @Benchmark
+    @Threads(CLIENTS)
+    public int list() throws Exception {
+        HttpRequest request = HttpRequest.newBuilder(URI.create(base + "/files?limit=100&sort=size&order=desc"))
+                .GET()
+                .build();
+        return check(client.send(request, HttpResponse.BodyHandlers.ofByteArray()));
+    }
+
+    private int upload(String name) throws Exception {
+        ByteArrayOutputStream body = new ByteArrayOutputStream(UPLOAD_BYTES + 256);
+        body.writeBytes(("--" + BOUNDARY + "\r\n"
+                + "Content-Disposition: form-data; name=\"file\"; filename=\"" + name + "\"\r\n"
+                + "Content-Type: application/octet-stream\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+        body.writeBytes(content);
+        body.writeBytes(("\r\n--" + BOUNDARY + "--\r\n").getBytes(StandardCharsets.US_ASCII));
+        HttpRequest request = HttpRequest.newBuilder(URI.create(base + "/upload"))
+                .header("Content-Type", "multipart/form-data; boundary=" + BOUNDARY)
+                .POST(HttpRequest.BodyPublishers.ofByteArray(body.toByteArray()))
+                .build();
+        return check(client.send(request, HttpResponse.BodyHandlers.discarding()));
+    }
+
+    private static int check(HttpResponse<?> response) {
+        if (response.statusCode() != 200) {
+            throw new IllegalStateException("HTTP " + response.statusCode() + " from " + response.uri());
+        }
+        return response.statusCode();
+    }
+}
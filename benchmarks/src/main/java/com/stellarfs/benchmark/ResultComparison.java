@@ -0,0 +1,141 @@
+package com.stellarfs.benchmark;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Compares two JMH JSON result files, benchmark by benchmark and parameter
+ * set by parameter set:
+ *
+ *     java -cp benchmarks/target/benchmarks.jar com.stellarfs.benchmark.ResultComparison \
+ *         jmh-results/before.json jmh-results/after.json [threshold-percent]
+ *
+ * A change within the two runs' error margins combined, or within the
+ * threshold (5% by default; runs of one or two iterations have no error
+ * margin), is reported as noise. Exits with status 1 if anything got worse
+ * beyond noise.
+ */
+public final class ResultComparison {
+
+    static final class Score {
+        final String mode;
+        final double score;
+        final double error;
+        final String unit;
+
+        Score(String mode, double score, double error, String unit) {
+            this.mode = mode;
+            this.score = score;
+            this.error = error;
+            this.unit = unit;
+        }
+
+        // Throughput is better higher; every other mode measures time
+        boolean higherIsBetter() {
+            return "thrpt".equals(mode);
+        }
+    }
+
+    static final double DEFAULT_THRESHOLD_PERCENT = 5;
+
+    private ResultComparison() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2 || args.length > 3) {
+            System.err.println("Usage: ResultComparison <baseline.json> <candidate.json> [threshold-percent]");
+            System.exit(2);
+        }
+        double threshold = args.length == 3 ? Double.parseDouble(args[2]) : DEFAULT_THRESHOLD_PERCENT;
+        boolean regressed = compare(read(Paths.get(args[0])), read(Paths.get(args[1])), threshold, System.out);
+        System.exit(regressed ? 1 : 0);
+    }
+
+    /**
+     * Read a JMH JSON result file.
+     * @param file Result file
+     * @return Scores by benchmark, parameters and mode
+     */
+    static Map<String, Score> read(Path file) throws IOException {
+        Map<String, Score> scores = new LinkedHashMap<>();
+        for (JsonNode result : new ObjectMapper().readTree(file.toFile())) {
+            StringBuilder key = new StringBuilder(result.path("benchmark").asText());
+            // Sorted, so the key does not depend on the order JMH wrote them in
+            Map<String, String> params = new TreeMap<>();
+            Iterator<Map.Entry<String, JsonNode>> fields = result.path("params").fields();
+            while (fields.hasNext()) {
+                Map.Entry<String, JsonNode> field = fields.next();
+                params.put(field.getKey(), field.getValue().asText());
+            }
+            if (!params.isEmpty()) {
+                key.append(' ').append(params);
+            }
+            String mode = result.path("mode").asText();
+            key.append(" (").append(mode).append(')');
+            JsonNode metric = result.path("primaryMetric");
+            double error = metric.path("scoreError").asDouble(0);
+            scores.put(key.toString(), new Score(mode, metric.path("score").asDouble(),
+                    Double.isNaN(error) ? 0 : error, metric.path("scoreUnit").asText()));
+        }
+        return scores;
+    }
+
+    /**
+     * Print one line per benchmark found in either run.
+     * @param thresholdPercent Relative change always counted as noise
+     * @return true if any benchmark in both runs got worse beyond noise
+     */
+    static boolean compare(Map<String, Score> baseline, Map<String, Score> candidate, double thresholdPercent,
+                           PrintStream out) {
+        int width = 0;
+        for (String key : baseline.keySet()) {
+            width = Math.max(width, key.length());
+        }
+        for (String key : candidate.keySet()) {
+            width = Math.max(width, key.length());
+        }
+        String name = "%-" + width + "s";
+        boolean regressed = false;
+        for (Map.Entry<String, Score> entry : baseline.entrySet()) {
+            Score before = entry.getValue();
+            Score after = candidate.get(entry.getKey());
+            if (after == null) {
+                out.printf(name + " %14.3f %14s  only in baseline%n", entry.getKey(), before.score, "");
+                continue;
+            }
+            if (!before.unit.equals(after.unit)) {
+                out.printf(name + " units differ (%s vs %s)%n", entry.getKey(), before.unit, after.unit);
+                continue;
+            }
+            double change = before.score != 0 ? (after.score - before.score) / before.score * 100 : 0;
+            String verdict;
+            if (Math.abs(after.score - before.score) <= before.error + after.error
+                    || Math.abs(change) <= thresholdPercent) {
+                verdict = "within noise";
+            } else if ((after.score > before.score) == before.higherIsBetter()) {
+                verdict = "better";
+            } else {
+                verdict = "WORSE";
+                regressed = true;
+            }
+            out.printf(name + " %14.3f %14.3f %-8s %+8.1f%%  %s%n",
+                    entry.getKey(), before.score, after.score, after.unit, change, verdict);
+        }
+        for (Map.Entry<String, Score> entry : candidate.entrySet()) {
+            if (!baseline.containsKey(entry.getKey())) {
+                out.printf(name + " %14s %14.3f %-8s  new%n", entry.getKey(), "", entry.getValue().score,
+                        entry.getValue().unit);
+            }
+        }
+        return regressed;
+    }
+}
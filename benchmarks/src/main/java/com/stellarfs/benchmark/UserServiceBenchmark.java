@@ -0,0 +1,112 @@
+package com.stellarfs.benchmark;
+
+import com.stellarfs.model.dto.ActivityLogDTO;
+import com.stellarfs.model.dto.ActivityLogPageDTO;
+import com.stellarfs.repository.ActivityLogRepository;
+import com.stellarfs.repository.UserRepository;
+import com.stellarfs.service.impl.UserServiceImpl;
+import com.stellarfs.storage.ActivityLogStore;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Activity log queries through {@link UserServiceImpl}, by number of entries
+ * in the audit trail. The full-list queries read every entry; the page
+ * queries read the newest page and the page of the last hour.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class UserServiceBenchmark {
+
+    static final String[] ACTIONS = {"LOGIN", "UPLOAD", "DOWNLOAD", "UPDATE", "DELETE"};
+
+    @Param({"10000", "1000000"})
+    int entries;
+
+    // Distinct users writing the entries
+    @Param({"100"})
+    int users;
+
+    Path dir;
+    ActivityLogStore store;
+    UserServiceImpl service;
+    LocalDateTime now;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("activity-bench");
+        // Unsynced, or setup would be all fsyncs
+        store = new ActivityLogStore(dir.toString(), 64L * 1024 * 1024, 86_400_000L, 0, false);
+        ActivityLogRepository activityLogs = new ActivityLogRepository(store);
+        service = new UserServiceImpl(new UserRepository(), activityLogs);
+        // One entry a second, appended oldest first
+        now = LocalDateTime.now();
+        for (int i = entries - 1; i >= 0; i--) {
+            ActivityLogDTO entry = new ActivityLogDTO();
+            entry.setId("activity-" + i);
+            entry.setUserId("user-" + (i % users));
+            entry.setUserName("User " + (i % users));
+            entry.setAction(ACTIONS[i % ACTIONS.length]);
+            entry.setResourceType("FILE");
+            entry.setResourceId("file-" + i);
+            entry.setDetails("Benchmark entry " + i);
+            entry.setTimestamp(now.minusSeconds(i));
+            entry.setIpAddress("10.0." + (i % 256) + "." + (i / 256 % 256));
+            activityLogs.save(entry);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        store.close();
+        try (Stream<Path> files = Files.walk(dir)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Benchmark
+    public List<ActivityLogDTO> getAllActivityLogs() {
+        return service.getAllActivityLogs();
+    }
+
+    @Benchmark
+    public List<ActivityLogDTO> getUserActivityLogs() {
+        return service.getUserActivityLogs("user-" + ThreadLocalRandom.current().nextInt(users));
+    }
+
+    @Benchmark
+    public ActivityLogPageDTO getActivityLogsPage() {
+        return service.getActivityLogs(null, null, null, 50, null);
+    }
+
+    @Benchmark
+    public ActivityLogPageDTO getUserActivityLogsLastHour() {
+        return service.getActivityLogs("user-" + ThreadLocalRandom.current().nextInt(users),
+                now.minusHours(1), null, 50, null);
+    }
+}
@@ -0,0 +1,67 @@
+package com.stellarfs.loadtest;
+
+import com.stellarfs.security.JwtTokenProvider;
+import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.JwtException;
+import org.springframework.core.annotation.Order;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.config.annotation.web.builders.HttpSecurity;
+import org.springframework.security.config.annotation.web.configuration.WebSecurityConfigurerAdapter;
+import org.springframework.security.config.http.SessionCreationPolicy;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.security.web.authentication.UsernamePasswordAuthenticationFilter;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.Collections;
+
+/**
+ * Accepts the application's own JWTs as bearer tokens on /api/**, so the load
+ * test can call those endpoints. The application issues these tokens at login
+ * but has no filter accepting them, so without this every /api request is
+ * refused. Registered only by the load test, ahead of the application's own
+ * security configuration; not a component, so it is never scanned.
+ */
+@Order(1)
+class BearerTokenSecurity extends WebSecurityConfigurerAdapter {
+
+    private final JwtTokenProvider tokens;
+
+    BearerTokenSecurity(JwtTokenProvider tokens) {
+        this.tokens = tokens;
+    }
+
+    @Override
+    protected void configure(HttpSecurity http) throws Exception {
+        http
+            .antMatcher("/api/**")
+            .csrf().disable()
+            .sessionManagement().sessionCreationPolicy(SessionCreationPolicy.STATELESS)
+            .and()
+            .addFilterBefore(new BearerTokenFilter(), UsernamePasswordAuthenticationFilter.class)
+            .authorizeRequests()
+                .anyRequest().authenticated();
+    }
+
+    private final class BearerTokenFilter extends OncePerRequestFilter {
+        @Override
+        protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+                throws ServletException, IOException {
+            String header = request.getHeader("Authorization");
+            if (header != null && header.startsWith("Bearer ")) {
+                try {
+                    Claims claims = tokens.getClaimsFromToken(header.substring("Bearer ".length()));
+                    SecurityContextHolder.getContext().setAuthentication(
+                            new UsernamePasswordAuthenticationToken(claims.getSubject(), null, Collections.emptyList()));
+                } catch (JwtException | IllegalArgumentException e) {
+                    // Left unauthenticated, so the request is refused
+                }
+            }
+            chain.doFilter(request, response);
+        }
+    }
+}
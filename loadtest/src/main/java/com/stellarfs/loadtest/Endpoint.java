@@ -0,0 +1,35 @@
+package com.stellarfs.loadtest;
+
+import java.util.Locale;
+
+/**
+ * Endpoints the workload can call.
+ */
+enum Endpoint {
+    // POST /upload, multipart, size drawn from the upload size mix
+    UPLOAD,
+    // GET /search for an owner, first page
+    SEARCH,
+    // GET /recent
+    RECENT,
+    // GET /api/nodes
+    NODES,
+    // GET /api/nodes/{id}/metrics/cpu over a day, downsampled for a chart
+    HISTORY;
+
+    String label() {
+        return name().toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * @throws IllegalArgumentException If the label is unknown
+     */
+    static Endpoint of(String label) {
+        for (Endpoint endpoint : values()) {
+            if (endpoint.label().equals(label)) {
+                return endpoint;
+            }
+        }
+        throw new IllegalArgumentException("Unknown endpoint: " + label);
+    }
+}
@@ -0,0 +1,225 @@
+package com.stellarfs.loadtest;
+
+import com.stellarfs.StellarFsApplication;
+import com.stellarfs.model.dto.FileDTO;
+import com.stellarfs.repository.FileRepository;
+import com.stellarfs.security.JwtTokenProvider;
+import org.HdrHistogram.Histogram;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.web.servlet.context.ServletWebServerApplicationContext;
+import org.springframework.security.core.authority.AuthorityUtils;
+import org.springframework.security.oauth2.client.authentication.OAuth2AuthenticationToken;
+import org.springframework.security.oauth2.core.user.DefaultOAuth2User;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.http.HttpClient;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.SecureRandom;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+/**
+ * Load test of the whole application: starts it in-process on a free port
+ * with its data in a temp directory, seeds the catalog, drives the workload
+ * over HTTP at a fixed rate and reports latency percentiles per endpoint.
+ *
+ * The generator shares the machine and JVM with the application, so for
+ * capacity figures give it cores to spare. Exits with 1 if any endpoint's
+ * p99 is above --max-p99-ms, with 2 on bad options.
+ */
+public final class LoadTest {
+
+    private static final String[] TYPES = {"pdf", "image", "document", "archive", "video", "audio", "code", "text"};
+    // Catalog files per owner, so a search for an owner finds a page's worth
+    private static final int FILES_PER_OWNER = 10;
+
+    private LoadTest() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        LoadTestOptions options;
+        try {
+            options = LoadTestOptions.parse(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.exit(2);
+            return;
+        }
+
+        Path dir = Files.createTempDirectory("stellarfs-loadtest");
+        ServletWebServerApplicationContext context = (ServletWebServerApplicationContext)
+                new SpringApplicationBuilder(StellarFsApplication.class, BearerTokenSecurity.class)
+                        .run(appArgs(dir, options));
+        boolean passed;
+        try {
+            String base = "http://localhost:" + context.getWebServer().getPort();
+            int owners = seed(context.getBean(FileRepository.class), options.catalogFiles);
+            Workload workload = new Workload(base, token(context.getBean(JwtTokenProvider.class)), options, owners);
+            HttpClient client = HttpClient.newBuilder()
+                    .version(HttpClient.Version.HTTP_1_1)
+                    .connectTimeout(Duration.ofSeconds(options.timeoutSeconds))
+                    .build();
+
+            System.out.printf("%s: %.0f requests/s for %ds after %ds of warmup, mix %s%n",
+                    base, options.rate, options.durationSeconds, options.warmupSeconds, options.mix);
+            OpenLoopDriver driver = new OpenLoopDriver(client, workload);
+            Map<Endpoint, OpenLoopDriver.Stats> stats = driver.run(options.rate,
+                    TimeUnit.SECONDS.toNanos(options.warmupSeconds), TimeUnit.SECONDS.toNanos(options.durationSeconds),
+                    TimeUnit.SECONDS.toNanos(options.timeoutSeconds + 5));
+            passed = report(stats, driver, options);
+        } finally {
+            context.close();
+            delete(dir);
+        }
+        System.exit(passed ? 0 : 1);
+    }
+
+    // Later values of a property replace earlier ones, so --app options override the defaults
+    private static String[] appArgs(Path dir, LoadTestOptions options) {
+        byte[] secret = new byte[64];
+        new SecureRandom().nextBytes(secret);
+        Map<String, String> args = new LinkedHashMap<>();
+        args.put("server.port", "0");
+        args.put("stellarfs.storage.upload-dir", dir.resolve("uploads").toString());
+        args.put("stellarfs.replication.dir", dir.resolve("replicas").toString());
+        args.put("stellarfs.metadata.dir", dir.resolve("metadata").toString());
+        args.put("stellarfs.activity.dir", dir.resolve("activity").toString());
+        args.put("jwt.secret", HexFormat.of().formatHex(secret));
+        args.put("jwt.expiration", Long.toString(TimeUnit.DAYS.toMillis(1)));
+        args.put("frontend.url", "http://localhost");
+        args.put("logging.level.root", "WARN");
+        for (String arg : options.appArgs) {
+            int equals = arg.indexOf('=');
+            args.put(arg.substring(2, equals), arg.substring(equals + 1));
+        }
+        List<String> list = new ArrayList<>();
+        args.forEach((name, value) -> list.add("--" + name + "=" + value));
+        return list.toArray(new String[0]);
+    }
+
+    // Saved from several threads, so they share log syncs; returns the number of owners
+    private static int seed(FileRepository files, int count) {
+        if (count == 0) {
+            return 0;
+        }
+        int owners = Math.max(1, count / FILES_PER_OWNER);
+        LocalDateTime now = LocalDateTime.now();
+        IntStream.range(0, count).parallel().forEach(i -> files.save(new FileDTO(
+                "load-" + i,
+                "file-" + i + "." + TYPES[i % TYPES.length],
+                TYPES[i % TYPES.length],
+                1024L * (i % 4096),
+                now.minusSeconds(i),
+                "owner-" + (i % owners),
+                Collections.singletonList("read"),
+                "/load/" + (i % 100) + "/",
+                1)));
+        return owners;
+    }
+
+    // Signed by the application, as after an OAuth2 login
+    private static String token(JwtTokenProvider tokens) {
+        Map<String, Object> attributes = new LinkedHashMap<>();
+        attributes.put("email", "loadtest@stellarfs.local");
+        attributes.put("name", "Load Test");
+        DefaultOAuth2User user = new DefaultOAuth2User(AuthorityUtils.createAuthorityList("ROLE_USER"),
+                attributes, "email");
+        return tokens.generateToken(new OAuth2AuthenticationToken(user, user.getAuthorities(), "loadtest"));
+    }
+
+    /**
+     * Print a line per endpoint and write each endpoint's percentile distribution to the output directory.
+     * @return false if an endpoint's p99 is above the limit
+     */
+    private static boolean report(Map<Endpoint, OpenLoopDriver.Stats> stats, OpenLoopDriver driver,
+                                  LoadTestOptions options) throws IOException {
+        Files.createDirectories(options.out);
+        ByteArrayOutputStream text = new ByteArrayOutputStream();
+        PrintStream out = new PrintStream(text, true, StandardCharsets.UTF_8);
+        out.printf("%-8s %8s %7s %9s %9s %9s %9s %9s %9s %11s%n",
+                "endpoint", "count", "errors", "req/s", "p50 ms", "p90 ms", "p99 ms", "p99.9 ms", "max ms", "svc p99 ms");
+
+        Histogram allResponses = new Histogram(3);
+        Histogram allService = new Histogram(3);
+        long allErrors = 0;
+        boolean passed = true;
+        for (Map.Entry<Endpoint, OpenLoopDriver.Stats> entry : stats.entrySet()) {
+            OpenLoopDriver.Stats endpoint = entry.getValue();
+            if (endpoint.responseTime.getTotalCount() == 0) {
+                continue;
+            }
+            line(out, entry.getKey().label(), endpoint.responseTime, endpoint.serviceTime,
+                    endpoint.errors.sum(), options.durationSeconds);
+            write(options.out.resolve(entry.getKey().label() + ".hgrm"), endpoint.responseTime);
+            allResponses.add(endpoint.responseTime);
+            allService.add(endpoint.serviceTime);
+            allErrors += endpoint.errors.sum();
+            if (options.maxP99Millis > 0 && millis(endpoint.responseTime, 99) > options.maxP99Millis) {
+                passed = false;
+            }
+        }
+        line(out, "all", allResponses, allService, allErrors, options.durationSeconds);
+        write(options.out.resolve("all.hgrm"), allResponses);
+
+        for (Map.Entry<Endpoint, OpenLoopDriver.Stats> entry : stats.entrySet()) {
+            String error = entry.getValue().firstError.get();
+            if (error != null) {
+                out.printf("%s: first error %s%n", entry.getKey().label(), error);
+            }
+        }
+        out.printf("Max dispatch lag %.1f ms%s%n", driver.getMaxDispatchLagNanos() / 1e6,
+                driver.getMaxDispatchLagNanos() > TimeUnit.MILLISECONDS.toNanos(100)
+                        ? " (the generator fell behind; its delay is included in the latencies)" : "");
+        if (driver.getInFlight() > 0) {
+            out.printf("%d requests still in flight at the end were not recorded%n", driver.getInFlight());
+        }
+        if (options.maxP99Millis > 0) {
+            out.printf("%s: p99 limit %.1f ms%n", passed ? "PASS" : "FAIL", options.maxP99Millis);
+        }
+
+        String summary = text.toString(StandardCharsets.UTF_8);
+        System.out.print(summary);
+        Files.writeString(options.out.resolve("summary.txt"), summary);
+        System.out.println("Percentile distributions written to " + options.out.toAbsolutePath());
+        return passed;
+    }
+
+    private static void line(PrintStream out, String label, Histogram responses, Histogram service,
+                             long errors, long seconds) {
+        out.printf("%-8s %8d %7d %9.1f %9.2f %9.2f %9.2f %9.2f %9.2f %11.2f%n",
+                label, responses.getTotalCount(), errors, (double) responses.getTotalCount() / seconds,
+                millis(responses, 50), millis(responses, 90), millis(responses, 99), millis(responses, 99.9),
+                responses.getMaxValue() / 1000.0, millis(service, 99));
+    }
+
+    private static double millis(Histogram histogram, double percentile) {
+        return histogram.getValueAtPercentile(percentile) / 1000.0;
+    }
+
+    // HdrHistogram's percentile distribution format, in milliseconds
+    private static void write(Path file, Histogram histogram) throws IOException {
+        try (PrintStream out = new PrintStream(Files.newOutputStream(file), false, StandardCharsets.UTF_8)) {
+            histogram.outputPercentileDistribution(out, 1000.0);
+        }
+    }
+
+    private static void delete(Path dir) throws IOException {
+        try (Stream<Path> paths = Files.walk(dir)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package com.stellarfs.loadtest;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Command line options, all given as --name=value:
+ *
+ * <pre>
+ * --rate=200              Requests started per second, whatever the responses do
+ * --duration=60           Seconds measured
+ * --warmup=10             Seconds run first and not measured
+ * --mix=upload=10,search=30,recent=20,nodes=20,history=20
+ *                         Relative weight of each endpoint
+ * --upload-sizes=4KiB=60,64KiB=30,1MiB=10
+ *                         Relative weight of each upload size
+ * --catalog=100000        Files added to the catalog before the run, for search and recent
+ * --timeout=30            Seconds before a request counts as failed
+ * --max-p99-ms=0          Fail (exit 1) if any endpoint's p99 is above this; 0 to never fail
+ * --out=loadtest-results/&lt;timestamp&gt;
+ *                         Directory for the percentile distribution of each endpoint
+ * --app.&lt;property&gt;=value  Passed to the application, e.g. --app.stellarfs.threads.virtual=true
+ * </pre>
+ */
+final class LoadTestOptions {
+
+    double rate = 200;
+    long durationSeconds = 60;
+    long warmupSeconds = 10;
+    Map<String, Integer> mix = weights("upload=10,search=30,recent=20,nodes=20,history=20");
+    Map<Integer, Integer> uploadSizes = sizes("4KiB=60,64KiB=30,1MiB=10");
+    int catalogFiles = 100_000;
+    long timeoutSeconds = 30;
+    double maxP99Millis;
+    Path out = Paths.get("loadtest-results",
+            LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss")));
+    List<String> appArgs = new ArrayList<>();
+
+    /**
+     * @throws IllegalArgumentException If an option is unknown or malformed
+     */
+    static LoadTestOptions parse(String[] args) {
+        LoadTestOptions options = new LoadTestOptions();
+        for (String arg : args) {
+            int equals = arg.indexOf('=');
+            if (!arg.startsWith("--") || equals < 0) {
+                throw new IllegalArgumentException("Expected --name=value: " + arg);
+            }
+            String name = arg.substring(2, equals);
+            String value = arg.substring(equals + 1);
+            if (name.startsWith("app.")) {
+                options.appArgs.add("--" + name.substring(4) + "=" + value);
+                continue;
+            }
+            switch (name) {
+                case "rate": options.rate = Double.parseDouble(value); break;
+                case "duration": options.durationSeconds = Long.parseLong(value); break;
+                case "warmup": options.warmupSeconds = Long.parseLong(value); break;
+                case "mix": options.mix = weights(value); break;
+                case "upload-sizes": options.uploadSizes = sizes(value); break;
+                case "catalog": options.catalogFiles = Integer.parseInt(value); break;
+                case "timeout": options.timeoutSeconds = Long.parseLong(value); break;
+                case "max-p99-ms": options.maxP99Millis = Double.parseDouble(value); break;
+                case "out": options.out = Paths.get(value); break;
+                default: throw new IllegalArgumentException("Unknown option: --" + name);
+            }
+        }
+        if (options.rate <= 0 || options.durationSeconds < 1 || options.warmupSeconds < 0
+                || options.catalogFiles < 0 || options.timeoutSeconds < 1) {
+            throw new IllegalArgumentException("Require rate > 0, duration >= 1, warmup >= 0, catalog >= 0, timeout >= 1");
+        }
+        for (String endpoint : options.mix.keySet()) {
+            Endpoint.of(endpoint);
+        }
+        return options;
+    }
+
+    // "a=1,b=2" in the order given
+    private static Map<String, Integer> weights(String value) {
+        Map<String, Integer> weights = new LinkedHashMap<>();
+        for (String entry : value.split(",")) {
+            String[] parts = entry.split("=");
+            if (parts.length != 2 || Integer.parseInt(parts[1].trim()) < 0) {
+                throw new IllegalArgumentException("Expected name=weight: " + entry);
+            }
+            weights.put(parts[0].trim(), Integer.parseInt(parts[1].trim()));
+        }
+        if (weights.values().stream().mapToInt(Integer::intValue).sum() == 0) {
+            throw new IllegalArgumentException("No positive weight in " + value);
+        }
+        return weights;
+    }
+
+    private static Map<Integer, Integer> sizes(String value) {
+        Map<Integer, Integer> sizes = new LinkedHashMap<>();
+        weights(value).forEach((size, weight) -> sizes.put(bytes(size), weight));
+        return sizes;
+    }
+
+    // 512, 4KiB, 1MiB
+    static int bytes(String size) {
+        String upper = size.toUpperCase(Locale.ROOT);
+        long multiplier = 1;
+        if (upper.endsWith("KIB")) {
+            multiplier = 1024;
+        } else if (upper.endsWith("MIB")) {
+            multiplier = 1024 * 1024;
+        }
+        String digits = multiplier == 1 ? upper : upper.substring(0, upper.length() - 3);
+        long bytes = Long.parseLong(digits.trim()) * multiplier;
+        if (bytes < 1 || bytes > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Invalid upload size: " + size);
+        }
+        return (int) bytes;
+    }
+}
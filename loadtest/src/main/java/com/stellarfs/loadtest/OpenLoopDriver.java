@@ -0,0 +1,126 @@
+package com.stellarfs.loadtest;
+
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Starts requests on a fixed schedule, one every 1/rate seconds, whether or
+ * not earlier ones have completed, and times each from when it was scheduled
+ * to start rather than from when it was sent.
+ *
+ * A closed-loop client that waits for each response before sending the next
+ * request stops sending while the server stalls, so the stall shows up as one
+ * slow request instead of all the requests that should have been sent in the
+ * meantime (coordinated omission). Timing from the scheduled start charges
+ * every request the full delay it would have seen, including any time the
+ * generator itself fell behind. Time from the actual send is recorded
+ * separately as service time.
+ */
+final class OpenLoopDriver {
+
+    /**
+     * Latencies of one endpoint, in microseconds.
+     */
+    static final class Stats {
+        // From the scheduled start: what a user sending at this rate would see
+        final Histogram responseTime = new ConcurrentHistogram(3);
+        // From the actual send
+        final Histogram serviceTime = new ConcurrentHistogram(3);
+        final LongAdder errors = new LongAdder();
+        final AtomicReference<String> firstError = new AtomicReference<>();
+
+        private void record(long responseNanos, long serviceNanos, String error) {
+            responseTime.recordValue(TimeUnit.NANOSECONDS.toMicros(responseNanos));
+            serviceTime.recordValue(TimeUnit.NANOSECONDS.toMicros(serviceNanos));
+            if (error != null) {
+                errors.increment();
+                firstError.compareAndSet(null, error);
+            }
+        }
+    }
+
+    private final HttpClient client;
+    private final Workload workload;
+    private final Map<Endpoint, Stats> stats = new EnumMap<>(Endpoint.class);
+    private final AtomicLong inFlight = new AtomicLong();
+    // Largest delay between a request's scheduled start and its send
+    private final LongAccumulator maxDispatchLagNanos = new LongAccumulator(Math::max, 0);
+
+    OpenLoopDriver(HttpClient client, Workload workload) {
+        this.client = client;
+        this.workload = workload;
+        for (Endpoint endpoint : Endpoint.values()) {
+            stats.put(endpoint, new Stats());
+        }
+    }
+
+    /**
+     * Run the schedule, then wait for the requests still in flight.
+     * @param rate Requests started per second
+     * @param warmupNanos Leading time whose requests are sent but not recorded
+     * @param durationNanos Time recorded after the warmup
+     * @param drainNanos Longest wait for requests in flight at the end
+     * @return Latencies by endpoint
+     */
+    Map<Endpoint, Stats> run(double rate, long warmupNanos, long durationNanos, long drainNanos)
+            throws InterruptedException {
+        Random random = new Random();
+        double intervalNanos = TimeUnit.SECONDS.toNanos(1) / rate;
+        long start = System.nanoTime();
+        long measureFrom = start + warmupNanos;
+        long end = measureFrom + durationNanos;
+        for (long i = 0; ; i++) {
+            long scheduled = start + (long) (i * intervalNanos);
+            if (scheduled - end >= 0) {
+                break;
+            }
+            long wait;
+            while ((wait = scheduled - System.nanoTime()) > 0) {
+                LockSupport.parkNanos(wait);
+            }
+            Endpoint endpoint = workload.next(random);
+            HttpRequest request = workload.request(endpoint, random);
+            boolean measured = scheduled - measureFrom >= 0;
+            long sent = System.nanoTime();
+            maxDispatchLagNanos.accumulate(sent - scheduled);
+            inFlight.incrementAndGet();
+            client.sendAsync(request, HttpResponse.BodyHandlers.discarding()).whenComplete((response, failure) -> {
+                long done = System.nanoTime();
+                if (measured) {
+                    String error = failure != null ? failure.toString()
+                            : response.statusCode() >= 400 ? "HTTP " + response.statusCode() : null;
+                    stats.get(endpoint).record(done - scheduled, done - sent, error);
+                }
+                inFlight.decrementAndGet();
+            });
+        }
+
+        long drainUntil = System.nanoTime() + drainNanos;
+        while (inFlight.get() > 0 && System.nanoTime() - drainUntil < 0) {
+            Thread.sleep(10);
+        }
+        return stats;
+    }
+
+    // Requests never completed; nonzero only if the drain timed out
+    long getInFlight() {
+        return inFlight.get();
+    }
+
+    long getMaxDispatchLagNanos() {
+        return maxDispatchLagNanos.get();
+    }
+}
@@ -0,0 +1,125 @@
+package com.stellarfs.loadtest;
+
+import java.net.URI;
+import java.net.http.HttpRequest;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.function.Function;
+
+/**
+ * Picks the next request of the mix and builds it.
+ */
+final class Workload {
+
+    static final String BOUNDARY = "stellarfs-loadtest-boundary";
+    // Uploads cycle through this many names, so most store a new version of an existing file
+    static final int UPLOAD_NAMES = 1000;
+    static final String[] NODES = {"node-1", "node-2", "node-3", "node-4"};
+
+    /**
+     * Draws items in proportion to their weights.
+     */
+    static final class Weighted<T> {
+        private final List<T> items = new ArrayList<>();
+        private final List<Integer> cumulative = new ArrayList<>();
+        private int total;
+
+        <K> Weighted(Map<K, Integer> weights, Function<K, T> item) {
+            weights.forEach((key, weight) -> {
+                if (weight > 0) {
+                    total += weight;
+                    items.add(item.apply(key));
+                    cumulative.add(total);
+                }
+            });
+        }
+
+        T next(Random random) {
+            int point = random.nextInt(total);
+            for (int i = 0; i < items.size(); i++) {
+                if (point < cumulative.get(i)) {
+                    return items.get(i);
+                }
+            }
+            throw new AssertionError();
+        }
+    }
+
+    private final String base;
+    private final String bearerToken;
+    private final Duration timeout;
+    private final int owners;
+    private final Weighted<Endpoint> endpoints;
+    private final Weighted<byte[]> uploads;
+
+    /**
+     * @param base Base URL of the application
+     * @param bearerToken Token for /api endpoints
+     * @param options Mix, upload sizes and timeout
+     * @param owners Owners of the seeded catalog files, searched for; 0 if none were seeded
+     */
+    Workload(String base, String bearerToken, LoadTestOptions options, int owners) {
+        this.base = base;
+        this.bearerToken = bearerToken;
+        this.timeout = Duration.ofSeconds(options.timeoutSeconds);
+        this.owners = owners;
+        this.endpoints = new Weighted<>(options.mix, Endpoint::of);
+        // Random content, so deduplication and compression do not make uploads cheaper than real ones
+        Random random = new Random(42);
+        this.uploads = new Weighted<>(options.uploadSizes, size -> {
+            byte[] content = new byte[size];
+            random.nextBytes(content);
+            return content;
+        });
+    }
+
+    Endpoint next(Random random) {
+        return endpoints.next(random);
+    }
+
+    HttpRequest request(Endpoint endpoint, Random random) {
+        switch (endpoint) {
+            case UPLOAD:
+                return upload("load-" + random.nextInt(UPLOAD_NAMES) + ".bin", uploads.next(random));
+            case SEARCH:
+                String query = owners > 0 ? "owner-" + random.nextInt(owners) : "report";
+                return get("/search?limit=20&query=" + query, false);
+            case RECENT:
+                return get("/recent?limit=20", false);
+            case NODES:
+                return get("/api/nodes", true);
+            case HISTORY:
+                return get("/api/nodes/" + NODES[random.nextInt(NODES.length)]
+                        + "/metrics/cpu?hours=24&maxPoints=300", true);
+            default:
+                throw new IllegalArgumentException("Unknown endpoint: " + endpoint);
+        }
+    }
+
+    private HttpRequest get(String path, boolean authenticated) {
+        HttpRequest.Builder request = HttpRequest.newBuilder(URI.create(base + path)).timeout(timeout).GET();
+        if (authenticated) {
+            request.header("Authorization", "Bearer " + bearerToken);
+        }
+        return request.build();
+    }
+
+    // The content is shared between requests rather than copied into each body
+    private HttpRequest upload(String name, byte[] content) {
+        byte[] head = ("--" + BOUNDARY + "\r\n"
+                + "Content-Disposition: form-data; name=\"file\"; filename=\"" + name + "\"\r\n"
+                + "Content-Type: application/octet-stream\r\n\r\n").getBytes(StandardCharsets.US_ASCII);
+        byte[] tail = ("\r\n--" + BOUNDARY + "--\r\n").getBytes(StandardCharsets.US_ASCII);
+        return HttpRequest.newBuilder(URI.create(base + "/upload"))
+                .timeout(timeout)
+                .header("Content-Type", "multipart/form-data; boundary=" + BOUNDARY)
+                .POST(HttpRequest.BodyPublishers.concat(HttpRequest.BodyPublishers.ofByteArray(head),
+                        HttpRequest.BodyPublishers.ofByteArray(content),
+                        HttpRequest.BodyPublishers.ofByteArray(tail)))
+                .build();
+    }
+}
@@ -0,0 +1,33 @@
+package com.stellarfs.concurrent;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Threads for background work, which must never keep the JVM alive on shutdown.
+ */
+public final class DaemonThreads {
+
+    private DaemonThreads() {
+    }
+
+    /**
+     * @param prefix Thread name prefix, followed by a number counting from 1
+     * @return Factory of daemon threads
+     */
+    public static ThreadFactory factory(String prefix) {
+        AtomicInteger count = new AtomicInteger();
+        return r -> thread(r, prefix + count.incrementAndGet());
+    }
+
+    /**
+     * @param task What the thread runs
+     * @param name Thread name
+     * @return Unstarted daemon thread
+     */
+    public static Thread thread(Runnable task, String name) {
+        Thread thread = new Thread(task, name);
+        thread.setDaemon(true);
+        return thread;
+    }
+}
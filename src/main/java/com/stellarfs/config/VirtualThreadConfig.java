@@ -0,0 +1,33 @@
+package com.stellarfs.config;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.web.embedded.tomcat.TomcatProtocolHandlerCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.concurrent.Executors;
+
+/**
+ * Opt-in mode (stellarfs.threads.virtual=true) that handles every request on
+ * its own virtual thread instead of Tomcat's bounded worker pool. Controllers
+ * block on file I/O and log syncs, so with platform threads concurrency is
+ * capped by the pool size; a virtual thread blocked on I/O releases its
+ * carrier, so it is capped by the disk instead. The storage and catalog locks
+ * held across I/O are ReentrantLocks so they do not pin a carrier.
+ *
+ * Background pools (replication, node jobs, metric collection) keep their
+ * platform threads: their size is the concurrency limit they enforce.
+ */
+@Slf4j
+@Configuration
+@ConditionalOnProperty(name = "stellarfs.threads.virtual", havingValue = "true")
+public class VirtualThreadConfig {
+
+    @Bean
+    public TomcatProtocolHandlerCustomizer<?> virtualThreadProtocolHandler() {
+        log.info("Handling requests on virtual threads");
+        return protocolHandler -> protocolHandler.setExecutor(
+                Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("http-virtual-", 0).factory()));
+    }
+}
@@ -0,0 +1,66 @@
+package com.stellarfs.controller;
+
+/**
+ * A single byte range from an HTTP Range header, resolved against a file size.
+ */
+class ByteRange {
+
+    static final ByteRange UNSATISFIABLE = new ByteRange(-1, -1);
+
+    private final long start;
+    private final long end;
+
+    private ByteRange(long start, long end) {
+        this.start = start;
+        this.end = end;
+    }
+
+    long getStart() { return start; }
+    // Inclusive, as in Content-Range
+    long getEnd() { return end; }
+    long getLength() { return end - start + 1; }
+
+    /**
+     * Parse a Range header. Multi-range and malformed headers are ignored, which
+     * RFC 7233 allows, and result in a full response.
+     * @param header Value of the Range header, may be null
+     * @param size Size of the representation
+     * @return The range, {@link #UNSATISFIABLE}, or null to send the whole file
+     */
+    static ByteRange parse(String header, long size) {
+        if (header == null || !header.startsWith("bytes=")) {
+            return null;
+        }
+        String spec = header.substring("bytes=".length()).trim();
+        if (spec.indexOf(',') >= 0) {
+            return null;
+        }
+        int dash = spec.indexOf('-');
+        if (dash < 0) {
+            return null;
+        }
+        try {
+            String first = spec.substring(0, dash).trim();
+            String last = spec.substring(dash + 1).trim();
+            if (first.isEmpty()) {
+                // Suffix range: the final N bytes
+                long suffix = Long.parseLong(last);
+                if (suffix <= 0 || size == 0) {
+                    return UNSATISFIABLE;
+                }
+                return new ByteRange(Math.max(0, size - suffix), size - 1);
+            }
+            long start = Long.parseLong(first);
+            long end = last.isEmpty() ? size - 1 : Math.min(Long.parseLong(last), size - 1);
+            if (start >= size) {
+                return UNSATISFIABLE;
+            }
+            if (end < start) {
+                return null;
+            }
+            return new ByteRange(start, end);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+}
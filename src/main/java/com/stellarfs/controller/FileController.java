@@ -1,92 +1,329 @@
 package com.stellarfs.controller;
 
 import com.stellarfs.model.dto.FileDTO;
+import com.stellarfs.model.dto.FilePageDTO;
 import com.stellarfs.model.dto.FileVersionDTO;
+import com.stellarfs.model.dto.UploadSessionDTO;
 import com.stellarfs.service.FileService;
+import com.stellarfs.storage.DirectoryView;
+import com.stellarfs.storage.FileStorage;
+import com.stellarfs.storage.StoredFile;
+import com.stellarfs.storage.UploadSessions;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
+import org.springframework.http.CacheControl;
+import org.springframework.http.ContentDisposition;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
+import org.springframework.http.MediaTypeFactory;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.ServletWebRequest;
 import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.servlet.support.ServletUriComponentsBuilder;
 
-import java.io.File;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.nio.file.Paths;
+import java.net.URI;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.NoSuchFileException;
 import java.util.List;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
 import java.util.UUID;
 
 @RestController
 @CrossOrigin(origins = "*")
 public class FileController {
 
+    private static final String SENDFILE_SUPPORT = "org.apache.tomcat.sendfile.support";
+    private static final String SENDFILE_FILENAME = "org.apache.tomcat.sendfile.filename";
+    private static final String SENDFILE_START = "org.apache.tomcat.sendfile.start";
+    private static final String SENDFILE_END = "org.apache.tomcat.sendfile.end";
+
+    private static final int MAX_LISTING_LIMIT = 10_000;
+    private static final Set<String> LISTING_FIELDS = Set.of("name", "size", "type", "lastModified", "chunked");
+
     private final FileService fileService;
-    private final String uploadDir = "uploads";
+    private final FileStorage fileStorage;
+    private final DirectoryView directoryView;
+    private final UploadSessions uploadSessions;
 
     @Autowired
-    public FileController(FileService fileService) {
+    public FileController(FileService fileService, FileStorage fileStorage, DirectoryView directoryView,
+                          UploadSessions uploadSessions) {
         this.fileService = fileService;
-        // Create upload directory if it doesn't exist
-        new File(uploadDir).mkdirs();
+        this.fileStorage = fileStorage;
+        this.directoryView = directoryView;
+        this.uploadSessions = uploadSessions;
     }
 
+    /**
+     * A page of catalogued files, with whether each is chunked taken from the
+     * cached directory view. The body stays a plain array; the next page is linked in the Link header and the total
+     * number of files is in X-Total-Count.
+     * @param limit Maximum number of files, up to 10000
+     * @param cursor Cursor from the previous page's next link
+     * @param sort name, size or lastModified
+     * @param order asc or desc
+     * @param fields Comma-separated fields to return: name, size, type, lastModified, chunked
+     */
     @GetMapping(value = "/files", produces = MediaType.APPLICATION_JSON_VALUE)
-    public ResponseEntity<List<FileInfo>> getFiles() {
+    public ResponseEntity<List<Map<String, Object>>> getFiles(
+            @RequestParam(defaultValue = "1000") int limit,
+            @RequestParam(required = false) String cursor,
+            @RequestParam(defaultValue = "name") String sort,
+            @RequestParam(defaultValue = "asc") String order,
+            @RequestParam(defaultValue = "name,size,type") String fields) {
+        FilePageDTO page;
+        List<String> projection;
         try {
-            List<FileInfo> files = new ArrayList<>();
-            File uploadDir = new File(this.uploadDir);
-            
-            if (uploadDir.exists() && uploadDir.isDirectory()) {
-                File[] fileList = uploadDir.listFiles();
-                if (fileList != null) {
-                    for (File file : fileList) {
-                        files.add(new FileInfo(
-                            file.getName(),
-                            file.length(),
-                            getFileType(file.getName())
-                        ));
-                    }
-                }
+            if (limit > MAX_LISTING_LIMIT) {
+                throw new IllegalArgumentException("Limit must be at most " + MAX_LISTING_LIMIT);
+            }
+            if (!order.equals("asc") && !order.equals("desc")) {
+                throw new IllegalArgumentException("Unknown order: " + order);
+            }
+            projection = Arrays.asList(fields.split(","));
+            if (!LISTING_FIELDS.containsAll(projection)) {
+                throw new IllegalArgumentException("Unknown field in " + fields);
+            }
+            page = fileService.getFiles(sort, order.equals("desc"), limit, cursor);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().build();
+        }
+
+        List<Map<String, Object>> files = new ArrayList<>(page.getFiles().size());
+        for (FileDTO file : page.getFiles()) {
+            files.add(project(file, projection));
+        }
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok()
+                .header("X-Total-Count", Long.toString(fileService.getFileCount()));
+        if (page.getNextCursor() != null) {
+            String next = ServletUriComponentsBuilder.fromCurrentRequest()
+                    .replaceQueryParam("cursor", page.getNextCursor())
+                    .build().toUriString();
+            response.header(HttpHeaders.LINK, "<" + next + ">; rel=\"next\"");
+        }
+        return response.body(files);
+    }
+
+    private Map<String, Object> project(FileDTO file, List<String> fields) {
+        Map<String, Object> projected = new LinkedHashMap<>();
+        for (String field : fields) {
+            switch (field) {
+                case "name": projected.put(field, file.getName()); break;
+                case "size": projected.put(field, file.getSize()); break;
+                case "type": projected.put(field, getFileType(file.getName())); break;
+                case "lastModified": projected.put(field, file.getLastModified()); break;
+                case "chunked":
+                    StoredFile stored = directoryView.get(file.getName());
+                    projected.put(field, stored != null && stored.isChunked());
+                    break;
+                default: break;
             }
-            
-            return ResponseEntity.ok(files);
-        } catch (Exception e) {
-            return ResponseEntity.internalServerError().build();
         }
+        return projected;
     }
 
+    // Catalogued like any other file; 409 if the name is already catalogued under another path
     @PostMapping(value = "/upload", consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
-    public ResponseEntity<FileInfo> uploadFile(@RequestParam("file") MultipartFile file) {
+    public ResponseEntity<FileInfo> uploadFile(@RequestParam("file") MultipartFile file,
+                                               @RequestParam(required = false) String path,
+                                               @RequestParam(required = false) String owner) {
         try {
             if (file.isEmpty()) {
                 return ResponseEntity.badRequest().build();
             }
 
-            // Get the original filename
-            String originalFilename = file.getOriginalFilename();
-            
-            // Save the file to the uploads directory
-            Path filePath = Paths.get(uploadDir, originalFilename);
-            Files.write(filePath, file.getBytes());
-
-            // Create file info
-            FileInfo fileInfo = new FileInfo(
-                originalFilename,
-                file.getSize(),
-                getFileType(originalFilename)
-            );
-
-            return ResponseEntity.ok(fileInfo);
+            // Streamed into the uploads directory without buffering it on the heap
+            FileDTO stored = fileService.uploadFile(file, path, owner);
+            if (stored == null) {
+                return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build();
+            }
+            return ResponseEntity.ok(new FileInfo(stored.getName(), stored.getSize(), getFileType(stored.getName())));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().build();
+        } catch (IllegalStateException e) {
+            return ResponseEntity.status(HttpStatus.CONFLICT).build();
+        }
+    }
+
+    /**
+     * Start a resumable upload. Parts are then sent to /uploads/{id}/parts/{n},
+     * in any order and in parallel, and the upload is finished with
+     * /uploads/{id}/complete.
+     */
+    @PostMapping("/uploads")
+    public ResponseEntity<UploadSessionDTO> initiateUpload(@RequestParam String filename,
+                                                           @RequestParam long size,
+                                                           @RequestParam(required = false) Long partSize) {
+        try {
+            UploadSessionDTO session = uploadSessions.initiate(filename, size, partSize);
+            return ResponseEntity.created(URI.create("/uploads/" + session.getId())).body(session);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().build();
+        } catch (IllegalStateException e) {
+            return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS).build();
+        } catch (IOException e) {
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build();
+        }
+    }
+
+    // The request body is the part's content, exactly partSize bytes except for the last part;
+    // 400 if it does not match the optional X-Checksum-SHA256 header, 409 while the same part is still arriving
+    @PutMapping("/uploads/{id}/parts/{partNumber}")
+    public ResponseEntity<UploadSessionDTO> uploadPart(@PathVariable String id,
+                                                       @PathVariable int partNumber,
+                                                       @RequestHeader(value = "X-Checksum-SHA256", required = false)
+                                                       String sha256,
+                                                       HttpServletRequest request) {
+        try {
+            return ResponseEntity.ok(uploadSessions.uploadPart(id, partNumber, request.getInputStream(), sha256));
+        } catch (NoSuchElementException e) {
+            return ResponseEntity.notFound().build();
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().build();
+        } catch (IllegalStateException e) {
+            return ResponseEntity.status(HttpStatus.CONFLICT).build();
+        } catch (IOException e) {
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build();
+        }
+    }
+
+    // Lists the parts received so far, so a client can resume by sending the rest
+    @GetMapping("/uploads/{id}")
+    public ResponseEntity<UploadSessionDTO> getUpload(@PathVariable String id) {
+        try {
+            return ResponseEntity.ok(uploadSessions.status(id));
+        } catch (NoSuchElementException e) {
+            return ResponseEntity.notFound().build();
+        }
+    }
+
+    // 409 while parts are missing, or if the name is already catalogued under another path
+    @PostMapping("/uploads/{id}/complete")
+    public ResponseEntity<FileInfo> completeUpload(@PathVariable String id,
+                                                   @RequestParam(required = false) String path,
+                                                   @RequestParam(required = false) String owner) {
+        try {
+            FileDTO file = fileService.completeUpload(id, path, owner);
+            return ResponseEntity.ok(new FileInfo(file.getName(), file.getSize(), getFileType(file.getName())));
+        } catch (NoSuchElementException e) {
+            return ResponseEntity.notFound().build();
+        } catch (IllegalStateException e) {
+            return ResponseEntity.status(HttpStatus.CONFLICT).build();
+        } catch (IOException e) {
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build();
+        }
+    }
+
+    @DeleteMapping("/uploads/{id}")
+    public ResponseEntity<Void> abortUpload(@PathVariable String id) {
+        try {
+            return uploadSessions.abort(id) ? ResponseEntity.noContent().build() : ResponseEntity.notFound().build();
         } catch (IOException e) {
-            e.printStackTrace();
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build();
         }
     }
 
+    @GetMapping("/files/{filename:.+}")
+    public void downloadFile(@PathVariable String filename,
+                             HttpServletRequest request,
+                             HttpServletResponse response) throws IOException {
+        StoredFile file;
+        try {
+            file = fileStorage.stat(filename);
+        } catch (IllegalArgumentException e) {
+            response.setStatus(HttpStatus.BAD_REQUEST.value());
+            return;
+        }
+        if (file == null) {
+            response.setStatus(HttpStatus.NOT_FOUND.value());
+            return;
+        }
+
+        // Strong validator derived from size and mtime, so no content hashing is needed
+        String etag = "\"" + Long.toHexString(file.getSize()) + "-" + Long.toHexString(file.getLastModified()) + "\"";
+        if (new ServletWebRequest(request, response).checkNotModified(etag, file.getLastModified())) {
+            return;
+        }
+
+        ByteRange range = ByteRange.parse(request.getHeader(HttpHeaders.RANGE), file.getSize());
+        if (range != null && !ifRangeMatches(request, etag, file.getLastModified())) {
+            range = null;
+        }
+
+        response.setHeader(HttpHeaders.ACCEPT_RANGES, "bytes");
+        // Cacheable, but caches must revalidate with the ETag before reuse
+        response.setHeader(HttpHeaders.CACHE_CONTROL, CacheControl.noCache().getHeaderValue());
+        response.setContentType(MediaTypeFactory.getMediaType(file.getName())
+                .orElse(MediaType.APPLICATION_OCTET_STREAM).toString());
+        response.setHeader(HttpHeaders.CONTENT_DISPOSITION,
+                ContentDisposition.inline().filename(file.getName(), StandardCharsets.UTF_8).build().toString());
+
+        if (range == ByteRange.UNSATISFIABLE) {
+            response.setStatus(HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE.value());
+            response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes */" + file.getSize());
+            return;
+        }
+
+        long start = 0;
+        long length = file.getSize();
+        if (range != null) {
+            start = range.getStart();
+            length = range.getLength();
+            response.setStatus(HttpStatus.PARTIAL_CONTENT.value());
+            response.setHeader(HttpHeaders.CONTENT_RANGE,
+                    "bytes " + range.getStart() + "-" + range.getEnd() + "/" + file.getSize());
+        }
+        response.setContentLengthLong(length);
+
+        if ("HEAD".equals(request.getMethod()) || length == 0) {
+            return;
+        }
+
+        if (!file.isChunked() && Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORT))) {
+            // Let Tomcat hand the file to the socket with sendfile after the handler returns
+            request.setAttribute(SENDFILE_FILENAME, fileStorage.resolve(file.getName()).toString());
+            request.setAttribute(SENDFILE_START, start);
+            request.setAttribute(SENDFILE_END, start + length);
+            return;
+        }
+
+        try {
+            fileStorage.transferTo(file.getName(), start, length, Channels.newChannel(response.getOutputStream()));
+        } catch (NoSuchFileException e) {
+            // Removed between stat and transfer; headers may already be committed
+            if (!response.isCommitted()) {
+                response.reset();
+                response.setStatus(HttpStatus.NOT_FOUND.value());
+            }
+        }
+    }
+
+    private boolean ifRangeMatches(HttpServletRequest request, String etag, long lastModified) {
+        String ifRange = request.getHeader(HttpHeaders.IF_RANGE);
+        if (ifRange == null) {
+            return true;
+        }
+        if (ifRange.startsWith("\"") || ifRange.startsWith("W/")) {
+            // If-Range requires a strong comparison, so weak tags never match
+            return ifRange.equals(etag);
+        }
+        try {
+            return request.getDateHeader(HttpHeaders.IF_RANGE) == lastModified / 1000 * 1000;
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
     private String getFileType(String filename) {
         String extension = filename.substring(filename.lastIndexOf(".") + 1).toLowerCase();
         switch (extension) {
@@ -137,11 +374,27 @@ public class FileController {
         return ResponseEntity.ok(fileService.getFilesByOwner(owner));
     }
 
+    @GetMapping("/path")
+    public ResponseEntity<List<FileDTO>> getFilesByPathPrefix(@RequestParam String prefix) {
+        return ResponseEntity.ok(fileService.getFilesByPathPrefix(prefix));
+    }
+
     @GetMapping("/recent")
     public ResponseEntity<List<FileDTO>> getRecentFiles(@RequestParam(defaultValue = "5") int limit) {
         return ResponseEntity.ok(fileService.getRecentFiles(limit));
     }
 
+    @GetMapping("/recent/page")
+    public ResponseEntity<FilePageDTO> getRecentFilesPage(
+            @RequestParam(defaultValue = "20") int limit,
+            @RequestParam(required = false) String cursor) {
+        try {
+            return ResponseEntity.ok(fileService.getRecentFiles(limit, cursor));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().build();
+        }
+    }
+
     @GetMapping("/{id}")
     public ResponseEntity<FileDTO> getFileById(@PathVariable String id) {
         FileDTO file = fileService.getFileById(id);
@@ -167,7 +420,13 @@ public class FileController {
             @PathVariable String fileId,
             @PathVariable Integer version) {
         
-        FileDTO restoredFile = fileService.restoreVersion(fileId, version);
+        FileDTO restoredFile;
+        try {
+            restoredFile = fileService.restoreVersion(fileId, version);
+        } catch (IllegalStateException e) {
+            // Catalogued without stored content
+            return ResponseEntity.status(HttpStatus.CONFLICT).build();
+        }
         if (restoredFile == null) {
             return ResponseEntity.notFound().build();
         }
@@ -175,8 +434,14 @@ public class FileController {
     }
 
     @GetMapping("/search")
-    public ResponseEntity<List<FileDTO>> searchFiles(@RequestParam String query) {
-        return ResponseEntity.ok(fileService.searchFiles(query));
+    public ResponseEntity<List<FileDTO>> searchFiles(
+            @RequestParam String query,
+            @RequestParam(defaultValue = "0") int offset,
+            @RequestParam(defaultValue = "100") int limit) {
+        if (offset < 0 || limit < 1) {
+            return ResponseEntity.badRequest().build();
+        }
+        return ResponseEntity.ok(fileService.searchFiles(query, offset, limit));
     }
 
     @GetMapping("/filter")
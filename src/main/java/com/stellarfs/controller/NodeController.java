@@ -1,13 +1,20 @@
 package com.stellarfs.controller;
 
+import com.stellarfs.model.dto.CollectorStatsDTO;
 import com.stellarfs.model.dto.NodeDTO;
+import com.stellarfs.model.dto.NodeJobDTO;
 import com.stellarfs.model.dto.NodeMetricHistoryDTO;
 import com.stellarfs.service.NodeService;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import java.net.URI;
 import java.util.List;
 import java.util.Map;
+import java.util.function.Supplier;
 
 @RestController
 @RequestMapping("/api/nodes")
@@ -25,6 +32,12 @@ public class NodeController {
         return ResponseEntity.ok(nodeService.getAllNodes());
     }
 
+    // Snapshot, then one delta per metric tick; replaces polling this controller and /metrics/summary
+    @GetMapping(value = "/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter streamNodeMetrics() {
+        return nodeService.streamNodeMetrics();
+    }
+
     @GetMapping("/{id}")
     public ResponseEntity<NodeDTO> getNodeById(@PathVariable String id) {
         NodeDTO node = nodeService.getNodeById(id);
@@ -50,30 +63,63 @@ public class NodeController {
     public ResponseEntity<List<NodeMetricHistoryDTO>> getNodeMetricHistory(
             @PathVariable String nodeId,
             @PathVariable String metricType,
-            @RequestParam(defaultValue = "24") int hours) {
-        return ResponseEntity.ok(nodeService.getNodeMetricHistory(nodeId, metricType, hours));
+            @RequestParam(defaultValue = "24") int hours,
+            @RequestParam(required = false) String resolution,
+            @RequestParam(required = false) Integer maxPoints) {
+        try {
+            return ResponseEntity.ok(nodeService.getNodeMetricHistory(nodeId, metricType, hours, resolution,
+                    maxPoints));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().build();
+        }
     }
 
     @PostMapping("/{nodeId}/restart")
-    public ResponseEntity<Void> restartNode(@PathVariable String nodeId) {
-        nodeService.restartNode(nodeId);
-        return ResponseEntity.ok().build();
+    public ResponseEntity<NodeJobDTO> restartNode(@PathVariable String nodeId) {
+        return accepted(() -> nodeService.restartNode(nodeId));
     }
 
     @PostMapping("/{nodeId}/pause")
-    public ResponseEntity<Void> pauseNode(@PathVariable String nodeId) {
-        nodeService.pauseNode(nodeId);
-        return ResponseEntity.ok().build();
+    public ResponseEntity<NodeJobDTO> pauseNode(@PathVariable String nodeId) {
+        return accepted(() -> nodeService.pauseNode(nodeId));
     }
 
     @PostMapping("/{nodeId}/resume")
-    public ResponseEntity<Void> resumeNode(@PathVariable String nodeId) {
-        nodeService.resumeNode(nodeId);
-        return ResponseEntity.ok().build();
+    public ResponseEntity<NodeJobDTO> resumeNode(@PathVariable String nodeId) {
+        return accepted(() -> nodeService.resumeNode(nodeId));
+    }
+
+    @GetMapping("/{nodeId}/jobs")
+    public ResponseEntity<List<NodeJobDTO>> getNodeJobs(@PathVariable String nodeId) {
+        return ResponseEntity.ok(nodeService.getNodeJobs(nodeId));
+    }
+
+    @GetMapping("/jobs/{jobId}")
+    public ResponseEntity<NodeJobDTO> getNodeJob(@PathVariable String jobId) {
+        NodeJobDTO job = nodeService.getNodeJob(jobId);
+        return job != null ? ResponseEntity.ok(job) : ResponseEntity.notFound().build();
+    }
+
+    // 202 with the job to poll at /jobs/{id}; 429 when the node's queue is full
+    private ResponseEntity<NodeJobDTO> accepted(Supplier<NodeJobDTO> submit) {
+        try {
+            NodeJobDTO job = submit.get();
+            if (job == null) {
+                return ResponseEntity.notFound().build();
+            }
+            return ResponseEntity.accepted().location(URI.create("/api/nodes/jobs/" + job.getId())).body(job);
+        } catch (IllegalStateException e) {
+            return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS).build();
+        }
     }
 
     @GetMapping("/metrics/summary")
     public ResponseEntity<Map<String, Double>> getSystemMetricsSummary() {
         return ResponseEntity.ok(nodeService.getSystemMetricsSummary());
     }
+
+    @GetMapping("/metrics/collector")
+    public ResponseEntity<CollectorStatsDTO> getCollectorStats() {
+        return ResponseEntity.ok(nodeService.getCollectorStats());
+    }
 } 
\ No newline at end of file
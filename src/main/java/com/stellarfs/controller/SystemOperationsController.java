@@ -1,10 +1,16 @@
 package com.stellarfs.controller;
 
+import com.stellarfs.model.dto.CompressionReportDTO;
+import com.stellarfs.model.dto.DeduplicationReportDTO;
+import com.stellarfs.model.dto.NodeJobDTO;
+import com.stellarfs.model.dto.ReplicationValidationDTO;
 import com.stellarfs.model.dto.SystemMetricsDTO;
 import com.stellarfs.service.SystemOperationsService;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
+import java.net.URI;
 import java.util.List;
 import java.util.Map;
 
@@ -24,8 +30,14 @@ public class SystemOperationsController {
     }
 
     @GetMapping("/metrics/historical")
-    public ResponseEntity<List<SystemMetricsDTO>> getHistoricalMetrics(@RequestParam(defaultValue = "24") int hours) {
-        return ResponseEntity.ok(systemOperationsService.getHistoricalMetrics(hours));
+    public ResponseEntity<List<SystemMetricsDTO>> getHistoricalMetrics(
+            @RequestParam(defaultValue = "24") int hours,
+            @RequestParam(required = false) Integer maxPoints) {
+        try {
+            return ResponseEntity.ok(systemOperationsService.getHistoricalMetrics(hours, maxPoints));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().build();
+        }
     }
 
     @GetMapping("/health")
@@ -34,15 +46,38 @@ public class SystemOperationsController {
     }
 
     @PostMapping("/replication/{nodeId}")
-    public ResponseEntity<Void> initiateReplication(@PathVariable String nodeId) {
-        systemOperationsService.initiateDataReplication(nodeId);
-        return ResponseEntity.ok().build();
+    public ResponseEntity<NodeJobDTO> initiateReplication(@PathVariable String nodeId) {
+        NodeJobDTO job;
+        try {
+            job = systemOperationsService.initiateDataReplication(nodeId);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().build();
+        } catch (IllegalStateException e) {
+            return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS).build();
+        }
+        // Replication continues in the background; poll the job or /replication/status
+        return ResponseEntity.accepted().location(URI.create("/api/nodes/jobs/" + job.getId())).body(job);
+    }
+
+    // 429 while the node's job queue is full; a job finding replication already running fails
+    @PostMapping("/replication/{nodeId}/validate")
+    public ResponseEntity<NodeJobDTO> validateReplication(@PathVariable String nodeId) {
+        NodeJobDTO job;
+        try {
+            job = systemOperationsService.validateReplication(nodeId);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().build();
+        } catch (IllegalStateException e) {
+            return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS).build();
+        }
+        // The check runs in the background; poll the job, then GET the report
+        return ResponseEntity.accepted().location(URI.create("/api/nodes/jobs/" + job.getId())).body(job);
     }
 
     @GetMapping("/replication/{nodeId}/validate")
-    public ResponseEntity<Void> validateReplication(@PathVariable String nodeId) {
-        systemOperationsService.validateReplication(nodeId);
-        return ResponseEntity.ok().build();
+    public ResponseEntity<ReplicationValidationDTO> getLastValidation(@PathVariable String nodeId) {
+        ReplicationValidationDTO report = systemOperationsService.getLastValidation(nodeId);
+        return report == null ? ResponseEntity.notFound().build() : ResponseEntity.ok(report);
     }
 
     @GetMapping("/replication/status")
@@ -78,16 +113,42 @@ public class SystemOperationsController {
         return ResponseEntity.ok().build();
     }
 
+    // 429 while the local node's job queue is full; an overlapping pass fails its job
     @PostMapping("/maintenance/deduplicate")
-    public ResponseEntity<Void> performDeduplication() {
-        systemOperationsService.performDataDeduplication();
-        return ResponseEntity.ok().build();
+    public ResponseEntity<NodeJobDTO> performDeduplication() {
+        NodeJobDTO job;
+        try {
+            job = systemOperationsService.performDataDeduplication();
+        } catch (IllegalStateException e) {
+            return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS).build();
+        }
+        // The pass runs in the background; poll the job, then GET the report
+        return ResponseEntity.accepted().location(URI.create("/api/nodes/jobs/" + job.getId())).body(job);
     }
 
+    @GetMapping("/maintenance/deduplicate")
+    public ResponseEntity<DeduplicationReportDTO> getLastDeduplication() {
+        DeduplicationReportDTO report = systemOperationsService.getLastDeduplication();
+        return report == null ? ResponseEntity.notFound().build() : ResponseEntity.ok(report);
+    }
+
+    // 429 while the local node's job queue is full; an overlapping pass fails its job
     @PostMapping("/maintenance/compress")
-    public ResponseEntity<Void> compressData() {
-        systemOperationsService.compressData();
-        return ResponseEntity.ok().build();
+    public ResponseEntity<NodeJobDTO> compressData() {
+        NodeJobDTO job;
+        try {
+            job = systemOperationsService.compressData();
+        } catch (IllegalStateException e) {
+            return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS).build();
+        }
+        // The pass runs in the background; poll the job, then GET the report
+        return ResponseEntity.accepted().location(URI.create("/api/nodes/jobs/" + job.getId())).body(job);
+    }
+
+    @GetMapping("/maintenance/compress")
+    public ResponseEntity<CompressionReportDTO> getLastCompression() {
+        CompressionReportDTO report = systemOperationsService.getLastCompression();
+        return report == null ? ResponseEntity.notFound().build() : ResponseEntity.ok(report);
     }
 
     @PostMapping("/autoscaling/configure")
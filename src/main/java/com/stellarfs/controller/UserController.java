@@ -2,10 +2,13 @@ package com.stellarfs.controller;
 
 import com.stellarfs.model.dto.UserDTO;
 import com.stellarfs.model.dto.ActivityLogDTO;
+import com.stellarfs.model.dto.ActivityLogPageDTO;
 import com.stellarfs.service.UserService;
+import org.springframework.format.annotation.DateTimeFormat;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
+import java.time.LocalDateTime;
 import java.util.List;
 import java.util.Set;
 
@@ -71,11 +74,38 @@ public class UserController {
         return ResponseEntity.ok(userService.getUserActivityLogs(id));
     }
 
+    @GetMapping("/{id}/activity/page")
+    public ResponseEntity<ActivityLogPageDTO> getUserActivityLogsPage(
+            @PathVariable String id,
+            @RequestParam(defaultValue = "50") int limit,
+            @RequestParam(required = false) String cursor,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime from,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime to) {
+        try {
+            return ResponseEntity.ok(userService.getActivityLogs(id, from, to, limit, cursor));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().build();
+        }
+    }
+
     @GetMapping("/activity")
     public ResponseEntity<List<ActivityLogDTO>> getAllActivityLogs() {
         return ResponseEntity.ok(userService.getAllActivityLogs());
     }
 
+    @GetMapping("/activity/page")
+    public ResponseEntity<ActivityLogPageDTO> getActivityLogsPage(
+            @RequestParam(defaultValue = "50") int limit,
+            @RequestParam(required = false) String cursor,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime from,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime to) {
+        try {
+            return ResponseEntity.ok(userService.getActivityLogs(null, from, to, limit, cursor));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().build();
+        }
+    }
+
     @PutMapping("/{id}/toggle-status")
     public ResponseEntity<Void> toggleUserStatus(@PathVariable String id) {
         userService.toggleUserStatus(id);
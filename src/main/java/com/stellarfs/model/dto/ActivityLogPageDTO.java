@@ -0,0 +1,35 @@
+package com.stellarfs.model.dto;
+
+import java.util.List;
+
+public class ActivityLogPageDTO {
+    private List<ActivityLogDTO> entries;
+    private String nextCursor; // null on the last page
+
+    // Default constructor
+    public ActivityLogPageDTO() {
+    }
+
+    // Constructor with all fields
+    public ActivityLogPageDTO(List<ActivityLogDTO> entries, String nextCursor) {
+        this.entries = entries;
+        this.nextCursor = nextCursor;
+    }
+
+    // Getters and Setters
+    public List<ActivityLogDTO> getEntries() {
+        return entries;
+    }
+
+    public void setEntries(List<ActivityLogDTO> entries) {
+        this.entries = entries;
+    }
+
+    public String getNextCursor() {
+        return nextCursor;
+    }
+
+    public void setNextCursor(String nextCursor) {
+        this.nextCursor = nextCursor;
+    }
+}
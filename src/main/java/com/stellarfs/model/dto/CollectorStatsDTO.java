@@ -0,0 +1,112 @@
+package com.stellarfs.model.dto;
+
+public class CollectorStatsDTO {
+    // Node and task schedules active
+    private int schedules;
+    private int threads;
+    // Runs completed since start
+    private long collections;
+    private long failures;
+    // Runs that ended after their next due time
+    private long overruns;
+    // Slots skipped because of overruns
+    private long missedIntervals;
+    // Delay between a run's due time and its start
+    private double meanLagMs;
+    private long maxLagMs;
+    private double meanDurationMs;
+    private double maxDurationMs;
+    private int queuedRuns;
+
+    // Default constructor
+    public CollectorStatsDTO() {}
+
+    // Getters and Setters
+    public int getSchedules() {
+        return schedules;
+    }
+
+    public void setSchedules(int schedules) {
+        this.schedules = schedules;
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    public void setThreads(int threads) {
+        this.threads = threads;
+    }
+
+    public long getCollections() {
+        return collections;
+    }
+
+    public void setCollections(long collections) {
+        this.collections = collections;
+    }
+
+    public long getFailures() {
+        return failures;
+    }
+
+    public void setFailures(long failures) {
+        this.failures = failures;
+    }
+
+    public long getOverruns() {
+        return overruns;
+    }
+
+    public void setOverruns(long overruns) {
+        this.overruns = overruns;
+    }
+
+    public long getMissedIntervals() {
+        return missedIntervals;
+    }
+
+    public void setMissedIntervals(long missedIntervals) {
+        this.missedIntervals = missedIntervals;
+    }
+
+    public double getMeanLagMs() {
+        return meanLagMs;
+    }
+
+    public void setMeanLagMs(double meanLagMs) {
+        this.meanLagMs = meanLagMs;
+    }
+
+    public long getMaxLagMs() {
+        return maxLagMs;
+    }
+
+    public void setMaxLagMs(long maxLagMs) {
+        this.maxLagMs = maxLagMs;
+    }
+
+    public double getMeanDurationMs() {
+        return meanDurationMs;
+    }
+
+    public void setMeanDurationMs(double meanDurationMs) {
+        this.meanDurationMs = meanDurationMs;
+    }
+
+    public double getMaxDurationMs() {
+        return maxDurationMs;
+    }
+
+    public void setMaxDurationMs(double maxDurationMs) {
+        this.maxDurationMs = maxDurationMs;
+    }
+
+    public int getQueuedRuns() {
+        return queuedRuns;
+    }
+
+    public void setQueuedRuns(int queuedRuns) {
+        this.queuedRuns = queuedRuns;
+    }
+}
@@ -0,0 +1,101 @@
+package com.stellarfs.model.dto;
+
+import java.util.HashMap;
+import java.util.Map;
+
+public class CompressionReportDTO {
+    private boolean enabled;
+    private int filesCompressed;
+    private int chunksExamined;
+    private int chunksRecompressed;
+    private long bytesBefore;
+    private long bytesAfter;
+    private long bytesSaved;
+    private double compressionRatio;
+    private Map<String, Double> ratioByType = new HashMap<>();
+    private long durationMs;
+
+    // Default constructor
+    public CompressionReportDTO() {}
+
+    // Getters and Setters
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public int getFilesCompressed() {
+        return filesCompressed;
+    }
+
+    public void setFilesCompressed(int filesCompressed) {
+        this.filesCompressed = filesCompressed;
+    }
+
+    public int getChunksExamined() {
+        return chunksExamined;
+    }
+
+    public void setChunksExamined(int chunksExamined) {
+        this.chunksExamined = chunksExamined;
+    }
+
+    public int getChunksRecompressed() {
+        return chunksRecompressed;
+    }
+
+    public void setChunksRecompressed(int chunksRecompressed) {
+        this.chunksRecompressed = chunksRecompressed;
+    }
+
+    public long getBytesBefore() {
+        return bytesBefore;
+    }
+
+    public void setBytesBefore(long bytesBefore) {
+        this.bytesBefore = bytesBefore;
+    }
+
+    public long getBytesAfter() {
+        return bytesAfter;
+    }
+
+    public void setBytesAfter(long bytesAfter) {
+        this.bytesAfter = bytesAfter;
+    }
+
+    public long getBytesSaved() {
+        return bytesSaved;
+    }
+
+    public void setBytesSaved(long bytesSaved) {
+        this.bytesSaved = bytesSaved;
+    }
+
+    public double getCompressionRatio() {
+        return compressionRatio;
+    }
+
+    public void setCompressionRatio(double compressionRatio) {
+        this.compressionRatio = compressionRatio;
+    }
+
+    public Map<String, Double> getRatioByType() {
+        return ratioByType;
+    }
+
+    public void setRatioByType(Map<String, Double> ratioByType) {
+        this.ratioByType = ratioByType;
+    }
+
+    public long getDurationMs() {
+        return durationMs;
+    }
+
+    public void setDurationMs(long durationMs) {
+        this.durationMs = durationMs;
+    }
+}
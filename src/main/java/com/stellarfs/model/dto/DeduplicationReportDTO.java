@@ -0,0 +1,125 @@
+package com.stellarfs.model.dto;
+
+public class DeduplicationReportDTO {
+    private boolean enabled;
+    private int filesProcessed;
+    private long logicalBytesProcessed;
+    private long newChunkBytes;
+    private long dedupBytesSaved;
+    private long compressionBytesSaved;
+    private long bytesReclaimed;
+    private long totalLogicalBytes;
+    private long totalUniqueBytes;
+    private long totalPhysicalBytes;
+    private double dedupRatio;
+    private double compressionRatio;
+    private long durationMs;
+
+    // Default constructor
+    public DeduplicationReportDTO() {}
+
+    // Getters and Setters
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public int getFilesProcessed() {
+        return filesProcessed;
+    }
+
+    public void setFilesProcessed(int filesProcessed) {
+        this.filesProcessed = filesProcessed;
+    }
+
+    public long getLogicalBytesProcessed() {
+        return logicalBytesProcessed;
+    }
+
+    public void setLogicalBytesProcessed(long logicalBytesProcessed) {
+        this.logicalBytesProcessed = logicalBytesProcessed;
+    }
+
+    public long getNewChunkBytes() {
+        return newChunkBytes;
+    }
+
+    public void setNewChunkBytes(long newChunkBytes) {
+        this.newChunkBytes = newChunkBytes;
+    }
+
+    public long getDedupBytesSaved() {
+        return dedupBytesSaved;
+    }
+
+    public void setDedupBytesSaved(long dedupBytesSaved) {
+        this.dedupBytesSaved = dedupBytesSaved;
+    }
+
+    public long getCompressionBytesSaved() {
+        return compressionBytesSaved;
+    }
+
+    public void setCompressionBytesSaved(long compressionBytesSaved) {
+        this.compressionBytesSaved = compressionBytesSaved;
+    }
+
+    public long getBytesReclaimed() {
+        return bytesReclaimed;
+    }
+
+    public void setBytesReclaimed(long bytesReclaimed) {
+        this.bytesReclaimed = bytesReclaimed;
+    }
+
+    public long getTotalLogicalBytes() {
+        return totalLogicalBytes;
+    }
+
+    public void setTotalLogicalBytes(long totalLogicalBytes) {
+        this.totalLogicalBytes = totalLogicalBytes;
+    }
+
+    public long getTotalUniqueBytes() {
+        return totalUniqueBytes;
+    }
+
+    public void setTotalUniqueBytes(long totalUniqueBytes) {
+        this.totalUniqueBytes = totalUniqueBytes;
+    }
+
+    public long getTotalPhysicalBytes() {
+        return totalPhysicalBytes;
+    }
+
+    public void setTotalPhysicalBytes(long totalPhysicalBytes) {
+        this.totalPhysicalBytes = totalPhysicalBytes;
+    }
+
+    public double getDedupRatio() {
+        return dedupRatio;
+    }
+
+    public void setDedupRatio(double dedupRatio) {
+        this.dedupRatio = dedupRatio;
+    }
+
+    public double getCompressionRatio() {
+        return compressionRatio;
+    }
+
+    public void setCompressionRatio(double compressionRatio) {
+        this.compressionRatio = compressionRatio;
+    }
+
+    public long getDurationMs() {
+        return durationMs;
+    }
+
+    public void setDurationMs(long durationMs) {
+        this.durationMs = durationMs;
+    }
+}
@@ -0,0 +1,35 @@
+package com.stellarfs.model.dto;
+
+import java.util.List;
+
+public class FilePageDTO {
+    private List<FileDTO> files;
+    private String nextCursor; // null on the last page
+
+    // Default constructor
+    public FilePageDTO() {
+    }
+
+    // Constructor with all fields
+    public FilePageDTO(List<FileDTO> files, String nextCursor) {
+        this.files = files;
+        this.nextCursor = nextCursor;
+    }
+
+    // Getters and Setters
+    public List<FileDTO> getFiles() {
+        return files;
+    }
+
+    public void setFiles(List<FileDTO> files) {
+        this.files = files;
+    }
+
+    public String getNextCursor() {
+        return nextCursor;
+    }
+
+    public void setNextCursor(String nextCursor) {
+        this.nextCursor = nextCursor;
+    }
+}
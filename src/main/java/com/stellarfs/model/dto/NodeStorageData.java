@@ -4,6 +4,8 @@ public class NodeStorageData {
     private String name;
     private Long storage;
     private Long capacity;
+    private Long usedBytes;
+    private Long capacityBytes;
 
     // Default constructor
     public NodeStorageData() {
@@ -40,4 +42,20 @@ public class NodeStorageData {
     public void setCapacity(Long capacity) {
         this.capacity = capacity;
     }
-} 
\ No newline at end of file
+
+    public Long getUsedBytes() {
+        return usedBytes;
+    }
+
+    public void setUsedBytes(Long usedBytes) {
+        this.usedBytes = usedBytes;
+    }
+
+    public Long getCapacityBytes() {
+        return capacityBytes;
+    }
+
+    public void setCapacityBytes(Long capacityBytes) {
+        this.capacityBytes = capacityBytes;
+    }
+}
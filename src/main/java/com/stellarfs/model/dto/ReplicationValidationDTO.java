@@ -0,0 +1,71 @@
+package com.stellarfs.model.dto;
+
+public class ReplicationValidationDTO {
+    private String nodeId;
+    private boolean inSync;
+    private int treeNodesCompared;
+    private int filesRepaired;
+    private int filesRemoved;
+    private int repairFailures;
+    private long durationMs;
+
+    // Default constructor
+    public ReplicationValidationDTO() {}
+
+    // Getters and Setters
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    public void setNodeId(String nodeId) {
+        this.nodeId = nodeId;
+    }
+
+    public boolean isInSync() {
+        return inSync;
+    }
+
+    public void setInSync(boolean inSync) {
+        this.inSync = inSync;
+    }
+
+    public int getTreeNodesCompared() {
+        return treeNodesCompared;
+    }
+
+    public void setTreeNodesCompared(int treeNodesCompared) {
+        this.treeNodesCompared = treeNodesCompared;
+    }
+
+    public int getFilesRepaired() {
+        return filesRepaired;
+    }
+
+    public void setFilesRepaired(int filesRepaired) {
+        this.filesRepaired = filesRepaired;
+    }
+
+    public int getFilesRemoved() {
+        return filesRemoved;
+    }
+
+    public void setFilesRemoved(int filesRemoved) {
+        this.filesRemoved = filesRemoved;
+    }
+
+    public int getRepairFailures() {
+        return repairFailures;
+    }
+
+    public void setRepairFailures(int repairFailures) {
+        this.repairFailures = repairFailures;
+    }
+
+    public long getDurationMs() {
+        return durationMs;
+    }
+
+    public void setDurationMs(long durationMs) {
+        this.durationMs = durationMs;
+    }
+}
@@ -1,12 +1,21 @@
 package com.stellarfs.model.dto;
 
+import java.time.LocalDateTime;
 import java.util.List;
+import java.util.Map;
 
 public class StorageOverviewResponse {
     private Long totalCapacity;
     private Long usedStorage;
     private List<NodeStorageData> nodeData;
     private List<ReplicationStatusData> replicationStatus;
+    private Long usedBytes;
+    private Long capacityBytes;
+    private Long catalogBytes;
+    private Long fileCount;
+    private Map<String, Long> bytesByOwner;
+    private Map<String, Long> bytesByType;
+    private LocalDateTime reconciledAt;
 
     // Default constructor
     public StorageOverviewResponse() {
@@ -54,4 +63,60 @@ public class StorageOverviewResponse {
     public void setReplicationStatus(List<ReplicationStatusData> replicationStatus) {
         this.replicationStatus = replicationStatus;
     }
-} 
\ No newline at end of file
+
+    public Long getUsedBytes() {
+        return usedBytes;
+    }
+
+    public void setUsedBytes(Long usedBytes) {
+        this.usedBytes = usedBytes;
+    }
+
+    public Long getCapacityBytes() {
+        return capacityBytes;
+    }
+
+    public void setCapacityBytes(Long capacityBytes) {
+        this.capacityBytes = capacityBytes;
+    }
+
+    public Long getCatalogBytes() {
+        return catalogBytes;
+    }
+
+    public void setCatalogBytes(Long catalogBytes) {
+        this.catalogBytes = catalogBytes;
+    }
+
+    public Long getFileCount() {
+        return fileCount;
+    }
+
+    public void setFileCount(Long fileCount) {
+        this.fileCount = fileCount;
+    }
+
+    public Map<String, Long> getBytesByOwner() {
+        return bytesByOwner;
+    }
+
+    public void setBytesByOwner(Map<String, Long> bytesByOwner) {
+        this.bytesByOwner = bytesByOwner;
+    }
+
+    public Map<String, Long> getBytesByType() {
+        return bytesByType;
+    }
+
+    public void setBytesByType(Map<String, Long> bytesByType) {
+        this.bytesByType = bytesByType;
+    }
+
+    public LocalDateTime getReconciledAt() {
+        return reconciledAt;
+    }
+
+    public void setReconciledAt(LocalDateTime reconciledAt) {
+        this.reconciledAt = reconciledAt;
+    }
+}
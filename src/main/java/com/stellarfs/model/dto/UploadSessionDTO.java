@@ -0,0 +1,86 @@
+package com.stellarfs.model.dto;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+public class UploadSessionDTO {
+    private String id;
+    private String filename;
+    private long size;
+    // Bytes per part; the last part may be shorter
+    private long partSize;
+    private int partCount;
+    // 1-based, ascending
+    private List<Integer> receivedParts;
+    private LocalDateTime createdAt;
+    // Aborted at this time unless another part arrives
+    private LocalDateTime expiresAt;
+
+    // Default constructor
+    public UploadSessionDTO() {}
+
+    // Getters and Setters
+    public String getId() {
+        return id;
+    }
+
+    public void setId(String id) {
+        this.id = id;
+    }
+
+    public String getFilename() {
+        return filename;
+    }
+
+    public void setFilename(String filename) {
+        this.filename = filename;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public void setSize(long size) {
+        this.size = size;
+    }
+
+    public long getPartSize() {
+        return partSize;
+    }
+
+    public void setPartSize(long partSize) {
+        this.partSize = partSize;
+    }
+
+    public int getPartCount() {
+        return partCount;
+    }
+
+    public void setPartCount(int partCount) {
+        this.partCount = partCount;
+    }
+
+    public List<Integer> getReceivedParts() {
+        return receivedParts;
+    }
+
+    public void setReceivedParts(List<Integer> receivedParts) {
+        this.receivedParts = receivedParts;
+    }
+
+    public LocalDateTime getCreatedAt() {
+        return createdAt;
+    }
+
+    public void setCreatedAt(LocalDateTime createdAt) {
+        this.createdAt = createdAt;
+    }
+
+    public LocalDateTime getExpiresAt() {
+        return expiresAt;
+    }
+
+    public void setExpiresAt(LocalDateTime expiresAt) {
+        this.expiresAt = expiresAt;
+    }
+}
@@ -1 +1,81 @@
- 
\ No newline at end of file
+package com.stellarfs.repository;
+
+import com.stellarfs.model.dto.ActivityLogDTO;
+import com.stellarfs.model.dto.ActivityLogPageDTO;
+import com.stellarfs.storage.ActivityLogStore;
+import org.springframework.stereotype.Repository;
+
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Append-only audit trail of user activity, kept in a segmented
+ * {@link ActivityLogStore} and read back newest first a page at a time.
+ */
+@Repository
+public class ActivityLogRepository {
+
+    private static final int SCAN_PAGE = 1000;
+
+    private final ActivityLogStore store;
+
+    public ActivityLogRepository(ActivityLogStore store) {
+        this.store = store;
+    }
+
+    public ActivityLogDTO save(ActivityLogDTO entry) {
+        Objects.requireNonNull(entry.getId(), "Activity id is required");
+        Objects.requireNonNull(entry.getUserId(), "Activity user is required");
+        Objects.requireNonNull(entry.getTimestamp(), "Activity timestamp is required");
+        store.append(millis(entry.getTimestamp()), entry.getUserId(), MetadataCodec.encode(entry));
+        return entry;
+    }
+
+    /**
+     * Page through entries newest first.
+     * @param userId Only this user's entries, or null for everyone's
+     * @param from Earliest entry time, inclusive, or null
+     * @param to Latest entry time, inclusive, or null
+     * @throws IllegalArgumentException If the cursor is malformed or limit is not positive
+     */
+    public ActivityLogPageDTO findPage(String userId, LocalDateTime from, LocalDateTime to, String cursor, int limit) {
+        ActivityLogStore.Page page = store.query(userId, from != null ? millis(from) : Long.MIN_VALUE,
+                to != null ? millis(to) : Long.MAX_VALUE, cursor, limit);
+        List<ActivityLogDTO> entries = new ArrayList<>(page.getEntries().size());
+        for (byte[] entry : page.getEntries()) {
+            entries.add(MetadataCodec.decode(entry, ActivityLogDTO.class));
+        }
+        return new ActivityLogPageDTO(entries, page.getNextCursor());
+    }
+
+    public List<ActivityLogDTO> findByUserId(String userId) {
+        return findAll(userId);
+    }
+
+    public List<ActivityLogDTO> findAll() {
+        return findAll(null);
+    }
+
+    public long count() {
+        return store.count();
+    }
+
+    private List<ActivityLogDTO> findAll(String userId) {
+        List<ActivityLogDTO> entries = new ArrayList<>();
+        String cursor = null;
+        do {
+            ActivityLogPageDTO page = findPage(userId, null, null, cursor, SCAN_PAGE);
+            entries.addAll(page.getEntries());
+            cursor = page.getNextCursor();
+        } while (cursor != null);
+        return entries;
+    }
+
+    // Only an ordering key, so any fixed offset does
+    private static long millis(LocalDateTime time) {
+        return time.toInstant(ZoneOffset.UTC).toEpochMilli();
+    }
+}
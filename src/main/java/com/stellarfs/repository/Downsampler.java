@@ -0,0 +1,92 @@
+package com.stellarfs.repository;
+
+import java.util.function.IntToDoubleFunction;
+
+/**
+ * Largest-Triangle-Three-Buckets downsampling: keeps the first and last point
+ * and, from each of threshold - 2 equal buckets in between, the point forming
+ * the largest triangle with the point kept before it and the average of the
+ * next bucket. Peaks and dips survive, unlike plain averaging or striding.
+ */
+public final class Downsampler {
+
+    private Downsampler() {
+    }
+
+    /**
+     * Pick which points to keep.
+     * @param size Number of points, ordered by x
+     * @param x X coordinate of each point
+     * @param y Y coordinate of each point
+     * @param threshold Maximum points to keep; at least 3 to keep anything but the ends
+     * @return Ascending indexes of the points to keep
+     */
+    public static int[] lttb(int size, IntToDoubleFunction x, IntToDoubleFunction y, int threshold) {
+        if (threshold >= size || size <= 2) {
+            int[] all = new int[size];
+            for (int i = 0; i < size; i++) {
+                all[i] = i;
+            }
+            return all;
+        }
+        if (threshold <= 2) {
+            return threshold <= 1 ? new int[]{size - 1} : new int[]{0, size - 1};
+        }
+
+        int[] kept = new int[threshold];
+        // Interior points are split into threshold - 2 buckets
+        double every = (double) (size - 2) / (threshold - 2);
+        int previous = 0;
+        kept[0] = 0;
+        for (int bucket = 0; bucket < threshold - 2; bucket++) {
+            int from = (int) (bucket * every) + 1;
+            int to = (int) ((bucket + 1) * every) + 1;
+
+            // Average of the next bucket, or the last point for the final one
+            int nextFrom = to;
+            int nextTo = Math.min((int) ((bucket + 2) * every) + 1, size);
+            if (bucket == threshold - 3) {
+                nextFrom = size - 1;
+                nextTo = size;
+            }
+            double avgX = 0;
+            double avgY = 0;
+            for (int i = nextFrom; i < nextTo; i++) {
+                avgX += x.applyAsDouble(i);
+                avgY += y.applyAsDouble(i);
+            }
+            avgX /= nextTo - nextFrom;
+            avgY /= nextTo - nextFrom;
+
+            double previousX = x.applyAsDouble(previous);
+            double previousY = y.applyAsDouble(previous);
+            double largest = -1;
+            int chosen = from;
+            for (int i = from; i < to; i++) {
+                double area = Math.abs((previousX - avgX) * (y.applyAsDouble(i) - previousY)
+                        - (previousX - x.applyAsDouble(i)) * (avgY - previousY));
+                if (area > largest) {
+                    largest = area;
+                    chosen = i;
+                }
+            }
+            kept[bucket + 1] = chosen;
+            previous = chosen;
+        }
+        kept[threshold - 1] = size - 1;
+        return kept;
+    }
+
+    /**
+     * Downsample a run of metric points to at most maxPoints.
+     * @param points Points, oldest first
+     * @param maxPoints Maximum points to keep
+     * @return The points kept
+     */
+    public static MetricPoints lttb(MetricPoints points, int maxPoints) {
+        if (points.size() <= maxPoints) {
+            return points;
+        }
+        return points.select(lttb(points.size(), points::getTimestamp, points::getValue, maxPoints));
+    }
+}
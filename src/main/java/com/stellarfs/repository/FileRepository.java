@@ -1 +1,403 @@
- 
\ No newline at end of file
+package com.stellarfs.repository;
+
+import com.stellarfs.model.dto.FileDTO;
+import com.stellarfs.storage.MetadataLog;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Repository;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.locks.Lock;
+
+/**
+ * In-memory file metadata catalog. Files are held in a primary hash index on
+ * id, with secondary indexes on name, owner, type, path and recency so lookups
+ * never scan the whole catalog, and in name, size and modification order for
+ * paged listings. Reads are lock-free; writes to the same id are serialized.
+ * When backed by the metadata log, every change is durable before it becomes
+ * visible, and the catalog is rebuilt from the log on startup.
+ */
+@Repository
+public class FileRepository {
+
+    static final String COLLECTION = "files";
+    private static final int LOCK_STRIPES = 256;
+
+    /**
+     * Notified of the bytes catalogued under an owner and type as files are
+     * added, changed and removed. A change is reported as the removal of the
+     * old metadata followed by the addition of the new.
+     */
+    public interface CatalogListener {
+        /**
+         * @param owner File owner, may be null
+         * @param type File type, may be null
+         * @param deltaBytes Change in catalogued bytes
+         * @param deltaFiles Change in catalogued files, 1, 0 or -1
+         */
+        void usageChanged(String owner, String type, long deltaBytes, int deltaFiles);
+    }
+
+    /** Orders the whole catalog can be listed in. */
+    public enum Sort {
+        NAME, SIZE, LAST_MODIFIED;
+
+        /**
+         * @param label name, size or lastModified
+         * @throws IllegalArgumentException If the label is unknown
+         */
+        public static Sort of(String label) {
+            switch (label.toLowerCase(Locale.ROOT)) {
+                case "name": return NAME;
+                case "size": return SIZE;
+                case "lastmodified": return LAST_MODIFIED;
+                default: throw new IllegalArgumentException("Unknown sort: " + label);
+            }
+        }
+    }
+
+    // Index keys captured at write time, since callers may mutate the DTO in place
+    private static final class Entry {
+        private final FileDTO file;
+        private final String name;
+        private final String owner;
+        private final String type;
+        private final String path;
+        private final LocalDateTime lastModified;
+        private final long size;
+
+        private Entry(FileDTO file) {
+            this.file = file;
+            this.name = file.getName();
+            this.owner = file.getOwner();
+            this.type = file.getType();
+            this.path = file.getPath();
+            this.lastModified = file.getLastModified();
+            this.size = file.getSize() != null ? file.getSize() : 0;
+        }
+    }
+
+    private final MetadataLog log;
+    private final Map<String, Entry> byId = new ConcurrentHashMap<>();
+    private final Map<String, Set<String>> byName = new ConcurrentHashMap<>();
+    private final Map<String, Set<String>> byOwner = new ConcurrentHashMap<>();
+    private final Map<String, Set<String>> byType = new ConcurrentHashMap<>();
+    private final NavigableMap<String, Set<String>> byPath = new ConcurrentSkipListMap<>();
+    private final TrigramIndex searchIndex = new TrigramIndex();
+    private final RecencyIndex recencyIndex = new RecencyIndex();
+    private final SortIndex<String> nameOrder = new SortIndex<>();
+    private final SortIndex<Long> sizeOrder = new SortIndex<>();
+    private final SortIndex<LocalDateTime> lastModifiedOrder = new SortIndex<>();
+    // Id locks are always taken before key locks, never the other way round
+    private final StripedLocks idLocks = new StripedLocks(LOCK_STRIPES);
+    private final StripedLocks keyLocks = new StripedLocks(LOCK_STRIPES);
+    private final List<CatalogListener> catalogListeners = new CopyOnWriteArrayList<>();
+
+    // In-memory only, for tests and benchmarks
+    public FileRepository() {
+        this(null);
+    }
+
+    @Autowired
+    public FileRepository(MetadataLog log) {
+        this.log = log;
+        if (log != null) {
+            for (byte[] record : log.load(COLLECTION).values()) {
+                index(MetadataCodec.decode(record, FileDTO.class));
+            }
+        }
+    }
+
+    /**
+     * Insert a file or re-index it after its metadata changed.
+     * @param file File metadata, must have an id
+     * @return The saved file
+     */
+    public FileDTO save(FileDTO file) {
+        String id = Objects.requireNonNull(file.getId(), "File id is required");
+        Lock lock = idLocks.lockFor(id);
+        lock.lock();
+        try {
+            if (log != null) {
+                log.put(COLLECTION, id, MetadataCodec.encode(file));
+            }
+            index(file);
+        } finally {
+            lock.unlock();
+        }
+        return file;
+    }
+
+    // Caller holds the id lock, except while the constructor replays the log
+    private void index(FileDTO file) {
+        String id = file.getId();
+        Entry previous = byId.get(id);
+        Entry entry = new Entry(file);
+        // Publish the primary entry first so an id found in a secondary index always resolves
+        byId.put(id, entry);
+        if (previous != null) {
+            reindex(byName, previous.name, entry.name, id);
+            reindex(byOwner, previous.owner, entry.owner, id);
+            reindex(byType, previous.type, entry.type, id);
+            reindex(byPath, previous.path, entry.path, id);
+            recencyIndex.update(id, previous.lastModified, entry.lastModified);
+            nameOrder.update(id, nameKey(previous.name), nameKey(entry.name));
+            sizeOrder.update(id, previous.size, entry.size);
+            lastModifiedOrder.update(id, timeKey(previous.lastModified), timeKey(entry.lastModified));
+            usageChanged(previous, -1);
+        } else {
+            add(byName, entry.name, id);
+            add(byOwner, entry.owner, id);
+            add(byType, entry.type, id);
+            add(byPath, entry.path, id);
+            recencyIndex.update(id, null, entry.lastModified);
+            nameOrder.update(id, null, nameKey(entry.name));
+            sizeOrder.update(id, null, entry.size);
+            lastModifiedOrder.update(id, null, timeKey(entry.lastModified));
+        }
+        searchIndex.index(file);
+        usageChanged(entry, 1);
+    }
+
+    /**
+     * Register a listener for catalogued bytes. Files already in the catalog
+     * are not reported; read them with {@link #findAll()}.
+     * @param listener Called with the file's id lock held, so it must not block
+     */
+    public void addCatalogListener(CatalogListener listener) {
+        catalogListeners.add(listener);
+    }
+
+    public FileDTO findById(String id) {
+        Entry entry = byId.get(id);
+        return entry != null ? entry.file : null;
+    }
+
+    public boolean existsById(String id) {
+        return byId.containsKey(id);
+    }
+
+    /**
+     * Remove a file from the catalog.
+     * @param id File ID
+     * @return The removed file, or null if it was not present
+     */
+    public FileDTO deleteById(String id) {
+        Lock lock = idLocks.lockFor(id);
+        lock.lock();
+        try {
+            Entry entry = byId.get(id);
+            if (entry == null) {
+                return null;
+            }
+            if (log != null) {
+                log.delete(COLLECTION, id);
+            }
+            remove(byName, entry.name, id);
+            remove(byOwner, entry.owner, id);
+            remove(byType, entry.type, id);
+            remove(byPath, entry.path, id);
+            searchIndex.remove(id);
+            recencyIndex.remove(id, entry.lastModified);
+            nameOrder.remove(id, nameKey(entry.name));
+            sizeOrder.remove(id, entry.size);
+            lastModifiedOrder.remove(id, timeKey(entry.lastModified));
+            byId.remove(id);
+            usageChanged(entry, -1);
+            return entry.file;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public List<FileDTO> findAll() {
+        List<FileDTO> files = new ArrayList<>(byId.size());
+        for (Entry entry : byId.values()) {
+            files.add(entry.file);
+        }
+        return files;
+    }
+
+    public long count() {
+        return byId.size();
+    }
+
+    /**
+     * @param name Exact file name
+     * @return Files catalogued under the name
+     */
+    public List<FileDTO> findByName(String name) {
+        return resolve(byName.get(name));
+    }
+
+    public List<FileDTO> findByOwner(String owner) {
+        return resolve(byOwner.get(owner));
+    }
+
+    public List<FileDTO> findByType(String type) {
+        return resolve(byType.get(type));
+    }
+
+    /**
+     * Find files whose path starts with the given prefix.
+     * @param prefix Path prefix, e.g. "/documents/"
+     * @return Matching files ordered by path
+     */
+    public List<FileDTO> findByPathPrefix(String prefix) {
+        List<FileDTO> files = new ArrayList<>();
+        for (Set<String> ids : byPath.subMap(prefix, true, prefix + Character.MAX_VALUE, false).values()) {
+            files.addAll(resolve(ids));
+        }
+        return files;
+    }
+
+    /**
+     * Substring search over name, owner and path using the trigram index.
+     * @param query Search text, matched case-insensitively
+     * @param offset Number of matches to skip
+     * @param limit Maximum number of matches to return
+     * @return Matching files in the order they were first catalogued
+     */
+    public List<FileDTO> search(String query, int offset, int limit) {
+        return resolve(searchIndex.search(query, offset, limit));
+    }
+
+    /**
+     * Most recently modified files, newest first.
+     * @param limit Maximum number of files to return
+     * @return Up to limit files
+     */
+    public List<FileDTO> findRecent(int limit) {
+        return findRecentAfter(null, null, limit);
+    }
+
+    /**
+     * Files modified before a position in recency order, newest first. Files
+     * with the same modification time are ordered by id.
+     * @param lastModified Modification time of the last file already seen, or null to start at the newest
+     * @param id Id of the last file already seen
+     * @param limit Maximum number of files to return
+     * @return Up to limit files following the position
+     */
+    public List<FileDTO> findRecentAfter(LocalDateTime lastModified, String id, int limit) {
+        RecencyIndex.Position after = lastModified != null
+                ? new RecencyIndex.Position(lastModified, Objects.requireNonNull(id, "File id is required"))
+                : null;
+        List<FileDTO> files = new ArrayList<>(Math.min(limit, 64));
+        for (RecencyIndex.Position position : recencyIndex.newest(after, limit)) {
+            Entry entry = byId.get(position.getId());
+            if (entry != null) {
+                files.add(entry.file);
+            }
+        }
+        return files;
+    }
+
+    /**
+     * A page of the whole catalog in name, size or modification order. Files
+     * with the same sort key are ordered by id; a missing name sorts as empty
+     * and a missing modification time as the earliest.
+     * @param sort Order to list in
+     * @param descending Largest first rather than smallest
+     * @param after Last file of the previous page, or null to start at the first; only its id and sort key are read
+     * @param limit Maximum number of files to return
+     * @return Up to limit files following the position
+     */
+    public List<FileDTO> findSorted(Sort sort, boolean descending, FileDTO after, int limit) {
+        String id = after != null ? Objects.requireNonNull(after.getId(), "File id is required") : null;
+        List<String> ids;
+        switch (sort) {
+            case NAME:
+                ids = nameOrder.page(after != null ? nameKey(after.getName()) : null, id, descending, limit);
+                break;
+            case SIZE:
+                ids = sizeOrder.page(after != null ? sizeKey(after.getSize()) : null, id, descending, limit);
+                break;
+            default:
+                ids = lastModifiedOrder.page(after != null ? timeKey(after.getLastModified()) : null, id,
+                        descending, limit);
+                break;
+        }
+        return resolve(ids);
+    }
+
+    private static String nameKey(String name) {
+        return name != null ? name : "";
+    }
+
+    private static Long sizeKey(Long size) {
+        return size != null ? size : 0L;
+    }
+
+    private static LocalDateTime timeKey(LocalDateTime lastModified) {
+        return lastModified != null ? lastModified : LocalDateTime.MIN;
+    }
+
+    private void usageChanged(Entry entry, int sign) {
+        for (CatalogListener listener : catalogListeners) {
+            listener.usageChanged(entry.owner, entry.type, sign * entry.size, sign);
+        }
+    }
+
+    private List<FileDTO> resolve(Collection<String> ids) {
+        if (ids == null) {
+            return Collections.emptyList();
+        }
+        List<FileDTO> files = new ArrayList<>(ids.size());
+        for (String id : ids) {
+            Entry entry = byId.get(id);
+            if (entry != null) {
+                files.add(entry.file);
+            }
+        }
+        return files;
+    }
+
+    private void reindex(Map<String, Set<String>> index, String oldKey, String newKey, String id) {
+        if (!Objects.equals(oldKey, newKey)) {
+            add(index, newKey, id);
+            remove(index, oldKey, id);
+        }
+    }
+
+    private void add(Map<String, Set<String>> index, String key, String id) {
+        if (key == null) {
+            return;
+        }
+        Lock lock = keyLocks.lockFor(key);
+        lock.lock();
+        try {
+            index.computeIfAbsent(key, k -> ConcurrentHashMap.newKeySet()).add(id);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void remove(Map<String, Set<String>> index, String key, String id) {
+        if (key == null) {
+            return;
+        }
+        // Same lock as add, so an empty key is never dropped while another id is joining it
+        Lock lock = keyLocks.lockFor(key);
+        lock.lock();
+        try {
+            Set<String> ids = index.get(key);
+            if (ids != null && ids.remove(id) && ids.isEmpty()) {
+                index.remove(key);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+}
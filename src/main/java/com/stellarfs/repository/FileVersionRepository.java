@@ -1 +1,86 @@
- 
\ No newline at end of file
+package com.stellarfs.repository;
+
+import com.fasterxml.jackson.databind.JavaType;
+import com.stellarfs.model.dto.FileVersionDTO;
+import com.stellarfs.storage.MetadataLog;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Repository;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.Lock;
+
+/**
+ * Version history per file. A file's versions are stored as one record, so
+ * changing any version rewrites the file's whole (short) history.
+ */
+@Repository
+public class FileVersionRepository {
+
+    static final String COLLECTION = "file-versions";
+    private static final JavaType VERSION_LIST = MetadataCodec.listOf(FileVersionDTO.class);
+
+    private final MetadataLog log;
+    private final Map<String, List<FileVersionDTO>> byFileId = new ConcurrentHashMap<>();
+    private final StripedLocks locks = new StripedLocks(256);
+
+    // In-memory only, for tests and benchmarks
+    public FileVersionRepository() {
+        this(null);
+    }
+
+    @Autowired
+    public FileVersionRepository(MetadataLog log) {
+        this.log = log;
+        if (log != null) {
+            for (Map.Entry<String, byte[]> entry : log.load(COLLECTION).entrySet()) {
+                byFileId.put(entry.getKey(), MetadataCodec.decode(entry.getValue(), VERSION_LIST));
+            }
+        }
+    }
+
+    /**
+     * Versions of a file.
+     * @param fileId File ID
+     * @return Copy of the file's versions, empty if it has none
+     */
+    public List<FileVersionDTO> findByFileId(String fileId) {
+        List<FileVersionDTO> versions = byFileId.get(fileId);
+        return versions != null ? new ArrayList<>(versions) : Collections.emptyList();
+    }
+
+    /**
+     * Replace the version history of a file.
+     * @param fileId File ID
+     * @param versions Complete list of versions
+     */
+    public void save(String fileId, List<FileVersionDTO> versions) {
+        List<FileVersionDTO> copy = new ArrayList<>(versions);
+        Lock lock = locks.lockFor(fileId);
+        lock.lock();
+        try {
+            if (log != null) {
+                log.put(COLLECTION, fileId, MetadataCodec.encode(copy));
+            }
+            byFileId.put(fileId, copy);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void deleteByFileId(String fileId) {
+        Lock lock = locks.lockFor(fileId);
+        lock.lock();
+        try {
+            if (log != null) {
+                log.delete(COLLECTION, fileId);
+            }
+            byFileId.remove(fileId);
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package com.stellarfs.repository;
+
+/**
+ * A run of samples of one metric, oldest first, as parallel primitive arrays.
+ * Points read from a rollup tier stand for a whole bucket: the timestamp is
+ * the bucket start, the value its average, and min, max, last and count
+ * are also set.
+ */
+public class MetricPoints {
+
+    private static final MetricPoints EMPTY = new MetricPoints(new long[0], new double[0]);
+
+    private final long[] timestamps;
+    private final double[] values;
+    // Null for raw samples
+    private final double[] min;
+    private final double[] max;
+    private final double[] last;
+    private final int[] count;
+
+    public MetricPoints(long[] timestamps, double[] values) {
+        this(timestamps, values, null, null, null, null);
+    }
+
+    public MetricPoints(long[] timestamps, double[] values, double[] min, double[] max, double[] last,
+                        int[] count) {
+        if (timestamps.length != values.length) {
+            throw new IllegalArgumentException("Timestamps and values differ in length");
+        }
+        this.timestamps = timestamps;
+        this.values = values;
+        this.min = min;
+        this.max = max;
+        this.last = last;
+        this.count = count;
+    }
+
+    public static MetricPoints empty() {
+        return EMPTY;
+    }
+
+    public int size() {
+        return timestamps.length;
+    }
+
+    // Epoch millis
+    public long getTimestamp(int index) {
+        return timestamps[index];
+    }
+
+    public double getValue(int index) {
+        return values[index];
+    }
+
+    public boolean isRollup() {
+        return count != null;
+    }
+
+    public double getMin(int index) {
+        return min[index];
+    }
+
+    public double getMax(int index) {
+        return max[index];
+    }
+
+    public double getLast(int index) {
+        return last[index];
+    }
+
+    public int getCount(int index) {
+        return count[index];
+    }
+
+    /**
+     * The points at the given indexes.
+     * @param indexes Ascending indexes
+     * @return A new run holding only those points
+     */
+    public MetricPoints select(int[] indexes) {
+        long[] selectedTimestamps = new long[indexes.length];
+        double[] selectedValues = new double[indexes.length];
+        for (int i = 0; i < indexes.length; i++) {
+            selectedTimestamps[i] = timestamps[indexes[i]];
+            selectedValues[i] = values[indexes[i]];
+        }
+        if (!isRollup()) {
+            return new MetricPoints(selectedTimestamps, selectedValues);
+        }
+        double[] selectedMin = new double[indexes.length];
+        double[] selectedMax = new double[indexes.length];
+        double[] selectedLast = new double[indexes.length];
+        int[] selectedCount = new int[indexes.length];
+        for (int i = 0; i < indexes.length; i++) {
+            selectedMin[i] = min[indexes[i]];
+            selectedMax[i] = max[indexes[i]];
+            selectedLast[i] = last[indexes[i]];
+            selectedCount[i] = count[indexes[i]];
+        }
+        return new MetricPoints(selectedTimestamps, selectedValues, selectedMin, selectedMax, selectedLast,
+                selectedCount);
+    }
+}
@@ -0,0 +1,55 @@
+package com.stellarfs.repository;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Resolutions metric history is kept at. Rollup tiers keep a fixed number of
+ * buckets, so coarser tiers reach further back.
+ */
+public enum MetricResolution {
+    RAW("raw", 0, 0),
+    // One day of minutes
+    MINUTE("1m", TimeUnit.MINUTES.toMillis(1), 1440),
+    // One week of five-minute buckets
+    FIVE_MINUTES("5m", TimeUnit.MINUTES.toMillis(5), 2016),
+    // Thirty days of hours
+    HOUR("1h", TimeUnit.HOURS.toMillis(1), 720);
+
+    private final String label;
+    private final long width;
+    private final int retention;
+
+    MetricResolution(String label, long width, int retention) {
+        this.label = label;
+        this.width = width;
+        this.retention = retention;
+    }
+
+    public String getLabel() {
+        return label;
+    }
+
+    // Bucket width in millis, 0 for raw samples
+    public long getWidth() {
+        return width;
+    }
+
+    // Buckets kept, 0 for raw samples
+    public int getRetention() {
+        return retention;
+    }
+
+    /**
+     * Parse a resolution label.
+     * @param label raw, 1m, 5m or 1h
+     * @return The resolution
+     */
+    public static MetricResolution of(String label) {
+        for (MetricResolution resolution : values()) {
+            if (resolution.label.equalsIgnoreCase(label)) {
+                return resolution;
+            }
+        }
+        throw new IllegalArgumentException("Unknown resolution: " + label);
+    }
+}
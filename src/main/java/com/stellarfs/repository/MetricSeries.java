@@ -0,0 +1,111 @@
+package com.stellarfs.repository;
+
+import java.lang.invoke.VarHandle;
+
+/**
+ * Fixed-capacity ring of samples for one node, stored column by column: one
+ * long[] of timestamps and one double[] per metric, so appending allocates
+ * nothing and a range is found by binary search on the timestamp column.
+ *
+ * A single thread appends. Readers take no lock: they read the published
+ * count, copy what they need, and check the writer has not since lapped the
+ * oldest slot they read, retrying if it has. Slots just ahead of the writer
+ * are never read (the guard), so a reader only retries if the writer
+ * appends guard samples while it is copying.
+ */
+final class MetricSeries {
+
+    private final int capacity;
+    private final int guard;
+    private final long[] timestamps;
+    private final double[][] columns;
+    // Number of samples ever appended; the volatile write publishes the slot
+    private volatile long published;
+    // Writer-only
+    private long lastTimestamp = Long.MIN_VALUE;
+
+    MetricSeries(int retention, int metrics) {
+        this.guard = Math.max(64, retention / 64);
+        this.capacity = retention + guard;
+        this.timestamps = new long[capacity];
+        this.columns = new double[metrics][capacity];
+    }
+
+    /**
+     * Append a sample. Must only be called by the series' single writer.
+     * @param timestamp Epoch millis; earlier than the last sample is clamped to it
+     * @param values One value per metric column
+     * @return The timestamp stored
+     */
+    long append(long timestamp, double[] values) {
+        long next = published;
+        int slot = (int) (next % capacity);
+        // Keep the column sorted so range lookups can binary search
+        lastTimestamp = Math.max(lastTimestamp, timestamp);
+        timestamps[slot] = lastTimestamp;
+        for (int column = 0; column < columns.length; column++) {
+            columns[column][slot] = values[column];
+        }
+        published = next + 1;
+        return lastTimestamp;
+    }
+
+    /**
+     * Whether no sample at or after from has been dropped yet.
+     * @param from Epoch millis
+     */
+    boolean covers(long from) {
+        long end = published;
+        int retention = capacity - guard;
+        if (end <= retention) {
+            return true;
+        }
+        return timestamps[(int) ((end - retention) % capacity)] <= from;
+    }
+
+    /**
+     * Samples of one metric with from &lt;= timestamp &lt;= to.
+     * @param column Metric column
+     * @param from Earliest timestamp, epoch millis
+     * @param to Latest timestamp, epoch millis
+     * @return Copy of the samples, oldest first
+     */
+    MetricPoints range(int column, long from, long to) {
+        double[] values = columns[column];
+        while (true) {
+            long end = published;
+            long start = Math.max(0, end - capacity + guard);
+            long lo = lowerBound(start, end, from);
+            long hi = to == Long.MAX_VALUE ? end : lowerBound(lo, end, to + 1);
+            int size = (int) (hi - lo);
+            long[] times = new long[size];
+            double[] copy = new double[size];
+            for (int i = 0; i < size; i++) {
+                int slot = (int) ((lo + i) % capacity);
+                times[i] = timestamps[slot];
+                copy[i] = values[slot];
+            }
+            // The plain reads above must complete before the count is checked again
+            VarHandle.acquireFence();
+            // The writer may be rewriting the slot of sample published - capacity
+            if (start > published - capacity) {
+                return size == 0 ? MetricPoints.empty() : new MetricPoints(times, copy);
+            }
+        }
+    }
+
+    // First sample index in [start, end) with timestamp >= target
+    private long lowerBound(long start, long end, long target) {
+        long lo = start;
+        long hi = end;
+        while (lo < hi) {
+            long mid = (lo + hi) >>> 1;
+            if (timestamps[(int) (mid % capacity)] < target) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+}
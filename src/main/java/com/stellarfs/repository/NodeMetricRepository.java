@@ -0,0 +1,119 @@
+package com.stellarfs.repository;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Repository;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Metric history of every node, one ring buffer per node holding the most
+ * recent retention-samples samples of each metric, plus 1 minute, 5 minute
+ * and 1 hour rollups updated as each sample arrives. Appends for a node must
+ * not run concurrently (one writer at a time, ordered by happens-before);
+ * reads are lock-free.
+ */
+@Repository
+public class NodeMetricRepository {
+
+    // Metric types in column order
+    public static final List<String> METRICS = Arrays.asList("cpu", "memory", "disk", "network");
+
+    private final Map<String, NodeHistory> series = new ConcurrentHashMap<>();
+    private final int retention;
+
+    public NodeMetricRepository(@Value("${stellarfs.metrics.retention-samples:17280}") int retention) {
+        if (retention < 1) {
+            throw new IllegalArgumentException("Retention must be positive");
+        }
+        this.retention = retention;
+    }
+
+    /**
+     * Record one sample of every metric of a node.
+     * @param nodeId Node ID
+     * @param timestamp Epoch millis
+     * @param values One value per metric, in {@link #METRICS} order
+     */
+    public void append(String nodeId, long timestamp, double... values) {
+        if (values.length != METRICS.size()) {
+            throw new IllegalArgumentException("Expected " + METRICS.size() + " values");
+        }
+        series.computeIfAbsent(nodeId, id -> new NodeHistory(retention)).append(timestamp, values);
+    }
+
+    /**
+     * Samples of one metric of a node within a time range.
+     * @param nodeId Node ID
+     * @param metric Metric type
+     * @param from Earliest timestamp, epoch millis, inclusive
+     * @param to Latest timestamp, epoch millis, inclusive
+     * @return The samples, oldest first; empty for an unknown node or metric
+     */
+    public MetricPoints range(String nodeId, String metric, long from, long to) {
+        return range(nodeId, metric, MetricResolution.RAW, from, to);
+    }
+
+    /**
+     * One metric of a node within a time range at a given resolution.
+     * @param nodeId Node ID
+     * @param metric Metric type
+     * @param resolution Raw samples or a rollup tier
+     * @param from Earliest timestamp, epoch millis, inclusive; a rollup includes the bucket holding it
+     * @param to Latest timestamp, epoch millis, inclusive
+     * @return The samples or buckets, oldest first; empty for an unknown node or metric
+     */
+    public MetricPoints range(String nodeId, String metric, MetricResolution resolution, long from, long to) {
+        NodeHistory history = series.get(nodeId);
+        int column = METRICS.indexOf(metric);
+        if (history == null || column < 0 || from > to) {
+            return MetricPoints.empty();
+        }
+        if (resolution == MetricResolution.RAW) {
+            return history.raw.range(column, from, to);
+        }
+        return history.rollups[resolution.ordinal() - 1].range(column, from, to);
+    }
+
+    /**
+     * Whether a node's history at a resolution still reaches back to a time.
+     * @param nodeId Node ID
+     * @param resolution Raw samples or a rollup tier
+     * @param from Epoch millis
+     * @return False once data at or after from has been dropped
+     */
+    public boolean covers(String nodeId, MetricResolution resolution, long from) {
+        NodeHistory history = series.get(nodeId);
+        if (history == null) {
+            return true;
+        }
+        if (resolution == MetricResolution.RAW) {
+            return history.raw.covers(from);
+        }
+        return history.rollups[resolution.ordinal() - 1].covers(from);
+    }
+
+    // Raw samples and one rollup per coarser resolution, in MetricResolution order
+    private static final class NodeHistory {
+        final MetricSeries raw;
+        final RollupSeries[] rollups;
+
+        NodeHistory(int retention) {
+            raw = new MetricSeries(retention, METRICS.size());
+            MetricResolution[] resolutions = MetricResolution.values();
+            rollups = new RollupSeries[resolutions.length - 1];
+            for (int i = 1; i < resolutions.length; i++) {
+                rollups[i - 1] = new RollupSeries(resolutions[i], METRICS.size());
+            }
+        }
+
+        void append(long timestamp, double[] values) {
+            long stored = raw.append(timestamp, values);
+            for (RollupSeries rollup : rollups) {
+                rollup.add(stored, values);
+            }
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package com.stellarfs.repository;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.NavigableSet;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+/**
+ * Files ordered newest first by last modification time. The newest K ids are
+ * read straight off the head of a skip list, and older pages continue from a
+ * (lastModified, id) position without re-sorting anything.
+ *
+ * Callers must serialize updates for the same file id; reads are lock-free.
+ */
+class RecencyIndex {
+
+    static final class Position {
+        private final LocalDateTime lastModified;
+        private final String id;
+
+        Position(LocalDateTime lastModified, String id) {
+            this.lastModified = lastModified;
+            this.id = id;
+        }
+
+        LocalDateTime getLastModified() { return lastModified; }
+        String getId() { return id; }
+    }
+
+    // Newest first; the id breaks ties so distinct files never collide
+    private static final Comparator<Position> ORDER = Comparator
+            .comparing(Position::getLastModified, Comparator.reverseOrder())
+            .thenComparing(Position::getId);
+
+    private final NavigableSet<Position> positions = new ConcurrentSkipListSet<>(ORDER);
+
+    void update(String id, LocalDateTime previous, LocalDateTime current) {
+        if (previous != null && previous.equals(current)) {
+            return;
+        }
+        if (current != null) {
+            positions.add(new Position(current, id));
+        }
+        if (previous != null) {
+            positions.remove(new Position(previous, id));
+        }
+    }
+
+    void remove(String id, LocalDateTime lastModified) {
+        if (lastModified != null) {
+            positions.remove(new Position(lastModified, id));
+        }
+    }
+
+    /**
+     * Ids of the newest files, optionally continuing after a position.
+     * @param after Position of the last file of the previous page, or null to start at the newest
+     * @param limit Maximum number of ids to return
+     * @return Positions newest first
+     */
+    List<Position> newest(Position after, int limit) {
+        NavigableSet<Position> view = after == null ? positions : positions.tailSet(after, false);
+        List<Position> page = new ArrayList<>(Math.min(limit, 64));
+        for (Position position : view) {
+            if (page.size() >= limit) {
+                break;
+            }
+            page.add(position);
+        }
+        return page;
+    }
+}
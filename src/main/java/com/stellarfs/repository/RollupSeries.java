@@ -0,0 +1,194 @@
+package com.stellarfs.repository;
+
+import java.lang.invoke.VarHandle;
+
+/**
+ * Fixed-width buckets summarising a node's samples, kept up to date as each
+ * sample arrives: min, max, sum, last and count per metric. Closed buckets
+ * live in a columnar ring read the same lock-free way as {@link MetricSeries};
+ * the bucket still filling is published as an immutable snapshot after every
+ * sample, so readers see it too without ever seeing it half-updated.
+ */
+final class RollupSeries {
+
+    private final long width;
+    private final int retention;
+    private final int capacity;
+    private final int guard;
+    private final long[] starts;
+    private final int[] counts;
+    private final double[][] min;
+    private final double[][] max;
+    private final double[][] sum;
+    private final double[][] last;
+    // Number of buckets ever closed; the volatile write publishes the slot
+    private volatile long published;
+    // Written after published, so a reader that sees it also sees every bucket before it
+    private volatile Bucket open;
+
+    RollupSeries(MetricResolution resolution, int metrics) {
+        this.width = resolution.getWidth();
+        this.retention = resolution.getRetention();
+        this.guard = Math.max(64, retention / 64);
+        this.capacity = retention + guard;
+        this.starts = new long[capacity];
+        this.counts = new int[capacity];
+        this.min = new double[metrics][capacity];
+        this.max = new double[metrics][capacity];
+        this.sum = new double[metrics][capacity];
+        this.last = new double[metrics][capacity];
+    }
+
+    /**
+     * Fold a sample into its bucket. Must only be called by the series' single writer.
+     * @param timestamp Epoch millis, never earlier than the previous sample
+     * @param values One value per metric column
+     */
+    void add(long timestamp, double[] values) {
+        long start = timestamp - Math.floorMod(timestamp, width);
+        Bucket current = open;
+        if (current != null && current.start != start) {
+            close(current);
+            current = null;
+        }
+        open = current == null ? new Bucket(published, start, values) : current.plus(values);
+    }
+
+    private void close(Bucket bucket) {
+        long next = published;
+        int slot = (int) (next % capacity);
+        starts[slot] = bucket.start;
+        counts[slot] = bucket.count;
+        for (int column = 0; column < sum.length; column++) {
+            min[column][slot] = bucket.min[column];
+            max[column][slot] = bucket.max[column];
+            sum[column][slot] = bucket.sum[column];
+            last[column][slot] = bucket.last[column];
+        }
+        published = next + 1;
+    }
+
+    /**
+     * Whether no bucket starting at or after from has been dropped yet.
+     * @param from Epoch millis
+     */
+    boolean covers(long from) {
+        long end = published;
+        if (end <= retention) {
+            return true;
+        }
+        return starts[(int) ((end - retention) % capacity)] <= from;
+    }
+
+    /**
+     * Buckets of one metric whose start lies within [from, to].
+     * @param column Metric column
+     * @param from Earliest bucket start, epoch millis
+     * @param to Latest bucket start, epoch millis
+     * @return Copy of the buckets, oldest first, the last possibly still filling
+     */
+    MetricPoints range(int column, long from, long to) {
+        // Align so the bucket holding from is included
+        long first = from - Math.floorMod(from, width);
+        while (true) {
+            Bucket current = open;
+            if (current == null) {
+                return MetricPoints.empty();
+            }
+            // Read only buckets closed before the snapshot, so the two never overlap or leave a gap
+            long end = current.index;
+            long start = Math.max(0, end - capacity + guard);
+            long lo = lowerBound(start, end, first);
+            long hi = to == Long.MAX_VALUE ? end : lowerBound(lo, end, to + 1);
+            boolean withOpen = current.start >= first && current.start <= to;
+            int closed = (int) (hi - lo);
+            int size = closed + (withOpen ? 1 : 0);
+            long[] times = new long[size];
+            double[] avg = new double[size];
+            double[] lows = new double[size];
+            double[] highs = new double[size];
+            double[] lasts = new double[size];
+            int[] samples = new int[size];
+            for (int i = 0; i < closed; i++) {
+                int slot = (int) ((lo + i) % capacity);
+                times[i] = starts[slot];
+                samples[i] = counts[slot];
+                avg[i] = sum[column][slot] / samples[i];
+                lows[i] = min[column][slot];
+                highs[i] = max[column][slot];
+                lasts[i] = last[column][slot];
+            }
+            // The plain reads above must complete before the count is checked again
+            VarHandle.acquireFence();
+            if (start <= published - capacity) {
+                continue;
+            }
+            if (size == 0) {
+                return MetricPoints.empty();
+            }
+            if (withOpen) {
+                times[closed] = current.start;
+                samples[closed] = current.count;
+                avg[closed] = current.sum[column] / current.count;
+                lows[closed] = current.min[column];
+                highs[closed] = current.max[column];
+                lasts[closed] = current.last[column];
+            }
+            return new MetricPoints(times, avg, lows, highs, lasts, samples);
+        }
+    }
+
+    // First bucket index in [start, end) starting at or after target
+    private long lowerBound(long start, long end, long target) {
+        long lo = start;
+        long hi = end;
+        while (lo < hi) {
+            long mid = (lo + hi) >>> 1;
+            if (starts[(int) (mid % capacity)] < target) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    // Immutable state of the bucket still filling
+    private static final class Bucket {
+        // Number of buckets closed before this one
+        final long index;
+        final long start;
+        final int count;
+        final double[] min;
+        final double[] max;
+        final double[] sum;
+        final double[] last;
+
+        Bucket(long index, long start, double[] values) {
+            this(index, start, 1, values.clone(), values.clone(), values.clone(), values.clone());
+        }
+
+        private Bucket(long index, long start, int count, double[] min, double[] max, double[] sum,
+                       double[] last) {
+            this.index = index;
+            this.start = start;
+            this.count = count;
+            this.min = min;
+            this.max = max;
+            this.sum = sum;
+            this.last = last;
+        }
+
+        Bucket plus(double[] values) {
+            double[] newMin = new double[values.length];
+            double[] newMax = new double[values.length];
+            double[] newSum = new double[values.length];
+            for (int i = 0; i < values.length; i++) {
+                newMin[i] = Math.min(min[i], values[i]);
+                newMax[i] = Math.max(max[i], values[i]);
+                newSum[i] = sum[i] + values[i];
+            }
+            return new Bucket(index, start, count + 1, newMin, newMax, newSum, values.clone());
+        }
+    }
+}
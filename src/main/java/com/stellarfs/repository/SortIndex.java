@@ -0,0 +1,71 @@
+package com.stellarfs.repository;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.NavigableSet;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+/**
+ * File ids ordered by one sort key, the id breaking ties. A page is read
+ * straight off the skip list in either direction, continuing from the
+ * (key, id) position of the last file of the previous page.
+ *
+ * Callers must serialize updates for the same file id; reads are lock-free.
+ */
+class SortIndex<K extends Comparable<? super K>> {
+
+    private static final class Position<K> {
+        private final K key;
+        private final String id;
+
+        private Position(K key, String id) {
+            this.key = key;
+            this.id = id;
+        }
+    }
+
+    private final NavigableSet<Position<K>> positions = new ConcurrentSkipListSet<>(
+            Comparator.<Position<K>, K>comparing(position -> position.key).thenComparing(position -> position.id));
+
+    /**
+     * @param previous Key the file was indexed under, or null if it was not
+     * @param current Key to index it under
+     */
+    void update(String id, K previous, K current) {
+        if (previous != null && previous.equals(current)) {
+            return;
+        }
+        positions.add(new Position<>(current, id));
+        if (previous != null) {
+            positions.remove(new Position<>(previous, id));
+        }
+    }
+
+    void remove(String id, K key) {
+        positions.remove(new Position<>(key, id));
+    }
+
+    /**
+     * Ids in key order, optionally continuing after a position.
+     * @param afterKey Key of the last file of the previous page, or null to start at the first
+     * @param afterId Id of the last file of the previous page
+     * @param descending Largest key first rather than smallest
+     * @param limit Maximum number of ids to return
+     * @return Up to limit ids
+     */
+    List<String> page(K afterKey, String afterId, boolean descending, int limit) {
+        NavigableSet<Position<K>> view = descending ? positions.descendingSet() : positions;
+        if (afterKey != null) {
+            view = view.tailSet(new Position<>(afterKey, afterId), false);
+        }
+        List<String> page = new ArrayList<>(Math.min(limit, 1024));
+        for (Position<K> position : view) {
+            if (page.size() >= limit) {
+                break;
+            }
+            page.add(position.id);
+        }
+        return page;
+    }
+}
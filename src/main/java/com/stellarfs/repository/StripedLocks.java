@@ -0,0 +1,26 @@
+package com.stellarfs.repository;
+
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Fixed set of locks picked by key hash, so writers to different keys
+ * rarely contend without allocating a lock per key. They are
+ * {@link ReentrantLock}s rather than monitors so a virtual thread waiting on
+ * a log sync while holding one does not pin its carrier.
+ */
+final class StripedLocks {
+
+    private final Lock[] locks;
+
+    StripedLocks(int stripes) {
+        locks = new Lock[stripes];
+        for (int i = 0; i < locks.length; i++) {
+            locks[i] = new ReentrantLock();
+        }
+    }
+
+    Lock lockFor(String key) {
+        return locks[Math.floorMod(key.hashCode(), locks.length)];
+    }
+}
@@ -0,0 +1,278 @@
+package com.stellarfs.repository;
+
+import com.stellarfs.model.dto.FileDTO;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Trigram inverted index over file name, owner and path for substring search.
+ * Every file gets a monotonically increasing document number, and each
+ * posting list is a sorted array of document numbers, so a query intersects
+ * posting lists in document order and can stop as soon as a page is full.
+ *
+ * Callers must serialize updates for the same file id; queries are lock-free.
+ */
+class TrigramIndex {
+
+    // Lowercased text captured at index time, used to verify candidates
+    private static final class Doc {
+        private final int number;
+        private final String fileId;
+        private final String name;
+        private final String owner;
+        private final String path;
+        private final long[] trigrams;
+
+        private Doc(int number, FileDTO file) {
+            this.number = number;
+            this.fileId = file.getId();
+            this.name = lower(file.getName());
+            this.owner = lower(file.getOwner());
+            this.path = lower(file.getPath());
+            this.trigrams = trigrams(name, owner, path);
+        }
+
+        private boolean matches(String query) {
+            return name.contains(query) || owner.contains(query) || path.contains(query);
+        }
+
+        private boolean sameText(FileDTO file) {
+            return name.equals(lower(file.getName())) && owner.equals(lower(file.getOwner()))
+                    && path.equals(lower(file.getPath()));
+        }
+
+        private boolean hasTrigram(long trigram) {
+            return Arrays.binarySearch(trigrams, trigram) >= 0;
+        }
+    }
+
+    /**
+     * Sorted document numbers for one trigram. Readers take an immutable
+     * snapshot; writers replace it under the posting's monitor. New documents
+     * have the highest number, so the common add is an append into spare
+     * capacity that older snapshots never look at.
+     */
+    private static final class Posting {
+
+        private static final class Snapshot {
+            private final int[] docs;
+            private final int size;
+
+            private Snapshot(int[] docs, int size) {
+                this.docs = docs;
+                this.size = size;
+            }
+
+            private boolean contains(int number) {
+                return Arrays.binarySearch(docs, 0, size, number) >= 0;
+            }
+        }
+
+        private volatile Snapshot snapshot = new Snapshot(new int[2], 0);
+
+        private synchronized void add(int number) {
+            Snapshot current = snapshot;
+            int[] docs = current.docs;
+            int size = current.size;
+            if (size == 0 || docs[size - 1] < number) {
+                if (size == docs.length) {
+                    docs = Arrays.copyOf(docs, size + (size >> 1) + 2);
+                }
+                docs[size] = number;
+                snapshot = new Snapshot(docs, size + 1);
+                return;
+            }
+            int index = Arrays.binarySearch(docs, 0, size, number);
+            if (index >= 0) {
+                return;
+            }
+            // Re-indexed documents keep their old number and land mid-list
+            int insertAt = -index - 1;
+            int[] copy = new int[Math.max(docs.length, size + 1)];
+            System.arraycopy(docs, 0, copy, 0, insertAt);
+            copy[insertAt] = number;
+            System.arraycopy(docs, insertAt, copy, insertAt + 1, size - insertAt);
+            snapshot = new Snapshot(copy, size + 1);
+        }
+
+        private synchronized void remove(int number) {
+            Snapshot current = snapshot;
+            int index = Arrays.binarySearch(current.docs, 0, current.size, number);
+            if (index < 0) {
+                return;
+            }
+            int[] copy = new int[current.size - 1];
+            System.arraycopy(current.docs, 0, copy, 0, index);
+            System.arraycopy(current.docs, index + 1, copy, index, current.size - index - 1);
+            snapshot = new Snapshot(copy, copy.length);
+        }
+    }
+
+    private final Map<String, Doc> byFileId = new ConcurrentHashMap<>();
+    private final NavigableMap<Integer, Doc> byNumber = new ConcurrentSkipListMap<>();
+    private final Map<Long, Posting> postings = new ConcurrentHashMap<>();
+    private final AtomicInteger nextNumber = new AtomicInteger();
+
+    void index(FileDTO file) {
+        Doc previous = byFileId.get(file.getId());
+        if (previous != null && previous.sameText(file)) {
+            return;
+        }
+        // Reuse the document number so a file keeps its position in result order
+        int number = previous != null ? previous.number : nextNumber.getAndIncrement();
+        Doc doc = new Doc(number, file);
+
+        for (long trigram : doc.trigrams) {
+            postings.computeIfAbsent(trigram, k -> new Posting()).add(number);
+        }
+        byNumber.put(number, doc);
+        byFileId.put(doc.fileId, doc);
+
+        if (previous != null) {
+            for (long trigram : previous.trigrams) {
+                if (!doc.hasTrigram(trigram)) {
+                    removePosting(trigram, number);
+                }
+            }
+        }
+    }
+
+    void remove(String fileId) {
+        Doc doc = byFileId.remove(fileId);
+        if (doc == null) {
+            return;
+        }
+        byNumber.remove(doc.number);
+        for (long trigram : doc.trigrams) {
+            removePosting(trigram, doc.number);
+        }
+    }
+
+    /**
+     * Find files whose name, owner or path contains the query, case-insensitively.
+     * @param query Search text
+     * @param offset Number of matches to skip
+     * @param limit Maximum number of matches to return
+     * @return Matching file ids in indexing order
+     */
+    List<String> search(String query, int offset, int limit) {
+        String needle = lower(query);
+        // Queries too short to form a trigram walk documents in order until the page is full
+        Iterable<Integer> candidates = needle.length() >= 3 ? intersect(needle) : byNumber.keySet();
+
+        List<String> ids = new ArrayList<>(Math.min(limit, 64));
+        int skipped = 0;
+        for (Integer number : candidates) {
+            Doc doc = byNumber.get(number);
+            // Trigram hits are necessary but not sufficient, so confirm the substring
+            if (doc == null || !doc.matches(needle)) {
+                continue;
+            }
+            if (skipped < offset) {
+                skipped++;
+                continue;
+            }
+            ids.add(doc.fileId);
+            if (ids.size() >= limit) {
+                break;
+            }
+        }
+        return ids;
+    }
+
+    private Iterable<Integer> intersect(String needle) {
+        long[] trigrams = trigrams(needle);
+        List<Posting.Snapshot> lists = new ArrayList<>(trigrams.length);
+        for (long trigram : trigrams) {
+            Posting posting = postings.get(trigram);
+            Posting.Snapshot list = posting != null ? posting.snapshot : null;
+            if (list == null || list.size == 0) {
+                return Collections.emptyList();
+            }
+            lists.add(list);
+        }
+        // Drive from the rarest trigram in document order, probing the others lazily
+        lists.sort((a, b) -> Integer.compare(a.size, b.size));
+        Posting.Snapshot driver = lists.get(0);
+        List<Posting.Snapshot> others = lists.subList(1, lists.size());
+        return () -> new Iterator<Integer>() {
+            private int position;
+            private int next = advance();
+
+            private int advance() {
+                while (position < driver.size) {
+                    int candidate = driver.docs[position++];
+                    if (others.stream().allMatch(list -> list.contains(candidate))) {
+                        return candidate;
+                    }
+                }
+                return -1;
+            }
+
+            @Override
+            public boolean hasNext() {
+                return next >= 0;
+            }
+
+            @Override
+            public Integer next() {
+                if (next < 0) {
+                    throw new NoSuchElementException();
+                }
+                int current = next;
+                next = advance();
+                return current;
+            }
+        };
+    }
+
+    private void removePosting(long trigram, int number) {
+        Posting list = postings.get(trigram);
+        if (list != null) {
+            // Empty lists are kept; the trigram space is small and bounded
+            list.remove(number);
+        }
+    }
+
+    // Distinct trigrams of all the given strings, sorted
+    private static long[] trigrams(String... texts) {
+        int count = 0;
+        for (String text : texts) {
+            count += Math.max(0, text.length() - 2);
+        }
+        long[] out = new long[count];
+        int n = 0;
+        for (String text : texts) {
+            for (int i = 0; i + 3 <= text.length(); i++) {
+                out[n++] = encode(text.charAt(i), text.charAt(i + 1), text.charAt(i + 2));
+            }
+        }
+        Arrays.sort(out);
+        int distinct = 0;
+        for (int i = 0; i < out.length; i++) {
+            if (i == 0 || out[i] != out[i - 1]) {
+                out[distinct++] = out[i];
+            }
+        }
+        return Arrays.copyOf(out, distinct);
+    }
+
+    private static long encode(char a, char b, char c) {
+        return ((long) a << 32) | ((long) b << 16) | c;
+    }
+
+    private static String lower(String value) {
+        return value == null ? "" : value.toLowerCase(Locale.ROOT);
+    }
+}
@@ -1 +1,86 @@
- 
\ No newline at end of file
+package com.stellarfs.repository;
+
+import com.stellarfs.model.dto.UserDTO;
+import com.stellarfs.storage.MetadataLog;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Repository;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.Lock;
+
+/**
+ * User accounts keyed by id.
+ */
+@Repository
+public class UserRepository {
+
+    static final String COLLECTION = "users";
+
+    private final MetadataLog log;
+    private final Map<String, UserDTO> byId = new ConcurrentHashMap<>();
+    private final StripedLocks locks = new StripedLocks(64);
+
+    // In-memory only, for tests and benchmarks
+    public UserRepository() {
+        this(null);
+    }
+
+    @Autowired
+    public UserRepository(MetadataLog log) {
+        this.log = log;
+        if (log != null) {
+            for (byte[] record : log.load(COLLECTION).values()) {
+                UserDTO user = MetadataCodec.decode(record, UserDTO.class);
+                byId.put(user.getId(), user);
+            }
+        }
+    }
+
+    public UserDTO save(UserDTO user) {
+        String id = Objects.requireNonNull(user.getId(), "User id is required");
+        Lock lock = locks.lockFor(id);
+        lock.lock();
+        try {
+            if (log != null) {
+                log.put(COLLECTION, id, MetadataCodec.encode(user));
+            }
+            byId.put(id, user);
+        } finally {
+            lock.unlock();
+        }
+        return user;
+    }
+
+    public UserDTO findById(String id) {
+        return byId.get(id);
+    }
+
+    public boolean existsById(String id) {
+        return byId.containsKey(id);
+    }
+
+    public List<UserDTO> findAll() {
+        return new ArrayList<>(byId.values());
+    }
+
+    public long count() {
+        return byId.size();
+    }
+
+    public void deleteById(String id) {
+        Lock lock = locks.lockFor(id);
+        lock.lock();
+        try {
+            if (log != null && byId.containsKey(id)) {
+                log.delete(COLLECTION, id);
+            }
+            byId.remove(id);
+        } finally {
+            lock.unlock();
+        }
+    }
+}
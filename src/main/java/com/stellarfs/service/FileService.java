@@ -1,9 +1,11 @@
 package com.stellarfs.service;
 
 import com.stellarfs.model.dto.FileDTO;
+import com.stellarfs.model.dto.FilePageDTO;
 import com.stellarfs.model.dto.FileVersionDTO;
 import org.springframework.web.multipart.MultipartFile;
 
+import java.io.IOException;
 import java.util.List;
 
 public interface FileService {
@@ -13,6 +15,23 @@ public interface FileService {
      */
     List<FileDTO> getAllFiles();
 
+    /**
+     * Page through all files in name, size or modification order
+     * @param sort name, size or lastModified
+     * @param descending Largest first rather than smallest
+     * @param limit Maximum number of files to return
+     * @param cursor Cursor from the previous page, or null for the first page
+     * @return Page of files and the cursor for the next page
+     * @throws IllegalArgumentException If the sort or cursor is not recognized
+     */
+    FilePageDTO getFiles(String sort, boolean descending, int limit, String cursor);
+
+    /**
+     * Get the number of files in the system
+     * @return Number of catalogued files
+     */
+    long getFileCount();
+
     /**
      * Get a list of files by owner
      * @param owner The owner's username
@@ -20,6 +39,13 @@ public interface FileService {
      */
     List<FileDTO> getFilesByOwner(String owner);
 
+    /**
+     * Get a list of files under a path
+     * @param pathPrefix Path prefix, e.g. "/documents/"
+     * @return List of files whose path starts with the prefix
+     */
+    List<FileDTO> getFilesByPathPrefix(String pathPrefix);
+
     /**
      * Get a list of recent files
      * @param limit Maximum number of files to return
@@ -27,6 +53,14 @@ public interface FileService {
      */
     List<FileDTO> getRecentFiles(int limit);
 
+    /**
+     * Page through files from newest to oldest modification time
+     * @param limit Maximum number of files to return
+     * @param cursor Cursor from the previous page, or null for the first page
+     * @return Page of files and the cursor for the next page
+     */
+    FilePageDTO getRecentFiles(int limit, String cursor);
+
     /**
      * Get a specific file by ID
      * @param id File ID
@@ -35,14 +69,26 @@ public interface FileService {
     FileDTO getFileById(String id);
 
     /**
-     * Upload a new file
+     * Upload a new file, or a new version of the file with the same name and path
      * @param file The file to upload
-     * @param path The path where to store the file
+     * @param path The path where to store the file, or null for wherever the name is already catalogued
      * @param owner The owner's username
-     * @return The created file metadata
+     * @return The created or updated file metadata, or null if the content could not be stored
+     * @throws IllegalStateException If the name is already catalogued under another path
      */
     FileDTO uploadFile(MultipartFile file, String path, String owner);
 
+    /**
+     * Commit a resumable upload session as a new file or a new version
+     * @param sessionId Upload session ID
+     * @param path The path where to store the file, or null for wherever the name is already catalogued
+     * @param owner The owner's username
+     * @return The created or updated file metadata
+     * @throws java.util.NoSuchElementException If the session does not exist
+     * @throws IllegalStateException If parts are missing or the name is catalogued under another path
+     */
+    FileDTO completeUpload(String sessionId, String path, String owner) throws IOException;
+
     /**
      * Delete a file
      * @param id File ID
@@ -61,7 +107,8 @@ public interface FileService {
      * Restore a specific version of a file
      * @param fileId File ID
      * @param version Version number
-     * @return The restored file metadata
+     * @return The restored file metadata, or null if the file or version does not exist
+     * @throws IllegalStateException If the file has no stored content to restore from
      */
     FileDTO restoreVersion(String fileId, Integer version);
 
@@ -72,6 +119,15 @@ public interface FileService {
      */
     List<FileDTO> searchFiles(String query);
 
+    /**
+     * Search for files by name, path, or owner, one page at a time
+     * @param query Search query
+     * @param offset Number of matches to skip
+     * @param limit Maximum number of matches to return
+     * @return Page of matching files
+     */
+    List<FileDTO> searchFiles(String query, int offset, int limit);
+
     /**
      * Filter files by type
      * @param type File type
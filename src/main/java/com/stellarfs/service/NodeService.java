@@ -1,7 +1,10 @@
 package com.stellarfs.service;
 
+import com.stellarfs.model.dto.CollectorStatsDTO;
 import com.stellarfs.model.dto.NodeDTO;
+import com.stellarfs.model.dto.NodeJobDTO;
 import com.stellarfs.model.dto.NodeMetricHistoryDTO;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 import java.util.List;
 import java.util.Map;
 
@@ -12,8 +15,15 @@ public interface NodeService {
     List<NodeDTO> getNodesByType(String type);
     List<NodeDTO> getNodesByLocation(String location);
     List<NodeMetricHistoryDTO> getNodeMetricHistory(String nodeId, String metricType, int hours);
-    void restartNode(String nodeId);
-    void pauseNode(String nodeId);
-    void resumeNode(String nodeId);
+    List<NodeMetricHistoryDTO> getNodeMetricHistory(String nodeId, String metricType, int hours,
+                                                    String resolution, Integer maxPoints);
+    SseEmitter streamNodeMetrics();
+    // Node operations run as background jobs; null if the node is unknown
+    NodeJobDTO restartNode(String nodeId);
+    NodeJobDTO pauseNode(String nodeId);
+    NodeJobDTO resumeNode(String nodeId);
+    NodeJobDTO getNodeJob(String jobId);
+    List<NodeJobDTO> getNodeJobs(String nodeId);
     Map<String, Double> getSystemMetricsSummary();
+    CollectorStatsDTO getCollectorStats();
 } 
\ No newline at end of file
@@ -1,5 +1,9 @@
 package com.stellarfs.service;
 
+import com.stellarfs.model.dto.CompressionReportDTO;
+import com.stellarfs.model.dto.DeduplicationReportDTO;
+import com.stellarfs.model.dto.NodeJobDTO;
+import com.stellarfs.model.dto.ReplicationValidationDTO;
 import com.stellarfs.model.dto.SystemMetricsDTO;
 import java.util.List;
 import java.util.Map;
@@ -8,11 +12,13 @@ public interface SystemOperationsService {
     // System metrics and monitoring
     SystemMetricsDTO getCurrentSystemMetrics();
     List<SystemMetricsDTO> getHistoricalMetrics(int hours);
+    List<SystemMetricsDTO> getHistoricalMetrics(int hours, Integer maxPoints);
     Map<String, Object> getSystemHealth();
     
     // Data replication operations
-    void initiateDataReplication(String nodeId);
-    void validateReplication(String nodeId);
+    NodeJobDTO initiateDataReplication(String nodeId);
+    NodeJobDTO validateReplication(String nodeId);
+    ReplicationValidationDTO getLastValidation(String nodeId);
     Map<String, Integer> getReplicationStatus();
     
     // Backup operations
@@ -23,8 +29,10 @@ public interface SystemOperationsService {
     
     // System maintenance
     void optimizeStorage();
-    void performDataDeduplication();
-    void compressData();
+    NodeJobDTO performDataDeduplication();
+    DeduplicationReportDTO getLastDeduplication();
+    NodeJobDTO compressData();
+    CompressionReportDTO getLastCompression();
     
     // Auto-scaling operations
     void configureAutoScaling(Map<String, Object> config);
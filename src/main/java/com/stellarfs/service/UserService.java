@@ -2,6 +2,9 @@ package com.stellarfs.service;
 
 import com.stellarfs.model.dto.UserDTO;
 import com.stellarfs.model.dto.ActivityLogDTO;
+import com.stellarfs.model.dto.ActivityLogPageDTO;
+
+import java.time.LocalDateTime;
 import java.util.List;
 import java.util.Set;
 
@@ -14,6 +17,7 @@ public interface UserService {
     UserDTO updateUserPermissions(String id, Set<String> permissions);
     List<ActivityLogDTO> getUserActivityLogs(String userId);
     List<ActivityLogDTO> getAllActivityLogs();
+    ActivityLogPageDTO getActivityLogs(String userId, LocalDateTime from, LocalDateTime to, int limit, String cursor);
     void toggleUserStatus(String id);
     List<String> getAvailableRoles();
     List<String> getAvailablePermissions();
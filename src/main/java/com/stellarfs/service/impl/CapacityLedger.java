@@ -0,0 +1,326 @@
+package com.stellarfs.service.impl;
+
+import com.stellarfs.concurrent.DaemonThreads;
+import com.stellarfs.model.dto.FileDTO;
+import com.stellarfs.repository.FileRepository;
+import com.stellarfs.storage.ChunkStore;
+import com.stellarfs.storage.FileStorage;
+import com.stellarfs.storage.Replicator;
+import com.stellarfs.storage.VersionStore;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.nio.file.FileStore;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Keeps track of the bytes stored per node, per owner and per type, so
+ * capacity figures are read from counters instead of by walking storage.
+ *
+ * The stores report every change in the space they take: flat files, chunks
+ * and version history count towards the local node, replica stores towards
+ * their node. The catalog reports the bytes of each file under its owner and
+ * type. A background scan periodically recomputes every figure from disk and
+ * the catalog and corrects the counters; a change racing the scan can leave
+ * a small error, which the next scan corrects.
+ */
+@Slf4j
+@Component
+public class CapacityLedger {
+
+    // Key for files without an owner or type
+    static final String UNKNOWN = "unknown";
+
+    private final FileStorage fileStorage;
+    private final ChunkStore chunkStore;
+    private final VersionStore versionStore;
+    private final Replicator replicator;
+    private final FileRepository fileRepository;
+    private final String localNodeId;
+    private final long nodeCapacityBytes;
+    private final ScheduledExecutorService scheduler;
+
+    private final LongAdder flatBytes = new LongAdder();
+    private final LongAdder chunkBytes = new LongAdder();
+    private final LongAdder versionBytes = new LongAdder();
+    private final Map<String, LongAdder> replicaBytes = new ConcurrentHashMap<>();
+    private final LongAdder catalogBytes = new LongAdder();
+    private final LongAdder catalogFiles = new LongAdder();
+    private final Map<String, LongAdder> ownerBytes = new ConcurrentHashMap<>();
+    private final Map<String, LongAdder> typeBytes = new ConcurrentHashMap<>();
+    private final Map<String, Disk> disks = new ConcurrentHashMap<>();
+
+    // The file system holding a node's data; store is null if it could not be measured
+    private static final class Disk {
+        private final FileStore store;
+        private final long totalBytes;
+
+        private Disk(FileStore store, long totalBytes) {
+            this.store = store;
+            this.totalBytes = totalBytes;
+        }
+    }
+
+    private volatile LocalDateTime reconciledAt;
+    private volatile long lastDriftBytes;
+
+    public CapacityLedger(FileStorage fileStorage,
+                          ChunkStore chunkStore,
+                          VersionStore versionStore,
+                          Replicator replicator,
+                          FileRepository fileRepository,
+                          @Value("${stellarfs.node.local-id:node-1}") String localNodeId,
+                          @Value("${stellarfs.capacity.node-capacity-gb:0}") long nodeCapacityGb,
+                          @Value("${stellarfs.capacity.reconcile-interval-ms:3600000}") long reconcileIntervalMillis) {
+        if (nodeCapacityGb < 0 || reconcileIntervalMillis < 1) {
+            throw new IllegalArgumentException("Require node-capacity-gb >= 0 and reconcile-interval-ms >= 1");
+        }
+        this.fileStorage = fileStorage;
+        this.chunkStore = chunkStore;
+        this.versionStore = versionStore;
+        this.replicator = replicator;
+        this.fileRepository = fileRepository;
+        this.localNodeId = localNodeId;
+        this.nodeCapacityBytes = nodeCapacityGb << 30;
+
+        fileStorage.addUsageListener(flatBytes::add);
+        chunkStore.addUsageListener(chunkBytes::add);
+        versionStore.addUsageListener(versionBytes::add);
+        replicator.addUsageListener((nodeId, delta) -> replica(nodeId).add(delta));
+        fileRepository.addCatalogListener(this::catalogChanged);
+
+        // Listeners first, so nothing stored while the first scan runs is missed
+        try {
+            reconcile();
+        } catch (IOException | RuntimeException e) {
+            log.warn("Initial capacity scan failed; counters start from zero until the next one", e);
+        }
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(DaemonThreads.factory("capacity-reconcile-"));
+        this.scheduler.scheduleWithFixedDelay(this::reconcileQuietly,
+                reconcileIntervalMillis, reconcileIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void close() {
+        scheduler.shutdownNow();
+    }
+
+    /**
+     * Recompute every figure from disk and the catalog and correct the counters.
+     * @return Total bytes by which the physical and catalogued counters were off
+     */
+    public synchronized long reconcile() throws IOException {
+        long drift = correct(flatBytes, fileStorage.flatBytes())
+                + correct(chunkBytes, chunkStore.physicalBytes())
+                + correct(versionBytes, versionStore.physicalBytes());
+        for (String nodeId : replicator.replicaNodes()) {
+            drift += correct(replica(nodeId), replicator.store(nodeId).physicalBytes());
+        }
+
+        Map<String, Long> owners = new HashMap<>();
+        Map<String, Long> types = new HashMap<>();
+        long bytes = 0;
+        long files = 0;
+        for (FileDTO file : fileRepository.findAll()) {
+            long size = file.getSize() != null ? file.getSize() : 0;
+            owners.merge(key(file.getOwner()), size, Long::sum);
+            types.merge(key(file.getType()), size, Long::sum);
+            bytes += size;
+            files++;
+        }
+        drift += correct(catalogBytes, bytes);
+        correct(catalogFiles, files);
+        correct(ownerBytes, owners);
+        correct(typeBytes, types);
+
+        // Disks may have been resized or remounted
+        disks.clear();
+        // The first scan seeds the counters, so only later ones find drift worth reporting
+        if (drift != 0 && reconciledAt != null) {
+            log.info("Capacity counters were off by {} bytes; corrected", drift);
+        }
+        reconciledAt = LocalDateTime.now();
+        lastDriftBytes = drift;
+        return drift;
+    }
+
+    public String getLocalNodeId() {
+        return localNodeId;
+    }
+
+    /**
+     * Nodes holding data: the local node and every node with a replica store.
+     * @return Node IDs, local node first, then sorted
+     */
+    public List<String> nodes() {
+        List<String> nodes = new ArrayList<>(replicaBytes.keySet());
+        nodes.remove(localNodeId);
+        Collections.sort(nodes);
+        nodes.add(0, localNodeId);
+        return nodes;
+    }
+
+    /**
+     * Bytes a node takes on disk: its replica store, plus flat files, chunks
+     * and version history for the local node.
+     * @param nodeId Node ID
+     */
+    public long usedBytes(String nodeId) {
+        LongAdder replicas = replicaBytes.get(nodeId);
+        long used = replicas != null ? replicas.sum() : 0;
+        if (localNodeId.equals(nodeId)) {
+            used += flatBytes.sum() + chunkBytes.sum() + versionBytes.sum();
+        }
+        return used;
+    }
+
+    /**
+     * Capacity of a node: the configured node capacity, or else the size of
+     * the file system holding its data.
+     * @param nodeId Node ID
+     */
+    public long capacityBytes(String nodeId) {
+        if (nodeCapacityBytes > 0) {
+            return nodeCapacityBytes;
+        }
+        return disks.computeIfAbsent(nodeId, this::measure).totalBytes;
+    }
+
+    /**
+     * Capacity of all nodes together. Without a configured node capacity,
+     * nodes whose data shares a file system, as replica stores beside the
+     * uploads do, count that file system once.
+     */
+    public long totalCapacityBytes() {
+        List<String> nodes = nodes();
+        if (nodeCapacityBytes > 0) {
+            return nodeCapacityBytes * nodes.size();
+        }
+        Set<FileStore> counted = new HashSet<>();
+        long total = 0;
+        for (String nodeId : nodes) {
+            Disk disk = disks.computeIfAbsent(nodeId, this::measure);
+            if (disk.store != null && counted.add(disk.store)) {
+                total += disk.totalBytes;
+            }
+        }
+        return total;
+    }
+
+    // Logical bytes of every catalogued file
+    public long getCatalogBytes() {
+        return catalogBytes.sum();
+    }
+
+    public long getCatalogFiles() {
+        return catalogFiles.sum();
+    }
+
+    /**
+     * Catalogued bytes per owner. Files without an owner are under "unknown".
+     */
+    public Map<String, Long> bytesByOwner() {
+        return snapshot(ownerBytes);
+    }
+
+    /**
+     * Catalogued bytes per type. Files without a type are under "unknown".
+     */
+    public Map<String, Long> bytesByType() {
+        return snapshot(typeBytes);
+    }
+
+    // Time of the last completed scan, null before the first
+    public LocalDateTime getReconciledAt() {
+        return reconciledAt;
+    }
+
+    // What the last scan corrected
+    public long getLastDriftBytes() {
+        return lastDriftBytes;
+    }
+
+    private void catalogChanged(String owner, String type, long deltaBytes, int deltaFiles) {
+        catalogBytes.add(deltaBytes);
+        catalogFiles.add(deltaFiles);
+        if (deltaBytes != 0) {
+            ownerBytes.computeIfAbsent(key(owner), k -> new LongAdder()).add(deltaBytes);
+            typeBytes.computeIfAbsent(key(type), k -> new LongAdder()).add(deltaBytes);
+        }
+    }
+
+    private void reconcileQuietly() {
+        try {
+            reconcile();
+        } catch (IOException | RuntimeException e) {
+            log.warn("Capacity scan failed", e);
+        }
+    }
+
+    private LongAdder replica(String nodeId) {
+        return replicaBytes.computeIfAbsent(nodeId, id -> new LongAdder());
+    }
+
+    private Disk measure(String nodeId) {
+        Path dir = localNodeId.equals(nodeId) ? fileStorage.getRoot() : replicator.store(nodeId).getRoot();
+        try {
+            FileStore store = Files.getFileStore(dir);
+            return new Disk(store, store.getTotalSpace());
+        } catch (IOException e) {
+            log.warn("Cannot measure the file system of {}: {}", dir, e.toString());
+            return new Disk(null, 0);
+        }
+    }
+
+    // Returns the absolute correction
+    private static long correct(LongAdder counter, long actual) {
+        long error = actual - counter.sum();
+        counter.add(error);
+        return Math.abs(error);
+    }
+
+    private static void correct(Map<String, LongAdder> counters, Map<String, Long> actual) {
+        for (Map.Entry<String, Long> entry : actual.entrySet()) {
+            correct(counters.computeIfAbsent(entry.getKey(), k -> new LongAdder()), entry.getValue());
+        }
+        for (Map.Entry<String, LongAdder> entry : counters.entrySet()) {
+            if (!actual.containsKey(entry.getKey())) {
+                correct(entry.getValue(), 0);
+            }
+        }
+    }
+
+    // Keys with nothing left are left out
+    private static Map<String, Long> snapshot(Map<String, LongAdder> counters) {
+        Map<String, Long> snapshot = new TreeMap<>();
+        for (Map.Entry<String, LongAdder> entry : counters.entrySet()) {
+            long bytes = entry.getValue().sum();
+            if (bytes != 0) {
+                snapshot.put(entry.getKey(), bytes);
+            }
+        }
+        return snapshot;
+    }
+
+    private static String key(String value) {
+        return value != null ? value : UNKNOWN;
+    }
+}
@@ -0,0 +1,100 @@
+package com.stellarfs.service.impl;
+
+import com.stellarfs.model.dto.NodeDTO;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Cluster-wide metric totals kept up to date as nodes report, so the summary
+ * is read in constant time instead of by scanning every node.
+ *
+ * Each report adds the difference from the node's previous report to striped
+ * adders. Values are held as fixed-point longs, so a node's contributions
+ * cancel exactly when it changes and totals do not drift the way repeated
+ * floating-point adds and subtracts would. The previous report is swapped
+ * atomically, so concurrent reports of one node still sum to its latest.
+ */
+final class ClusterAggregate {
+
+    // Micro-units
+    private static final double SCALE = 1_000_000;
+
+    private static final int CPU = 0;
+    private static final int MEMORY = 1;
+    private static final int DISK = 2;
+    private static final int NETWORK = 3;
+    private static final int CONNECTIONS = 4;
+
+    private final LongAdder[] totals = new LongAdder[5];
+    private final LongAdder nodes = new LongAdder();
+    private final Map<String, long[]> reported = new ConcurrentHashMap<>();
+
+    ClusterAggregate() {
+        for (int i = 0; i < totals.length; i++) {
+            totals[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * Record a node's current metrics.
+     * @param node Node whose current values are recorded
+     */
+    void report(NodeDTO node) {
+        long[] current = new long[totals.length];
+        current[CPU] = fixed(node.getCpuUsage());
+        current[MEMORY] = fixed(node.getMemoryUsage());
+        current[DISK] = fixed(node.getDiskUsage());
+        current[NETWORK] = fixed(node.getNetworkThroughput());
+        current[CONNECTIONS] = node.getActiveConnections() == null ? 0 : node.getActiveConnections();
+        long[] previous = reported.put(node.getId(), current);
+        if (previous == null) {
+            nodes.increment();
+        }
+        for (int i = 0; i < totals.length; i++) {
+            long delta = previous == null ? current[i] : current[i] - previous[i];
+            if (delta != 0) {
+                totals[i].add(delta);
+            }
+        }
+    }
+
+    /**
+     * Stop counting a node.
+     * @param nodeId Node ID
+     */
+    void remove(String nodeId) {
+        long[] previous = reported.remove(nodeId);
+        if (previous == null) {
+            return;
+        }
+        nodes.decrement();
+        for (int i = 0; i < totals.length; i++) {
+            totals[i].add(-previous[i]);
+        }
+    }
+
+    /**
+     * Averages of cpu, memory and disk usage, totals of network throughput and connections.
+     */
+    Map<String, Double> summary() {
+        long count = nodes.sum();
+        Map<String, Double> summary = new HashMap<>(8);
+        summary.put("cpuUsage", average(CPU, count));
+        summary.put("memoryUsage", average(MEMORY, count));
+        summary.put("diskUsage", average(DISK, count));
+        summary.put("networkThroughput", totals[NETWORK].sum() / SCALE);
+        summary.put("activeConnections", (double) totals[CONNECTIONS].sum());
+        return summary;
+    }
+
+    private double average(int metric, long count) {
+        return count == 0 ? 0.0 : totals[metric].sum() / SCALE / count;
+    }
+
+    private static long fixed(Double value) {
+        return value == null ? 0 : Math.round(value * SCALE);
+    }
+}
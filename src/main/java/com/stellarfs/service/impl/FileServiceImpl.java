@@ -1,58 +1,97 @@
 package com.stellarfs.service.impl;
 
 import com.stellarfs.model.dto.FileDTO;
+import com.stellarfs.model.dto.FilePageDTO;
 import com.stellarfs.model.dto.FileVersionDTO;
+import com.stellarfs.model.dto.UploadSessionDTO;
+import com.stellarfs.repository.FileRepository;
+import com.stellarfs.repository.FileVersionRepository;
 import com.stellarfs.service.FileService;
+import com.stellarfs.storage.FileStorage;
+import com.stellarfs.storage.FileTypes;
+import com.stellarfs.storage.UploadSessions;
+import com.stellarfs.storage.VersionStore;
 import org.springframework.stereotype.Service;
 import org.springframework.web.multipart.MultipartFile;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.time.LocalDateTime;
+import java.time.format.DateTimeParseException;
 import java.util.*;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.stream.Collectors;
 
 @Service
 public class FileServiceImpl implements FileService {
 
-    // In a real application, this would connect to a database or file system
-    // For now, we'll use an in-memory list
-    private final List<FileDTO> files;
-    private final Map<String, List<FileVersionDTO>> fileVersions;
+    private static final int LOCK_STRIPES = 64;
 
-    public FileServiceImpl() {
-        // Initialize with some mock data
-        files = new ArrayList<>();
-        fileVersions = new HashMap<>();
-        
+    // File metadata lives in the indexed catalog, persisted through the metadata log
+    private final FileRepository files;
+    private final FileVersionRepository fileVersions;
+    // File content and its version history
+    private final FileStorage fileStorage;
+    private final UploadSessions uploadSessions;
+    // Picking a name's catalog entry and committing its content happen together
+    private final Lock[] locks = new Lock[LOCK_STRIPES];
+
+    // Commits content under the given history key and returns the new version number
+    private interface Commit {
+        int run(String history) throws IOException;
+    }
+
+    public FileServiceImpl(FileRepository fileRepository, FileVersionRepository fileVersionRepository,
+                           FileStorage fileStorage, UploadSessions uploadSessions) {
+        files = fileRepository;
+        fileVersions = fileVersionRepository;
+        this.fileStorage = fileStorage;
+        this.uploadSessions = uploadSessions;
+        for (int i = 0; i < locks.length; i++) {
+            locks[i] = new ReentrantLock();
+        }
+
+        // Seed mock data on first start only; afterwards the catalog is loaded from disk
+        if (files.count() == 0) {
+            initializeMockData();
+        }
+    }
+
+    private void initializeMockData() {
         // Add mock files
-        files.add(new FileDTO("1", "project_report.pdf", "pdf", 2458000L, 
+        files.save(new FileDTO("1", "project_report.pdf", "pdf", 2458000L, 
             LocalDateTime.now().minusDays(1), "Akshat Dwivedi", 
             Arrays.asList("read", "write", "delete"), "/documents/reports/", 3));
             
-        files.add(new FileDTO("2", "profile_picture.jpg", "image", 1240000L, 
+        files.save(new FileDTO("2", "profile_picture.jpg", "image", 1240000L, 
             LocalDateTime.now().minusDays(6), "Akshat Dwivedi", 
             Arrays.asList("read", "write"), "/images/", 2));
             
-        files.add(new FileDTO("3", "database_backup.sql", "code", 8546000L, 
+        files.save(new FileDTO("3", "database_backup.sql", "code", 8546000L, 
             LocalDateTime.now().minusDays(11), "System", 
             Collections.singletonList("read"), "/backups/", 5));
             
-        files.add(new FileDTO("4", "presentation.pptx", "document", 5230000L, 
+        files.save(new FileDTO("4", "presentation.pptx", "document", 5230000L, 
             LocalDateTime.now().minusDays(4), "Akshat Dwivedi", 
             Arrays.asList("read", "write", "delete", "share"), "/documents/presentations/", 7));
             
-        files.add(new FileDTO("5", "source_code.zip", "archive", 12458000L, 
+        files.save(new FileDTO("5", "source_code.zip", "archive", 12458000L, 
             LocalDateTime.now().minusDays(8), "Dev Team", 
             Arrays.asList("read", "write"), "/development/", 10));
             
-        files.add(new FileDTO("6", "user_data.csv", "document", 3240000L, 
+        files.save(new FileDTO("6", "user_data.csv", "document", 3240000L, 
             LocalDateTime.now().minusDays(2), "Akshat Dwivedi", 
             Arrays.asList("read", "write", "delete"), "/data/exports/", 4));
             
-        files.add(new FileDTO("7", "system_logs.txt", "text", 958000L, 
+        files.save(new FileDTO("7", "system_logs.txt", "text", 958000L, 
             LocalDateTime.now().minusDays(1), "System", 
             Collections.singletonList("read"), "/logs/", 1));
             
-        files.add(new FileDTO("8", "promotional_video.mp4", "video", 28540000L, 
+        files.save(new FileDTO("8", "promotional_video.mp4", "video", 28540000L, 
             LocalDateTime.now().minusDays(15), "Marketing Team", 
             Arrays.asList("read", "share"), "/media/videos/", 2));
             
@@ -61,35 +100,129 @@ public class FileServiceImpl implements FileService {
         versions.add(new FileVersionDTO("1", 3, LocalDateTime.now().minusDays(1), 2458000L, "Akshat Dwivedi", true));
         versions.add(new FileVersionDTO("1", 2, LocalDateTime.now().minusDays(2), 2345000L, "Akshat Dwivedi", false));
         versions.add(new FileVersionDTO("1", 1, LocalDateTime.now().minusDays(3), 2240000L, "Team Member", false));
-        fileVersions.put("1", versions);
+        fileVersions.save("1", versions);
     }
 
     @Override
     public List<FileDTO> getAllFiles() {
-        return new ArrayList<>(files);
+        return files.findAll();
+    }
+
+    @Override
+    public FilePageDTO getFiles(String sort, boolean descending, int limit, String cursor) {
+        if (limit < 1) {
+            throw new IllegalArgumentException("Limit must be positive");
+        }
+        FileRepository.Sort order = FileRepository.Sort.of(sort);
+        FileDTO after = null;
+        if (cursor != null && !cursor.isEmpty()) {
+            // Cursor is "<id>|<sort key>" of the last file on the previous page; ids never hold '|', names may
+            String decoded;
+            try {
+                decoded = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Invalid cursor", e);
+            }
+            int separator = decoded.indexOf('|');
+            if (separator < 0) {
+                throw new IllegalArgumentException("Invalid cursor");
+            }
+            after = new FileDTO();
+            after.setId(decoded.substring(0, separator));
+            String key = decoded.substring(separator + 1);
+            try {
+                switch (order) {
+                    case NAME: after.setName(key); break;
+                    case SIZE: after.setSize(Long.parseLong(key)); break;
+                    default: after.setLastModified(key.isEmpty() ? null : LocalDateTime.parse(key)); break;
+                }
+            } catch (NumberFormatException | DateTimeParseException e) {
+                throw new IllegalArgumentException("Invalid cursor", e);
+            }
+        }
+        List<FileDTO> page = files.findSorted(order, descending, after, limit + 1);
+
+        // One extra file tells us whether there is a next page
+        String nextCursor = null;
+        if (page.size() > limit) {
+            page = page.subList(0, limit);
+            FileDTO last = page.get(limit - 1);
+            String key;
+            switch (order) {
+                case NAME: key = last.getName() != null ? last.getName() : ""; break;
+                case SIZE: key = Long.toString(last.getSize() != null ? last.getSize() : 0); break;
+                default: key = last.getLastModified() != null ? last.getLastModified().toString() : ""; break;
+            }
+            nextCursor = Base64.getUrlEncoder().withoutPadding()
+                    .encodeToString((last.getId() + "|" + key).getBytes(StandardCharsets.UTF_8));
+        }
+        return new FilePageDTO(new ArrayList<>(page), nextCursor);
+    }
+
+    @Override
+    public long getFileCount() {
+        return files.count();
     }
 
     @Override
     public List<FileDTO> getFilesByOwner(String owner) {
-        return files.stream()
-                .filter(file -> file.getOwner().equals(owner))
-                .collect(Collectors.toList());
+        return files.findByOwner(owner);
+    }
+
+    @Override
+    public List<FileDTO> getFilesByPathPrefix(String pathPrefix) {
+        return files.findByPathPrefix(pathPrefix);
     }
 
     @Override
     public List<FileDTO> getRecentFiles(int limit) {
-        return files.stream()
-                .sorted(Comparator.comparing(FileDTO::getLastModified).reversed())
-                .limit(limit)
-                .collect(Collectors.toList());
+        return files.findRecent(Math.max(limit, 0));
+    }
+
+    @Override
+    public FilePageDTO getRecentFiles(int limit, String cursor) {
+        if (limit < 1) {
+            throw new IllegalArgumentException("Limit must be positive");
+        }
+        List<FileDTO> page;
+        if (cursor == null || cursor.isEmpty()) {
+            page = files.findRecent(limit + 1);
+        } else {
+            // Cursor is "<lastModified>|<id>" of the last file on the previous page
+            String decoded;
+            try {
+                decoded = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Invalid cursor", e);
+            }
+            int separator = decoded.indexOf('|');
+            if (separator < 0) {
+                throw new IllegalArgumentException("Invalid cursor");
+            }
+            LocalDateTime lastModified;
+            try {
+                lastModified = LocalDateTime.parse(decoded.substring(0, separator));
+            } catch (DateTimeParseException e) {
+                throw new IllegalArgumentException("Invalid cursor", e);
+            }
+            page = files.findRecentAfter(lastModified, decoded.substring(separator + 1), limit + 1);
+        }
+
+        // One extra file tells us whether there is a next page
+        String nextCursor = null;
+        if (page.size() > limit) {
+            page = page.subList(0, limit);
+            FileDTO last = page.get(limit - 1);
+            String position = last.getLastModified() + "|" + last.getId();
+            nextCursor = Base64.getUrlEncoder().withoutPadding()
+                    .encodeToString(position.getBytes(StandardCharsets.UTF_8));
+        }
+        return new FilePageDTO(new ArrayList<>(page), nextCursor);
     }
 
     @Override
     public FileDTO getFileById(String id) {
-        return files.stream()
-                .filter(file -> file.getId().equals(id))
-                .findFirst()
-                .orElse(null);
+        return files.findById(id);
     }
 
     @Override
@@ -97,102 +230,151 @@ public class FileServiceImpl implements FileService {
         if (file == null || file.isEmpty()) {
             throw new IllegalArgumentException("File is empty");
         }
+        String name = fileStorage.resolve(file.getOriginalFilename()).getFileName().toString();
 
         try {
-            // Generate a unique ID for the file
-            String id = UUID.randomUUID().toString();
-            
+            // Spool the content before taking the lock, so only the commit is serialized
+            Path content = fileStorage.receive(file.getInputStream());
+            try {
+                return commit(name, Files.size(content), path, owner,
+                        history -> fileStorage.commitVersion(history, name, content));
+            } finally {
+                Files.deleteIfExists(content);
+            }
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public FileDTO completeUpload(String sessionId, String path, String owner) throws IOException {
+        UploadSessionDTO session = uploadSessions.status(sessionId);
+        return commit(session.getFilename(), session.getSize(), path, owner,
+                history -> uploadSessions.complete(sessionId, history));
+    }
+
+    // Stores content as the next version of its catalog entry, whose ID keys the version history
+    private FileDTO commit(String name, long size, String path, String owner, Commit commit) throws IOException {
+        Lock lock = lockFor(name);
+        lock.lock();
+        try {
+            // Stored files are flat by name, so a name can only be catalogued under one path
+            FileDTO existing = findByName(name);
+            if (existing != null && path != null && !path.equals(existing.getPath())) {
+                throw new IllegalStateException(name + " is already stored under " + existing.getPath());
+            }
+            String id = existing != null ? existing.getId() : UUID.randomUUID().toString();
+            int version = commit.run(id);
+            LocalDateTime now = LocalDateTime.now();
+
+            if (existing != null) {
+                FileDTO updated = withContent(existing, size, now, version);
+                files.save(updated);
+
+                // Mirror the retained versions of the stored content
+                Set<Integer> retained = new HashSet<>();
+                for (VersionStore.Version stored : fileStorage.listVersions(id)) {
+                    retained.add(stored.getNumber());
+                }
+                List<FileVersionDTO> versions = new ArrayList<>();
+                for (FileVersionDTO v : fileVersions.findByFileId(id)) {
+                    if (retained.contains(v.getVersion()) && v.getVersion() != version) {
+                        versions.add(withCurrent(v, false));
+                    }
+                }
+                versions.add(new FileVersionDTO(id, version, now, size, owner, true));
+                fileVersions.save(id, versions);
+                return updated;
+            }
+
             // Create a new FileDTO
             FileDTO newFile = new FileDTO(
                 id,
-                file.getOriginalFilename(),
-                getFileType(file.getOriginalFilename()),
-                file.getSize(),
-                LocalDateTime.now(),
+                name,
+                getFileType(name),
+                size,
+                now,
                 owner,
                 Arrays.asList("read", "write", "delete"),
-                path,
-                1
+                path != null ? path : "/",
+                version
             );
 
-            // Add the file to our list
-            files.add(newFile);
+            // Add the file to the catalog
+            files.save(newFile);
 
             // Create initial version
             List<FileVersionDTO> versions = new ArrayList<>();
             versions.add(new FileVersionDTO(
                 id,
-                1,
-                LocalDateTime.now(),
-                file.getSize(),
+                version,
+                now,
+                size,
                 owner,
                 true
             ));
-            fileVersions.put(id, versions);
+            fileVersions.save(id, versions);
 
             return newFile;
-        } catch (Exception e) {
-            return null;
+        } finally {
+            lock.unlock();
         }
     }
 
+    private FileDTO findByName(String name) {
+        List<FileDTO> candidates = files.findByName(name);
+        return candidates.isEmpty() ? null : candidates.get(0);
+    }
+
+    // Changed copies, since the catalog hands out the instances it holds
+    private static FileDTO withContent(FileDTO file, long size, LocalDateTime lastModified, int version) {
+        return new FileDTO(file.getId(), file.getName(), file.getType(), size, lastModified, file.getOwner(),
+                file.getPermissions(), file.getPath(), version);
+    }
+
+    private static FileVersionDTO withCurrent(FileVersionDTO version, boolean current) {
+        return new FileVersionDTO(version.getFileId(), version.getVersion(), version.getDate(), version.getSize(),
+                version.getChangedBy(), current);
+    }
+
+    private Lock lockFor(String name) {
+        return locks[Math.floorMod(name.hashCode(), locks.length)];
+    }
+
     private String getFileType(String fileName) {
-        String extension = fileName.substring(fileName.lastIndexOf(".") + 1).toLowerCase();
-        switch (extension) {
-            case "pdf":
-                return "pdf";
-            case "jpg":
-            case "jpeg":
-            case "png":
-            case "gif":
-                return "image";
-            case "doc":
-            case "docx":
-            case "txt":
-                return "document";
-            case "zip":
-            case "rar":
-            case "7z":
-                return "archive";
-            case "mp4":
-            case "avi":
-            case "mov":
-                return "video";
-            case "mp3":
-            case "wav":
-            case "flac":
-                return "audio";
-            case "java":
-            case "js":
-            case "py":
-            case "cpp":
-                return "code";
-            default:
-                return "unknown";
-        }
+        return FileTypes.of(fileName);
     }
 
     @Override
     public boolean deleteFile(String id) {
-        FileDTO file = getFileById(id);
+        FileDTO file = files.findById(id);
         if (file == null) {
             return false;
         }
-        
-        // Delete file from list
-        boolean removed = files.removeIf(f -> f.getId().equals(id));
-        
-        // Delete versions
-        if (removed) {
-            fileVersions.remove(id);
+        // Same lock as commit, so an upload cannot join the entry while its content goes
+        Lock lock = lockFor(file.getName());
+        lock.lock();
+        try {
+            // Content first: if that fails the entry stays, and the delete can be retried
+            fileStorage.delete(id, file.getName());
+            FileDTO removed = files.deleteById(id);
+            
+            // Delete versions
+            if (removed != null) {
+                fileVersions.deleteByFileId(id);
+            }
+            
+            return removed != null;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot delete the content of " + file.getName(), e);
+        } finally {
+            lock.unlock();
         }
-        
-        return removed;
     }
 
     @Override
     public List<FileVersionDTO> getFileVersions(String fileId) {
-        return fileVersions.getOrDefault(fileId, Collections.emptyList());
+        return fileVersions.findByFileId(fileId);
     }
 
     @Override
@@ -202,8 +384,8 @@ public class FileServiceImpl implements FileService {
             return null;
         }
         
-        List<FileVersionDTO> versions = fileVersions.get(fileId);
-        if (versions == null) {
+        List<FileVersionDTO> versions = fileVersions.findByFileId(fileId);
+        if (versions.isEmpty()) {
             return null;
         }
         
@@ -215,33 +397,48 @@ public class FileServiceImpl implements FileService {
             return null;
         }
         
-        // In a real application, we would restore the actual file data
-        // For now, we'll just update the file metadata
+        // Rebuild the stored bytes from the entry's own history
+        try {
+            if (fileStorage.listVersions(fileId).isEmpty()) {
+                throw new IllegalStateException(file.getName() + " has no stored versions");
+            }
+            if (!fileStorage.restoreVersion(fileId, file.getName(), version)) {
+                return null;
+            }
+        } catch (IOException | IllegalArgumentException e) {
+            return null;
+        }
         
         // Update current version flag
-        versions.forEach(v -> v.setCurrent(v.getVersion().equals(version)));
+        fileVersions.save(fileId, versions.stream()
+                .map(v -> withCurrent(v, v.getVersion().equals(version)))
+                .collect(Collectors.toList()));
         
         // Update file metadata
-        file.setVersion(version);
-        file.setLastModified(LocalDateTime.now());
+        FileDTO restored = withContent(file, versionToRestore.get().getSize(), LocalDateTime.now(), version);
+        files.save(restored);
         
-        return file;
+        return restored;
     }
 
     @Override
     public List<FileDTO> searchFiles(String query) {
+        return searchFiles(query, 0, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public List<FileDTO> searchFiles(String query, int offset, int limit) {
+        if (offset < 0 || limit < 0) {
+            throw new IllegalArgumentException("Offset and limit must not be negative");
+        }
         if (query == null || query.trim().isEmpty()) {
-            return getAllFiles();
+            return getAllFiles().stream()
+                    .skip(offset)
+                    .limit(limit)
+                    .collect(Collectors.toList());
         }
         
-        String lowercaseQuery = query.toLowerCase();
-        
-        return files.stream()
-                .filter(file -> 
-                    file.getName().toLowerCase().contains(lowercaseQuery) ||
-                    file.getOwner().toLowerCase().contains(lowercaseQuery) ||
-                    file.getPath().toLowerCase().contains(lowercaseQuery))
-                .collect(Collectors.toList());
+        return files.search(query, offset, limit);
     }
 
     @Override
@@ -250,8 +447,6 @@ public class FileServiceImpl implements FileService {
             return getAllFiles();
         }
         
-        return files.stream()
-                .filter(file -> file.getType().equals(type))
-                .collect(Collectors.toList());
+        return files.findByType(type);
     }
 } 
\ No newline at end of file
@@ -0,0 +1,311 @@
+package com.stellarfs.service.impl;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileStore;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * Measures the host this process runs on from /proc: CPU from /proc/stat,
+ * memory from /proc/meminfo, network from /proc/net/dev, and disk usage of
+ * the file system holding the storage directory.
+ *
+ * The /proc files are kept open and re-read from offset 0 into reused
+ * buffers, and numbers are parsed straight from the bytes, so a sample
+ * allocates nothing. CPU and network are rates, computed from the
+ * difference with the previous sample. Not thread-safe: one collector
+ * schedule samples it.
+ */
+@Slf4j
+@Component
+public class HostMetricsProbe {
+
+    private static final byte[] MEM_TOTAL = "MemTotal:".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] MEM_AVAILABLE = "MemAvailable:".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] LOOPBACK = "lo".getBytes(StandardCharsets.US_ASCII);
+
+    private final boolean enabled;
+    private final Path storageDir;
+    private ProcFile stat;
+    private ProcFile meminfo;
+    private ProcFile netDev;
+    private FileStore fileStore;
+    private boolean available;
+
+    // Previous sample, for rates
+    private long lastBusy = -1;
+    private long lastTotal;
+    private long lastNetBytes = -1;
+    private long lastSampleNanos;
+
+    private double cpuUsage;
+    private double memoryUsage;
+    private double diskUsage;
+    private double networkThroughput;
+    private long sampleNanos;
+
+    // A /proc file re-read in place; the buffer grows only if the file outgrows it
+    private static final class ProcFile {
+        private final RandomAccessFile file;
+        private byte[] buffer = new byte[8192];
+        private int length;
+
+        private ProcFile(Path path) throws IOException {
+            this.file = new RandomAccessFile(path.toFile(), "r");
+        }
+
+        private void read() throws IOException {
+            file.seek(0);
+            length = 0;
+            int n;
+            while ((n = file.read(buffer, length, buffer.length - length)) > 0) {
+                length += n;
+                if (length == buffer.length) {
+                    byte[] larger = new byte[buffer.length * 2];
+                    System.arraycopy(buffer, 0, larger, 0, length);
+                    buffer = larger;
+                }
+            }
+        }
+
+        private void close() throws IOException {
+            file.close();
+        }
+    }
+
+    public HostMetricsProbe(@Value("${stellarfs.probe.enabled:true}") boolean enabled,
+                            @Value("${stellarfs.probe.proc-dir:/proc}") String procDir,
+                            @Value("${stellarfs.storage.upload-dir:uploads}") String storageDir) {
+        this.enabled = enabled;
+        this.storageDir = Paths.get(storageDir).toAbsolutePath().normalize();
+        if (!enabled) {
+            return;
+        }
+        Path proc = Paths.get(procDir);
+        try {
+            stat = new ProcFile(proc.resolve("stat"));
+            meminfo = new ProcFile(proc.resolve("meminfo"));
+            netDev = new ProcFile(proc.resolve("net/dev"));
+            available = sample();
+        } catch (IOException e) {
+            log.info("Host metrics probe unavailable ({}); local node metrics stay simulated", e.toString());
+            close();
+        }
+    }
+
+    @PreDestroy
+    public void close() {
+        available = false;
+        for (ProcFile file : new ProcFile[]{stat, meminfo, netDev}) {
+            if (file != null) {
+                try {
+                    file.close();
+                } catch (IOException e) {
+                    // Nothing to do
+                }
+            }
+        }
+    }
+
+    /**
+     * Whether the probe is enabled and the host exposes what it reads.
+     */
+    public boolean isAvailable() {
+        return enabled && available;
+    }
+
+    /**
+     * Take a sample. The getters then return its values.
+     * @return False if reading failed; the previous values are kept
+     */
+    public boolean sample() {
+        long start = System.nanoTime();
+        try {
+            stat.read();
+            meminfo.read();
+            netDev.read();
+            sampleCpu();
+            sampleMemory();
+            sampleNetwork(start);
+            sampleDisk();
+        } catch (IOException | RuntimeException e) {
+            log.warn("Host metrics sample failed: {}", e.toString());
+            return false;
+        }
+        lastSampleNanos = start;
+        sampleNanos = System.nanoTime() - start;
+        return true;
+    }
+
+    // Percent
+    public double getCpuUsage() {
+        return cpuUsage;
+    }
+
+    // Percent
+    public double getMemoryUsage() {
+        return memoryUsage;
+    }
+
+    // Percent of the file system holding the storage directory
+    public double getDiskUsage() {
+        return diskUsage;
+    }
+
+    // Received plus sent, MB/s, excluding loopback
+    public double getNetworkThroughput() {
+        return networkThroughput;
+    }
+
+    // Time the last sample took, in nanoseconds
+    public long getSampleNanos() {
+        return sampleNanos;
+    }
+
+    private void sampleCpu() {
+        // cpu  user nice system idle iowait irq softirq steal guest guest_nice
+        byte[] b = stat.buffer;
+        int pos = skipSpaces(b, skipToken(b, 0, stat.length), stat.length);
+        long total = 0;
+        long idle = 0;
+        for (int field = 0; field < 8 && pos < stat.length && b[pos] != '\n'; field++) {
+            long value = parseLong(b, pos, stat.length);
+            pos = skipSpaces(b, skipToken(b, pos, stat.length), stat.length);
+            total += value;
+            // idle and iowait
+            if (field == 3 || field == 4) {
+                idle += value;
+            }
+        }
+        long busy = total - idle;
+        if (lastBusy >= 0 && total > lastTotal) {
+            cpuUsage = 100.0 * (busy - lastBusy) / (total - lastTotal);
+        } else if (lastBusy < 0 && total > 0) {
+            // First sample: average since boot
+            cpuUsage = 100.0 * busy / total;
+        }
+        lastBusy = busy;
+        lastTotal = total;
+    }
+
+    private void sampleMemory() {
+        long total = valueOf(meminfo, MEM_TOTAL);
+        long available = valueOf(meminfo, MEM_AVAILABLE);
+        if (total > 0 && available >= 0) {
+            memoryUsage = 100.0 * (total - available) / total;
+        }
+    }
+
+    private void sampleNetwork(long now) {
+        byte[] b = netDev.buffer;
+        int end = netDev.length;
+        long bytes = 0;
+        // Two header lines, then "  name: rx_bytes ... (8 receive fields) tx_bytes ..."
+        int line = nextLine(b, nextLine(b, 0, end), end);
+        while (line < end) {
+            int colon = line;
+            while (colon < end && b[colon] != ':' && b[colon] != '\n') {
+                colon++;
+            }
+            if (colon < end && b[colon] == ':' && !isLoopback(b, skipSpaces(b, line, colon), colon)) {
+                int pos = skipSpaces(b, colon + 1, end);
+                for (int field = 0; field <= 8 && pos < end && b[pos] != '\n'; field++) {
+                    if (field == 0 || field == 8) {
+                        bytes += parseLong(b, pos, end);
+                    }
+                    pos = skipSpaces(b, skipToken(b, pos, end), end);
+                }
+            }
+            line = nextLine(b, line, end);
+        }
+        if (lastNetBytes >= 0 && now > lastSampleNanos && bytes >= lastNetBytes) {
+            double seconds = (now - lastSampleNanos) / 1e9;
+            networkThroughput = (bytes - lastNetBytes) / 1e6 / seconds;
+        }
+        lastNetBytes = bytes;
+    }
+
+    private void sampleDisk() throws IOException {
+        if (fileStore == null) {
+            // The storage directory may not exist yet; measure the nearest existing ancestor
+            Path dir = storageDir;
+            while (dir != null && !Files.exists(dir)) {
+                dir = dir.getParent();
+            }
+            if (dir == null) {
+                return;
+            }
+            fileStore = Files.getFileStore(dir);
+        }
+        long total = fileStore.getTotalSpace();
+        if (total > 0) {
+            diskUsage = 100.0 * (total - fileStore.getUsableSpace()) / total;
+        }
+    }
+
+    // Value of a "Key:   123 kB" line, or -1
+    private static long valueOf(ProcFile file, byte[] key) {
+        byte[] b = file.buffer;
+        int line = 0;
+        while (line < file.length) {
+            if (startsWith(b, line, file.length, key)) {
+                return parseLong(b, skipSpaces(b, line + key.length, file.length), file.length);
+            }
+            line = nextLine(b, line, file.length);
+        }
+        return -1;
+    }
+
+    private static boolean isLoopback(byte[] b, int start, int end) {
+        return end - start == LOOPBACK.length && startsWith(b, start, end, LOOPBACK);
+    }
+
+    private static boolean startsWith(byte[] b, int pos, int end, byte[] prefix) {
+        if (end - pos < prefix.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if (b[pos + i] != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static long parseLong(byte[] b, int pos, int end) {
+        long value = 0;
+        while (pos < end && b[pos] >= '0' && b[pos] <= '9') {
+            value = value * 10 + (b[pos++] - '0');
+        }
+        return value;
+    }
+
+    private static int skipToken(byte[] b, int pos, int end) {
+        while (pos < end && b[pos] != ' ' && b[pos] != '\t' && b[pos] != '\n') {
+            pos++;
+        }
+        return pos;
+    }
+
+    private static int skipSpaces(byte[] b, int pos, int end) {
+        while (pos < end && (b[pos] == ' ' || b[pos] == '\t')) {
+            pos++;
+        }
+        return pos;
+    }
+
+    private static int nextLine(byte[] b, int pos, int end) {
+        while (pos < end && b[pos] != '\n') {
+            pos++;
+        }
+        return pos + 1;
+    }
+}
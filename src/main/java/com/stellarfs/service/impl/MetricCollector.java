@@ -0,0 +1,203 @@
+package com.stellarfs.service.impl;
+
+import com.stellarfs.concurrent.DaemonThreads;
+import com.stellarfs.model.dto.CollectorStatsDTO;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Runs per-node metric collection on a bounded scheduled pool. Each node has
+ * its own schedule, so nodes are spread over the pool's threads and a slow
+ * node only delays itself; runs of one node never overlap, which keeps each
+ * node's history single-writer.
+ *
+ * Schedules are fixed-rate against ideal due times, so they do not drift.
+ * Every run is shifted by a random jitter to keep nodes from firing in step.
+ * A run that ends after its next due time is an overrun: the missed slots
+ * are skipped rather than run back to back. Failures are logged and counted
+ * and never cancel the schedule.
+ */
+@Slf4j
+@Component
+public class MetricCollector {
+
+    private final ScheduledThreadPoolExecutor scheduler;
+    private final int threads;
+    private final long defaultIntervalMillis;
+    private final long jitterMillis;
+    private final Map<String, Long> nodeIntervals = new HashMap<>();
+    private final Map<String, Schedule> schedules = new ConcurrentHashMap<>();
+
+    private final LongAdder collections = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+    private final LongAdder overruns = new LongAdder();
+    private final LongAdder missedIntervals = new LongAdder();
+    private final LongAdder totalLagMillis = new LongAdder();
+    private final LongAdder totalDurationMicros = new LongAdder();
+    private final LongAccumulator maxLagMillis = new LongAccumulator(Math::max, 0);
+    private final LongAccumulator maxDurationMicros = new LongAccumulator(Math::max, 0);
+
+    public MetricCollector(@Value("${stellarfs.collector.threads:0}") int threads,
+                           @Value("${stellarfs.collector.interval-ms:5000}") long intervalMillis,
+                           @Value("${stellarfs.collector.jitter-ms:250}") long jitterMillis,
+                           @Value("${stellarfs.collector.node-intervals:}") String nodeIntervals) {
+        if (intervalMillis < 1 || jitterMillis < 0 || jitterMillis >= intervalMillis) {
+            throw new IllegalArgumentException("Require interval-ms >= 1 and 0 <= jitter-ms < interval-ms");
+        }
+        this.threads = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+        this.defaultIntervalMillis = intervalMillis;
+        this.jitterMillis = jitterMillis;
+        // Comma-separated nodeId=millis overrides
+        for (String entry : nodeIntervals.split(",")) {
+            if (entry.isBlank()) {
+                continue;
+            }
+            String[] parts = entry.split("=");
+            if (parts.length != 2 || Long.parseLong(parts[1].trim()) < 1) {
+                throw new IllegalArgumentException("Invalid node interval: " + entry);
+            }
+            this.nodeIntervals.put(parts[0].trim(), Long.parseLong(parts[1].trim()));
+        }
+        this.scheduler = new ScheduledThreadPoolExecutor(this.threads, DaemonThreads.factory("metric-collector-"));
+        this.scheduler.setRemoveOnCancelPolicy(true);
+    }
+
+    @PreDestroy
+    public void close() {
+        scheduler.shutdownNow();
+    }
+
+    /**
+     * Collect a node's metrics periodically, at its configured interval. Replaces any schedule it had.
+     * @param nodeId Node ID
+     * @param collect Collects and records one sample of the node
+     */
+    public void schedule(String nodeId, Runnable collect) {
+        schedule(nodeId, nodeIntervals.getOrDefault(nodeId, defaultIntervalMillis), collect);
+    }
+
+    /**
+     * Run a task periodically under a name, e.g. work done once per collection round.
+     * @param name Schedule name, unique among nodes and tasks
+     * @param intervalMillis Interval in millis
+     * @param task Task to run
+     */
+    public void schedule(String name, long intervalMillis, Runnable task) {
+        if (intervalMillis < 1) {
+            throw new IllegalArgumentException("Interval must be positive");
+        }
+        Schedule schedule = new Schedule(task, TimeUnit.MILLISECONDS.toNanos(intervalMillis));
+        Schedule previous = schedules.put(name, schedule);
+        if (previous != null) {
+            previous.cancelled = true;
+        }
+        // Random phase so schedules added together do not fire together
+        long phase = ThreadLocalRandom.current().nextLong(TimeUnit.MILLISECONDS.toNanos(intervalMillis));
+        schedule.due = System.nanoTime() + phase;
+        schedule.submit();
+    }
+
+    /**
+     * Stop collecting a node's metrics. A run already under way completes.
+     * @param name Node ID or task name
+     */
+    public void unschedule(String name) {
+        Schedule schedule = schedules.remove(name);
+        if (schedule != null) {
+            schedule.cancelled = true;
+        }
+    }
+
+    public long getDefaultIntervalMillis() {
+        return defaultIntervalMillis;
+    }
+
+    public CollectorStatsDTO getStats() {
+        CollectorStatsDTO stats = new CollectorStatsDTO();
+        long runs = collections.sum();
+        stats.setSchedules(schedules.size());
+        stats.setThreads(threads);
+        stats.setCollections(runs);
+        stats.setFailures(failures.sum());
+        stats.setOverruns(overruns.sum());
+        stats.setMissedIntervals(missedIntervals.sum());
+        stats.setMeanLagMs(runs == 0 ? 0 : (double) totalLagMillis.sum() / runs);
+        stats.setMaxLagMs(maxLagMillis.get());
+        stats.setMeanDurationMs(runs == 0 ? 0 : totalDurationMicros.sum() / 1000.0 / runs);
+        stats.setMaxDurationMs(maxDurationMicros.get() / 1000.0);
+        stats.setQueuedRuns(scheduler.getQueue().size());
+        return stats;
+    }
+
+    private final class Schedule implements Runnable {
+        private final Runnable task;
+        private final long intervalNanos;
+        // Ideal start of the next run, before jitter; touched only by the run in progress
+        private long due;
+        private long jitter;
+        private volatile boolean cancelled;
+
+        private Schedule(Runnable task, long intervalNanos) {
+            this.task = task;
+            this.intervalNanos = intervalNanos;
+        }
+
+        private void submit() {
+            jitter = jitterMillis == 0 ? 0
+                    : ThreadLocalRandom.current().nextLong(TimeUnit.MILLISECONDS.toNanos(jitterMillis));
+            long delay = due + jitter - System.nanoTime();
+            try {
+                scheduler.schedule(this, Math.max(0, delay), TimeUnit.NANOSECONDS);
+            } catch (RejectedExecutionException e) {
+                // Shutting down
+                cancelled = true;
+            }
+        }
+
+        @Override
+        public void run() {
+            if (cancelled) {
+                return;
+            }
+            long start = System.nanoTime();
+            long lagMillis = Math.max(0, TimeUnit.NANOSECONDS.toMillis(start - due - jitter));
+            try {
+                task.run();
+            } catch (Throwable t) {
+                failures.increment();
+                log.warn("Metric collection failed", t);
+            }
+            long end = System.nanoTime();
+            long durationMicros = TimeUnit.NANOSECONDS.toMicros(end - start);
+            collections.increment();
+            totalLagMillis.add(lagMillis);
+            maxLagMillis.accumulate(lagMillis);
+            totalDurationMicros.add(durationMicros);
+            maxDurationMicros.accumulate(durationMicros);
+
+            due += intervalNanos;
+            if (end > due) {
+                // Overran into the next slot; skip every slot already past
+                long missed = (end - due) / intervalNanos + 1;
+                overruns.increment();
+                missedIntervals.add(missed);
+                due += missed * intervalNanos;
+            }
+            if (!cancelled) {
+                submit();
+            }
+        }
+    }
+}
@@ -0,0 +1,234 @@
+package com.stellarfs.service.impl;
+
+import com.stellarfs.concurrent.DaemonThreads;
+import com.stellarfs.model.dto.NodeJobDTO;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.time.LocalDateTime;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+/**
+ * Runs node operations (restart, pause, resume, replicate) as background
+ * jobs so request threads only enqueue them. A node runs one job at a time,
+ * in submission order, with a bounded queue behind it; the workers are
+ * shared by all nodes. Operations that wait return a future instead of
+ * sleeping, so waiting ties up no thread.
+ */
+@Slf4j
+@Component
+public class NodeJobRunner {
+
+    /**
+     * Work done by a job.
+     */
+    public interface Operation {
+        /**
+         * Start the operation.
+         * @param progress Reports progress while it runs
+         * @return Completes when the operation has finished
+         */
+        CompletableFuture<?> start(Progress progress) throws Exception;
+    }
+
+    public interface Progress {
+        /**
+         * @param fraction 0 to 1
+         * @param message What is happening
+         */
+        void update(double fraction, String message);
+    }
+
+    private final ExecutorService workers;
+    private final ScheduledExecutorService timer;
+    private final int maxQueuedPerNode;
+    private final int retained;
+    private final Map<String, Job> jobs = new ConcurrentHashMap<>();
+    private final Map<String, NodeQueue> queues = new ConcurrentHashMap<>();
+    private final Queue<String> finished = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger finishedCount = new AtomicInteger();
+
+    private static final class Job implements Progress {
+        private final String id = UUID.randomUUID().toString();
+        private final String nodeId;
+        private final String operation;
+        private final Operation work;
+        private final LocalDateTime submittedAt = LocalDateTime.now();
+        private volatile String status = "queued";
+        private volatile double progress;
+        private volatile String message;
+        private volatile LocalDateTime startedAt;
+        private volatile LocalDateTime finishedAt;
+
+        private Job(String nodeId, String operation, Operation work) {
+            this.nodeId = nodeId;
+            this.operation = operation;
+            this.work = work;
+        }
+
+        @Override
+        public void update(double fraction, String message) {
+            this.progress = Math.max(0, Math.min(1, fraction));
+            this.message = message;
+        }
+
+        private NodeJobDTO toDTO() {
+            NodeJobDTO dto = new NodeJobDTO();
+            dto.setId(id);
+            dto.setNodeId(nodeId);
+            dto.setOperation(operation);
+            dto.setStatus(status);
+            dto.setProgress(progress);
+            dto.setMessage(message);
+            dto.setSubmittedAt(submittedAt);
+            dto.setStartedAt(startedAt);
+            dto.setFinishedAt(finishedAt);
+            return dto;
+        }
+    }
+
+    // Jobs waiting for one node; guarded by itself
+    private static final class NodeQueue {
+        private final ArrayDeque<Job> waiting = new ArrayDeque<>();
+        private boolean busy;
+    }
+
+    public NodeJobRunner(@Value("${stellarfs.jobs.threads:4}") int threads,
+                         @Value("${stellarfs.jobs.max-queued-per-node:8}") int maxQueuedPerNode,
+                         @Value("${stellarfs.jobs.retained:1000}") int retained) {
+        if (threads < 1 || maxQueuedPerNode < 1 || retained < 0) {
+            throw new IllegalArgumentException("Require threads >= 1, max-queued-per-node >= 1, retained >= 0");
+        }
+        this.workers = Executors.newFixedThreadPool(threads, DaemonThreads.factory("node-job-"));
+        this.timer = Executors.newSingleThreadScheduledExecutor(DaemonThreads.factory("node-job-timer-"));
+        this.maxQueuedPerNode = maxQueuedPerNode;
+        this.retained = retained;
+    }
+
+    @PreDestroy
+    public void close() {
+        workers.shutdownNow();
+        timer.shutdownNow();
+    }
+
+    /**
+     * Queue an operation on a node.
+     * @param nodeId Node the operation acts on
+     * @param operation Operation name
+     * @param work The operation
+     * @return The job as queued
+     * @throws IllegalStateException If the node already has max-queued-per-node jobs waiting
+     */
+    public NodeJobDTO submit(String nodeId, String operation, Operation work) {
+        Job job = new Job(nodeId, operation, work);
+        NodeQueue queue = queues.computeIfAbsent(nodeId, id -> new NodeQueue());
+        boolean start;
+        synchronized (queue) {
+            if (queue.waiting.size() >= maxQueuedPerNode) {
+                throw new IllegalStateException("Too many operations queued for " + nodeId);
+            }
+            jobs.put(job.id, job);
+            queue.waiting.addLast(job);
+            start = !queue.busy;
+            queue.busy = true;
+        }
+        if (start) {
+            workers.execute(() -> runNext(queue));
+        }
+        return job.toDTO();
+    }
+
+    /**
+     * A future that completes after a delay, for operations that wait.
+     * @param delayMillis Delay in millis
+     */
+    public CompletableFuture<Void> after(long delayMillis) {
+        CompletableFuture<Void> done = new CompletableFuture<>();
+        timer.schedule(() -> done.complete(null), delayMillis, TimeUnit.MILLISECONDS);
+        return done;
+    }
+
+    /**
+     * @param jobId Job ID
+     * @return The job's current state, or null if unknown or no longer retained
+     */
+    public NodeJobDTO get(String jobId) {
+        Job job = jobs.get(jobId);
+        return job == null ? null : job.toDTO();
+    }
+
+    /**
+     * @param nodeId Node ID
+     * @return Retained jobs of a node, newest first
+     */
+    public List<NodeJobDTO> list(String nodeId) {
+        return jobs.values().stream()
+                .filter(job -> job.nodeId.equals(nodeId))
+                .sorted(Comparator.comparing((Job job) -> job.submittedAt).reversed())
+                .map(Job::toDTO)
+                .collect(Collectors.toCollection(ArrayList::new));
+    }
+
+    private void runNext(NodeQueue queue) {
+        Job job;
+        synchronized (queue) {
+            job = queue.waiting.pollFirst();
+            if (job == null) {
+                queue.busy = false;
+                return;
+            }
+        }
+        job.startedAt = LocalDateTime.now();
+        job.status = "running";
+        CompletableFuture<?> result;
+        try {
+            result = job.work.start(job);
+        } catch (Throwable t) {
+            result = CompletableFuture.failedFuture(t);
+        }
+        result.whenComplete((value, error) -> {
+            finish(job, error);
+            workers.execute(() -> runNext(queue));
+        });
+    }
+
+    private void finish(Job job, Throwable error) {
+        job.finishedAt = LocalDateTime.now();
+        if (error == null) {
+            job.update(1, job.message);
+            job.status = "succeeded";
+        } else {
+            Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+            log.warn("{} of {} failed", job.operation, job.nodeId, cause);
+            job.message = cause.getMessage();
+            job.status = "failed";
+        }
+        // Keep the most recent finished jobs for status queries
+        finished.add(job.id);
+        if (finishedCount.incrementAndGet() > retained) {
+            String oldest = finished.poll();
+            if (oldest != null) {
+                finishedCount.decrementAndGet();
+                jobs.remove(oldest);
+            }
+        }
+    }
+}
@@ -0,0 +1,338 @@
+package com.stellarfs.service.impl;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.stellarfs.concurrent.DaemonThreads;
+import com.stellarfs.model.dto.NodeDTO;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Pushes node metric changes to dashboards over server-sent events. Each
+ * metric tick is turned into one delta frame holding only the fields that
+ * changed, serialized once and queued to every subscriber as is.
+ *
+ * Subscribers are sent to from a small pool, so a slow client never holds
+ * up the tick. Each has a short queue; when it is full the oldest frame is
+ * dropped and the client is sent a fresh snapshot before the frames that
+ * remain, skipping any the snapshot already covers.
+ *
+ * A sender sends at most frames-per-turn frames to one subscriber before
+ * going to the back of the pool's queue, so a busy client cannot keep a
+ * thread from the others. A send still blocked after send-timeout-ms evicts
+ * the subscriber: its emitter is completed with an error and the blocked
+ * sender interrupted, so a stalled client frees its thread.
+ */
+@Slf4j
+@Component
+public class NodeMetricStream {
+
+    private static final String SNAPSHOT = "snapshot";
+    private static final String DELTA = "delta";
+
+    private final ObjectMapper objectMapper;
+    private final int queueFrames;
+    private final long timeoutMillis;
+    private final int framesPerTurn;
+    private final long sendTimeoutNanos;
+    private final ExecutorService senders;
+    private final ScheduledExecutorService watchdog;
+    private final Set<Subscriber> subscribers = ConcurrentHashMap.newKeySet();
+    private final AtomicLong framesDropped = new AtomicLong();
+    private final AtomicLong subscribersEvicted = new AtomicLong();
+
+    // Tick thread only: fields last published per node
+    private final Map<String, Map<String, Object>> lastPublished = new HashMap<>();
+    private long sequence;
+    private volatile State state = new State(0, new ArrayList<>(), new HashMap<>());
+
+    // Everything published up to a sequence number; the frame is serialized on first use
+    private final class State {
+        private final long sequence;
+        private final List<Map<String, Object>> nodes;
+        private final Map<String, Double> summary;
+        private volatile Frame frame;
+
+        private State(long sequence, List<Map<String, Object>> nodes, Map<String, Double> summary) {
+            this.sequence = sequence;
+            this.nodes = nodes;
+            this.summary = summary;
+        }
+
+        private Frame frame() {
+            Frame snapshot = frame;
+            if (snapshot == null) {
+                snapshot = new Frame(sequence, SNAPSHOT, serialize(sequence, nodes, summary));
+                frame = snapshot;
+            }
+            return snapshot;
+        }
+    }
+
+    private static final class Frame {
+        private final long sequence;
+        private final String name;
+        private final String data;
+
+        private Frame(long sequence, String name, String data) {
+            this.sequence = sequence;
+            this.name = name;
+            this.data = data;
+        }
+    }
+
+    public NodeMetricStream(ObjectMapper objectMapper,
+                            @Value("${stellarfs.stream.queue-frames:16}") int queueFrames,
+                            @Value("${stellarfs.stream.threads:2}") int threads,
+                            @Value("${stellarfs.stream.timeout-ms:1800000}") long timeoutMillis,
+                            @Value("${stellarfs.stream.frames-per-turn:4}") int framesPerTurn,
+                            @Value("${stellarfs.stream.send-timeout-ms:5000}") long sendTimeoutMillis) {
+        if (queueFrames < 1 || threads < 1 || framesPerTurn < 1 || sendTimeoutMillis < 1) {
+            throw new IllegalArgumentException(
+                    "Require queue-frames >= 1, threads >= 1, frames-per-turn >= 1 and send-timeout-ms >= 1");
+        }
+        this.objectMapper = objectMapper;
+        this.queueFrames = queueFrames;
+        this.timeoutMillis = timeoutMillis;
+        this.framesPerTurn = framesPerTurn;
+        this.sendTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(sendTimeoutMillis);
+        this.senders = Executors.newFixedThreadPool(threads, DaemonThreads.factory("metric-stream-"));
+        this.watchdog = Executors.newSingleThreadScheduledExecutor(DaemonThreads.factory("metric-stream-watchdog-"));
+        long checkMillis = Math.max(1, sendTimeoutMillis / 2);
+        watchdog.scheduleWithFixedDelay(this::evictStalled, checkMillis, checkMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void close() {
+        watchdog.shutdownNow();
+        senders.shutdownNow();
+        for (Subscriber subscriber : subscribers) {
+            subscriber.emitter.complete();
+        }
+        subscribers.clear();
+    }
+
+    /**
+     * Open a stream. The client is sent a snapshot first, then a delta per tick.
+     * @return Emitter to return from the controller
+     */
+    public SseEmitter subscribe() {
+        return subscribe(new SseEmitter(timeoutMillis));
+    }
+
+    // Stream to a given emitter, so tests can see what is sent
+    SseEmitter subscribe(SseEmitter emitter) {
+        Subscriber subscriber = new Subscriber(emitter);
+        emitter.onCompletion(() -> subscribers.remove(subscriber));
+        emitter.onTimeout(() -> subscribers.remove(subscriber));
+        emitter.onError(e -> subscribers.remove(subscriber));
+        subscribers.add(subscriber);
+        subscriber.resync();
+        return emitter;
+    }
+
+    /**
+     * Publish the result of a metric tick. Must only be called by the tick thread.
+     * @param nodes Every node, after the tick's updates
+     * @param summary System summary after the tick
+     */
+    public void publish(List<NodeDTO> nodes, Map<String, Double> summary) {
+        List<Map<String, Object>> current = new ArrayList<>(nodes.size());
+        List<Map<String, Object>> changed = new ArrayList<>();
+        for (NodeDTO node : nodes) {
+            Map<String, Object> fields = fields(node);
+            current.add(fields);
+            Map<String, Object> previous = lastPublished.put(node.getId(), fields);
+            Map<String, Object> delta = new LinkedHashMap<>();
+            delta.put("id", node.getId());
+            for (Map.Entry<String, Object> field : fields.entrySet()) {
+                if (previous == null || !Objects.equals(previous.get(field.getKey()), field.getValue())) {
+                    delta.put(field.getKey(), field.getValue());
+                }
+            }
+            if (delta.size() > 1) {
+                changed.add(delta);
+            }
+        }
+        sequence++;
+        state = new State(sequence, current, summary);
+        if (changed.isEmpty() || subscribers.isEmpty()) {
+            return;
+        }
+        Frame frame = new Frame(sequence, DELTA, serialize(sequence, changed, summary));
+        for (Subscriber subscriber : subscribers) {
+            subscriber.offer(frame);
+        }
+    }
+
+    public int getSubscriberCount() {
+        return subscribers.size();
+    }
+
+    public long getFramesDropped() {
+        return framesDropped.get();
+    }
+
+    public long getSubscribersEvicted() {
+        return subscribersEvicted.get();
+    }
+
+    private void evictStalled() {
+        long now = System.nanoTime();
+        for (Subscriber subscriber : subscribers) {
+            Thread sender = subscriber.sender.get();
+            if (sender != null && now - subscriber.sendStarted > sendTimeoutNanos
+                    && subscriber.sender.compareAndSet(sender, null)) {
+                log.debug("Evicting metric stream subscriber stalled in a send");
+                subscribersEvicted.incrementAndGet();
+                subscriber.remove();
+                subscriber.emitter.completeWithError(new IOException("Metric stream send timed out"));
+                sender.interrupt();
+            }
+        }
+    }
+
+    private static Map<String, Object> fields(NodeDTO node) {
+        Map<String, Object> fields = new LinkedHashMap<>();
+        fields.put("id", node.getId());
+        fields.put("status", node.getStatus());
+        fields.put("cpuUsage", node.getCpuUsage());
+        fields.put("memoryUsage", node.getMemoryUsage());
+        fields.put("diskUsage", node.getDiskUsage());
+        fields.put("networkThroughput", node.getNetworkThroughput());
+        fields.put("activeConnections", node.getActiveConnections());
+        return fields;
+    }
+
+    private String serialize(long sequence, List<Map<String, Object>> nodes, Map<String, Double> summary) {
+        Map<String, Object> body = new LinkedHashMap<>();
+        body.put("sequence", sequence);
+        body.put("timestamp", System.currentTimeMillis());
+        body.put("nodes", nodes);
+        body.put("summary", summary);
+        try {
+            return objectMapper.writeValueAsString(body);
+        } catch (JsonProcessingException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private final class Subscriber {
+        private final SseEmitter emitter;
+        // Guarded by this
+        private final ArrayDeque<Frame> queue = new ArrayDeque<>();
+        private boolean needsSnapshot;
+        private boolean draining;
+        // Thread blocked in a send and since when; cleared by whichever of it and the watchdog is first
+        private final AtomicReference<Thread> sender = new AtomicReference<>();
+        private volatile long sendStarted;
+
+        private Subscriber(SseEmitter emitter) {
+            this.emitter = emitter;
+        }
+
+        private void resync() {
+            synchronized (this) {
+                needsSnapshot = true;
+                if (draining) {
+                    return;
+                }
+                draining = true;
+            }
+            senders.execute(this::drain);
+        }
+
+        private void offer(Frame frame) {
+            synchronized (this) {
+                if (queue.size() >= queueFrames) {
+                    // Drop oldest; the snapshot sent next brings the client back in step
+                    queue.pollFirst();
+                    needsSnapshot = true;
+                    framesDropped.incrementAndGet();
+                }
+                queue.addLast(frame);
+                if (draining) {
+                    return;
+                }
+                draining = true;
+            }
+            senders.execute(this::drain);
+        }
+
+        private void drain() {
+            for (int sent = 0; ; sent++) {
+                if (sent == framesPerTurn) {
+                    // Still draining; the rest goes out on a later turn, behind other subscribers
+                    senders.execute(this::drain);
+                    return;
+                }
+                Frame frame;
+                synchronized (this) {
+                    if (needsSnapshot) {
+                        needsSnapshot = false;
+                        frame = state.frame();
+                        // Deltas up to the snapshot are already part of it
+                        while (!queue.isEmpty() && queue.peekFirst().sequence <= frame.sequence) {
+                            queue.pollFirst();
+                        }
+                    } else {
+                        frame = queue.pollFirst();
+                    }
+                    if (frame == null) {
+                        draining = false;
+                        return;
+                    }
+                }
+                Thread current = Thread.currentThread();
+                sendStarted = System.nanoTime();
+                sender.set(current);
+                try {
+                    emitter.send(SseEmitter.event()
+                            .id(Long.toString(frame.sequence))
+                            .name(frame.name)
+                            .data(frame.data, MediaType.APPLICATION_JSON));
+                } catch (IOException | IllegalStateException e) {
+                    // Client went away or the emitter completed; the container cleans up the request
+                    log.debug("Dropping metric stream subscriber: {}", e.getMessage());
+                    sender.compareAndSet(current, null);
+                    remove();
+                    return;
+                }
+                if (!sender.compareAndSet(current, null)) {
+                    // Evicted by the watchdog as the send finished; the pool clears the interrupt
+                    return;
+                }
+            }
+        }
+
+        private void remove() {
+            subscribers.remove(this);
+            synchronized (this) {
+                queue.clear();
+                draining = false;
+            }
+        }
+    }
+}
@@ -1,33 +1,60 @@
 package com.stellarfs.service.impl;
 
+import com.stellarfs.model.dto.CollectorStatsDTO;
 import com.stellarfs.model.dto.NodeDTO;
+import com.stellarfs.model.dto.NodeJobDTO;
 import com.stellarfs.model.dto.NodeMetricHistoryDTO;
+import com.stellarfs.repository.Downsampler;
+import com.stellarfs.repository.MetricPoints;
+import com.stellarfs.repository.MetricResolution;
+import com.stellarfs.repository.NodeMetricRepository;
 import com.stellarfs.service.NodeService;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import java.time.Instant;
 import java.time.LocalDateTime;
+import java.time.ZoneId;
 import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
 @Service
 public class NodeServiceImpl implements NodeService {
     private final List<NodeDTO> nodes;
-    private final Map<String, List<NodeMetricHistoryDTO>> metricHistory;
-    private final Timer metricUpdateTimer;
+    // Each node's history is written only by its collection schedule (and the constructor before it starts)
+    private final NodeMetricRepository metricHistory;
+    private final NodeMetricStream metricStream;
+    private final MetricCollector metricCollector;
+    private final ClusterAggregate clusterAggregate = new ClusterAggregate();
+    private final NodeJobRunner nodeJobs;
+    private final long restartDelayMillis;
+    private final HostMetricsProbe hostProbe;
+    private final String localNodeId;
 
-    public NodeServiceImpl() {
+    public NodeServiceImpl(NodeMetricRepository nodeMetricRepository, NodeMetricStream nodeMetricStream,
+                           MetricCollector metricCollector, NodeJobRunner nodeJobRunner, HostMetricsProbe hostProbe,
+                           @Value("${stellarfs.jobs.restart-delay-ms:5000}") long restartDelayMillis,
+                           @Value("${stellarfs.node.local-id:node-1}") String localNodeId) {
         nodes = new ArrayList<>();
-        metricHistory = new ConcurrentHashMap<>();
+        this.hostProbe = hostProbe;
+        this.localNodeId = localNodeId;
+        nodeJobs = nodeJobRunner;
+        this.restartDelayMillis = restartDelayMillis;
+        metricHistory = nodeMetricRepository;
+        metricStream = nodeMetricStream;
+        this.metricCollector = metricCollector;
         initializeMockData();
-        
-        // Start periodic metric updates
-        metricUpdateTimer = new Timer();
-        metricUpdateTimer.scheduleAtFixedRate(new TimerTask() {
-            @Override
-            public void run() {
-                updateNodeMetrics();
-            }
-        }, 0, 5000); // Update every 5 seconds
+        nodes.forEach(clusterAggregate::report);
+
+        // Start periodic metric collection, one schedule per node
+        for (NodeDTO node : nodes) {
+            metricCollector.schedule(node.getId(), () -> collectNodeMetrics(node));
+        }
+        // One stream frame per collection interval, shared by every subscriber
+        metricCollector.schedule("metric-stream", metricCollector.getDefaultIntervalMillis(),
+                () -> metricStream.publish(nodes, getSystemMetricsSummary()));
     }
 
     private void initializeMockData() {
@@ -53,67 +80,54 @@ public class NodeServiceImpl implements NodeService {
             LocalDateTime.now(), new HashMap<>(), "Asia", "storage", 900
         ));
 
-        // Initialize mock metric history for the first node
-        List<NodeMetricHistoryDTO> history = new ArrayList<>();
-        LocalDateTime now = LocalDateTime.now();
-        for (int i = 0; i < 24; i++) {
-            history.add(new NodeMetricHistoryDTO(
-                "node-1", now.minusHours(i), "cpu",
-                45.5 + Math.random() * 10, new HashMap<>()
-            ));
-            history.add(new NodeMetricHistoryDTO(
-                "node-1", now.minusHours(i), "memory",
-                60.2 + Math.random() * 15, new HashMap<>()
-            ));
-            history.add(new NodeMetricHistoryDTO(
-                "node-1", now.minusHours(i), "disk",
-                75.8 + Math.random() * 5, new HashMap<>()
-            ));
-            history.add(new NodeMetricHistoryDTO(
-                "node-1", now.minusHours(i), "network",
-                125.5 + Math.random() * 20, new HashMap<>()
-            ));
+        // Initialize mock metric history for the first node, oldest first
+        long now = System.currentTimeMillis();
+        for (int i = 23; i >= 0; i--) {
+            metricHistory.append("node-1", now - TimeUnit.HOURS.toMillis(i),
+                    45.5 + Math.random() * 10,
+                    60.2 + Math.random() * 15,
+                    75.8 + Math.random() * 5,
+                    125.5 + Math.random() * 20);
         }
-        metricHistory.put("node-1", history);
     }
 
-    private void updateNodeMetrics() {
-        for (NodeDTO node : nodes) {
+    private void collectNodeMetrics(NodeDTO node) {
+        if (node.getId().equals(localNodeId) && hostProbe.isAvailable()) {
+            // The node this process runs on is measured
+            if (hostProbe.sample()) {
+                node.setCpuUsage(hostProbe.getCpuUsage());
+                node.setMemoryUsage(hostProbe.getMemoryUsage());
+                node.setDiskUsage(hostProbe.getDiskUsage());
+                node.setNetworkThroughput(hostProbe.getNetworkThroughput());
+            }
+        } else {
             // Update basic metrics with some random variation
             node.setCpuUsage(Math.min(100, Math.max(0, node.getCpuUsage() + (Math.random() - 0.5) * 5)));
             node.setMemoryUsage(Math.min(100, Math.max(0, node.getMemoryUsage() + (Math.random() - 0.5) * 3)));
             node.setDiskUsage(Math.min(100, Math.max(0, node.getDiskUsage() + (Math.random() - 0.5) * 2)));
             node.setNetworkThroughput(Math.max(0, node.getNetworkThroughput() + (Math.random() - 0.5) * 10));
             node.setActiveConnections((int) Math.max(0, node.getActiveConnections() + (Math.random() - 0.5) * 20));
-            node.setLastUpdated(LocalDateTime.now());
-
-            // Update status based on metrics
-            if (node.getCpuUsage() > 90 || node.getMemoryUsage() > 90) {
-                node.setStatus("critical");
-            } else if (node.getCpuUsage() > 80 || node.getMemoryUsage() > 80) {
-                node.setStatus("warning");
-            } else if (node.getStatus().equals("critical") || node.getStatus().equals("warning")) {
-                node.setStatus("online");
-            }
+        }
+        node.setLastUpdated(LocalDateTime.now());
 
-            // Update metric history
-            updateMetricHistory(node);
+        // Update status based on metrics
+        if (node.getCpuUsage() > 90 || node.getMemoryUsage() > 90) {
+            node.setStatus("critical");
+        } else if (node.getCpuUsage() > 80 || node.getMemoryUsage() > 80) {
+            node.setStatus("warning");
+        } else if (node.getStatus().equals("critical") || node.getStatus().equals("warning")) {
+            node.setStatus("online");
         }
+
+        // Update metric history and cluster totals
+        updateMetricHistory(node);
+        clusterAggregate.report(node);
     }
 
     private void updateMetricHistory(NodeDTO node) {
-        List<NodeMetricHistoryDTO> history = metricHistory.computeIfAbsent(node.getId(), k -> new ArrayList<>());
-        LocalDateTime now = LocalDateTime.now();
-
-        // Add new metrics
-        history.add(new NodeMetricHistoryDTO(node.getId(), now, "cpu", node.getCpuUsage(), new HashMap<>()));
-        history.add(new NodeMetricHistoryDTO(node.getId(), now, "memory", node.getMemoryUsage(), new HashMap<>()));
-        history.add(new NodeMetricHistoryDTO(node.getId(), now, "disk", node.getDiskUsage(), new HashMap<>()));
-        history.add(new NodeMetricHistoryDTO(node.getId(), now, "network", node.getNetworkThroughput(), new HashMap<>()));
-
-        // Keep only last 24 hours of history
-        LocalDateTime cutoff = now.minusHours(24);
-        history.removeIf(metric -> metric.getTimestamp().isBefore(cutoff));
+        // Old samples are overwritten in place once the ring is full, so nothing is trimmed here
+        metricHistory.append(node.getId(), System.currentTimeMillis(), node.getCpuUsage(),
+                node.getMemoryUsage(), node.getDiskUsage(), node.getNetworkThroughput());
     }
 
     @Override
@@ -152,89 +166,134 @@ public class NodeServiceImpl implements NodeService {
 
     @Override
     public List<NodeMetricHistoryDTO> getNodeMetricHistory(String nodeId, String metricType, int hours) {
-        List<NodeMetricHistoryDTO> history = metricHistory.get(nodeId);
-        if (history == null) {
-            return new ArrayList<>();
+        return getNodeMetricHistory(nodeId, metricType, hours, null, null);
+    }
+
+    @Override
+    public List<NodeMetricHistoryDTO> getNodeMetricHistory(String nodeId, String metricType, int hours,
+                                                           String resolution, Integer maxPoints) {
+        if (maxPoints != null && maxPoints < 2) {
+            throw new IllegalArgumentException("maxPoints must be at least 2");
+        }
+        // Strictly after the cutoff
+        long from = System.currentTimeMillis() - TimeUnit.HOURS.toMillis(hours) + 1;
+        MetricPoints points;
+        if (resolution != null) {
+            points = metricHistory.range(nodeId, metricType, MetricResolution.of(resolution), from, Long.MAX_VALUE);
+        } else if (maxPoints != null) {
+            points = finestWithin(nodeId, metricType, from, maxPoints);
+        } else {
+            points = metricHistory.range(nodeId, metricType, from, Long.MAX_VALUE);
+        }
+        if (maxPoints != null) {
+            points = Downsampler.lttb(points, maxPoints);
         }
 
-        LocalDateTime cutoff = LocalDateTime.now().minusHours(hours);
-        return history.stream()
-                .filter(metric -> metric.getMetricType().equals(metricType))
-                .filter(metric -> metric.getTimestamp().isAfter(cutoff))
-                .collect(Collectors.toList());
+        List<NodeMetricHistoryDTO> history = new ArrayList<>(points.size());
+        for (int i = 0; i < points.size(); i++) {
+            LocalDateTime timestamp = LocalDateTime.ofInstant(Instant.ofEpochMilli(points.getTimestamp(i)),
+                    ZoneId.systemDefault());
+            Map<String, Double> rollup = Collections.emptyMap();
+            if (points.isRollup()) {
+                // value is the bucket average
+                rollup = new HashMap<>();
+                rollup.put("min", points.getMin(i));
+                rollup.put("max", points.getMax(i));
+                rollup.put("last", points.getLast(i));
+                rollup.put("count", (double) points.getCount(i));
+            }
+            history.add(new NodeMetricHistoryDTO(nodeId, timestamp, metricType, points.getValue(i), rollup));
+        }
+        return history;
+    }
+
+    // The finest tier still reaching back to from with no more than a few times maxPoints points to thin out
+    private MetricPoints finestWithin(String nodeId, String metricType, long from, int maxPoints) {
+        MetricResolution[] resolutions = MetricResolution.values();
+        MetricPoints points = MetricPoints.empty();
+        for (int i = 0; i < resolutions.length; i++) {
+            boolean coarsest = i == resolutions.length - 1;
+            if (!coarsest && !metricHistory.covers(nodeId, resolutions[i], from)) {
+                continue;
+            }
+            points = metricHistory.range(nodeId, metricType, resolutions[i], from, Long.MAX_VALUE);
+            if (coarsest || points.size() <= maxPoints * 8L) {
+                break;
+            }
+        }
+        return points;
     }
 
     @Override
-    public void restartNode(String nodeId) {
+    public CollectorStatsDTO getCollectorStats() {
+        return metricCollector.getStats();
+    }
+
+    @Override
+    public SseEmitter streamNodeMetrics() {
+        return metricStream.subscribe();
+    }
+
+    @Override
+    public NodeJobDTO restartNode(String nodeId) {
         NodeDTO node = getNodeById(nodeId);
-        if (node != null) {
-            // Simulate restart delay
-            try {
-                Thread.sleep(5000);
+        if (node == null) {
+            return null;
+        }
+        return nodeJobs.submit(nodeId, "restart", progress -> {
+            node.setStatus("restarting");
+            node.setLastUpdated(LocalDateTime.now());
+            progress.update(0.1, "Stopping");
+            // Simulated restart; waits on a timer rather than a thread
+            return nodeJobs.after(restartDelayMillis).thenRun(() -> {
                 node.setStatus("online");
                 node.setCpuUsage(0.0);
                 node.setMemoryUsage(0.0);
                 node.setNetworkThroughput(0.0);
                 node.setActiveConnections(0);
                 node.setLastUpdated(LocalDateTime.now());
-            } catch (InterruptedException e) {
-                Thread.currentThread().interrupt();
-            }
-        }
+                clusterAggregate.report(node);
+                progress.update(1, "Restarted");
+            });
+        });
     }
 
     @Override
-    public void pauseNode(String nodeId) {
-        NodeDTO node = getNodeById(nodeId);
-        if (node != null) {
-            node.setStatus("paused");
-            node.setLastUpdated(LocalDateTime.now());
-        }
+    public NodeJobDTO pauseNode(String nodeId) {
+        return setStatus(nodeId, "pause", "paused");
     }
 
     @Override
-    public void resumeNode(String nodeId) {
+    public NodeJobDTO resumeNode(String nodeId) {
+        return setStatus(nodeId, "resume", "online");
+    }
+
+    // Queued like other operations so it takes effect after any restart already submitted
+    private NodeJobDTO setStatus(String nodeId, String operation, String status) {
         NodeDTO node = getNodeById(nodeId);
-        if (node != null) {
-            node.setStatus("online");
-            node.setLastUpdated(LocalDateTime.now());
+        if (node == null) {
+            return null;
         }
+        return nodeJobs.submit(nodeId, operation, progress -> {
+            node.setStatus(status);
+            node.setLastUpdated(LocalDateTime.now());
+            return CompletableFuture.completedFuture(null);
+        });
+    }
+
+    @Override
+    public NodeJobDTO getNodeJob(String jobId) {
+        return nodeJobs.get(jobId);
+    }
+
+    @Override
+    public List<NodeJobDTO> getNodeJobs(String nodeId) {
+        return nodeJobs.list(nodeId);
     }
 
     @Override
     public Map<String, Double> getSystemMetricsSummary() {
-        Map<String, Double> summary = new HashMap<>();
-        
-        // Calculate average metrics across all nodes
-        double avgCpu = nodes.stream()
-                .mapToDouble(NodeDTO::getCpuUsage)
-                .average()
-                .orElse(0.0);
-        
-        double avgMemory = nodes.stream()
-                .mapToDouble(NodeDTO::getMemoryUsage)
-                .average()
-                .orElse(0.0);
-        
-        double avgDisk = nodes.stream()
-                .mapToDouble(NodeDTO::getDiskUsage)
-                .average()
-                .orElse(0.0);
-        
-        double totalNetwork = nodes.stream()
-                .mapToDouble(NodeDTO::getNetworkThroughput)
-                .sum();
-        
-        int totalConnections = nodes.stream()
-                .mapToInt(NodeDTO::getActiveConnections)
-                .sum();
-
-        summary.put("cpuUsage", avgCpu);
-        summary.put("memoryUsage", avgMemory);
-        summary.put("diskUsage", avgDisk);
-        summary.put("networkThroughput", totalNetwork);
-        summary.put("activeConnections", (double) totalConnections);
-
-        return summary;
+        // Maintained as nodes report, rather than recomputed over every node
+        return clusterAggregate.summary();
     }
 } 
\ No newline at end of file
@@ -12,46 +12,71 @@ import java.util.List;
 @Service
 public class StorageServiceImpl implements StorageService {
 
-    // In a real application, this would connect to a repository or data source
-    // For now, we'll use mock data
+    private static final double BYTES_PER_GB = 1L << 30;
 
+    private final CapacityLedger capacityLedger;
+
+    public StorageServiceImpl(CapacityLedger capacityLedger) {
+        this.capacityLedger = capacityLedger;
+    }
+
+    // Read from the ledger's counters, so the cost does not grow with the number of files
     @Override
     public StorageOverviewResponse getStorageOverview() {
-        return new StorageOverviewResponse(
-                getTotalCapacity(),
-                getUsedStorage(),
-                getNodeStorageData(),
+        List<NodeStorageData> nodeData = getNodeStorageData();
+        long used = 0;
+        for (NodeStorageData node : nodeData) {
+            used += node.getUsedBytes();
+        }
+        // Not the sum of the nodes: nodes sharing a file system count it once
+        long capacity = capacityLedger.totalCapacityBytes();
+        StorageOverviewResponse overview = new StorageOverviewResponse(
+                toGb(capacity),
+                toGb(used),
+                nodeData,
                 getReplicationStatus()
         );
+        overview.setUsedBytes(used);
+        overview.setCapacityBytes(capacity);
+        overview.setCatalogBytes(capacityLedger.getCatalogBytes());
+        overview.setFileCount(capacityLedger.getCatalogFiles());
+        overview.setBytesByOwner(capacityLedger.bytesByOwner());
+        overview.setBytesByType(capacityLedger.bytesByType());
+        overview.setReconciledAt(capacityLedger.getReconciledAt());
+        return overview;
     }
 
     @Override
     public Long getTotalCapacity() {
-        // Mock data - in GB
-        return 1024L;
+        return toGb(capacityLedger.totalCapacityBytes());
     }
 
     @Override
     public Long getUsedStorage() {
-        // Mock data - in GB
-        return 486L;
+        long used = 0;
+        for (String nodeId : capacityLedger.nodes()) {
+            used += capacityLedger.usedBytes(nodeId);
+        }
+        return toGb(used);
     }
 
     @Override
     public List<NodeStorageData> getNodeStorageData() {
-        // Mock data
         List<NodeStorageData> nodeData = new ArrayList<>();
-        nodeData.add(new NodeStorageData("Node 1", 180L, 256L));
-        nodeData.add(new NodeStorageData("Node 2", 145L, 256L));
-        nodeData.add(new NodeStorageData("Node 3", 98L, 256L));
-        nodeData.add(new NodeStorageData("Node 4", 63L, 256L));
-        
+        for (String nodeId : capacityLedger.nodes()) {
+            long used = capacityLedger.usedBytes(nodeId);
+            long capacity = capacityLedger.capacityBytes(nodeId);
+            NodeStorageData node = new NodeStorageData(nodeId, toGb(used), toGb(capacity));
+            node.setUsedBytes(used);
+            node.setCapacityBytes(capacity);
+            nodeData.add(node);
+        }
         return nodeData;
     }
 
     @Override
     public List<ReplicationStatusData> getReplicationStatus() {
-        // Mock data
+        // Mock data, not yet derived from the replicator
         List<ReplicationStatusData> replicationStatus = new ArrayList<>();
         replicationStatus.add(new ReplicationStatusData("Documents", 3, "healthy"));
         replicationStatus.add(new ReplicationStatusData("Images", 3, "healthy"));
@@ -60,4 +85,8 @@ public class StorageServiceImpl implements StorageService {
         
         return replicationStatus;
     }
-} 
\ No newline at end of file
+
+    private static Long toGb(long bytes) {
+        return Math.round(bytes / BYTES_PER_GB);
+    }
+}
\ No newline at end of file
@@ -1,11 +1,25 @@
 package com.stellarfs.service.impl;
 
+import com.stellarfs.model.dto.CompressionReportDTO;
+import com.stellarfs.model.dto.DeduplicationReportDTO;
+import com.stellarfs.model.dto.NodeDTO;
+import com.stellarfs.model.dto.NodeJobDTO;
+import com.stellarfs.model.dto.ReplicationValidationDTO;
 import com.stellarfs.model.dto.SystemMetricsDTO;
+import com.stellarfs.repository.Downsampler;
+import com.stellarfs.service.NodeService;
 import com.stellarfs.service.SystemOperationsService;
+import com.stellarfs.storage.Compressor;
+import com.stellarfs.storage.Deduplicator;
+import com.stellarfs.storage.Replicator;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
 import java.time.LocalDateTime;
+import java.time.ZoneId;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Collectors;
 
 @Service
@@ -15,8 +29,25 @@ public class SystemOperationsServiceImpl implements SystemOperationsService {
     private final List<String> backups = new ArrayList<>();
     private boolean autoScalingEnabled = false;
     private Map<String, Object> autoScalingConfig;
+    private final Deduplicator deduplicator;
+    private final Compressor compressor;
+    private final Replicator replicator;
+    private final NodeService nodeService;
+    private final NodeJobRunner nodeJobs;
+    private final String localNodeId;
+    private volatile DeduplicationReportDTO lastDeduplication;
+    private volatile CompressionReportDTO lastCompression;
+    private final Map<String, ReplicationValidationDTO> lastValidations = new ConcurrentHashMap<>();
 
-    public SystemOperationsServiceImpl() {
+    public SystemOperationsServiceImpl(Deduplicator deduplicator, Compressor compressor, Replicator replicator,
+                                       NodeService nodeService, NodeJobRunner nodeJobRunner,
+                                       @Value("${stellarfs.node.local-id:node-1}") String localNodeId) {
+        this.nodeJobs = nodeJobRunner;
+        this.localNodeId = localNodeId;
+        this.deduplicator = deduplicator;
+        this.compressor = compressor;
+        this.replicator = replicator;
+        this.nodeService = nodeService;
         initializeMockData();
     }
 
@@ -90,6 +121,29 @@ public class SystemOperationsServiceImpl implements SystemOperationsService {
                 .collect(Collectors.toList());
     }
 
+    @Override
+    public List<SystemMetricsDTO> getHistoricalMetrics(int hours, Integer maxPoints) {
+        List<SystemMetricsDTO> history = getHistoricalMetrics(hours);
+        if (maxPoints == null) {
+            return history;
+        }
+        if (maxPoints < 2) {
+            throw new IllegalArgumentException("maxPoints must be at least 2");
+        }
+        // Shape is kept from the CPU series, the one the dashboard charts first
+        long[] times = new long[history.size()];
+        for (int i = 0; i < times.length; i++) {
+            times[i] = history.get(i).getTimestamp().atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+        }
+        int[] kept = Downsampler.lttb(history.size(), i -> times[i], i -> history.get(i).getSystemCpuUsage(),
+                maxPoints);
+        List<SystemMetricsDTO> sampled = new ArrayList<>(kept.length);
+        for (int index : kept) {
+            sampled.add(history.get(index));
+        }
+        return sampled;
+    }
+
     @Override
     public Map<String, Object> getSystemHealth() {
         Map<String, Object> health = new HashMap<>();
@@ -105,27 +159,56 @@ public class SystemOperationsServiceImpl implements SystemOperationsService {
     }
 
     @Override
-    public void initiateDataReplication(String nodeId) {
-        // Mock implementation
-        try {
-            Thread.sleep(1000); // Simulate processing time
-        } catch (InterruptedException e) {
-            Thread.currentThread().interrupt();
-        }
+    public NodeJobDTO initiateDataReplication(String nodeId) {
+        List<String> nodeIds = nodeIds(nodeId);
+        int factor = replicationFactor();
+        // Queued behind other operations on the node; progress shows on the job
+        return nodeJobs.submit(nodeId, "replicate", progress ->
+                replicator.replicate(nodeId, nodeIds, factor, (done, total) ->
+                        progress.update(total == 0 ? 1 : (double) done / total, done + " of " + total + " files")));
     }
 
     @Override
-    public void validateReplication(String nodeId) {
-        // Mock implementation
+    public NodeJobDTO validateReplication(String nodeId) {
+        List<String> nodeIds = nodeIds(nodeId);
+        int factor = replicationFactor();
+        // Queued behind other operations on the node; the report is kept for getLastValidation
+        return nodeJobs.submit(nodeId, "validate", progress ->
+                replicator.validate(nodeId, nodeIds, factor, (done, total) ->
+                        progress.update(total == 0 ? 1 : (double) done / total, done + " of " + total + " files repaired"))
+                        .thenApply(report -> {
+                            lastValidations.put(nodeId, report);
+                            return report;
+                        }));
+    }
+
+    @Override
+    public ReplicationValidationDTO getLastValidation(String nodeId) {
+        return lastValidations.get(nodeId);
+    }
+
+    // All node IDs, checking that the given one is among them
+    private List<String> nodeIds(String nodeId) {
+        List<String> nodeIds = nodeService.getAllNodes().stream()
+                .map(NodeDTO::getId)
+                .collect(Collectors.toList());
+        if (!nodeIds.contains(nodeId)) {
+            throw new IllegalArgumentException("Unknown node: " + nodeId);
+        }
+        return nodeIds;
+    }
+
+    private int replicationFactor() {
+        return ((Number) systemConfig.get("replicationFactor")).intValue();
     }
 
     @Override
     public Map<String, Integer> getReplicationStatus() {
         Map<String, Integer> status = new HashMap<>();
-        status.put("totalFiles", 10000);
-        status.put("replicatedFiles", 9000);
-        status.put("pendingReplications", 1000);
-        status.put("failedReplications", 0);
+        status.put("totalFiles", replicator.getTotalFiles());
+        status.put("replicatedFiles", (int) replicator.getReplicated());
+        status.put("pendingReplications", (int) replicator.getPending());
+        status.put("failedReplications", (int) replicator.getFailed());
         return status;
     }
 
@@ -160,13 +243,51 @@ public class SystemOperationsServiceImpl implements SystemOperationsService {
     }
 
     @Override
-    public void performDataDeduplication() {
-        // Mock implementation
+    public NodeJobDTO performDataDeduplication() {
+        // Queued behind other operations on the local node; the report is kept for getLastDeduplication
+        return nodeJobs.submit(localNodeId, "deduplicate", progress -> {
+            DeduplicationReportDTO report;
+            if (Boolean.TRUE.equals(systemConfig.get("deduplicationEnabled"))) {
+                report = deduplicator.deduplicate(Boolean.TRUE.equals(systemConfig.get("compressionEnabled")));
+                progress.update(1, report.getFilesProcessed() + " files processed, "
+                        + report.getBytesReclaimed() + " bytes reclaimed");
+            } else {
+                report = new DeduplicationReportDTO();
+                report.setEnabled(false);
+                progress.update(1, "Deduplication is disabled");
+            }
+            lastDeduplication = report;
+            return CompletableFuture.completedFuture(report);
+        });
     }
 
     @Override
-    public void compressData() {
-        // Mock implementation
+    public DeduplicationReportDTO getLastDeduplication() {
+        return lastDeduplication;
+    }
+
+    @Override
+    public NodeJobDTO compressData() {
+        // Queued behind other operations on the local node; the report is kept for getLastCompression
+        return nodeJobs.submit(localNodeId, "compress", progress -> {
+            CompressionReportDTO report;
+            if (Boolean.TRUE.equals(systemConfig.get("compressionEnabled"))) {
+                report = compressor.compressCold();
+                progress.update(1, report.getFilesCompressed() + " files compressed, "
+                        + report.getChunksRecompressed() + " chunks recompressed");
+            } else {
+                report = new CompressionReportDTO();
+                report.setEnabled(false);
+                progress.update(1, "Compression is disabled");
+            }
+            lastCompression = report;
+            return CompletableFuture.completedFuture(report);
+        });
+    }
+
+    @Override
+    public CompressionReportDTO getLastCompression() {
+        return lastCompression;
     }
 
     @Override
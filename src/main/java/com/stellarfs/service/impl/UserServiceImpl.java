@@ -2,25 +2,33 @@ package com.stellarfs.service.impl;
 
 import com.stellarfs.model.dto.UserDTO;
 import com.stellarfs.model.dto.ActivityLogDTO;
+import com.stellarfs.model.dto.ActivityLogPageDTO;
+import com.stellarfs.repository.ActivityLogRepository;
+import com.stellarfs.repository.UserRepository;
 import com.stellarfs.service.UserService;
 import org.springframework.stereotype.Service;
 
 import java.time.LocalDateTime;
 import java.util.*;
-import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 @Service
 public class UserServiceImpl implements UserService {
-    private final Map<String, UserDTO> users = new HashMap<>();
-    private final List<ActivityLogDTO> activityLogs = new ArrayList<>();
+    private final UserRepository users;
+    private final ActivityLogRepository activityLogs;
     private final List<String> availableRoles = Arrays.asList("ADMIN", "USER", "MANAGER", "VIEWER");
     private final List<String> availablePermissions = Arrays.asList(
         "READ", "WRITE", "DELETE", "MANAGE_USERS", "VIEW_LOGS", "MANAGE_SYSTEM"
     );
 
-    public UserServiceImpl() {
-        // Initialize with mock data
-        initializeMockData();
+    public UserServiceImpl(UserRepository userRepository, ActivityLogRepository activityLogRepository) {
+        users = userRepository;
+        activityLogs = activityLogRepository;
+
+        // Initialize with mock data on first start only
+        if (users.count() == 0) {
+            initializeMockData();
+        }
     }
 
     private void initializeMockData() {
@@ -55,17 +63,20 @@ public class UserServiceImpl implements UserService {
         user.setCreatedAt(LocalDateTime.now().minusDays(10));
         user.setLastLogin(LocalDateTime.now().minusDays(2));
 
-        users.put(admin.getId(), admin);
-        users.put(manager.getId(), manager);
-        users.put(user.getId(), user);
-
-        // Create mock activity logs
-        createMockActivityLog("1", "Admin User", "LOGIN", "SYSTEM", null, "User logged in", "192.168.1.1");
-        createMockActivityLog("2", "Manager User", "UPDATE", "FILE", "file123", "Updated file permissions", "192.168.1.2");
-        createMockActivityLog("3", "Regular User", "DOWNLOAD", "FILE", "file456", "Downloaded file", "192.168.1.3");
+        users.save(admin);
+        users.save(manager);
+        users.save(user);
+
+        // Create mock activity logs, appended in time order like real ones
+        Stream.of(
+                createMockActivityLog("1", "Admin User", "LOGIN", "SYSTEM", null, "User logged in", "192.168.1.1"),
+                createMockActivityLog("2", "Manager User", "UPDATE", "FILE", "file123", "Updated file permissions", "192.168.1.2"),
+                createMockActivityLog("3", "Regular User", "DOWNLOAD", "FILE", "file456", "Downloaded file", "192.168.1.3"))
+                .sorted(Comparator.comparing(ActivityLogDTO::getTimestamp))
+                .forEach(activityLogs::save);
     }
 
-    private void createMockActivityLog(String userId, String userName, String action, String resourceType, 
+    private ActivityLogDTO createMockActivityLog(String userId, String userName, String action, String resourceType, 
                                      String resourceId, String details, String ipAddress) {
         ActivityLogDTO log = new ActivityLogDTO();
         log.setId(UUID.randomUUID().toString());
@@ -77,24 +88,24 @@ public class UserServiceImpl implements UserService {
         log.setDetails(details);
         log.setTimestamp(LocalDateTime.now().minusHours(new Random().nextInt(24)));
         log.setIpAddress(ipAddress);
-        activityLogs.add(log);
+        return log;
     }
 
     @Override
     public List<UserDTO> getAllUsers() {
-        return new ArrayList<>(users.values());
+        return users.findAll();
     }
 
     @Override
     public UserDTO getUserById(String id) {
-        return users.get(id);
+        return users.findById(id);
     }
 
     @Override
     public UserDTO updateUser(String id, UserDTO userDTO) {
-        if (users.containsKey(id)) {
+        if (users.existsById(id)) {
             userDTO.setId(id);
-            users.put(id, userDTO);
+            users.save(userDTO);
             return userDTO;
         }
         return null;
@@ -102,14 +113,15 @@ public class UserServiceImpl implements UserService {
 
     @Override
     public void deleteUser(String id) {
-        users.remove(id);
+        users.deleteById(id);
     }
 
     @Override
     public UserDTO updateUserRoles(String id, Set<String> roles) {
-        UserDTO user = users.get(id);
+        UserDTO user = users.findById(id);
         if (user != null) {
             user.setRoles(roles);
+            users.save(user);
             return user;
         }
         return null;
@@ -117,9 +129,10 @@ public class UserServiceImpl implements UserService {
 
     @Override
     public UserDTO updateUserPermissions(String id, Set<String> permissions) {
-        UserDTO user = users.get(id);
+        UserDTO user = users.findById(id);
         if (user != null) {
             user.setPermissions(permissions);
+            users.save(user);
             return user;
         }
         return null;
@@ -127,24 +140,27 @@ public class UserServiceImpl implements UserService {
 
     @Override
     public List<ActivityLogDTO> getUserActivityLogs(String userId) {
-        return activityLogs.stream()
-                .filter(log -> log.getUserId().equals(userId))
-                .sorted(Comparator.comparing(ActivityLogDTO::getTimestamp).reversed())
-                .collect(Collectors.toList());
+        // The log is read newest first, so there is nothing to sort
+        return activityLogs.findByUserId(userId);
     }
 
     @Override
     public List<ActivityLogDTO> getAllActivityLogs() {
-        return activityLogs.stream()
-                .sorted(Comparator.comparing(ActivityLogDTO::getTimestamp).reversed())
-                .collect(Collectors.toList());
+        return activityLogs.findAll();
+    }
+
+    @Override
+    public ActivityLogPageDTO getActivityLogs(String userId, LocalDateTime from, LocalDateTime to,
+                                              int limit, String cursor) {
+        return activityLogs.findPage(userId, from, to, cursor, limit);
     }
 
     @Override
     public void toggleUserStatus(String id) {
-        UserDTO user = users.get(id);
+        UserDTO user = users.findById(id);
         if (user != null) {
             user.setActive(!user.isActive());
+            users.save(user);
         }
     }
 
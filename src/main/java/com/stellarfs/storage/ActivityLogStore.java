@@ -0,0 +1,687 @@
+package com.stellarfs.storage;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.regex.Pattern;
+
+/**
+ * Append-only log of timestamped entries, each tagged with the user it
+ * concerns, read back newest first by user and time range without holding
+ * the log in memory.
+ *
+ * Entries are appended to the newest segment, which is sealed and replaced
+ * once it reaches segment-bytes or spans segment-ms of entry time. Every
+ * segment has a sparse index: the offset of the first entry in each block of
+ * about 64 KiB, the time range of each block, and the blocks each user has
+ * entries in. A query skips segments and blocks whose time range or users
+ * cannot match and scans the rest through a memory mapping of the segment.
+ * The active segment's mapping is only replaced once the unmapped tail has
+ * grown as large as the mapping; blocks past it are read through a channel.
+ * A sealed segment's index is written beside it, so startup reads index files
+ * and scans only the newest segment, truncating a record torn by a crash.
+ * When a segment is sealed, segments whose newest entry is more than
+ * retention-days older than the entry being appended are deleted.
+ *
+ * Entries come back in reverse append order, which is newest first as long as
+ * they are appended in time order, as an audit trail is.
+ *
+ * Layout under the activity directory:
+ *   segment-&lt;seq&gt;.log  entries in append order
+ *   segment-&lt;seq&gt;.idx  index of a sealed segment
+ */
+@Slf4j
+@Component
+public class ActivityLogStore {
+
+    private static final Pattern SEGMENT = Pattern.compile("segment-(\\d{12})\\.log");
+    private static final String INDEX_HEADER = "stellarfs-activity-index 1";
+    private static final int BLOCK_BYTES = 64 * 1024;
+    private static final int HEADER_BYTES = LogSegments.HEADER_BYTES;
+    private static final int MAX_USER_BYTES = 1024;
+    private static final int MAX_ENTRY_BYTES = 16 * 1024 * 1024;
+    private static final long[] NO_RANGES = new long[0];
+
+    public static final class Page {
+        private final List<byte[]> entries;
+        private final String nextCursor;
+
+        private Page(List<byte[]> entries, String nextCursor) {
+            this.entries = entries;
+            this.nextCursor = nextCursor;
+        }
+
+        public List<byte[]> getEntries() { return entries; }
+        // Null on the last page
+        public String getNextCursor() { return nextCursor; }
+    }
+
+    /**
+     * Sparse index of one segment. Sealed segments never change; the active
+     * one grows under its own monitor while queries read it.
+     */
+    private static final class Segment {
+        private final long seq;
+        private final Path path;
+        private long size;
+        private long records;
+        private long minTimestamp = Long.MAX_VALUE;
+        private long maxTimestamp = Long.MIN_VALUE;
+        private int blocks;
+        private long[] blockOffsets = new long[16];
+        private long[] blockMin = new long[16];
+        private long[] blockMax = new long[16];
+        private final Map<String, BitSet> users = new HashMap<>();
+        // Grows geometrically while the segment is active; the whole segment once it is sealed
+        private volatile MappedByteBuffer mapped;
+        // Reads the active tail past the mapping; guarded by this
+        private FileChannel reader;
+        private boolean sealed;
+
+        private Segment(long seq, Path path) {
+            this.seq = seq;
+            this.path = path;
+        }
+
+        private synchronized void add(long offset, int length, long timestamp, String userId) {
+            if (blocks == 0 || offset - blockOffsets[blocks - 1] >= BLOCK_BYTES) {
+                if (blocks == blockOffsets.length) {
+                    blockOffsets = Arrays.copyOf(blockOffsets, blocks * 2);
+                    blockMin = Arrays.copyOf(blockMin, blocks * 2);
+                    blockMax = Arrays.copyOf(blockMax, blocks * 2);
+                }
+                blockOffsets[blocks] = offset;
+                blockMin[blocks] = Long.MAX_VALUE;
+                blockMax[blocks] = Long.MIN_VALUE;
+                blocks++;
+            }
+            int block = blocks - 1;
+            blockMin[block] = Math.min(blockMin[block], timestamp);
+            blockMax[block] = Math.max(blockMax[block], timestamp);
+            users.computeIfAbsent(userId, u -> new BitSet()).set(block);
+            minTimestamp = Math.min(minTimestamp, timestamp);
+            maxTimestamp = Math.max(maxTimestamp, timestamp);
+            records++;
+            size = offset + length;
+        }
+
+        /**
+         * Byte ranges of the blocks that may hold matching entries before the
+         * given offset, newest block first, as start and end pairs.
+         */
+        private synchronized long[] candidates(String userId, long from, long to, long before) {
+            if (records == 0 || maxTimestamp < from || minTimestamp > to) {
+                return NO_RANGES;
+            }
+            BitSet userBlocks = userId != null ? users.get(userId) : null;
+            if (userId != null && userBlocks == null) {
+                return NO_RANGES;
+            }
+            long end = Math.min(size, before);
+            long[] ranges = new long[16];
+            int count = 0;
+            for (int block = previous(userBlocks, blocks - 1); block >= 0; block = previous(userBlocks, block - 1)) {
+                long start = blockOffsets[block];
+                if (start >= end || blockMax[block] < from || blockMin[block] > to) {
+                    continue;
+                }
+                if (count == ranges.length) {
+                    ranges = Arrays.copyOf(ranges, count * 2);
+                }
+                ranges[count++] = start;
+                ranges[count++] = Math.min(block + 1 < blocks ? blockOffsets[block + 1] : size, end);
+            }
+            return Arrays.copyOf(ranges, count);
+        }
+
+        private static int previous(BitSet blocks, int from) {
+            return blocks != null ? blocks.previousSetBit(from) : from;
+        }
+
+        private synchronized long getSize() {
+            return size;
+        }
+
+        private synchronized long getRecords() {
+            return records;
+        }
+
+        private synchronized long getMaxTimestamp() {
+            return maxTimestamp;
+        }
+
+        private synchronized long getMinTimestamp() {
+            return minTimestamp;
+        }
+
+        /**
+         * Bytes [start, end) of the segment, at index 0 of the buffer returned:
+         * a view of the mapping where it covers them, otherwise read through the channel.
+         */
+        private ByteBuffer read(long start, long end) throws IOException {
+            while (true) {
+                MappedByteBuffer buffer = mapped;
+                long mappedBytes = buffer != null ? buffer.capacity() : 0;
+                if (end > mappedBytes) {
+                    // Remapping only once the tail is as large as the mapping keeps remaps logarithmic in size
+                    long size = getSize();
+                    if (size - mappedBytes >= Math.max(mappedBytes, BLOCK_BYTES)) {
+                        buffer = map(size);
+                        mappedBytes = buffer.capacity();
+                    }
+                }
+                if (end <= mappedBytes) {
+                    return buffer.slice((int) start, (int) (end - start));
+                }
+                try {
+                    ByteBuffer tail = ByteBuffer.allocate((int) (end - start));
+                    FileChannel channel = reader();
+                    while (tail.hasRemaining()) {
+                        if (channel.read(tail, start + tail.position()) < 0) {
+                            throw new EOFException("Activity log segment " + path + " ends before " + end);
+                        }
+                    }
+                    return tail.flip();
+                } catch (ClosedByInterruptException e) {
+                    throw e;
+                } catch (ClosedChannelException e) {
+                    // Sealed meanwhile, which maps the whole segment
+                }
+            }
+        }
+
+        // Racing remaps only cost an extra mapping; reads go through absolute gets, so buffers are shared
+        private MappedByteBuffer map(long length) throws IOException {
+            MappedByteBuffer buffer;
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, length);
+            }
+            mapped = buffer;
+            return buffer;
+        }
+
+        private synchronized FileChannel reader() throws IOException {
+            if (sealed) {
+                throw new ClosedChannelException();
+            }
+            if (reader == null || !reader.isOpen()) {
+                reader = FileChannel.open(path, StandardOpenOption.READ);
+            }
+            return reader;
+        }
+
+        // Mapped up front, so queries still read it if retention deletes the file under them
+        private void seal() throws IOException {
+            map(getSize());
+            synchronized (this) {
+                sealed = true;
+                if (reader != null) {
+                    reader.close();
+                    reader = null;
+                }
+            }
+        }
+    }
+
+    private final Path dir;
+    private final long segmentBytes;
+    private final long segmentMillis;
+    private final long retentionMillis;
+    private final boolean sync;
+
+    // Appends, rolls and retention; queries only take the segment monitors
+    private final Lock writeLock = new ReentrantLock();
+    // Oldest first; replaced rather than modified, so queries iterate a stable list
+    private volatile List<Segment> segments;
+    private Segment active;
+    private FileChannel channel;
+    private boolean closed;
+
+    public ActivityLogStore(@Value("${stellarfs.activity.dir:data/activity}") String dir,
+                            @Value("${stellarfs.activity.segment-bytes:67108864}") long segmentBytes,
+                            @Value("${stellarfs.activity.segment-ms:86400000}") long segmentMillis,
+                            @Value("${stellarfs.activity.retention-days:0}") long retentionDays,
+                            @Value("${stellarfs.activity.sync:true}") boolean sync) throws IOException {
+        if (segmentBytes < BLOCK_BYTES || segmentBytes > Integer.MAX_VALUE) {
+            // Mapped buffers are indexed by int
+            throw new IllegalArgumentException("Activity segment size must be between 64 KiB and 2 GiB");
+        }
+        this.dir = Paths.get(dir).toAbsolutePath().normalize();
+        this.segmentBytes = segmentBytes;
+        this.segmentMillis = segmentMillis > 0 ? segmentMillis : Long.MAX_VALUE;
+        this.retentionMillis = retentionDays > 0 ? TimeUnit.DAYS.toMillis(retentionDays) : Long.MAX_VALUE;
+        this.sync = sync;
+        Files.createDirectories(this.dir);
+
+        long started = System.currentTimeMillis();
+        recover();
+        log.info("Opened activity log {} in {} ms ({} segments, {} entries)",
+                this.dir, System.currentTimeMillis() - started, segments.size(), count());
+    }
+
+    /**
+     * Durably append an entry.
+     * @param timestamp Entry time in epoch milliseconds
+     * @param userId User the entry concerns
+     * @param payload Serialized entry
+     * @throws IllegalArgumentException If the user id or entry is too large
+     */
+    public void append(long timestamp, String userId, byte[] payload) {
+        byte[] user = userId.getBytes(StandardCharsets.UTF_8);
+        if (user.length > MAX_USER_BYTES) {
+            throw new IllegalArgumentException("User id is too long");
+        }
+        int bodyLength = Long.BYTES + Short.BYTES + user.length + payload.length;
+        if (bodyLength > MAX_ENTRY_BYTES) {
+            throw new IllegalArgumentException("Activity entry is too large");
+        }
+        // Body: [long timestamp][short user length][user][payload]
+        ByteBuffer frame = ByteBuffer.allocate(HEADER_BYTES + bodyLength);
+        frame.position(HEADER_BYTES);
+        frame.putLong(timestamp).putShort((short) user.length).put(user).put(payload);
+        LogSegments.finishFrame(frame);
+
+        writeLock.lock();
+        try {
+            if (closed) {
+                throw new IllegalStateException("Activity log is closed");
+            }
+            if (active.getRecords() > 0 && (active.getSize() + frame.capacity() > segmentBytes
+                    || timestamp - active.getMinTimestamp() >= segmentMillis)) {
+                roll(timestamp);
+            }
+            long offset = active.getSize();
+            try {
+                while (frame.hasRemaining()) {
+                    channel.write(frame, offset + frame.position());
+                }
+                if (sync) {
+                    channel.force(false);
+                }
+            } catch (IOException e) {
+                // Later appends start at the same offset, so drop whatever part of this one landed
+                channel.truncate(offset);
+                throw e;
+            }
+            active.add(offset, frame.capacity(), timestamp, userId);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Activity log append failed", e);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Page through entries newest first.
+     * @param userId Only entries of this user, or null for all users
+     * @param from Earliest entry time in epoch milliseconds, inclusive
+     * @param to Latest entry time in epoch milliseconds, inclusive
+     * @param cursor Next cursor of the previous page, or null for the first page
+     * @param limit Maximum number of entries
+     * @throws IllegalArgumentException If the cursor is malformed or limit is not positive
+     */
+    public Page query(String userId, long from, long to, String cursor, int limit) {
+        if (limit < 1) {
+            throw new IllegalArgumentException("Limit must be positive");
+        }
+        long beforeSeq = Long.MAX_VALUE;
+        long beforeOffset = Long.MAX_VALUE;
+        if (cursor != null && !cursor.isEmpty()) {
+            long[] position = decode(cursor);
+            beforeSeq = position[0];
+            beforeOffset = position[1];
+        }
+        byte[] user = userId != null ? userId.getBytes(StandardCharsets.UTF_8) : null;
+
+        List<byte[]> page = new ArrayList<>(Math.min(limit, 1024));
+        List<Integer> offsets = new ArrayList<>();
+        List<byte[]> payloads = new ArrayList<>();
+        List<Segment> current = segments;
+        long lastSeq = 0;
+        long lastOffset = 0;
+        try {
+            for (int i = current.size() - 1; i >= 0; i--) {
+                Segment segment = current.get(i);
+                if (segment.seq > beforeSeq) {
+                    continue;
+                }
+                long[] ranges = segment.candidates(userId, from, to,
+                        segment.seq == beforeSeq ? beforeOffset : Long.MAX_VALUE);
+                if (ranges.length == 0) {
+                    continue;
+                }
+                for (int r = 0; r < ranges.length; r += 2) {
+                    offsets.clear();
+                    payloads.clear();
+                    scan(segment.read(ranges[r], ranges[r + 1]), (int) ranges[r], user, from, to, offsets, payloads);
+                    for (int k = payloads.size() - 1; k >= 0; k--) {
+                        if (page.size() == limit) {
+                            // Another match exists, so the next page starts after the last one taken
+                            return new Page(page, encode(lastSeq, lastOffset));
+                        }
+                        page.add(payloads.get(k));
+                        lastSeq = segment.seq;
+                        lastOffset = offsets.get(k);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Activity log read failed", e);
+        }
+        return new Page(page, null);
+    }
+
+    public long count() {
+        long count = 0;
+        for (Segment segment : segments) {
+            count += segment.getRecords();
+        }
+        return count;
+    }
+
+    @PreDestroy
+    public void close() throws IOException {
+        writeLock.lock();
+        try {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            channel.close();
+            // Queries may still run; the mapping serves them without the tail reader
+            active.seal();
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    // Entries of a block read from offset start matching the filters, in append order
+    private static void scan(ByteBuffer buffer, int start, byte[] user, long from, long to,
+                             List<Integer> offsets, List<byte[]> payloads) {
+        int position = 0;
+        while (position < buffer.limit()) {
+            int bodyLength = buffer.getInt(position);
+            int body = position + HEADER_BYTES;
+            long timestamp = buffer.getLong(body);
+            int userLength = buffer.getShort(body + Long.BYTES) & 0xFFFF;
+            int userStart = body + Long.BYTES + Short.BYTES;
+            if (timestamp >= from && timestamp <= to && (user == null || matches(buffer, userStart, userLength, user))) {
+                byte[] payload = new byte[bodyLength - Long.BYTES - Short.BYTES - userLength];
+                buffer.get(userStart + userLength, payload);
+                offsets.add(start + position);
+                payloads.add(payload);
+            }
+            position = body + bodyLength;
+        }
+    }
+
+    private static boolean matches(ByteBuffer buffer, int position, int length, byte[] user) {
+        if (length != user.length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (buffer.get(position + i) != user[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Runs under the write lock; the sealed segment is complete on disk before its index says so
+    private void roll(long timestamp) throws IOException {
+        channel.force(true);
+        channel.close();
+        active.seal();
+        writeIndex(active);
+
+        Segment next = new Segment(active.seq + 1, segmentPath(active.seq + 1));
+        channel = openSegment(next.path);
+        List<Segment> rolled = new ArrayList<>(segments.size() + 1);
+        for (Segment segment : segments) {
+            // Retention is measured in entry time, the same clock the segments are indexed by
+            if (timestamp - segment.getMaxTimestamp() > retentionMillis) {
+                Files.deleteIfExists(segment.path);
+                Files.deleteIfExists(indexPath(segment.seq));
+                log.info("Deleted activity log segment {} past retention", segment.seq);
+            } else {
+                rolled.add(segment);
+            }
+        }
+        rolled.add(next);
+        active = next;
+        segments = Collections.unmodifiableList(rolled);
+        DurableFiles.forceDirectory(dir);
+    }
+
+    private void recover() throws IOException {
+        TreeMap<Long, Path> files = LogSegments.list(dir, SEGMENT);
+        if (files.isEmpty()) {
+            files.put(0L, segmentPath(0));
+            Files.createFile(files.get(0L));
+        }
+
+        List<Segment> loaded = new ArrayList<>(files.size());
+        for (Map.Entry<Long, Path> file : files.entrySet()) {
+            boolean last = file.getKey().equals(files.lastKey());
+            Segment segment = new Segment(file.getKey(), file.getValue());
+            if (last || !readIndex(segment)) {
+                rebuild(segment, last);
+            }
+            if (last) {
+                // Appended to again, so an index written before a crash no longer describes it
+                Files.deleteIfExists(indexPath(segment.seq));
+            } else {
+                segment.seal();
+            }
+            loaded.add(segment);
+        }
+        active = loaded.get(loaded.size() - 1);
+        channel = openSegment(active.path);
+        segments = Collections.unmodifiableList(loaded);
+    }
+
+    // Scans a segment to index it; a torn record is truncated from the last segment only
+    private void rebuild(Segment segment, boolean last) throws IOException {
+        long fileSize = Files.size(segment.path);
+        long valid = 0;
+        if (fileSize > 0) {
+            try (FileChannel read = FileChannel.open(segment.path, StandardOpenOption.READ)) {
+                ByteBuffer buffer = read.map(FileChannel.MapMode.READ_ONLY, 0, fileSize);
+                int position = 0;
+                while (position < fileSize) {
+                    int length = frameLength(buffer, position, (int) fileSize);
+                    if (length < 0) {
+                        break;
+                    }
+                    int userLength = buffer.getShort(position + HEADER_BYTES + Long.BYTES) & 0xFFFF;
+                    byte[] user = new byte[userLength];
+                    buffer.get(position + HEADER_BYTES + Long.BYTES + Short.BYTES, user);
+                    segment.add(position, length, buffer.getLong(position + HEADER_BYTES),
+                            new String(user, StandardCharsets.UTF_8));
+                    position += length;
+                }
+                valid = position;
+            }
+        }
+        if (valid < fileSize) {
+            if (!last) {
+                throw new IOException("Corrupt activity log segment " + segment.path + " at offset " + valid);
+            }
+            // A crash mid-append leaves a torn record at the tail; drop it
+            LogSegments.truncateTornTail(segment.path, valid);
+        }
+        if (!last) {
+            writeIndex(segment);
+        }
+    }
+
+    // Size of the intact frame at position, or -1 if it is cut short or fails its checksum
+    private static int frameLength(ByteBuffer buffer, int position, int limit) {
+        if (limit - position < HEADER_BYTES + Long.BYTES + Short.BYTES) {
+            return -1;
+        }
+        int bodyLength = buffer.getInt(position);
+        if (bodyLength < Long.BYTES + Short.BYTES || bodyLength > MAX_ENTRY_BYTES
+                || bodyLength > limit - position - HEADER_BYTES) {
+            return -1;
+        }
+        int userLength = buffer.getShort(position + HEADER_BYTES + Long.BYTES) & 0xFFFF;
+        if (userLength > bodyLength - Long.BYTES - Short.BYTES) {
+            return -1;
+        }
+        return LogSegments.intact(buffer, position) ? HEADER_BYTES + bodyLength : -1;
+    }
+
+    private void writeIndex(Segment segment) throws IOException {
+        Path target = indexPath(segment.seq);
+        Path temp = dir.resolve(target.getFileName() + ".tmp");
+        try (FileChannel out = FileChannel.open(temp, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            DataOutputStream data = new DataOutputStream(new BufferedOutputStream(
+                    Channels.newOutputStream(out), 1 << 16));
+            synchronized (segment) {
+                data.writeUTF(INDEX_HEADER);
+                data.writeLong(segment.size);
+                data.writeLong(segment.records);
+                data.writeLong(segment.minTimestamp);
+                data.writeLong(segment.maxTimestamp);
+                data.writeInt(segment.blocks);
+                for (int block = 0; block < segment.blocks; block++) {
+                    data.writeLong(segment.blockOffsets[block]);
+                    data.writeLong(segment.blockMin[block]);
+                    data.writeLong(segment.blockMax[block]);
+                }
+                data.writeInt(segment.users.size());
+                for (Map.Entry<String, BitSet> user : segment.users.entrySet()) {
+                    data.writeUTF(user.getKey());
+                    long[] words = user.getValue().toLongArray();
+                    data.writeInt(words.length);
+                    for (long word : words) {
+                        data.writeLong(word);
+                    }
+                }
+            }
+            data.flush();
+            out.force(true);
+        }
+        Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    // False if the index is missing or does not match the segment, which is then scanned instead
+    private boolean readIndex(Segment segment) {
+        Path path = indexPath(segment.seq);
+        if (!Files.exists(path)) {
+            return false;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path), 1 << 16))) {
+            if (!INDEX_HEADER.equals(in.readUTF())) {
+                return false;
+            }
+            long size = in.readLong();
+            if (size != Files.size(segment.path)) {
+                return false;
+            }
+            synchronized (segment) {
+                segment.size = size;
+                segment.records = in.readLong();
+                segment.minTimestamp = in.readLong();
+                segment.maxTimestamp = in.readLong();
+                segment.blocks = in.readInt();
+                segment.blockOffsets = new long[Math.max(segment.blocks, 1)];
+                segment.blockMin = new long[segment.blockOffsets.length];
+                segment.blockMax = new long[segment.blockOffsets.length];
+                for (int block = 0; block < segment.blocks; block++) {
+                    segment.blockOffsets[block] = in.readLong();
+                    segment.blockMin[block] = in.readLong();
+                    segment.blockMax[block] = in.readLong();
+                }
+                int users = in.readInt();
+                for (int i = 0; i < users; i++) {
+                    String user = in.readUTF();
+                    long[] words = new long[in.readInt()];
+                    for (int w = 0; w < words.length; w++) {
+                        words[w] = in.readLong();
+                    }
+                    segment.users.put(user, BitSet.valueOf(words));
+                }
+            }
+            return true;
+        } catch (IOException e) {
+            log.warn("Ignoring unreadable activity index {}", path, e);
+            synchronized (segment) {
+                segment.size = 0;
+                segment.records = 0;
+                segment.minTimestamp = Long.MAX_VALUE;
+                segment.maxTimestamp = Long.MIN_VALUE;
+                segment.blocks = 0;
+                segment.users.clear();
+            }
+            return false;
+        }
+    }
+
+    private FileChannel openSegment(Path path) throws IOException {
+        return FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+    }
+
+    private Path segmentPath(long seq) {
+        return dir.resolve(String.format("segment-%012d.log", seq));
+    }
+
+    private Path indexPath(long seq) {
+        return dir.resolve(String.format("segment-%012d.idx", seq));
+    }
+
+    // Cursor is "<segment>|<offset>" of the last entry on the previous page
+    private static String encode(long seq, long offset) {
+        return Base64.getUrlEncoder().withoutPadding()
+                .encodeToString((seq + "|" + offset).getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static long[] decode(String cursor) {
+        try {
+            String decoded = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+            int separator = decoded.indexOf('|');
+            if (separator < 0) {
+                throw new IllegalArgumentException("Invalid cursor");
+            }
+            return new long[]{Long.parseLong(decoded.substring(0, separator)),
+                    Long.parseLong(decoded.substring(separator + 1))};
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Invalid cursor", e);
+        }
+    }
+}
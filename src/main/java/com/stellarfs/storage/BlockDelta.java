@@ -0,0 +1,323 @@
+package com.stellarfs.storage;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+/**
+ * rsync-style binary delta between two versions of a file. The base is cut
+ * into fixed-size blocks indexed by a rolling weak checksum and a 64-bit
+ * strong hash; the target is scanned one byte at a time with the rolling
+ * checksum, and every block found in the base becomes a copy instruction
+ * while everything else is sent as literal data. Inserting or deleting bytes
+ * therefore only costs the bytes around the edit, not the rest of the file.
+ *
+ * Delta format: a sequence of operations terminated by END.
+ *   COPY  [byte 'C'][long base offset][int length]
+ *   DATA  [byte 'D'][int length][bytes]
+ *   END   [byte 'E']
+ */
+final class BlockDelta {
+
+    private static final byte COPY = 'C';
+    private static final byte DATA = 'D';
+    private static final byte END = 'E';
+
+    // Pending literals are flushed at this size so the scan buffer stays bounded
+    private static final int MAX_LITERAL = 1 << 16;
+    private static final int BUFFER_SIZE = 1 << 20;
+
+    private BlockDelta() {
+    }
+
+    /**
+     * Write the delta that turns base into target.
+     * @param base Content the delta is applied to, read with positional reads
+     * @param target Content the delta rebuilds, consumed to the end
+     * @param out Destination of the delta
+     * @param blockSize Match granularity in bytes
+     * @return SHA-256 of the target
+     */
+    static byte[] encode(FileChannel base, InputStream target, DataOutputStream out, int blockSize)
+            throws IOException {
+        Signature signature = Signature.of(base, blockSize);
+        MessageDigest digest = sha256();
+        Encoder encoder = new Encoder(out);
+
+        byte[] buf = new byte[Math.max(BUFFER_SIZE, blockSize * 4)];
+        int end = 0;
+        int litStart = 0;
+        int pos = 0;
+        boolean eof = false;
+        boolean fresh = true;
+        int a = 0;
+        int b = 0;
+
+        while (true) {
+            // Need the window plus one byte to roll into
+            if (pos + blockSize + 1 > end && !eof) {
+                encoder.data(buf, litStart, pos - litStart);
+                System.arraycopy(buf, pos, buf, 0, end - pos);
+                end -= pos;
+                pos = 0;
+                litStart = 0;
+                while (end < buf.length) {
+                    int read = target.read(buf, end, buf.length - end);
+                    if (read < 0) {
+                        eof = true;
+                        break;
+                    }
+                    digest.update(buf, end, read);
+                    end += read;
+                }
+            }
+            if (pos + blockSize > end) {
+                break;
+            }
+
+            if (fresh) {
+                a = 0;
+                b = 0;
+                for (int i = 0; i < blockSize; i++) {
+                    int x = buf[pos + i] & 0xff;
+                    a += x;
+                    b += (blockSize - i) * x;
+                }
+                fresh = false;
+            }
+
+            int block = signature.find(weak(a, b), buf, pos);
+            if (block >= 0) {
+                encoder.data(buf, litStart, pos - litStart);
+                encoder.copy((long) block * blockSize, blockSize);
+                pos += blockSize;
+                litStart = pos;
+                fresh = true;
+                continue;
+            }
+
+            if (pos + blockSize >= end) {
+                // Last full window at end of input; the remainder is literal
+                break;
+            }
+            int out0 = buf[pos] & 0xff;
+            int in0 = buf[pos + blockSize] & 0xff;
+            a += in0 - out0;
+            b += a - blockSize * out0;
+            pos++;
+            if (pos - litStart >= MAX_LITERAL) {
+                encoder.data(buf, litStart, pos - litStart);
+                litStart = pos;
+            }
+        }
+
+        encoder.data(buf, litStart, end - litStart);
+        encoder.finish();
+        return digest.digest();
+    }
+
+    /**
+     * Rebuild a version from its base and delta.
+     * @param base Content the delta was encoded against
+     * @param delta Delta produced by encode
+     * @param out Destination, written from its current position
+     * @return SHA-256 of the rebuilt content
+     */
+    static byte[] apply(FileChannel base, InputStream delta, FileChannel out) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(delta, 1 << 16));
+        MessageDigest digest = sha256();
+        ByteBuffer buffer = ByteBuffer.allocate(1 << 16);
+        while (true) {
+            byte op = in.readByte();
+            if (op == END) {
+                return digest.digest();
+            }
+            if (op == COPY) {
+                long offset = in.readLong();
+                int length = in.readInt();
+                while (length > 0) {
+                    buffer.clear().limit(Math.min(length, buffer.capacity()));
+                    int read = base.read(buffer, offset);
+                    if (read <= 0) {
+                        throw new EOFException("Delta copies past the end of its base");
+                    }
+                    buffer.flip();
+                    digest.update(buffer.array(), 0, read);
+                    writeFully(out, buffer);
+                    offset += read;
+                    length -= read;
+                }
+            } else if (op == DATA) {
+                int length = in.readInt();
+                while (length > 0) {
+                    int n = Math.min(length, buffer.capacity());
+                    in.readFully(buffer.array(), 0, n);
+                    buffer.clear().limit(n);
+                    digest.update(buffer.array(), 0, n);
+                    writeFully(out, buffer);
+                    length -= n;
+                }
+            } else {
+                throw new IOException("Corrupt delta: unknown operation " + op);
+            }
+        }
+    }
+
+    static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void writeFully(FileChannel out, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            out.write(buffer);
+        }
+    }
+
+    private static int weak(int a, int b) {
+        return (a & 0xffff) | (b << 16);
+    }
+
+    // FNV-1a over the block, only computed when the weak checksum matches
+    private static long strong(byte[] data, int offset, int length) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = offset; i < offset + length; i++) {
+            hash ^= data[i] & 0xff;
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    // Emits operations, merging copies of consecutive base blocks into one
+    private static final class Encoder {
+        private final DataOutputStream out;
+        private long copyOffset = -1;
+        private long copyLength;
+
+        private Encoder(DataOutputStream out) {
+            this.out = out;
+        }
+
+        private void copy(long offset, int length) throws IOException {
+            if (copyOffset >= 0 && copyOffset + copyLength == offset && copyLength + length <= Integer.MAX_VALUE) {
+                copyLength += length;
+                return;
+            }
+            flushCopy();
+            copyOffset = offset;
+            copyLength = length;
+        }
+
+        private void data(byte[] buf, int offset, int length) throws IOException {
+            if (length <= 0) {
+                return;
+            }
+            flushCopy();
+            out.writeByte(DATA);
+            out.writeInt(length);
+            out.write(buf, offset, length);
+        }
+
+        private void finish() throws IOException {
+            flushCopy();
+            out.writeByte(END);
+            out.flush();
+        }
+
+        private void flushCopy() throws IOException {
+            if (copyOffset >= 0) {
+                out.writeByte(COPY);
+                out.writeLong(copyOffset);
+                out.writeInt((int) copyLength);
+                copyOffset = -1;
+            }
+        }
+    }
+
+    // Open-addressed table from weak checksum to the base blocks that have it
+    private static final class Signature {
+        private final int blockSize;
+        private final int[] heads;
+        private final int[] next;
+        private final int[] weaks;
+        private final long[] strongs;
+
+        private Signature(int blockSize, int blocks) {
+            this.blockSize = blockSize;
+            int tableSize = Integer.highestOneBit(Math.max(16, blocks * 2 - 1)) << 1;
+            this.heads = new int[tableSize];
+            Arrays.fill(heads, -1);
+            this.next = new int[blocks];
+            this.weaks = new int[blocks];
+            this.strongs = new long[blocks];
+        }
+
+        private static Signature of(FileChannel base, int blockSize) throws IOException {
+            long size = base.size();
+            int blocks = (int) Math.min(Integer.MAX_VALUE - 8, size / blockSize);
+            Signature signature = new Signature(blockSize, blocks);
+            InputStream in = new BufferedInputStream(Channels.newInputStream(base.position(0)), 1 << 16);
+            byte[] block = new byte[blockSize];
+            for (int i = 0; i < blocks; i++) {
+                int read = in.readNBytes(block, 0, blockSize);
+                if (read < blockSize) {
+                    throw new EOFException("Base changed while building its signature");
+                }
+                int a = 0;
+                int b = 0;
+                for (int j = 0; j < blockSize; j++) {
+                    int x = block[j] & 0xff;
+                    a += x;
+                    b += (blockSize - j) * x;
+                }
+                signature.add(i, weak(a, b), strong(block, 0, blockSize));
+            }
+            return signature;
+        }
+
+        private void add(int block, int weak, long strong) {
+            int slot = mix(weak) & (heads.length - 1);
+            weaks[block] = weak;
+            strongs[block] = strong;
+            next[block] = heads[slot];
+            heads[slot] = block;
+        }
+
+        // Index of a base block with the same content, or -1
+        private int find(int weak, byte[] data, int offset) {
+            int block = heads[mix(weak) & (heads.length - 1)];
+            long strong = 0;
+            boolean hashed = false;
+            for (; block >= 0; block = next[block]) {
+                if (weaks[block] != weak) {
+                    continue;
+                }
+                if (!hashed) {
+                    strong = strong(data, offset, blockSize);
+                    hashed = true;
+                }
+                if (strongs[block] == strong) {
+                    return block;
+                }
+            }
+            return -1;
+        }
+
+        private static int mix(int weak) {
+            int h = weak * 0x9e3779b9;
+            return h ^ (h >>> 16);
+        }
+    }
+}
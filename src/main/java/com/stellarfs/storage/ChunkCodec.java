@@ -0,0 +1,41 @@
+package com.stellarfs.storage;
+
+import java.util.zip.Deflater;
+
+/**
+ * How a chunk is stored at rest. Compressed chunks are zlib streams; the
+ * level only matters to the writer.
+ */
+public enum ChunkCodec {
+    STORE(0),
+    FAST(Deflater.BEST_SPEED),
+    MAX(Deflater.BEST_COMPRESSION);
+
+    private final int level;
+
+    ChunkCodec(int level) {
+        this.level = level;
+    }
+
+    public int getLevel() {
+        return level;
+    }
+
+    /**
+     * Codec for newly stored chunks of a file. Media and archives are already
+     * compressed, so trying again only costs CPU.
+     * @param fileName File name
+     * @return STORE for image, video, audio and archive files, FAST otherwise
+     */
+    public static ChunkCodec forFile(String fileName) {
+        switch (FileTypes.of(fileName)) {
+            case "image":
+            case "video":
+            case "audio":
+            case "archive":
+                return STORE;
+            default:
+                return FAST;
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package com.stellarfs.storage;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Ordered list of the chunks that make up a stored file.
+ */
+public class ChunkManifest {
+
+    private static final String HEADER = "stellarfs-manifest 1";
+
+    public static class Entry {
+        private final String hash;
+        private final int length;
+
+        public Entry(String hash, int length) {
+            this.hash = hash;
+            this.length = length;
+        }
+
+        public String getHash() { return hash; }
+        public int getLength() { return length; }
+    }
+
+    private final List<Entry> entries;
+    private final long size;
+
+    public ChunkManifest(List<Entry> entries) {
+        this.entries = Collections.unmodifiableList(new ArrayList<>(entries));
+        long total = 0;
+        for (Entry entry : entries) {
+            total += entry.getLength();
+        }
+        this.size = total;
+    }
+
+    public List<Entry> getEntries() {
+        return entries;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    /**
+     * Write the manifest and force it to disk, so it can be renamed over a
+     * live name without risking an empty file after a crash.
+     * @param path New file to write
+     */
+    public void writeTo(Path path) throws IOException {
+        StringBuilder text = new StringBuilder(HEADER.length() + 16 + entries.size() * 72);
+        text.append(HEADER).append('\n');
+        text.append("size ").append(size).append('\n');
+        for (Entry entry : entries) {
+            text.append(entry.getHash()).append(' ').append(entry.getLength()).append('\n');
+        }
+        ByteBuffer data = ByteBuffer.wrap(text.toString().getBytes(StandardCharsets.US_ASCII));
+        try (FileChannel out = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+            while (data.hasRemaining()) {
+                out.write(data);
+            }
+            out.force(true);
+        }
+    }
+
+    public static ChunkManifest readFrom(Path path) throws IOException {
+        List<Entry> entries = new ArrayList<>();
+        try (BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.US_ASCII)) {
+            if (!HEADER.equals(reader.readLine())) {
+                throw new IOException("Not a chunk manifest: " + path);
+            }
+            reader.readLine(); // size line, recomputed from entries
+            String line;
+            while ((line = reader.readLine()) != null) {
+                int space = line.indexOf(' ');
+                entries.add(new Entry(line.substring(0, space), Integer.parseInt(line.substring(space + 1))));
+            }
+        }
+        return new ChunkManifest(entries);
+    }
+
+    /**
+     * Read only the logical size recorded in a manifest header.
+     * @param path Manifest file
+     * @return Size in bytes of the file the manifest describes
+     */
+    public static long readSize(Path path) throws IOException {
+        try (BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.US_ASCII)) {
+            if (!HEADER.equals(reader.readLine())) {
+                throw new IOException("Not a chunk manifest: " + path);
+            }
+            String sizeLine = reader.readLine();
+            return Long.parseLong(sizeLine.substring("size ".length()));
+        }
+    }
+}
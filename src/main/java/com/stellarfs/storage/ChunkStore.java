@@ -0,0 +1,502 @@
+package com.stellarfs.storage;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Content-addressed chunk store. Each distinct chunk is kept once under its
+ * SHA-256, and deduplicated files are described by a {@link ChunkManifest}.
+ * A chunk is stored either raw under its hash, so it can be sent with
+ * transferTo, or compressed under its hash plus ".z" as a level byte followed
+ * by a zlib stream. Readers inflate compressed chunks transparently.
+ */
+@Component
+public class ChunkStore {
+
+    private static final String CHUNK_DIR = ".chunks";
+    private static final String MANIFEST_DIR = ".manifests";
+    // Version history, which keeps replaced deduplicated content as manifests
+    private static final String VERSIONS_DIR = ".versions";
+    private static final String TEMP_DIR = ".tmp";
+    private static final String COMPRESSED_SUFFIX = ".z";
+    // Compression must save at least this fraction of a chunk to be kept
+    private static final double MIN_SAVING = 0.1;
+
+    public static class IngestResult {
+        private final ChunkManifest manifest;
+        private final long newBytes;
+        private final long storedBytes;
+
+        public IngestResult(ChunkManifest manifest, long newBytes, long storedBytes) {
+            this.manifest = manifest;
+            this.newBytes = newBytes;
+            this.storedBytes = storedBytes;
+        }
+
+        public ChunkManifest getManifest() { return manifest; }
+        // Original size of the chunks that were not already present in the store
+        public long getNewBytes() { return newBytes; }
+        // Bytes on disk of those chunks, after compression
+        public long getStoredBytes() { return storedBytes; }
+    }
+
+    private final Path chunkDir;
+    private final Path manifestDir;
+    private final Path versionsDir;
+    private final Path tempDir;
+    private final ContentDefinedChunker chunker;
+    private final ReadWriteLock sweepLock = new ReentrantReadWriteLock();
+    private final List<UsageListener> usageListeners = new CopyOnWriteArrayList<>();
+
+    public ChunkStore(@Value("${stellarfs.storage.upload-dir:uploads}") String uploadDir,
+                      @Value("${stellarfs.dedup.min-chunk-size:16384}") int minChunkSize,
+                      @Value("${stellarfs.dedup.avg-chunk-size:65536}") int avgChunkSize,
+                      @Value("${stellarfs.dedup.max-chunk-size:262144}") int maxChunkSize) {
+        Path root = Paths.get(uploadDir).toAbsolutePath().normalize();
+        this.chunkDir = root.resolve(CHUNK_DIR);
+        this.manifestDir = root.resolve(MANIFEST_DIR);
+        this.versionsDir = root.resolve(VERSIONS_DIR);
+        this.tempDir = chunkDir.resolve(TEMP_DIR);
+        this.chunker = new ContentDefinedChunker(minChunkSize, avgChunkSize, maxChunkSize);
+        try {
+            Files.createDirectories(tempDir);
+            Files.createDirectories(manifestDir);
+        } catch (IOException e) {
+            throw new IllegalStateException("Cannot create chunk store under " + root, e);
+        }
+    }
+
+    /**
+     * Split a stream into chunks and store the ones not already present, uncompressed.
+     * @param in Source data (not closed)
+     * @return The manifest of the data and the number of newly stored bytes
+     */
+    public IngestResult ingest(InputStream in) throws IOException {
+        return ingest(in, ChunkCodec.STORE);
+    }
+
+    /**
+     * Split a stream into chunks and store the ones not already present.
+     * @param in Source data (not closed)
+     * @param codec Compression for newly stored chunks
+     * @return The manifest of the data and the size of the newly stored chunks
+     */
+    public IngestResult ingest(InputStream in, ChunkCodec codec) throws IOException {
+        MessageDigest digest = sha256();
+        HexFormat hex = HexFormat.of();
+        List<ChunkManifest.Entry> entries = new ArrayList<>();
+        long[] added = new long[2];
+
+        chunker.split(in, (buffer, offset, length) -> {
+            digest.update(buffer, offset, length);
+            String hash = hex.formatHex(digest.digest());
+            long written = put(hash, buffer, offset, length, codec);
+            if (written > 0) {
+                added[0] += length;
+                added[1] += written;
+            }
+            entries.add(new ChunkManifest.Entry(hash, length));
+        });
+
+        return new IngestResult(new ChunkManifest(entries), added[0], added[1]);
+    }
+
+    /**
+     * Path of a chunk stored raw. Compressed chunks are not at this path; use
+     * {@link #openChunk(String)} when the chunk may be compressed.
+     * @param hash Chunk hash
+     * @return Path of the raw chunk file
+     */
+    public Path chunkPath(String hash) {
+        return chunkDir.resolve(hash.substring(0, 2)).resolve(hash);
+    }
+
+    /**
+     * Open a chunk, inflating it if it is stored compressed.
+     * @param hash Chunk hash
+     * @return Stream of the chunk's original bytes
+     */
+    public InputStream openChunk(String hash) throws IOException {
+        try {
+            return Files.newInputStream(chunkPath(hash));
+        } catch (NoSuchFileException e) {
+            // Stored compressed, or recompressed since the caller looked
+        }
+        InputStream in = Files.newInputStream(compressedPath(hash));
+        if (in.read() < 0) {
+            in.close();
+            throw new EOFException("Empty compressed chunk " + hash);
+        }
+        return new InflaterInputStream(in, new Inflater(), 1 << 14) {
+            @Override
+            public void close() throws IOException {
+                super.close();
+                // A supplied Inflater is not released by InflaterInputStream itself
+                inf.end();
+            }
+        };
+    }
+
+    /**
+     * Size of a chunk on disk.
+     * @param hash Chunk hash
+     * @return Physical bytes, or -1 if the chunk is missing
+     */
+    public long physicalSize(String hash) throws IOException {
+        try {
+            return Files.size(chunkPath(hash));
+        } catch (NoSuchFileException e) {
+            // Try the compressed form
+        }
+        try {
+            return Files.size(compressedPath(hash));
+        } catch (NoSuchFileException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Last modification time of a chunk, refreshed whenever an ingest reuses it.
+     * @param hash Chunk hash
+     * @return Modification time, or null if the chunk is missing
+     */
+    public Instant lastModified(String hash) throws IOException {
+        for (Path path : new Path[] {chunkPath(hash), compressedPath(hash)}) {
+            try {
+                return Files.getLastModifiedTime(path).toInstant();
+            } catch (NoSuchFileException e) {
+                // Try the other form
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Rewrite a chunk with a stronger codec if that makes it smaller.
+     * @param hash Chunk hash
+     * @param codec Target codec
+     * @return Bytes saved on disk, 0 if the chunk was left as it was
+     */
+    public long recompress(String hash, ChunkCodec codec) throws IOException {
+        sweepLock.readLock().lock();
+        try {
+            Path raw = chunkPath(hash);
+            Path compressed = compressedPath(hash);
+            long before;
+            byte[] data;
+            if (Files.exists(raw)) {
+                before = Files.size(raw);
+                data = Files.readAllBytes(raw);
+            } else {
+                try (InputStream in = Files.newInputStream(compressed)) {
+                    // Already at this level or better
+                    if (in.read() >= codec.getLevel()) {
+                        return 0;
+                    }
+                }
+                before = Files.size(compressed);
+                try (InputStream in = openChunk(hash)) {
+                    data = in.readAllBytes();
+                }
+            }
+
+            byte[] deflated = deflate(data, 0, data.length, codec);
+            if (deflated == null || deflated.length >= before) {
+                return 0;
+            }
+            writeAtomically(compressed, deflated, deflated.length);
+            Files.deleteIfExists(raw);
+            usageChanged(deflated.length - before);
+            return before - deflated.length;
+        } catch (NoSuchFileException e) {
+            // Swept while we looked at it
+            return 0;
+        } finally {
+            sweepLock.readLock().unlock();
+        }
+    }
+
+    public boolean hasManifest(String name) {
+        return Files.exists(manifestDir.resolve(name));
+    }
+
+    public ChunkManifest readManifest(String name) throws IOException {
+        try {
+            return ChunkManifest.readFrom(manifestDir.resolve(name));
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+    }
+
+    public long readManifestSize(String name) throws IOException {
+        return ChunkManifest.readSize(manifestDir.resolve(name));
+    }
+
+    public Path manifestPath(String name) {
+        return manifestDir.resolve(name);
+    }
+
+    public void writeManifest(String name, ChunkManifest manifest) throws IOException {
+        Path temp = tempDir.resolve(UUID.randomUUID() + ".manifest");
+        manifest.writeTo(temp);
+        DurableFiles.move(temp, manifestDir.resolve(name));
+        // The rename must be durable before the caller drops the flat copy
+        DurableFiles.forceDirectory(manifestDir);
+    }
+
+    public boolean deleteManifest(String name) throws IOException {
+        return Files.deleteIfExists(manifestDir.resolve(name));
+    }
+
+    public List<String> listManifests() throws IOException {
+        List<String> names = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(manifestDir)) {
+            for (Path path : stream) {
+                names.add(path.getFileName().toString());
+            }
+        }
+        return names;
+    }
+
+    /**
+     * Open the logical content described by a manifest as one stream.
+     * @param manifest Chunk manifest
+     * @return Stream over the concatenated chunks
+     */
+    public InputStream open(ChunkManifest manifest) {
+        Iterator<ChunkManifest.Entry> entries = manifest.getEntries().iterator();
+        return new SequenceInputStream(new Enumeration<InputStream>() {
+            @Override
+            public boolean hasMoreElements() {
+                return entries.hasNext();
+            }
+
+            @Override
+            public InputStream nextElement() {
+                try {
+                    return openChunk(entries.next().getHash());
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+        });
+    }
+
+    /**
+     * Register a listener for changes in the space taken by chunks. Manifests
+     * are not counted.
+     * @param listener Called on the writing thread, so it must not block
+     */
+    public void addUsageListener(UsageListener listener) {
+        usageListeners.add(listener);
+    }
+
+    /**
+     * Total bytes held by the chunk store on disk.
+     * @return Physical size of all stored chunks
+     */
+    public long physicalBytes() throws IOException {
+        try (Stream<Path> paths = chunkFiles()) {
+            return paths.mapToLong(path -> path.toFile().length()).sum();
+        }
+    }
+
+    /**
+     * Delete chunks no manifest references, whether live or kept as a version
+     * of a file. Chunks written after the cutoff
+     * are kept, since an ingest may be in flight that has not yet written its
+     * manifest.
+     * @param cutoff Only chunks last modified before this are considered
+     * @return Bytes freed
+     */
+    public long sweep(Instant cutoff) throws IOException {
+        Set<String> referenced = new HashSet<>();
+        for (String name : listManifests()) {
+            ChunkManifest manifest = readManifest(name);
+            if (manifest != null) {
+                manifest.getEntries().forEach(entry -> referenced.add(entry.getHash()));
+            }
+        }
+        // Read after the live manifests, so one linked into history and then dropped is still seen
+        for (Path path : versionManifests()) {
+            try {
+                ChunkManifest.readFrom(path).getEntries().forEach(entry -> referenced.add(entry.getHash()));
+            } catch (NoSuchFileException e) {
+                // Version pruned while sweeping
+            }
+        }
+
+        long freed = 0;
+        List<Path> candidates;
+        try (Stream<Path> paths = chunkFiles()) {
+            candidates = paths.filter(path -> !referenced.contains(hashOf(path)))
+                    .collect(Collectors.toList());
+        }
+        // Writers refresh the timestamp of chunks they reuse, so checking it and
+        // deleting under the write lock cannot drop a chunk that was just referenced
+        sweepLock.writeLock().lock();
+        try {
+            for (Path path : candidates) {
+                BasicFileAttributes attributes;
+                try {
+                    attributes = Files.readAttributes(path, BasicFileAttributes.class);
+                } catch (NoSuchFileException e) {
+                    continue;
+                }
+                if (attributes.lastModifiedTime().toInstant().isBefore(cutoff) && Files.deleteIfExists(path)) {
+                    freed += attributes.size();
+                }
+            }
+        } finally {
+            sweepLock.writeLock().unlock();
+        }
+        usageChanged(-freed);
+        return freed;
+    }
+
+    private void usageChanged(long deltaBytes) {
+        if (deltaBytes != 0) {
+            for (UsageListener listener : usageListeners) {
+                listener.usageChanged(deltaBytes);
+            }
+        }
+    }
+
+    // Returns the bytes newly written to disk, 0 if the chunk was already stored
+    private long put(String hash, byte[] buffer, int offset, int length, ChunkCodec codec) throws IOException {
+        sweepLock.readLock().lock();
+        try {
+            long written = write(hash, buffer, offset, length, codec);
+            usageChanged(written);
+            return written;
+        } finally {
+            sweepLock.readLock().unlock();
+        }
+    }
+
+    private long write(String hash, byte[] buffer, int offset, int length, ChunkCodec codec) throws IOException {
+        for (Path existing : new Path[] {chunkPath(hash), compressedPath(hash)}) {
+            try {
+                Files.setLastModifiedTime(existing, FileTime.from(Instant.now()));
+                return 0;
+            } catch (NoSuchFileException e) {
+                // Not stored in this form
+            }
+        }
+        Files.createDirectories(chunkPath(hash).getParent());
+        byte[] deflated = deflate(buffer, offset, length, codec);
+        if (deflated != null && deflated.length <= length * (1 - MIN_SAVING)) {
+            writeAtomically(compressedPath(hash), deflated, deflated.length);
+            return deflated.length;
+        }
+        writeAtomically(chunkPath(hash), buffer, offset, length);
+        return length;
+    }
+
+    private void writeAtomically(Path target, byte[] data, int length) throws IOException {
+        writeAtomically(target, data, 0, length);
+    }
+
+    private void writeAtomically(Path target, byte[] buffer, int offset, int length) throws IOException {
+        Path temp = tempDir.resolve(UUID.randomUUID() + ".chunk");
+        try (FileChannel out = FileChannel.open(temp, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+            ByteBuffer data = ByteBuffer.wrap(buffer, offset, length);
+            while (data.hasRemaining()) {
+                out.write(data);
+            }
+            out.force(false);
+        }
+        // A concurrent writer of the same chunk produces identical bytes, so the rename can race safely
+        DurableFiles.move(temp, target);
+    }
+
+    // Level byte followed by a zlib stream, or null when the codec stores raw
+    private static byte[] deflate(byte[] buffer, int offset, int length, ChunkCodec codec) {
+        if (codec == ChunkCodec.STORE) {
+            return null;
+        }
+        Deflater deflater = new Deflater(codec.getLevel());
+        try {
+            deflater.setInput(buffer, offset, length);
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(length / 2 + 64);
+            out.write(codec.getLevel());
+            byte[] block = new byte[1 << 14];
+            while (!deflater.finished()) {
+                out.write(block, 0, deflater.deflate(block));
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private Path compressedPath(String hash) {
+        return chunkDir.resolve(hash.substring(0, 2)).resolve(hash + COMPRESSED_SUFFIX);
+    }
+
+    private static String hashOf(Path chunk) {
+        String name = chunk.getFileName().toString();
+        return name.endsWith(COMPRESSED_SUFFIX) ? name.substring(0, name.length() - COMPRESSED_SUFFIX.length()) : name;
+    }
+
+    private List<Path> versionManifests() throws IOException {
+        if (!Files.isDirectory(versionsDir)) {
+            return List.of();
+        }
+        try (Stream<Path> paths = Files.walk(versionsDir, 2)) {
+            return paths.filter(path -> path.getFileName().toString().endsWith(".manifest"))
+                    .collect(Collectors.toList());
+        }
+    }
+
+    private Stream<Path> chunkFiles() throws IOException {
+        return Files.walk(chunkDir, 2)
+                .filter(path -> !path.startsWith(tempDir))
+                .filter(Files::isRegularFile);
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,209 @@
+package com.stellarfs.storage;
+
+import com.stellarfs.concurrent.DaemonThreads;
+import com.stellarfs.model.dto.CompressionReportDTO;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Compresses cold data at rest. Flat files untouched for the cold period are
+ * moved into the chunk store with the strongest codec, and chunks of
+ * compressible types that went cold are rewritten with it. Media and archives
+ * are left alone since they are already compressed. The work runs on a
+ * bounded pool; when its queue is full the submitting thread runs the task
+ * itself, which keeps the number of chunks held in memory bounded.
+ */
+@Slf4j
+@Component
+public class Compressor {
+
+    private final FileStorage fileStorage;
+    private final ChunkStore chunkStore;
+    private final Duration coldAfter;
+    private final ThreadPoolExecutor pool;
+    private final Lock running = new ReentrantLock();
+
+    public Compressor(FileStorage fileStorage, ChunkStore chunkStore,
+                      @Value("${stellarfs.compression.threads:0}") int threads,
+                      @Value("${stellarfs.compression.cold-after-minutes:1440}") long coldAfterMinutes) {
+        this.fileStorage = fileStorage;
+        this.chunkStore = chunkStore;
+        this.coldAfter = Duration.ofMinutes(coldAfterMinutes);
+        // 0 means half the cores, leaving the rest for serving requests
+        int size = threads > 0 ? threads : Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+        this.pool = new ThreadPoolExecutor(size, size, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<>(size * 4),
+                DaemonThreads.factory("compressor-"), new ThreadPoolExecutor.CallerRunsPolicy());
+        pool.allowCoreThreadTimeOut(true);
+    }
+
+    @PreDestroy
+    public void close() {
+        pool.shutdownNow();
+    }
+
+    /**
+     * Compress files and chunks that have not been written for the cold period.
+     * @return Report of the pass, with the compression ratios now on disk
+     * @throws IllegalStateException If a pass is already running
+     */
+    public CompressionReportDTO compressCold() throws IOException {
+        if (!running.tryLock()) {
+            throw new IllegalStateException("A compression pass is already running");
+        }
+        try {
+            return pass();
+        } finally {
+            running.unlock();
+        }
+    }
+
+    private CompressionReportDTO pass() throws IOException {
+        long started = System.currentTimeMillis();
+        Instant cutoff = Instant.now().minus(coldAfter);
+        CompressionReportDTO report = new CompressionReportDTO();
+        report.setEnabled(true);
+
+        // Cold flat files go straight to the strongest codec
+        List<Future<ChunkStore.IngestResult>> chunked = new ArrayList<>();
+        for (StoredFile file : fileStorage.list()) {
+            if (file.isChunked() || file.getLastModified() >= cutoff.toEpochMilli()
+                    || ChunkCodec.forFile(file.getName()) == ChunkCodec.STORE) {
+                continue;
+            }
+            chunked.add(pool.submit(() -> fileStorage.chunk(file.getName(), ChunkCodec.MAX)));
+        }
+        for (Future<ChunkStore.IngestResult> future : chunked) {
+            ChunkStore.IngestResult result = await(future);
+            if (result != null) {
+                report.setFilesCompressed(report.getFilesCompressed() + 1);
+                // Chunks shared with other files are deduplication savings, not compression
+                report.setBytesBefore(report.getBytesBefore() + result.getNewBytes());
+                report.setBytesAfter(report.getBytesAfter() + result.getStoredBytes());
+            }
+        }
+
+        // Chunks stored raw or with the fast codec that went cold since
+        Set<String> compressible = new LinkedHashSet<>();
+        for (String name : chunkStore.listManifests()) {
+            if (ChunkCodec.forFile(name) == ChunkCodec.STORE) {
+                continue;
+            }
+            ChunkManifest manifest = chunkStore.readManifest(name);
+            if (manifest != null) {
+                manifest.getEntries().forEach(entry -> compressible.add(entry.getHash()));
+            }
+        }
+        List<Future<long[]>> recompressed = new ArrayList<>();
+        for (String hash : compressible) {
+            recompressed.add(pool.submit(() -> recompressIfCold(hash, cutoff)));
+        }
+        for (Future<long[]> future : recompressed) {
+            long[] sizes = await(future);
+            if (sizes == null) {
+                continue;
+            }
+            report.setChunksExamined(report.getChunksExamined() + 1);
+            if (sizes[1] < sizes[0]) {
+                report.setChunksRecompressed(report.getChunksRecompressed() + 1);
+                report.setBytesBefore(report.getBytesBefore() + sizes[0]);
+                report.setBytesAfter(report.getBytesAfter() + sizes[1]);
+            }
+        }
+
+        report.setBytesSaved(report.getBytesBefore() - report.getBytesAfter());
+        measureRatios(report);
+        report.setDurationMs(System.currentTimeMillis() - started);
+        log.info("Compressed {} files and {} chunks, saved {} bytes, ratio {}", report.getFilesCompressed(),
+                report.getChunksRecompressed(), report.getBytesSaved(), report.getCompressionRatio());
+        return report;
+    }
+
+    // Physical size before and after, or null if the chunk is not cold or is gone
+    private long[] recompressIfCold(String hash, Instant cutoff) throws IOException {
+        Instant lastModified = chunkStore.lastModified(hash);
+        if (lastModified == null || !lastModified.isBefore(cutoff)) {
+            return null;
+        }
+        long before = chunkStore.physicalSize(hash);
+        if (before < 0) {
+            return null;
+        }
+        return new long[] {before, before - chunkStore.recompress(hash, ChunkCodec.MAX)};
+    }
+
+    // Original over on-disk size of the distinct chunks, overall and per file type
+    private void measureRatios(CompressionReportDTO report) throws IOException {
+        Map<String, Long> physicalSizes = new HashMap<>();
+        long logical = 0;
+        long physical = 0;
+        Map<String, long[]> byType = new HashMap<>();
+        Map<String, Set<String>> seenByType = new HashMap<>();
+        for (String name : chunkStore.listManifests()) {
+            ChunkManifest manifest = chunkStore.readManifest(name);
+            if (manifest == null) {
+                continue;
+            }
+            String type = FileTypes.of(name);
+            long[] totals = byType.computeIfAbsent(type, t -> new long[2]);
+            Set<String> seen = seenByType.computeIfAbsent(type, t -> new HashSet<>());
+            for (ChunkManifest.Entry entry : manifest.getEntries()) {
+                Long size = physicalSizes.get(entry.getHash());
+                if (size == null) {
+                    size = chunkStore.physicalSize(entry.getHash());
+                    physicalSizes.put(entry.getHash(), size);
+                    if (size >= 0) {
+                        logical += entry.getLength();
+                        physical += size;
+                    }
+                }
+                if (size >= 0 && seen.add(entry.getHash())) {
+                    totals[0] += entry.getLength();
+                    totals[1] += size;
+                }
+            }
+        }
+        report.setCompressionRatio(physical == 0 ? 1.0 : (double) logical / physical);
+        byType.forEach((type, totals) ->
+                report.getRatioByType().put(type, totals[1] == 0 ? 1.0 : (double) totals[0] / totals[1]));
+    }
+
+    private static <T> T await(Future<T> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while compressing");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof UncheckedIOException) {
+                throw ((UncheckedIOException) cause).getCause();
+            }
+            throw new IllegalStateException("Compression task failed", cause);
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package com.stellarfs.storage;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
+
+/**
+ * Splits a stream into content-defined chunks using a gear rolling hash
+ * (FastCDC style). Chunk boundaries depend only on nearby content, so an
+ * insertion near the start of a file does not shift every later chunk.
+ */
+public class ContentDefinedChunker {
+
+    public interface ChunkConsumer {
+        void accept(byte[] buffer, int offset, int length) throws IOException;
+    }
+
+    private static final long[] GEAR = new long[256];
+
+    static {
+        // Fixed seed: boundaries must be identical across restarts and nodes
+        Random random = new Random(0x5354454c4c4152L);
+        for (int i = 0; i < GEAR.length; i++) {
+            GEAR[i] = random.nextLong();
+        }
+    }
+
+    private final int minSize;
+    private final int avgSize;
+    private final int maxSize;
+    private final long maskStrict;
+    private final long maskLoose;
+
+    public ContentDefinedChunker(int minSize, int avgSize, int maxSize) {
+        if (minSize <= 0 || minSize > avgSize || avgSize > maxSize || Integer.bitCount(avgSize) != 1) {
+            throw new IllegalArgumentException("Require 0 < min <= avg <= max and avg a power of two");
+        }
+        this.minSize = minSize;
+        this.avgSize = avgSize;
+        this.maxSize = maxSize;
+        int bits = Integer.numberOfTrailingZeros(avgSize);
+        // Normalized chunking: harder to cut before the average size, easier after
+        this.maskStrict = topBits(bits + 2);
+        this.maskLoose = topBits(Math.max(1, bits - 2));
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * Read the stream to the end and hand each chunk to the consumer. The
+     * buffer passed to the consumer is reused, so it must copy what it keeps.
+     * @param in Source stream (not closed)
+     * @param consumer Receives each chunk in order
+     */
+    public void split(InputStream in, ChunkConsumer consumer) throws IOException {
+        byte[] buffer = new byte[maxSize * 2];
+        int start = 0;
+        int end = 0;
+        boolean eof = false;
+
+        while (true) {
+            // Make sure a full max-size window is available unless the stream ended
+            while (!eof && end - start < maxSize) {
+                if (end == buffer.length) {
+                    System.arraycopy(buffer, start, buffer, 0, end - start);
+                    end -= start;
+                    start = 0;
+                }
+                int read = in.read(buffer, end, buffer.length - end);
+                if (read < 0) {
+                    eof = true;
+                } else {
+                    end += read;
+                }
+            }
+            if (start == end) {
+                return;
+            }
+            int length = cut(buffer, start, end - start);
+            consumer.accept(buffer, start, length);
+            start += length;
+        }
+    }
+
+    int cut(byte[] data, int offset, int length) {
+        if (length <= minSize) {
+            return length;
+        }
+        int limit = Math.min(length, maxSize);
+        int normal = Math.min(avgSize, limit);
+        long hash = 0;
+        int i = minSize;
+        for (; i < normal; i++) {
+            hash = (hash << 1) + GEAR[data[offset + i] & 0xff];
+            if ((hash & maskStrict) == 0) {
+                return i + 1;
+            }
+        }
+        for (; i < limit; i++) {
+            hash = (hash << 1) + GEAR[data[offset + i] & 0xff];
+            if ((hash & maskLoose) == 0) {
+                return i + 1;
+            }
+        }
+        return limit;
+    }
+
+    private static long topBits(int count) {
+        // High bits of a gear hash depend on the last 64 bytes, low bits on only a few
+        return ((1L << count) - 1) << (64 - count);
+    }
+}
@@ -0,0 +1,115 @@
+package com.stellarfs.storage;
+
+import com.stellarfs.model.dto.DeduplicationReportDTO;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Moves flat files into the chunk store. Each file is split into
+ * content-defined chunks, chunks already present are shared, and the flat
+ * copy is replaced by a manifest. New chunks may be compressed as they are
+ * stored.
+ * <p>
+ * Uploads are not chunked on arrival: they land as flat files so that a
+ * commit stays a rename and the previous version can be kept by moving it
+ * aside. Deduplication only takes effect once this pass has run, and the
+ * next overwrite of a chunked file stores it flat again.
+ */
+@Slf4j
+@Component
+public class Deduplicator {
+
+    private final FileStorage fileStorage;
+    private final ChunkStore chunkStore;
+    private final Lock running = new ReentrantLock();
+
+    public Deduplicator(FileStorage fileStorage, ChunkStore chunkStore) {
+        this.fileStorage = fileStorage;
+        this.chunkStore = chunkStore;
+    }
+
+    /**
+     * Deduplicate every flat file and sweep chunks no longer referenced.
+     * @param compress Whether new chunks are compressed according to their file type
+     * @return Report of the pass
+     * @throws IllegalStateException If a pass is already running
+     */
+    public DeduplicationReportDTO deduplicate(boolean compress) throws IOException {
+        // A second pass would only redo the first one's work; the caller can retry once it is done
+        if (!running.tryLock()) {
+            throw new IllegalStateException("A deduplication pass is already running");
+        }
+        try {
+            return pass(compress);
+        } finally {
+            running.unlock();
+        }
+    }
+
+    private DeduplicationReportDTO pass(boolean compress) throws IOException {
+        long started = System.currentTimeMillis();
+        Instant cutoff = Instant.now();
+        DeduplicationReportDTO report = new DeduplicationReportDTO();
+        report.setEnabled(true);
+
+        long dedupSaved = 0;
+        long compressionSaved = 0;
+        for (StoredFile file : fileStorage.list()) {
+            if (file.isChunked()) {
+                continue;
+            }
+            ChunkStore.IngestResult result = fileStorage.chunk(file.getName(),
+                    compress ? ChunkCodec.forFile(file.getName()) : ChunkCodec.STORE);
+            if (result != null) {
+                long size = result.getManifest().getSize();
+                report.setFilesProcessed(report.getFilesProcessed() + 1);
+                report.setLogicalBytesProcessed(report.getLogicalBytesProcessed() + size);
+                report.setNewChunkBytes(report.getNewChunkBytes() + result.getStoredBytes());
+                dedupSaved += size - result.getNewBytes();
+                compressionSaved += result.getNewBytes() - result.getStoredBytes();
+            } else {
+                log.debug("Skipped {}: modified while deduplicating", file.getName());
+            }
+        }
+
+        // Chunks of overwritten files are only garbage once no manifest refers to them
+        long swept = chunkStore.sweep(cutoff);
+
+        // Sharing is measured on original sizes, so deflate savings do not inflate it
+        long logical = 0;
+        Map<String, Integer> unique = new HashMap<>();
+        for (String name : chunkStore.listManifests()) {
+            ChunkManifest manifest = chunkStore.readManifest(name);
+            if (manifest == null) {
+                continue; // Superseded during the pass
+            }
+            logical += manifest.getSize();
+            manifest.getEntries().forEach(entry -> unique.put(entry.getHash(), entry.getLength()));
+        }
+        long uniqueBytes = 0;
+        for (int length : unique.values()) {
+            uniqueBytes += length;
+        }
+        long physical = chunkStore.physicalBytes();
+
+        report.setDedupBytesSaved(dedupSaved);
+        report.setCompressionBytesSaved(compressionSaved);
+        report.setBytesReclaimed(dedupSaved + compressionSaved + swept);
+        report.setTotalLogicalBytes(logical);
+        report.setTotalUniqueBytes(uniqueBytes);
+        report.setTotalPhysicalBytes(physical);
+        report.setDedupRatio(uniqueBytes == 0 ? 1.0 : (double) logical / uniqueBytes);
+        report.setCompressionRatio(physical == 0 ? 1.0 : (double) uniqueBytes / physical);
+        report.setDurationMs(System.currentTimeMillis() - started);
+        log.info("Deduplicated {} files, saved {} bytes by sharing and {} by compression, ratio {}",
+                report.getFilesProcessed(), dedupSaved, compressionSaved, report.getDedupRatio());
+        return report;
+    }
+}
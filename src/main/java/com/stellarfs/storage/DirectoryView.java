@@ -0,0 +1,175 @@
+package com.stellarfs.storage;
+
+import com.stellarfs.concurrent.DaemonThreads;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Cached stat of every file in the storage directory, so listing files can
+ * say how each is stored without a stat call per file.
+ *
+ * Changes made through {@link FileStorage} refresh the file at once; a
+ * WatchService on the storage directory catches everything else, and a lost
+ * event (overflow) triggers a full rescan.
+ */
+@Slf4j
+@Component
+public class DirectoryView {
+
+    private static final int LOCK_STRIPES = 64;
+
+    private final FileStorage fileStorage;
+    private final Map<String, StoredFile> byName = new ConcurrentHashMap<>();
+    private final Lock[] locks = new Lock[LOCK_STRIPES];
+    private final WatchService watcher;
+
+    public DirectoryView(FileStorage fileStorage) {
+        this.fileStorage = fileStorage;
+        for (int i = 0; i < locks.length; i++) {
+            locks[i] = new ReentrantLock();
+        }
+        fileStorage.addContentListener((name, sha256) -> refresh(name));
+
+        // Watch before the first scan, so a change made during the scan is not missed
+        WatchService service = null;
+        try {
+            service = fileStorage.getRoot().getFileSystem().newWatchService();
+            fileStorage.getRoot().register(service, StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY);
+        } catch (IOException | UnsupportedOperationException e) {
+            log.warn("Cannot watch {}; only changes made through storage will be seen", fileStorage.getRoot(), e);
+            closeQuietly(service);
+            service = null;
+        }
+        this.watcher = service;
+        rescan();
+        if (watcher != null) {
+            Thread thread = DaemonThreads.thread(this::watch, "directory-watch");
+            thread.start();
+        }
+    }
+
+    @PreDestroy
+    public void close() {
+        closeQuietly(watcher);
+    }
+
+    /**
+     * @param name Stored file name
+     * @return The file's cached stat, or null if it is not in the storage directory
+     */
+    public StoredFile get(String name) {
+        return byName.get(name);
+    }
+
+    // Number of files cached
+    public int size() {
+        return byName.size();
+    }
+
+    /**
+     * Re-read every file's stat and drop files that are gone.
+     */
+    public void rescan() {
+        Set<String> present = new HashSet<>();
+        List<StoredFile> files;
+        try {
+            files = fileStorage.list();
+        } catch (IOException e) {
+            log.warn("Cannot list {}", fileStorage.getRoot(), e);
+            return;
+        }
+        for (StoredFile file : files) {
+            present.add(file.getName());
+            Lock lock = lockFor(file.getName());
+            lock.lock();
+            try {
+                update(file.getName(), file);
+            } finally {
+                lock.unlock();
+            }
+        }
+        for (String name : byName.keySet()) {
+            if (!present.contains(name)) {
+                refresh(name);
+            }
+        }
+    }
+
+    private void refresh(String name) {
+        Lock lock = lockFor(name);
+        lock.lock();
+        try {
+            try {
+                update(name, fileStorage.stat(name));
+            } catch (IOException | IllegalArgumentException e) {
+                log.debug("Cannot stat {}: {}", name, e.toString());
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Caller holds the name lock
+    private void update(String name, StoredFile current) {
+        if (current != null) {
+            byName.put(name, current);
+        } else {
+            byName.remove(name);
+        }
+    }
+
+    private void watch() {
+        try {
+            while (true) {
+                WatchKey key = watcher.take();
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                        rescan();
+                        continue;
+                    }
+                    String name = ((Path) event.context()).getFileName().toString();
+                    if (!FileStorage.isHidden(name)) {
+                        refresh(name);
+                    }
+                }
+                if (!key.reset()) {
+                    log.warn("Stopped watching {}; it is no longer accessible", fileStorage.getRoot());
+                    return;
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // Shutting down
+        }
+    }
+
+    private Lock lockFor(String name) {
+        return locks[Math.floorMod(name.hashCode(), locks.length)];
+    }
+
+    private static void closeQuietly(WatchService service) {
+        if (service != null) {
+            try {
+                service.close();
+            } catch (IOException e) {
+                // Nothing to do
+            }
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package com.stellarfs.storage;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * fsync helpers for files that are written aside and then renamed into place.
+ */
+final class DurableFiles {
+
+    private DurableFiles() {
+    }
+
+    /**
+     * Force a file's content and metadata to disk.
+     * @param file Existing file
+     */
+    static void force(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            channel.force(true);
+        }
+    }
+
+    /**
+     * Make file creations, renames and deletions in a directory durable.
+     * @param dir Directory
+     */
+    static void forceDirectory(Path dir) {
+        try (FileChannel channel = FileChannel.open(dir, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            // Not supported on every platform; the files themselves are still synced
+        }
+    }
+
+    /**
+     * Rename a file over its target, atomically where the file system allows it.
+     * @param source File to move
+     * @param target New path, replaced if it exists
+     */
+    static void move(Path source, Path target) throws IOException {
+        try {
+            Files.move(source, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+}
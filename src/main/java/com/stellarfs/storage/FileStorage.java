@@ -0,0 +1,607 @@
+package com.stellarfs.storage;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Owns the on-disk upload directory. Incoming data is streamed into a hidden
+ * temp file in fixed-size chunks and then atomically renamed into place, so a
+ * partially written file is never visible to directory listings. Every stored
+ * content is also recorded as a new version in the version store, which keeps
+ * the content it replaces by linking to it, or to its chunk manifest, so a
+ * commit never copies or hashes the file.
+ */
+@Component
+public class FileStorage {
+
+    /**
+     * Notified after the live content of a file changes or is deleted.
+     */
+    public interface ContentListener {
+        /**
+         * @param name File name
+         * @param sha256 Hex SHA-256 of the new content, or null if it is not known or the file was deleted
+         */
+        void contentChanged(String name, String sha256);
+    }
+
+    // Entries starting with this prefix are internal and never listed
+    public static final String HIDDEN_PREFIX = ".";
+
+    private static final String TEMP_DIR = ".tmp";
+
+    private static final int LOCK_STRIPES = 64;
+
+    private final Path root;
+    private final Path tempDir;
+    private final long chunkSize;
+    private final ChunkStore chunkStore;
+    private final VersionStore versionStore;
+    // Locks rather than monitors: they are held across disk I/O, which must not pin a virtual thread
+    private final Lock[] locks = new Lock[LOCK_STRIPES];
+    private final List<ContentListener> listeners = new CopyOnWriteArrayList<>();
+    private final List<UsageListener> usageListeners = new CopyOnWriteArrayList<>();
+
+    public FileStorage(@Value("${stellarfs.storage.upload-dir:uploads}") String uploadDir,
+                       @Value("${stellarfs.storage.transfer-chunk-size:8388608}") long chunkSize,
+                       ChunkStore chunkStore,
+                       VersionStore versionStore) {
+        this.root = Paths.get(uploadDir).toAbsolutePath().normalize();
+        this.tempDir = root.resolve(TEMP_DIR);
+        this.chunkSize = chunkSize;
+        this.chunkStore = chunkStore;
+        this.versionStore = versionStore;
+        versionStore.setContentSource(new VersionStore.ContentSource() {
+            @Override
+            public InputStream openLive(String name) throws IOException {
+                return open(name);
+            }
+
+            @Override
+            public InputStream openManifest(Path manifest) throws IOException {
+                return chunkStore.open(ChunkManifest.readFrom(manifest));
+            }
+        });
+        for (int i = 0; i < locks.length; i++) {
+            locks[i] = new ReentrantLock();
+        }
+        try {
+            Files.createDirectories(tempDir);
+        } catch (IOException e) {
+            throw new IllegalStateException("Cannot create upload directory " + root, e);
+        }
+    }
+
+    public Path getRoot() {
+        return root;
+    }
+
+    /**
+     * Stream data into the storage directory under the given name. Memory use is
+     * bounded by the transfer chunk size regardless of the payload size.
+     * @param filename Target file name (any directory components are dropped)
+     * @param in Source data, closed by this method
+     * @return The final path of the stored file
+     */
+    public Path store(String filename, InputStream in) throws IOException {
+        Path target = resolve(filename);
+        storeVersion(target.getFileName().toString(), filename, in);
+        return target;
+    }
+
+    /**
+     * Stream data into the storage directory and record it as the file's next version.
+     * @param history Key of the file's version history
+     * @param filename Target file name (any directory components are dropped)
+     * @param in Source data, closed by this method
+     * @return The new version number
+     */
+    public int storeVersion(String history, String filename, InputStream in) throws IOException {
+        Path target = resolve(filename);
+        Path temp = receive(in);
+        try {
+            return commitVersion(history, target.getFileName().toString(), temp);
+        } catch (IOException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+    }
+
+    /**
+     * Stream data into a synced temp file on the storage file system, ready
+     * for {@link #commitVersion}.
+     * @param in Source data, closed by this method
+     * @return The temp file, owned by the caller
+     */
+    public Path receive(InputStream in) throws IOException {
+        Path temp = tempDir.resolve(UUID.randomUUID() + ".part");
+
+        try (InputStream source = in;
+             FileChannel out = FileChannel.open(temp, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+            if (source instanceof FileInputStream) {
+                // Multipart parts spooled to disk can be copied file-to-file by the kernel
+                transfer(((FileInputStream) source).getChannel(), out);
+            } else {
+                transfer(Channels.newChannel(source), out);
+            }
+            out.force(false);
+        } catch (IOException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+        return temp;
+    }
+
+    /**
+     * Make a file already written on the storage file system the next version
+     * of a stored file. The file is renamed into place, not copied, and the
+     * content it replaces is linked into the history.
+     * @param history Key of the file's version history
+     * @param filename Target file name (any directory components are dropped)
+     * @param content Complete, synced content; left in place if the version cannot be recorded
+     * @return The new version number
+     */
+    public int commitVersion(String history, String filename, Path content) throws IOException {
+        Path target = resolve(filename);
+        String name = target.getFileName().toString();
+        Lock lock = lockFor(name);
+        lock.lock();
+        try {
+            long replaced = flatSize(target);
+            keepCurrent(history, name);
+            long size = Files.size(content);
+            moveIntoPlace(content, target);
+            int version = versionStore.add(history, name, size);
+            usageChanged(size - replaced);
+            // A fresh upload supersedes any deduplicated copy under the same name
+            chunkStore.deleteManifest(name);
+            contentChanged(name, null);
+            return version;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Make an earlier version the live content of a file.
+     * @param history Key of the file's version history
+     * @param filename File name
+     * @param version Version number
+     * @return false if the file has no such version
+     */
+    public boolean restoreVersion(String history, String filename, int version) throws IOException {
+        Path target = resolve(filename);
+        String name = target.getFileName().toString();
+        Lock lock = lockFor(name);
+        lock.lock();
+        try {
+            if (versionStore.currentVersion(history) == version) {
+                return true;
+            }
+            Path rebuilt = versionStore.materialize(history, version);
+            if (rebuilt == null) {
+                return false;
+            }
+            try {
+                long replaced = flatSize(target);
+                keepCurrent(history, name);
+                long size = Files.size(rebuilt);
+                moveIntoPlace(rebuilt, target);
+                usageChanged(size - replaced);
+                chunkStore.deleteManifest(name);
+            } finally {
+                Files.deleteIfExists(rebuilt);
+            }
+            versionStore.setCurrent(history, version);
+            String sha = null;
+            for (VersionStore.Version stored : versionStore.list(history)) {
+                if (stored.getNumber() == version) {
+                    sha = stored.getSha256();
+                }
+            }
+            contentChanged(name, sha);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Delete a stored file: its live content, flat or chunked, and its history.
+     * @param history Key of the file's version history
+     * @param filename File name
+     * @return false if no live content was stored under the name
+     */
+    public boolean delete(String history, String filename) throws IOException {
+        Path target = resolve(filename);
+        String name = target.getFileName().toString();
+        Lock lock = lockFor(name);
+        lock.lock();
+        try {
+            long size = flatSize(target);
+            boolean deleted = Files.deleteIfExists(target);
+            if (deleted) {
+                DurableFiles.forceDirectory(root);
+                usageChanged(-size);
+            }
+            deleted |= chunkStore.deleteManifest(name);
+            versionStore.delete(history);
+            if (deleted) {
+                contentChanged(name, null);
+            }
+            return deleted;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Retained versions of a file, oldest first.
+     * @param history Key of the file's version history
+     * @return Versions, empty if the file has no history
+     */
+    public List<VersionStore.Version> listVersions(String history) throws IOException {
+        return versionStore.list(history);
+    }
+
+    /**
+     * Register a listener for content changes made through this storage.
+     * @param listener Called with the file lock held, so it must not block
+     */
+    public void addContentListener(ContentListener listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Register a listener for changes in the space taken by flat files.
+     * Deduplicated content is accounted by the chunk store and history by the
+     * version store.
+     * @param listener Called with the file lock held, so it must not block
+     */
+    public void addUsageListener(UsageListener listener) {
+        usageListeners.add(listener);
+    }
+
+    /**
+     * Bytes taken by flat files, by scanning the storage directory. The
+     * figure the usage listeners are told about, for reconciling it.
+     * @return Total size of the flat files
+     */
+    public long flatBytes() throws IOException {
+        long total = 0;
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(root)) {
+            for (Path path : stream) {
+                if (!isHidden(path.getFileName().toString())) {
+                    total += flatSize(path);
+                }
+            }
+        }
+        return total;
+    }
+
+    /**
+     * List the files visible to clients, including deduplicated ones.
+     * @return Stored files in no particular order
+     */
+    public List<StoredFile> list() throws IOException {
+        Map<String, StoredFile> files = new LinkedHashMap<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(root)) {
+            for (Path path : stream) {
+                String name = path.getFileName().toString();
+                // Skip in-flight temp files and internal storage directories
+                if (isHidden(name) || !Files.isRegularFile(path)) {
+                    continue;
+                }
+                try {
+                    files.put(name, statFlat(path));
+                } catch (NoSuchFileException e) {
+                    // Deleted or deduplicated while listing
+                }
+            }
+        }
+        for (String name : chunkStore.listManifests()) {
+            if (files.containsKey(name)) {
+                continue;
+            }
+            try {
+                files.put(name, statChunked(name));
+            } catch (NoSuchFileException e) {
+                // Superseded by a new upload while listing
+            }
+        }
+        return new ArrayList<>(files.values());
+    }
+
+    /**
+     * Look up a single stored file.
+     * @param filename File name
+     * @return The file, or null if it does not exist
+     */
+    public StoredFile stat(String filename) throws IOException {
+        Path path = resolve(filename);
+        try {
+            return statFlat(path);
+        } catch (NoSuchFileException e) {
+            // Not stored flat, may have been deduplicated
+        }
+        try {
+            return statChunked(path.getFileName().toString());
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Open a stored file for sequential reading, whether it is flat or deduplicated.
+     * @param filename File name
+     * @return Stream of the file's content
+     */
+    public InputStream open(String filename) throws IOException {
+        Path path = resolve(filename);
+        try {
+            return Files.newInputStream(path);
+        } catch (NoSuchFileException e) {
+            // Fall through to the chunk manifest
+        }
+        ChunkManifest manifest = chunkStore.readManifest(path.getFileName().toString());
+        if (manifest == null) {
+            throw new NoSuchFileException(filename);
+        }
+        return chunkStore.open(manifest);
+    }
+
+    /**
+     * Copy a byte range of a stored file to a channel. Flat files are sent with
+     * FileChannel.transferTo so the kernel can move the data without a user-space
+     * copy; deduplicated files are sent chunk by chunk the same way, except for
+     * compressed chunks, which are inflated on the fly.
+     * @param filename File name
+     * @param position Offset of the first byte to send
+     * @param count Number of bytes to send
+     * @param target Destination channel
+     */
+    public void transferTo(String filename, long position, long count, WritableByteChannel target)
+            throws IOException {
+        Path path = resolve(filename);
+        try (FileChannel in = FileChannel.open(path, StandardOpenOption.READ)) {
+            transferRange(in, position, count, target);
+            return;
+        } catch (NoSuchFileException e) {
+            // Fall through to the chunk manifest
+        }
+
+        ChunkManifest manifest = chunkStore.readManifest(path.getFileName().toString());
+        if (manifest == null) {
+            throw new NoSuchFileException(filename);
+        }
+        long offset = 0;
+        long end = position + count;
+        for (ChunkManifest.Entry entry : manifest.getEntries()) {
+            long chunkEnd = offset + entry.getLength();
+            if (chunkEnd > position && offset < end) {
+                long from = Math.max(position, offset) - offset;
+                long to = Math.min(end, chunkEnd) - offset;
+                transferChunk(entry.getHash(), from, to - from, target);
+            }
+            if (chunkEnd >= end) {
+                break;
+            }
+            offset = chunkEnd;
+        }
+    }
+
+    /**
+     * Move a flat file into the chunk store and replace it with its manifest.
+     * @param filename File name
+     * @param codec Compression for newly stored chunks
+     * @return The ingest result, or null if the file is not stored flat or changed while chunking
+     */
+    public ChunkStore.IngestResult chunk(String filename, ChunkCodec codec) throws IOException {
+        Path path = resolve(filename);
+        BasicFileAttributes before;
+        ChunkStore.IngestResult result;
+        try {
+            before = Files.readAttributes(path, BasicFileAttributes.class);
+            try (InputStream in = Files.newInputStream(path)) {
+                result = chunkStore.ingest(in, codec);
+            }
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+        String name = path.getFileName().toString();
+        return replaceWithManifest(name, before.size(), before.lastModifiedTime(), result.getManifest())
+                ? result : null;
+    }
+
+    /**
+     * Swap a flat file for its chunk manifest, unless the file changed since it
+     * was chunked.
+     * @param name File name
+     * @param size Size of the file when it was chunked
+     * @param lastModified Modification time of the file when it was chunked
+     * @param manifest Manifest of the chunked content
+     * @return true if the flat file was replaced
+     */
+    public boolean replaceWithManifest(String name, long size, FileTime lastModified,
+                                       ChunkManifest manifest) throws IOException {
+        Path path = resolve(name);
+        Lock lock = lockFor(name);
+        lock.lock();
+        try {
+            if (!Files.exists(path) || Files.size(path) != size
+                    || !Files.getLastModifiedTime(path).equals(lastModified)) {
+                return false;
+            }
+            // Returns once the manifest and its directory entry are on disk
+            chunkStore.writeManifest(name, manifest);
+            Files.delete(path);
+            usageChanged(-size);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Resolve a client supplied name to a path inside the storage directory.
+     * @param filename File name
+     * @return Path of the file inside the storage root
+     */
+    public Path resolve(String filename) {
+        if (filename == null || filename.trim().isEmpty()) {
+            throw new IllegalArgumentException("File name is empty");
+        }
+        Path name = Paths.get(filename).getFileName();
+        if (name == null || isHidden(name.toString())) {
+            throw new IllegalArgumentException("Invalid file name: " + filename);
+        }
+        return root.resolve(name.toString());
+    }
+
+    public static boolean isHidden(String name) {
+        return name.startsWith(HIDDEN_PREFIX);
+    }
+
+    // Hand the content about to be replaced to the version store, which links to it rather than copying
+    private void keepCurrent(String history, String name) throws IOException {
+        Path path = root.resolve(name);
+        if (Files.isRegularFile(path)) {
+            versionStore.keep(history, name, path);
+        } else if (chunkStore.hasManifest(name)) {
+            // Deduplicated content stays deduplicated in the history
+            versionStore.keepManifest(history, name, chunkStore.manifestPath(name), chunkStore.readManifestSize(name));
+        } else {
+            versionStore.keep(history, name, null);
+        }
+    }
+
+    // Size of a flat file, 0 if there is none
+    private static long flatSize(Path path) throws IOException {
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+            return attributes.isRegularFile() ? attributes.size() : 0;
+        } catch (NoSuchFileException e) {
+            return 0;
+        }
+    }
+
+    private StoredFile statFlat(Path path) throws IOException {
+        BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+        return new StoredFile(path.getFileName().toString(), attributes.size(),
+                attributes.lastModifiedTime().toMillis(), false);
+    }
+
+    private StoredFile statChunked(String name) throws IOException {
+        long lastModified = Files.getLastModifiedTime(chunkStore.manifestPath(name)).toMillis();
+        return new StoredFile(name, chunkStore.readManifestSize(name), lastModified, true);
+    }
+
+    private void transferRange(FileChannel in, long position, long count, WritableByteChannel target)
+            throws IOException {
+        long end = position + count;
+        while (position < end) {
+            long sent = in.transferTo(position, Math.min(chunkSize, end - position), target);
+            if (sent <= 0) {
+                throw new EOFException("File truncated during transfer");
+            }
+            position += sent;
+        }
+    }
+
+    private void transferChunk(String hash, long position, long count, WritableByteChannel target)
+            throws IOException {
+        try (FileChannel in = FileChannel.open(chunkStore.chunkPath(hash), StandardOpenOption.READ)) {
+            transferRange(in, position, count, target);
+            return;
+        } catch (NoSuchFileException e) {
+            // Stored compressed, so it has to be inflated in user space
+        }
+        try (InputStream in = chunkStore.openChunk(hash)) {
+            in.skipNBytes(position);
+            ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(1 << 16, Math.max(count, 1)));
+            while (count > 0) {
+                int read = in.read(buffer.array(), 0, (int) Math.min(buffer.capacity(), count));
+                if (read < 0) {
+                    throw new EOFException("Chunk " + hash + " truncated during transfer");
+                }
+                buffer.clear().limit(read);
+                while (buffer.hasRemaining()) {
+                    target.write(buffer);
+                }
+                count -= read;
+            }
+        }
+    }
+
+    private void contentChanged(String name, String sha256) {
+        for (ContentListener listener : listeners) {
+            listener.contentChanged(name, sha256);
+        }
+    }
+
+    private void usageChanged(long deltaBytes) {
+        if (deltaBytes != 0) {
+            for (UsageListener listener : usageListeners) {
+                listener.usageChanged(deltaBytes);
+            }
+        }
+    }
+
+    private Lock lockFor(String name) {
+        return locks[Math.floorMod(name.hashCode(), locks.length)];
+    }
+
+    private void transfer(FileChannel in, FileChannel out) throws IOException {
+        long position = 0;
+        long size = in.size();
+        while (position < size) {
+            position += in.transferTo(position, Math.min(chunkSize, size - position), out);
+        }
+    }
+
+    private void transfer(ReadableByteChannel in, FileChannel out) throws IOException {
+        long position = 0;
+        long transferred;
+        // transferFrom returns 0 only once the source channel is exhausted
+        while ((transferred = out.transferFrom(in, position, chunkSize)) > 0) {
+            position += transferred;
+        }
+    }
+
+    // Rename synced content over the target and make the rename durable
+    private void moveIntoPlace(Path temp, Path target) throws IOException {
+        try {
+            DurableFiles.move(temp, target);
+        } catch (IOException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+        DurableFiles.forceDirectory(root);
+    }
+}
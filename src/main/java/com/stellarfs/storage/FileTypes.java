@@ -0,0 +1,53 @@
+package com.stellarfs.storage;
+
+import java.util.Locale;
+
+/**
+ * File type categories derived from the file name extension.
+ */
+public final class FileTypes {
+
+    private FileTypes() {
+    }
+
+    /**
+     * Categorize a file by its extension.
+     * @param fileName File name
+     * @return One of pdf, image, document, archive, video, audio, code or unknown
+     */
+    public static String of(String fileName) {
+        String extension = fileName.substring(fileName.lastIndexOf(".") + 1).toLowerCase(Locale.ROOT);
+        switch (extension) {
+            case "pdf":
+                return "pdf";
+            case "jpg":
+            case "jpeg":
+            case "png":
+            case "gif":
+                return "image";
+            case "doc":
+            case "docx":
+            case "txt":
+                return "document";
+            case "zip":
+            case "rar":
+            case "7z":
+                return "archive";
+            case "mp4":
+            case "avi":
+            case "mov":
+                return "video";
+            case "mp3":
+            case "wav":
+            case "flac":
+                return "audio";
+            case "java":
+            case "js":
+            case "py":
+            case "cpp":
+                return "code";
+            default:
+                return "unknown";
+        }
+    }
+}
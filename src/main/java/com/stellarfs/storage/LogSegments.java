@@ -0,0 +1,135 @@
+package com.stellarfs.storage;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+
+/**
+ * Pieces shared by the append-only logs: numbered segment files, records
+ * framed as [int body length][int crc32c of body][body], and truncation of a
+ * record torn by a crash at the tail of the last segment.
+ */
+@Slf4j
+final class LogSegments {
+
+    static final int HEADER_BYTES = 8;
+    // Bodies above this are taken for a corrupt length
+    private static final int MAX_BODY_BYTES = 1 << 30;
+
+    static final class CorruptFrameException extends IOException {
+        private CorruptFrameException(String message) {
+            super(message);
+        }
+    }
+
+    private LogSegments() {
+    }
+
+    /**
+     * @param dir Log directory
+     * @param pattern File name pattern whose first group is the sequence number
+     * @return Matching files by sequence number
+     */
+    static TreeMap<Long, Path> list(Path dir, Pattern pattern) throws IOException {
+        TreeMap<Long, Path> files = new TreeMap<>();
+        try (Stream<Path> entries = Files.list(dir)) {
+            entries.forEach(path -> {
+                Matcher matcher = pattern.matcher(path.getFileName().toString());
+                if (matcher.matches()) {
+                    files.put(Long.parseLong(matcher.group(1)), path);
+                }
+            });
+        }
+        return files;
+    }
+
+    /**
+     * Write a record as one frame.
+     * @param out Destination
+     * @param body Record body
+     */
+    static void writeFrame(OutputStream out, byte[] body) throws IOException {
+        DataOutputStream header = new DataOutputStream(out);
+        header.writeInt(body.length);
+        header.writeInt(checksum(ByteBuffer.wrap(body)));
+        out.write(body);
+    }
+
+    /**
+     * Fill in the header of a frame built in place.
+     * @param frame Buffer of exactly one frame, its body already written after HEADER_BYTES; rewound
+     */
+    static void finishFrame(ByteBuffer frame) {
+        int bodyLength = frame.capacity() - HEADER_BYTES;
+        frame.putInt(0, bodyLength).putInt(4, checksum(frame.slice(HEADER_BYTES, bodyLength)));
+        frame.rewind();
+    }
+
+    /**
+     * Read one frame.
+     * @param in Source, positioned at a frame
+     * @param path File read from, for messages
+     * @return Record body, or null at a clean end of input
+     * @throws java.io.EOFException If the frame is cut short
+     * @throws CorruptFrameException If its length is implausible or its checksum does not match
+     */
+    static byte[] readFrame(DataInputStream in, Path path) throws IOException {
+        int first = in.read();
+        if (first < 0) {
+            return null;
+        }
+        int length = (first << 24) | (in.readUnsignedByte() << 16) | (in.readUnsignedByte() << 8)
+                | in.readUnsignedByte();
+        int checksum = in.readInt();
+        if (length < 0 || length > MAX_BODY_BYTES) {
+            throw new CorruptFrameException("Bad frame length " + length + " in " + path);
+        }
+        byte[] body = new byte[length];
+        in.readFully(body);
+        if (checksum(ByteBuffer.wrap(body)) != checksum) {
+            throw new CorruptFrameException("Checksum mismatch in " + path);
+        }
+        return body;
+    }
+
+    /**
+     * @param buffer Buffer holding a whole frame at position, with a plausible body length
+     * @return Whether the frame's body matches its checksum
+     */
+    static boolean intact(ByteBuffer buffer, int position) {
+        int bodyLength = buffer.getInt(position);
+        return checksum(buffer.slice(position + HEADER_BYTES, bodyLength)) == buffer.getInt(position + 4);
+    }
+
+    /**
+     * Drop a torn record from the tail of a segment.
+     * @param path Segment file
+     * @param valid Length of the intact frames before it
+     */
+    static void truncateTornTail(Path path, long valid) throws IOException {
+        log.warn("Truncating torn tail of {} at offset {}", path, valid);
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+            channel.truncate(valid);
+            channel.force(true);
+        }
+    }
+
+    private static int checksum(ByteBuffer body) {
+        CRC32C crc = new CRC32C();
+        crc.update(body);
+        return (int) crc.getValue();
+    }
+}
@@ -0,0 +1,206 @@
+package com.stellarfs.storage;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Hash tree over the files of a store, keyed by name and valued by content
+ * hash. Names are spread over fanout^depth leaf buckets by a hash of the
+ * name; a leaf's digest is the sum of its entries' hashes, so putting or
+ * removing a file only recomputes the path from its leaf to the root.
+ *
+ * Two trees of the same shape are compared from the root down, descending
+ * only into subtrees whose digests differ, so comparing stores that mostly
+ * agree touches a number of nodes proportional to the differences.
+ */
+public class MerkleTree {
+
+    private static final int FANOUT = 16;
+
+    /**
+     * Files that differ between an expected and an actual tree.
+     */
+    public static final class Diff {
+        private final List<String> missing = new ArrayList<>();
+        private final List<String> extra = new ArrayList<>();
+        private int nodesCompared;
+
+        // Absent from the actual tree, or present with different content
+        public List<String> getMissing() { return missing; }
+        // Present in the actual tree only
+        public List<String> getExtra() { return extra; }
+        public int getNodesCompared() { return nodesCompared; }
+        public boolean isEmpty() { return missing.isEmpty() && extra.isEmpty(); }
+    }
+
+    private final int depth;
+    // levels[0] is the root, levels[depth] the leaves
+    private final long[][] levels;
+    private final List<Map<String, String>> leaves;
+
+    public MerkleTree(int depth) {
+        if (depth < 1 || depth > 6) {
+            throw new IllegalArgumentException("Depth must be between 1 and 6");
+        }
+        this.depth = depth;
+        this.levels = new long[depth + 1][];
+        for (int level = 0, width = 1; level <= depth; level++, width *= FANOUT) {
+            levels[level] = new long[width];
+        }
+        for (int level = depth - 1; level >= 0; level--) {
+            for (int i = 0; i < levels[level].length; i++) {
+                levels[level][i] = combine(level + 1, i);
+            }
+        }
+        this.leaves = new ArrayList<>(levels[depth].length);
+        for (int i = 0; i < levels[depth].length; i++) {
+            leaves.add(new HashMap<>());
+        }
+    }
+
+    public int getDepth() {
+        return depth;
+    }
+
+    /**
+     * Add or update a file.
+     * @param name File name
+     * @param contentHash Hash of the file's content
+     */
+    public synchronized void put(String name, String contentHash) {
+        int leaf = leafOf(name);
+        String previous = leaves.get(leaf).put(name, contentHash);
+        if (!contentHash.equals(previous)) {
+            long delta = entryHash(name, contentHash) - (previous != null ? entryHash(name, previous) : 0);
+            update(leaf, delta);
+        }
+    }
+
+    /**
+     * Add a file unless it is already present.
+     * @param name File name
+     * @param contentHash Hash of the file's content
+     */
+    public synchronized void putIfAbsent(String name, String contentHash) {
+        if (get(name) == null) {
+            put(name, contentHash);
+        }
+    }
+
+    /**
+     * Remove a file.
+     * @param name File name
+     */
+    public synchronized void remove(String name) {
+        int leaf = leafOf(name);
+        String previous = leaves.get(leaf).remove(name);
+        if (previous != null) {
+            update(leaf, -entryHash(name, previous));
+        }
+    }
+
+    public synchronized String get(String name) {
+        return leaves.get(leafOf(name)).get(name);
+    }
+
+    public synchronized long rootDigest() {
+        return levels[0][0];
+    }
+
+    public synchronized int size() {
+        return leaves.stream().mapToInt(Map::size).sum();
+    }
+
+    /**
+     * Compare two trees from the root down.
+     * @param expected Tree of what should be stored
+     * @param actual Tree of what is stored
+     * @return The files that differ
+     */
+    public static Diff diff(MerkleTree expected, MerkleTree actual) {
+        if (expected.depth != actual.depth) {
+            throw new IllegalArgumentException("Trees have different depths");
+        }
+        Diff diff = new Diff();
+        // Lock both in a fixed order so concurrent diffs cannot deadlock
+        MerkleTree first = System.identityHashCode(expected) <= System.identityHashCode(actual) ? expected : actual;
+        MerkleTree second = first == expected ? actual : expected;
+        synchronized (first) {
+            synchronized (second) {
+                compare(expected, actual, 0, 0, diff);
+            }
+        }
+        return diff;
+    }
+
+    private static void compare(MerkleTree expected, MerkleTree actual, int level, int index, Diff diff) {
+        diff.nodesCompared++;
+        if (expected.levels[level][index] == actual.levels[level][index]) {
+            return;
+        }
+        if (level < expected.depth) {
+            for (int child = index * FANOUT; child < (index + 1) * FANOUT; child++) {
+                compare(expected, actual, level + 1, child, diff);
+            }
+            return;
+        }
+        Map<String, String> want = expected.leaves.get(index);
+        Map<String, String> have = actual.leaves.get(index);
+        want.forEach((name, hash) -> {
+            if (!hash.equals(have.get(name))) {
+                diff.missing.add(name);
+            }
+        });
+        have.keySet().forEach(name -> {
+            if (!want.containsKey(name)) {
+                diff.extra.add(name);
+            }
+        });
+    }
+
+    private void update(int leaf, long delta) {
+        levels[depth][leaf] += delta;
+        for (int level = depth - 1, index = leaf / FANOUT; level >= 0; level--, index /= FANOUT) {
+            levels[level][index] = combine(level + 1, index);
+        }
+    }
+
+    // Digest of a parent from its children's digests, in order
+    private long combine(int childLevel, int parent) {
+        long hash = 0xcbf29ce484222325L;
+        for (int child = parent * FANOUT; child < (parent + 1) * FANOUT; child++) {
+            hash = mix(hash ^ levels[childLevel][child]);
+        }
+        return hash;
+    }
+
+    private int leafOf(String name) {
+        return (int) ((mix(fnv(name)) >>> 1) % levels[depth].length);
+    }
+
+    private static long entryHash(String name, String contentHash) {
+        return mix(fnv(name) * 31 + fnv(contentHash));
+    }
+
+    private static long fnv(String value) {
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : value.getBytes(StandardCharsets.UTF_8)) {
+            hash ^= b & 0xff;
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    // 64-bit finalizer from MurmurHash3
+    private static long mix(long hash) {
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
@@ -0,0 +1,434 @@
+package com.stellarfs.storage;
+
+import com.stellarfs.concurrent.DaemonThreads;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.regex.Pattern;
+
+/**
+ * Durable key-value store for catalog metadata, grouped into named
+ * collections. Every put and delete is appended to a write-ahead log and is
+ * durable when the call returns. A single writer thread drains all pending
+ * records into one write and one fsync, so concurrent writers share the cost
+ * of a sync instead of paying for one each.
+ *
+ * It holds the catalog only: the files, file-versions and users collections.
+ * The activity trail grows without bound and is kept in ActivityLogStore.
+ *
+ * The log is split into segments. After a configured number of records the
+ * writer starts a new segment and a background thread writes a snapshot
+ * covering at least everything before that boundary, after which older
+ * segments are deleted.
+ * Startup loads the newest snapshot and replays the segments after it; a
+ * record torn by a crash at the tail of the last segment is truncated.
+ *
+ * Layout under the metadata directory:
+ *   wal-&lt;seq&gt;.log       log segments, replayed in sequence order
+ *   snapshot-&lt;seq&gt;.dat  state covering every segment below seq
+ */
+@Slf4j
+@Component
+public class MetadataLog {
+
+    private static final Pattern SEGMENT = Pattern.compile("wal-(\\d{12})\\.log");
+    private static final Pattern SNAPSHOT = Pattern.compile("snapshot-(\\d{12})\\.dat");
+    private static final String SNAPSHOT_HEADER = "stellarfs-snapshot 1";
+    private static final byte PUT = 1;
+    private static final byte DELETE = 2;
+    private static final int MAX_BATCH = 4096;
+
+    private static final class Record {
+        private final byte op;
+        private final String collection;
+        private final String key;
+        private final byte[] value;
+        private final CompletableFuture<Void> done = new CompletableFuture<>();
+
+        private Record(byte op, String collection, String key, byte[] value) {
+            this.op = op;
+            this.collection = collection;
+            this.key = key;
+            this.value = value;
+        }
+    }
+
+    private final Path dir;
+    private final boolean sync;
+    private final long snapshotInterval;
+
+    // State as of the last durable record; only the writer thread mutates it
+    private final Map<String, Map<String, byte[]>> state = new ConcurrentHashMap<>();
+    private final BlockingQueue<Record> queue = new LinkedBlockingQueue<>();
+    private final AtomicBoolean snapshotRunning = new AtomicBoolean();
+    private final ExecutorService snapshotter =
+            Executors.newSingleThreadExecutor(DaemonThreads.factory("metadata-snapshot-"));
+    private final Thread writer;
+
+    private FileChannel segment;
+    private long segmentSeq;
+    private long recordsSinceSnapshot;
+    private volatile IOException failure;
+    private volatile boolean closed;
+
+    public MetadataLog(@Value("${stellarfs.metadata.dir:data/metadata}") String dir,
+                       @Value("${stellarfs.metadata.sync:true}") boolean sync,
+                       @Value("${stellarfs.metadata.snapshot-interval-records:100000}") long snapshotInterval)
+            throws IOException {
+        this.dir = Paths.get(dir).toAbsolutePath().normalize();
+        this.sync = sync;
+        this.snapshotInterval = snapshotInterval;
+        Files.createDirectories(this.dir);
+
+        long started = System.currentTimeMillis();
+        long replayed = recover();
+        log.info("Loaded metadata from {} in {} ms ({} log records replayed)",
+                this.dir, System.currentTimeMillis() - started, replayed);
+
+        writer = DaemonThreads.thread(this::writeLoop, "metadata-log-writer");
+        writer.start();
+    }
+
+    /**
+     * Current contents of a collection.
+     * @param collection Collection name
+     * @return Copy of the key to value mapping
+     */
+    public Map<String, byte[]> load(String collection) {
+        Map<String, byte[]> entries = state.get(collection);
+        return entries != null ? new HashMap<>(entries) : new HashMap<>();
+    }
+
+    /**
+     * Durably store a value, replacing any previous value for the key.
+     * @param collection Collection name
+     * @param key Key within the collection
+     * @param value Serialized value
+     */
+    public void put(String collection, String key, byte[] value) {
+        append(new Record(PUT, collection, key, value));
+    }
+
+    /**
+     * Durably remove a key. Removing a missing key is not an error.
+     * @param collection Collection name
+     * @param key Key within the collection
+     */
+    public void delete(String collection, String key) {
+        append(new Record(DELETE, collection, key, null));
+    }
+
+    @PreDestroy
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        // Anything that slipped in after the writer stopped will never be written
+        List<Record> orphans = new ArrayList<>();
+        queue.drainTo(orphans);
+        fail(orphans, new IOException("Metadata log is closed"));
+        snapshotter.shutdown();
+        try {
+            snapshotter.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        segment.close();
+    }
+
+    private void append(Record record) {
+        if (closed) {
+            throw new IllegalStateException("Metadata log is closed");
+        }
+        IOException failed = failure;
+        if (failed != null) {
+            throw new UncheckedIOException("Metadata log failed earlier", failed);
+        }
+        queue.add(record);
+        try {
+            record.done.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw new UncheckedIOException((IOException) e.getCause());
+            }
+            throw e;
+        }
+    }
+
+    private void writeLoop() {
+        List<Record> batch = new ArrayList<>();
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        while (!closed || !queue.isEmpty()) {
+            try {
+                Record first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                // Everything that queued up during the previous sync goes out in this one
+                queue.drainTo(batch, MAX_BATCH - 1);
+                if (failure != null) {
+                    fail(batch, failure);
+                    continue;
+                }
+
+                buffer.reset();
+                for (Record record : batch) {
+                    writeFrame(buffer, record.op, record.collection, record.key, record.value);
+                }
+                writeFully(segment, ByteBuffer.wrap(buffer.toByteArray()));
+                if (sync) {
+                    segment.force(false);
+                }
+                for (Record record : batch) {
+                    apply(record.op, record.collection, record.key, record.value);
+                    record.done.complete(null);
+                }
+
+                recordsSinceSnapshot += batch.size();
+                if (recordsSinceSnapshot >= snapshotInterval && snapshotRunning.compareAndSet(false, true)) {
+                    startSnapshot();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (Throwable e) {
+                // The segment tail is now unknown, so refuse further writes rather than risk a gap.
+                // Anything else escaping would end this thread and leave every later put waiting.
+                IOException cause = e instanceof IOException ? (IOException) e
+                        : new IOException("Metadata log writer failed", e);
+                log.error("Metadata log write failed; further metadata writes are rejected", e);
+                failure = cause;
+                fail(batch, cause);
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    private static void fail(List<Record> batch, IOException e) {
+        for (Record record : batch) {
+            record.done.completeExceptionally(e);
+        }
+    }
+
+    // Only the segment switch runs on the writer thread; the state is copied by the snapshotter
+    private void startSnapshot() throws IOException {
+        long boundary = segmentSeq + 1;
+        FileChannel next = openSegment(boundary);
+        segment.close();
+        segment = next;
+        segmentSeq = boundary;
+        recordsSinceSnapshot = 0;
+
+        snapshotter.execute(() -> {
+            try {
+                // Each collection is frozen separately while writes go on. Records past the
+                // boundary may show up in the copy, which is harmless: they are replayed from
+                // the newer segments on recovery and a put or delete applied twice is the same.
+                Map<String, Map<String, byte[]>> copy = new HashMap<>();
+                state.forEach((collection, entries) -> copy.put(collection, Map.copyOf(entries)));
+                writeSnapshot(boundary, copy);
+            } catch (IOException | RuntimeException e) {
+                log.warn("Metadata snapshot at segment {} failed; the log is kept", boundary, e);
+            } finally {
+                snapshotRunning.set(false);
+            }
+        });
+    }
+
+    private void writeSnapshot(long boundary, Map<String, Map<String, byte[]>> snapshot) throws IOException {
+        long started = System.currentTimeMillis();
+        Path target = dir.resolve(String.format("snapshot-%012d.dat", boundary));
+        Path temp = dir.resolve(target.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                    Channels.newOutputStream(channel), 1 << 16));
+            out.writeUTF(SNAPSHOT_HEADER);
+            ByteArrayOutputStream frame = new ByteArrayOutputStream();
+            for (Map.Entry<String, Map<String, byte[]>> collection : snapshot.entrySet()) {
+                for (Map.Entry<String, byte[]> entry : collection.getValue().entrySet()) {
+                    frame.reset();
+                    writeFrame(frame, PUT, collection.getKey(), entry.getKey(), entry.getValue());
+                    frame.writeTo(out);
+                }
+            }
+            out.flush();
+            channel.force(true);
+        }
+        Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        DurableFiles.forceDirectory(dir);
+
+        // The snapshot now covers everything below the boundary
+        for (Map.Entry<Long, Path> old : LogSegments.list(dir, SNAPSHOT).headMap(boundary).entrySet()) {
+            Files.deleteIfExists(old.getValue());
+        }
+        for (Map.Entry<Long, Path> old : LogSegments.list(dir, SEGMENT).headMap(boundary).entrySet()) {
+            Files.deleteIfExists(old.getValue());
+        }
+        log.info("Wrote metadata snapshot at segment {} in {} ms", boundary, System.currentTimeMillis() - started);
+    }
+
+    private long recover() throws IOException {
+        TreeMap<Long, Path> snapshots = LogSegments.list(dir, SNAPSHOT);
+        long from = 0;
+        if (!snapshots.isEmpty()) {
+            Map.Entry<Long, Path> latest = snapshots.lastEntry();
+            readSnapshot(latest.getValue());
+            from = latest.getKey();
+        }
+
+        // Segments below the snapshot boundary may survive a crash before cleanup; they are already covered
+        TreeMap<Long, Path> segments = new TreeMap<>(LogSegments.list(dir, SEGMENT).tailMap(from, true));
+        long replayed = 0;
+        for (Map.Entry<Long, Path> entry : segments.entrySet()) {
+            replayed += replay(entry.getValue(), entry.getKey().equals(segments.lastKey()));
+        }
+
+        segmentSeq = segments.isEmpty() ? from : segments.lastKey();
+        segment = openSegment(segmentSeq);
+        segment.position(segment.size());
+        return replayed;
+    }
+
+    private void readSnapshot(Path path) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                Files.newInputStream(path), 1 << 16))) {
+            if (!SNAPSHOT_HEADER.equals(in.readUTF())) {
+                throw new IOException("Not a metadata snapshot: " + path);
+            }
+            while (readFrame(in, path) >= 0) {
+                // applied by readFrame
+            }
+        }
+    }
+
+    // Replays one segment; returns the number of records applied
+    private long replay(Path path, boolean lastSegment) throws IOException {
+        long records = 0;
+        long valid = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                Files.newInputStream(path), 1 << 16))) {
+            while (true) {
+                int length;
+                try {
+                    length = readFrame(in, path);
+                } catch (EOFException | LogSegments.CorruptFrameException e) {
+                    if (!lastSegment) {
+                        throw new IOException("Corrupt metadata log segment " + path, e);
+                    }
+                    // A crash mid-append leaves a torn record at the tail; drop it
+                    LogSegments.truncateTornTail(path, valid);
+                    break;
+                }
+                if (length < 0) {
+                    break;
+                }
+                valid += length;
+                records++;
+            }
+        }
+        return records;
+    }
+
+    // Body: [byte op][utf collection][utf key][int value length, -1 for none][value]
+    private static void writeFrame(ByteArrayOutputStream out, byte op, String collection, String key,
+                                   byte[] value) throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream(64 + (value != null ? value.length : 0));
+        DataOutputStream data = new DataOutputStream(body);
+        data.writeByte(op);
+        data.writeUTF(collection);
+        data.writeUTF(key);
+        if (value != null) {
+            data.writeInt(value.length);
+            data.write(value);
+        } else {
+            data.writeInt(-1);
+        }
+        LogSegments.writeFrame(out, body.toByteArray());
+    }
+
+    // Reads and applies one frame; returns its size in bytes, or -1 at a clean end of input
+    private int readFrame(DataInputStream in, Path path) throws IOException {
+        byte[] bytes = LogSegments.readFrame(in, path);
+        if (bytes == null) {
+            return -1;
+        }
+        DataInputStream body = new DataInputStream(new ByteArrayInputStream(bytes));
+        byte op = body.readByte();
+        String collection = body.readUTF();
+        String key = body.readUTF();
+        int valueLength = body.readInt();
+        byte[] value = null;
+        if (valueLength >= 0) {
+            value = new byte[valueLength];
+            body.readFully(value);
+        }
+        apply(op, collection, key, value);
+        return LogSegments.HEADER_BYTES + bytes.length;
+    }
+
+    private void apply(byte op, String collection, String key, byte[] value) {
+        if (op == PUT) {
+            state.computeIfAbsent(collection, c -> new ConcurrentHashMap<>()).put(key, value);
+        } else {
+            Map<String, byte[]> entries = state.get(collection);
+            if (entries != null) {
+                entries.remove(key);
+            }
+        }
+    }
+
+    private FileChannel openSegment(long seq) throws IOException {
+        FileChannel channel = FileChannel.open(dir.resolve(String.format("wal-%012d.log", seq)),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        DurableFiles.forceDirectory(dir);
+        return channel;
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+}
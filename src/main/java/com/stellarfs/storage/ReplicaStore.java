@@ -0,0 +1,266 @@
+package com.stellarfs.storage;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.zip.CRC32C;
+
+/**
+ * The receiving end of replication: a directory standing in for a node's
+ * store. A file arrives as segments written at their offsets in any order,
+ * each verified against its CRC32C, and only becomes visible once the whole
+ * file matches the sender's SHA-256.
+ *
+ * The store keeps a Merkle tree of its files' SHA-256s for anti-entropy. The
+ * hashes are also kept in small sidecar files, so the tree is rebuilt on
+ * startup without reading any file content.
+ */
+public class ReplicaStore {
+
+    private static final String TEMP_DIR = ".tmp";
+    private static final String SUMS_DIR = ".sums";
+
+    /**
+     * A file being received.
+     */
+    public static final class Upload {
+        private final String name;
+        private final Path temp;
+        private final FileChannel channel;
+
+        private Upload(String name, Path temp, FileChannel channel) {
+            this.name = name;
+            this.temp = temp;
+            this.channel = channel;
+        }
+
+        public String getName() { return name; }
+    }
+
+    private final Path root;
+    private final Path tempDir;
+    private final Path sumsDir;
+    private final MerkleTree tree;
+    private final List<UsageListener> usageListeners = new CopyOnWriteArrayList<>();
+
+    public ReplicaStore(Path root, int treeDepth) throws IOException {
+        this.root = root;
+        this.tempDir = root.resolve(TEMP_DIR);
+        this.sumsDir = root.resolve(SUMS_DIR);
+        this.tree = new MerkleTree(treeDepth);
+        Files.createDirectories(tempDir);
+        Files.createDirectories(sumsDir);
+        loadSums();
+    }
+
+    public Path getRoot() {
+        return root;
+    }
+
+    /**
+     * Tree of the files in this store, kept current as files are committed and deleted.
+     * @return The live tree
+     */
+    public MerkleTree tree() {
+        return tree;
+    }
+
+    /**
+     * Start receiving a file.
+     * @param name File name
+     * @param size Final size in bytes
+     * @return The upload to write segments to
+     */
+    public Upload begin(String name, long size) throws IOException {
+        Path temp = tempDir.resolve(UUID.randomUUID() + ".part");
+        FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        return new Upload(name, temp, channel);
+    }
+
+    /**
+     * Write one segment of a file. Safe to call concurrently for different offsets.
+     * @param upload The upload
+     * @param offset Offset of the segment in the file
+     * @param data Segment bytes, consumed
+     * @param crc CRC32C of the segment computed by the sender
+     */
+    public void write(Upload upload, long offset, ByteBuffer data, int crc) throws IOException {
+        CRC32C check = new CRC32C();
+        check.update(data.duplicate());
+        if ((int) check.getValue() != crc) {
+            throw new IOException("Checksum mismatch in " + upload.name + " at offset " + offset);
+        }
+        while (data.hasRemaining()) {
+            offset += upload.channel.write(data, offset);
+        }
+    }
+
+    /**
+     * Verify a fully written file and move it into place.
+     * @param upload The upload
+     * @param sha256 SHA-256 of the file computed by the sender
+     * @param lastModified Modification time to give the replica, epoch millis
+     */
+    public void commit(Upload upload, byte[] sha256, long lastModified) throws IOException {
+        try {
+            upload.channel.force(false);
+            // Segments were verified in isolation; this catches missing or misplaced ones
+            MessageDigest digest = BlockDelta.sha256();
+            ByteBuffer buffer = ByteBuffer.allocate(1 << 16);
+            long position = 0;
+            int read;
+            while ((read = upload.channel.read(buffer.clear(), position)) > 0) {
+                digest.update(buffer.array(), 0, read);
+                position += read;
+            }
+            upload.channel.close();
+            if (!Arrays.equals(digest.digest(), sha256)) {
+                throw new IOException("Checksum mismatch in " + upload.name);
+            }
+            Files.setLastModifiedTime(upload.temp, FileTime.fromMillis(lastModified));
+            Path target = root.resolve(upload.name);
+            long size = Files.size(upload.temp);
+            StoredFile replaced = stat(upload.name);
+            DurableFiles.move(upload.temp, target);
+            usageChanged(size - (replaced != null ? replaced.getSize() : 0));
+            String hash = HexFormat.of().formatHex(sha256);
+            // Written after the file, so a crash in between leaves a file the tree does not vouch for
+            Path sum = tempDir.resolve(UUID.randomUUID() + ".sum");
+            Files.writeString(sum, hash + " " + size + " " + lastModified, StandardCharsets.US_ASCII);
+            DurableFiles.move(sum, sumsDir.resolve(upload.name));
+            tree.put(upload.name, hash);
+        } catch (IOException e) {
+            abort(upload);
+            throw e;
+        }
+    }
+
+    /**
+     * Discard a partially received file.
+     * @param upload The upload
+     */
+    public void abort(Upload upload) throws IOException {
+        upload.channel.close();
+        Files.deleteIfExists(upload.temp);
+    }
+
+    /**
+     * Look up a replicated file.
+     * @param name File name
+     * @return The file, or null if it is not replicated here
+     */
+    public StoredFile stat(String name) throws IOException {
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(root.resolve(name), BasicFileAttributes.class);
+            return new StoredFile(name, attributes.size(), attributes.lastModifiedTime().toMillis(), false);
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+    }
+
+    /**
+     * List the replicated files.
+     * @return Files in no particular order
+     */
+    public List<StoredFile> list() throws IOException {
+        List<StoredFile> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(root)) {
+            for (Path path : stream) {
+                String name = path.getFileName().toString();
+                if (FileStorage.isHidden(name)) {
+                    continue;
+                }
+                StoredFile file = stat(name);
+                if (file != null) {
+                    files.add(file);
+                }
+            }
+        }
+        return files;
+    }
+
+    public InputStream open(String name) throws IOException {
+        return Files.newInputStream(root.resolve(name));
+    }
+
+    public boolean delete(String name) throws IOException {
+        tree.remove(name);
+        Files.deleteIfExists(sumsDir.resolve(name));
+        StoredFile file = stat(name);
+        if (!Files.deleteIfExists(root.resolve(name))) {
+            return false;
+        }
+        if (file != null) {
+            usageChanged(-file.getSize());
+        }
+        return true;
+    }
+
+    /**
+     * Register a listener for changes in the space taken by replicated files.
+     * @param listener Called on the writing thread, so it must not block
+     */
+    public void addUsageListener(UsageListener listener) {
+        usageListeners.add(listener);
+    }
+
+    /**
+     * Bytes taken by replicated files, by listing the store.
+     * @return Total size of the replicated files
+     */
+    public long physicalBytes() throws IOException {
+        long total = 0;
+        for (StoredFile file : list()) {
+            total += file.getSize();
+        }
+        return total;
+    }
+
+    private void usageChanged(long deltaBytes) {
+        if (deltaBytes != 0) {
+            for (UsageListener listener : usageListeners) {
+                listener.usageChanged(deltaBytes);
+            }
+        }
+    }
+
+    // Trust a recorded hash only while the file still has the size and mtime it was written with
+    private void loadSums() throws IOException {
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(sumsDir)) {
+            for (Path sum : stream) {
+                String name = sum.getFileName().toString();
+                String[] fields = Files.readString(sum, StandardCharsets.US_ASCII).trim().split(" ");
+                StoredFile file = stat(name);
+                if (fields.length == 3 && file != null && file.getSize() == Long.parseLong(fields[1])
+                        && file.getLastModified() == Long.parseLong(fields[2])) {
+                    tree.put(name, fields[0]);
+                } else {
+                    Files.delete(sum);
+                }
+            }
+        }
+        // Files with no trusted hash get an empty one, so a comparison always sees them as different
+        for (StoredFile file : list()) {
+            if (tree.get(file.getName()) == null) {
+                tree.put(file.getName(), "");
+            }
+        }
+    }
+}
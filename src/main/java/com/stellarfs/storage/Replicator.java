@@ -0,0 +1,672 @@
+package com.stellarfs.storage;
+
+import com.stellarfs.concurrent.DaemonThreads;
+import com.stellarfs.model.dto.ReplicationValidationDTO;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Collectors;
+import java.util.zip.CRC32C;
+
+/**
+ * Copies stored files to the replica stores of other nodes. Each file is
+ * placed on replication-factor nodes chosen by rendezvous hashing, so adding
+ * or removing a node only moves the files that node gains or loses.
+ *
+ * Several files are copied at once. Within a file, a reader thread cuts the
+ * content into segments and hands each to the writer pool as soon as it is
+ * read, so reading and writing overlap. Segments in flight to one target are
+ * bounded in bytes; a reader blocks once its target is full, which bounds
+ * memory no matter how slow the target is.
+ *
+ * For anti-entropy, the expected content of each node is kept as a Merkle
+ * tree updated from storage change events, and compared with the tree the
+ * node's replica store keeps of what it actually holds.
+ */
+@Slf4j
+@Component
+public class Replicator {
+
+    private final Path replicaDir;
+    private final int segmentSize;
+    private final int maxInFlightBytes;
+    private final int treeDepth;
+    private final ExecutorService readers;
+    private final ExecutorService writers;
+    // One coordinating thread per running job; jobs run one per target
+    private final ExecutorService jobs;
+
+    private final Map<String, CompletableFuture<Void>> running = new ConcurrentHashMap<>();
+    private final Map<String, ReplicaStore> stores = new ConcurrentHashMap<>();
+    private final Map<String, Semaphore> inFlight = new ConcurrentHashMap<>();
+
+    // Node list and factor the source trees were built for
+    private static final class Layout {
+        private final List<String> nodes;
+        private final int factor;
+
+        private Layout(List<String> nodes, int factor) {
+            this.nodes = nodes;
+            this.factor = factor;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Layout)) {
+                return false;
+            }
+            Layout other = (Layout) o;
+            return factor == other.factor && new HashSet<>(nodes).equals(new HashSet<>(other.nodes));
+        }
+
+        @Override
+        public int hashCode() {
+            return new HashSet<>(nodes).hashCode() * 31 + factor;
+        }
+    }
+
+    /**
+     * Receives the progress of a replication job.
+     */
+    public interface Progress {
+        void update(int filesDone, int filesTotal);
+    }
+
+    /**
+     * Notified when a node's replica store takes or frees space.
+     */
+    public interface ReplicaUsageListener {
+        /**
+         * @param nodeId Node whose store changed
+         * @param deltaBytes Bytes newly taken, negative when space was freed
+         */
+        void usageChanged(String nodeId, long deltaBytes);
+    }
+
+    private final List<ReplicaUsageListener> usageListeners = new CopyOnWriteArrayList<>();
+
+    private final Map<String, MerkleTree> sourceTrees = new ConcurrentHashMap<>();
+    private final Map<String, String> sourceHashes = new ConcurrentHashMap<>();
+    // Changed files whose new content is still being hashed, by name
+    private final Map<String, CompletableFuture<Void>> pendingHashes = new ConcurrentHashMap<>();
+    private volatile Layout layout;
+    // Guards layout changes and building source trees
+    private final Lock treeLock = new ReentrantLock();
+
+    private final FileStorage fileStorage;
+    private final AtomicLong pending = new AtomicLong();
+    private final AtomicLong replicated = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong bytesReplicated = new AtomicLong();
+    private volatile int totalFiles;
+
+    public Replicator(FileStorage fileStorage,
+                      @Value("${stellarfs.replication.dir:data/replicas}") String replicaDir,
+                      @Value("${stellarfs.replication.threads:4}") int threads,
+                      @Value("${stellarfs.replication.segment-size:1048576}") int segmentSize,
+                      @Value("${stellarfs.replication.max-in-flight-bytes:16777216}") int maxInFlightBytes,
+                      @Value("${stellarfs.replication.merkle-depth:3}") int treeDepth) {
+        if (threads < 1 || segmentSize < 1 || maxInFlightBytes < segmentSize) {
+            throw new IllegalArgumentException("Require threads >= 1 and segment size <= max in-flight bytes");
+        }
+        this.fileStorage = fileStorage;
+        this.replicaDir = Paths.get(replicaDir).toAbsolutePath().normalize();
+        this.segmentSize = segmentSize;
+        this.maxInFlightBytes = maxInFlightBytes;
+        this.treeDepth = treeDepth;
+        this.readers = Executors.newFixedThreadPool(threads, DaemonThreads.factory("replication-reader-"));
+        this.writers = Executors.newFixedThreadPool(threads, DaemonThreads.factory("replication-writer-"));
+        this.jobs = Executors.newCachedThreadPool(DaemonThreads.factory("replication-job-"));
+        fileStorage.addContentListener(this::contentChanged);
+    }
+
+    @PreDestroy
+    public void close() {
+        jobs.shutdownNow();
+        readers.shutdownNow();
+        writers.shutdownNow();
+    }
+
+    /**
+     * Pick the nodes that hold a file.
+     * @param fileName File name
+     * @param nodeIds Candidate nodes
+     * @param factor Number of copies
+     * @return The chosen nodes, highest ranked first
+     */
+    public static List<String> placement(String fileName, Collection<String> nodeIds, int factor) {
+        return nodeIds.stream()
+                .sorted(Comparator.comparingLong((String node) -> rank(fileName, node)).reversed()
+                        .thenComparing(Comparator.naturalOrder()))
+                .limit(Math.max(factor, 0))
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Copy every file placed on a node to its replica store, skipping files the
+     * replica already has. Returns at once; a job already running for the node
+     * is returned instead of starting another.
+     * @param nodeId Target node
+     * @param nodeIds All nodes files can be placed on
+     * @param factor Replication factor
+     * @return Completes when the job has finished
+     */
+    public CompletableFuture<Void> replicate(String nodeId, Collection<String> nodeIds, int factor) {
+        return replicate(nodeId, nodeIds, factor, (done, total) -> { });
+    }
+
+    /**
+     * Like {@link #replicate(String, Collection, int)}, reporting files copied as the job goes.
+     * @param progress Called with files done and files to copy; not called if a job was already running
+     */
+    public CompletableFuture<Void> replicate(String nodeId, Collection<String> nodeIds, int factor,
+                                             Progress progress) {
+        ReplicaStore store = store(nodeId);
+        List<String> nodes = new ArrayList<>(nodeIds);
+        CompletableFuture<Void> job = new CompletableFuture<>();
+        CompletableFuture<Void> existing = running.putIfAbsent(nodeId, job);
+        if (existing != null) {
+            return existing;
+        }
+        jobs.execute(() -> {
+            Throwable failure = null;
+            try {
+                run(nodeId, store, nodes, factor, progress);
+            } catch (Throwable t) {
+                log.warn("Replication to {} failed", nodeId, t);
+                failure = t;
+            }
+            // Released before completing, so a caller woken by the job can start the next one
+            running.remove(nodeId, job);
+            if (failure == null) {
+                job.complete(null);
+            } else {
+                job.completeExceptionally(failure);
+            }
+        });
+        return job;
+    }
+
+    /**
+     * Check a node's replica store against what should be placed on it and
+     * repair the differences, in the background. The two stores' Merkle trees
+     * are compared from the root down, so only subtrees that differ are
+     * examined and no file content is read unless it has to be copied.
+     * @param nodeId Target node
+     * @param nodeIds All nodes files can be placed on
+     * @param factor Replication factor
+     * @return Completes with what was compared and repaired
+     * @throws IllegalStateException If a replication or validation job is already running for the node
+     */
+    public CompletableFuture<ReplicationValidationDTO> validate(String nodeId, Collection<String> nodeIds,
+                                                                int factor) {
+        return validate(nodeId, nodeIds, factor, (done, total) -> { });
+    }
+
+    /**
+     * Like {@link #validate(String, Collection, int)}, reporting files repaired as the job goes.
+     * @param progress Called with files repaired and files to repair
+     */
+    public CompletableFuture<ReplicationValidationDTO> validate(String nodeId, Collection<String> nodeIds,
+                                                                int factor, Progress progress) {
+        ReplicaStore store = store(nodeId);
+        List<String> nodes = new ArrayList<>(nodeIds);
+        CompletableFuture<Void> job = new CompletableFuture<>();
+        // Fails fast rather than queueing behind a copy that may take hours
+        if (running.putIfAbsent(nodeId, job) != null) {
+            throw new IllegalStateException("A replication job is already running for " + nodeId);
+        }
+        CompletableFuture<ReplicationValidationDTO> result = new CompletableFuture<>();
+        jobs.execute(() -> {
+            ReplicationValidationDTO report = null;
+            Throwable failure = null;
+            try {
+                report = check(nodeId, store, nodes, factor, progress);
+            } catch (Throwable t) {
+                log.warn("Validating {} failed", nodeId, t);
+                failure = t;
+            }
+            running.remove(nodeId, job);
+            job.complete(null);
+            if (failure == null) {
+                result.complete(report);
+            } else {
+                result.completeExceptionally(failure);
+            }
+        });
+        return result;
+    }
+
+    private ReplicationValidationDTO check(String nodeId, ReplicaStore store, List<String> nodes, int factor,
+                                           Progress progress) throws IOException {
+        long started = System.currentTimeMillis();
+        MerkleTree.Diff diff = MerkleTree.diff(sourceTree(nodeId, nodes, factor), store.tree());
+
+        int removed = 0;
+        for (String name : diff.getExtra()) {
+            if (store.delete(name)) {
+                removed++;
+            }
+        }
+        List<StoredFile> repairs = new ArrayList<>();
+        for (String name : diff.getMissing()) {
+            StoredFile file = fileStorage.stat(name);
+            if (file != null) {
+                repairs.add(file);
+            }
+        }
+        int failures = copyAll(nodeId, store, repairs, progress);
+
+        ReplicationValidationDTO report = new ReplicationValidationDTO();
+        report.setNodeId(nodeId);
+        report.setInSync(diff.isEmpty());
+        report.setTreeNodesCompared(diff.getNodesCompared());
+        report.setFilesRepaired(repairs.size() - failures);
+        report.setFilesRemoved(removed);
+        report.setRepairFailures(failures);
+        report.setDurationMs(System.currentTimeMillis() - started);
+        log.info("Validated {}: {} tree nodes compared, {} repaired, {} removed, {} failed", nodeId,
+                diff.getNodesCompared(), report.getFilesRepaired(), removed, failures);
+        return report;
+    }
+
+    /**
+     * The replica store standing in for a node.
+     * @param nodeId Node ID
+     * @return The node's replica store
+     */
+    public ReplicaStore store(String nodeId) {
+        if (nodeId == null || nodeId.isEmpty() || FileStorage.isHidden(nodeId)
+                || !nodeId.equals(Paths.get(nodeId).getFileName().toString())) {
+            throw new IllegalArgumentException("Invalid node ID: " + nodeId);
+        }
+        return stores.computeIfAbsent(nodeId, id -> {
+            try {
+                ReplicaStore store = new ReplicaStore(replicaDir.resolve(id), treeDepth);
+                store.addUsageListener(delta -> {
+                    for (ReplicaUsageListener listener : usageListeners) {
+                        listener.usageChanged(id, delta);
+                    }
+                });
+                return store;
+            } catch (IOException e) {
+                throw new UncheckedIOException("Cannot create replica store for " + id, e);
+            }
+        });
+    }
+
+    /**
+     * Register a listener for changes in the space taken by any node's replica store.
+     * @param listener Called on the writing thread, so it must not block
+     */
+    public void addUsageListener(ReplicaUsageListener listener) {
+        usageListeners.add(listener);
+    }
+
+    /**
+     * Nodes that have a replica store on disk, whether or not it has been opened yet.
+     * @return Node IDs in no particular order
+     */
+    public List<String> replicaNodes() throws IOException {
+        List<String> nodes = new ArrayList<>(stores.keySet());
+        if (!Files.isDirectory(replicaDir)) {
+            return nodes;
+        }
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(replicaDir, Files::isDirectory)) {
+            for (Path path : stream) {
+                String name = path.getFileName().toString();
+                if (!FileStorage.isHidden(name) && !nodes.contains(name)) {
+                    nodes.add(name);
+                }
+            }
+        }
+        return nodes;
+    }
+
+    // Files queued or being copied
+    public long getPending() { return pending.get(); }
+    // Files copied since startup
+    public long getReplicated() { return replicated.get(); }
+    // Files that failed to copy since startup
+    public long getFailed() { return failed.get(); }
+    public long getBytesReplicated() { return bytesReplicated.get(); }
+    // Stored files seen by the most recent job
+    public int getTotalFiles() { return totalFiles; }
+
+    // Expected content of a node, built once from the stored files and then kept current by change events
+    private MerkleTree sourceTree(String nodeId, Collection<String> nodeIds, int factor) throws IOException {
+        // Building reads every placed file; a second caller fails rather than parking a thread behind it
+        if (!treeLock.tryLock()) {
+            throw new IllegalStateException("Another replication check is building its tree");
+        }
+        try {
+            return buildSourceTree(nodeId, nodeIds, factor);
+        } finally {
+            treeLock.unlock();
+        }
+    }
+
+    private MerkleTree buildSourceTree(String nodeId, Collection<String> nodeIds, int factor) throws IOException {
+        Layout current = new Layout(new ArrayList<>(nodeIds), factor);
+        if (!current.equals(layout)) {
+            // Placement changed, so every node's expected content may have too
+            sourceTrees.clear();
+            layout = current;
+        }
+        MerkleTree tree = sourceTrees.get(nodeId);
+        if (tree != null) {
+            awaitHashes();
+            return tree;
+        }
+        tree = new MerkleTree(treeDepth);
+        // Visible to change events before it is filled, so none are lost while building
+        sourceTrees.put(nodeId, tree);
+
+        List<Future<?>> hashes = new ArrayList<>();
+        for (StoredFile file : fileStorage.list()) {
+            if (!placement(file.getName(), current.nodes, factor).contains(nodeId)) {
+                continue;
+            }
+            MerkleTree target = tree;
+            hashes.add(readers.submit(() -> {
+                String sha = sourceHash(file.getName());
+                if (sha != null) {
+                    target.putIfAbsent(file.getName(), sha);
+                }
+                return null;
+            }));
+        }
+        for (Future<?> hash : hashes) {
+            try {
+                hash.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                sourceTrees.remove(nodeId);
+                throw new InterruptedIOException("Interrupted while building the tree of " + nodeId);
+            } catch (ExecutionException e) {
+                sourceTrees.remove(nodeId);
+                throw new IOException("Cannot build the tree of " + nodeId, e.getCause());
+            }
+        }
+        awaitHashes();
+        return tree;
+    }
+
+    // Let the trees catch up with content changed before now
+    private void awaitHashes() throws InterruptedIOException {
+        for (CompletableFuture<Void> hashed : new ArrayList<>(pendingHashes.values())) {
+            try {
+                hashed.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while hashing changed files");
+            } catch (ExecutionException e) {
+                // Logged by the hashing task; the file shows up as different and is copied again
+            }
+        }
+    }
+
+    // Known hash, or failing that a hash of the content
+    private String sourceHash(String name) throws IOException {
+        String sha = sourceHashes.get(name);
+        if (sha != null) {
+            return sha;
+        }
+        sha = hash(name);
+        if (sha == null) {
+            return null;
+        }
+        String known = sourceHashes.putIfAbsent(name, sha);
+        return known != null ? known : sha;
+    }
+
+    private String hash(String name) throws IOException {
+        MessageDigest digest = BlockDelta.sha256();
+        byte[] buffer = new byte[1 << 16];
+        try (InputStream in = fileStorage.open(name)) {
+            int read;
+            while ((read = in.read(buffer)) > 0) {
+                digest.update(buffer, 0, read);
+            }
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    // Storage does not hash on commit, so an unknown hash is computed here, off the writer's thread
+    private void contentChanged(String name, String sha256) {
+        if (sha256 != null) {
+            pendingHashes.compute(name, (key, pending) -> {
+                updateTrees(name, sha256);
+                return null;
+            });
+            return;
+        }
+        CompletableFuture<Void> hashed = new CompletableFuture<>();
+        pendingHashes.compute(name, (key, pending) -> {
+            sourceHashes.remove(name);
+            return hashed;
+        });
+        try {
+            readers.execute(() -> hashChanged(name, hashed));
+        } catch (RejectedExecutionException e) {
+            // Shutting down
+            pendingHashes.remove(name, hashed);
+            hashed.complete(null);
+        }
+    }
+
+    private void hashChanged(String name, CompletableFuture<Void> hashed) {
+        try {
+            String sha = pendingHashes.get(name) == hashed ? hash(name) : null;
+            AtomicBoolean deleted = new AtomicBoolean();
+            // Only the latest change to the file may update the trees
+            pendingHashes.computeIfPresent(name, (key, pending) -> {
+                if (pending != hashed) {
+                    return pending;
+                }
+                if (sha != null) {
+                    updateTrees(name, sha);
+                } else {
+                    // No longer stored
+                    for (MerkleTree tree : sourceTrees.values()) {
+                        tree.remove(name);
+                    }
+                    deleted.set(true);
+                }
+                return null;
+            });
+            if (deleted.get()) {
+                // A copy stored again meanwhile is put back by the next replication or validation
+                for (String nodeId : replicaNodes()) {
+                    store(nodeId).delete(name);
+                }
+            }
+            hashed.complete(null);
+        } catch (IOException | RuntimeException e) {
+            log.warn("Cannot hash changed file {}", name, e);
+            pendingHashes.remove(name, hashed);
+            hashed.completeExceptionally(e);
+        }
+    }
+
+    private void updateTrees(String name, String sha256) {
+        sourceHashes.put(name, sha256);
+        Layout current = layout;
+        if (current == null) {
+            return;
+        }
+        for (String nodeId : placement(name, current.nodes, current.factor)) {
+            MerkleTree tree = sourceTrees.get(nodeId);
+            if (tree != null) {
+                tree.put(name, sha256);
+            }
+        }
+    }
+
+    private void run(String nodeId, ReplicaStore store, List<String> nodes, int factor, Progress progress)
+            throws IOException {
+        long started = System.currentTimeMillis();
+        List<StoredFile> files = fileStorage.list();
+        totalFiles = files.size();
+
+        List<StoredFile> outdated = new ArrayList<>();
+        for (StoredFile file : files) {
+            if (!placement(file.getName(), nodes, factor).contains(nodeId)) {
+                continue;
+            }
+            StoredFile replica = store.stat(file.getName());
+            if (replica == null || replica.getSize() != file.getSize()
+                    || replica.getLastModified() != file.getLastModified()) {
+                outdated.add(file);
+            }
+        }
+        copyAll(nodeId, store, outdated, progress);
+        log.info("Replicated {} of {} files placed on {} in {} ms", outdated.size(), files.size(), nodeId,
+                System.currentTimeMillis() - started);
+    }
+
+    // Copy files to a target in parallel; returns how many failed
+    private int copyAll(String nodeId, ReplicaStore store, List<StoredFile> files, Progress progress) {
+        pending.addAndGet(files.size());
+        AtomicInteger done = new AtomicInteger();
+        progress.update(0, files.size());
+        Semaphore permits = inFlight.computeIfAbsent(nodeId, id -> new Semaphore(maxInFlightBytes));
+        AtomicInteger failures = new AtomicInteger();
+        List<Future<?>> copies = new ArrayList<>();
+        for (StoredFile file : files) {
+            copies.add(readers.submit(() -> {
+                try {
+                    copy(file, store, permits);
+                    replicated.incrementAndGet();
+                } catch (Exception e) {
+                    failed.incrementAndGet();
+                    failures.incrementAndGet();
+                    log.warn("Could not replicate {} to {}: {}", file.getName(), nodeId, e.toString());
+                } finally {
+                    pending.decrementAndGet();
+                    progress.update(done.incrementAndGet(), files.size());
+                }
+            }));
+        }
+        for (Future<?> copy : copies) {
+            try {
+                copy.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                copies.forEach(c -> c.cancel(true));
+                break;
+            } catch (Exception e) {
+                // Counted and logged by the copy itself
+            }
+        }
+        return failures.get();
+    }
+
+    private void copy(StoredFile file, ReplicaStore store, Semaphore permits) throws Exception {
+        ReplicaStore.Upload upload = store.begin(file.getName(), file.getSize());
+        List<CompletableFuture<Void>> segments = new ArrayList<>();
+        AtomicBoolean writeFailed = new AtomicBoolean();
+        try (InputStream in = fileStorage.open(file.getName())) {
+            MessageDigest digest = BlockDelta.sha256();
+            long offset = 0;
+            while (true) {
+                byte[] segment = in.readNBytes(segmentSize);
+                if (segment.length == 0) {
+                    break;
+                }
+                digest.update(segment);
+                CRC32C crc = new CRC32C();
+                crc.update(segment);
+                int checksum = (int) crc.getValue();
+                long position = offset;
+                offset += segment.length;
+
+                // Blocks while the target already has its limit in flight
+                permits.acquire(segment.length);
+                CompletableFuture<Void> write = new CompletableFuture<>();
+                segments.add(write);
+                try {
+                    writers.execute(() -> {
+                        try {
+                            store.write(upload, position, ByteBuffer.wrap(segment), checksum);
+                            bytesReplicated.addAndGet(segment.length);
+                            write.complete(null);
+                        } catch (Throwable t) {
+                            writeFailed.set(true);
+                            write.completeExceptionally(t);
+                        } finally {
+                            permits.release(segment.length);
+                        }
+                    });
+                } catch (RuntimeException e) {
+                    permits.release(segment.length);
+                    throw e;
+                }
+                // Stop reading once a write has failed; the file is retried on the next run
+                if (writeFailed.get()) {
+                    break;
+                }
+            }
+            CompletableFuture.allOf(segments.toArray(new CompletableFuture<?>[0])).join();
+            byte[] sha = digest.digest();
+            store.commit(upload, sha, file.getLastModified());
+            // Change events stay authoritative; this only fills in files not hashed yet
+            sourceHashes.putIfAbsent(file.getName(), HexFormat.of().formatHex(sha));
+        } catch (Exception e) {
+            // Let outstanding writes finish before the temp file goes away
+            segments.forEach(segment -> segment.handle((v, t) -> null).join());
+            store.abort(upload);
+            throw e;
+        }
+    }
+
+    // Rendezvous hash of a file on a node: FNV-1a then a 64-bit finalizer
+    private static long rank(String fileName, String nodeId) {
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : (fileName + '\0' + nodeId).getBytes(StandardCharsets.UTF_8)) {
+            hash ^= b & 0xff;
+            hash *= 0x100000001b3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
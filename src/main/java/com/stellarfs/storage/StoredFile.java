@@ -0,0 +1,24 @@
+package com.stellarfs.storage;
+
+/**
+ * A file visible in the storage directory, either stored flat or as a chunk manifest.
+ */
+public class StoredFile {
+    private final String name;
+    private final long size;
+    private final long lastModified;
+    private final boolean chunked;
+
+    public StoredFile(String name, long size, long lastModified, boolean chunked) {
+        this.name = name;
+        this.size = size;
+        this.lastModified = lastModified;
+        this.chunked = chunked;
+    }
+
+    public String getName() { return name; }
+    public long getSize() { return size; }
+    // Epoch millis
+    public long getLastModified() { return lastModified; }
+    public boolean isChunked() { return chunked; }
+}
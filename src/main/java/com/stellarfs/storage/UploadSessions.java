@@ -0,0 +1,512 @@
+package com.stellarfs.storage;
+
+import com.stellarfs.concurrent.DaemonThreads;
+import com.stellarfs.model.dto.UploadSessionDTO;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.regex.Pattern;
+
+/**
+ * Resumable uploads. A session preallocates the file at its final size, and
+ * numbered parts are written straight to their offsets, in any order and in
+ * parallel; a failed part is simply sent again. A part being sent again is
+ * off record until its new bytes are on disk, so a send that fails partway
+ * never leaves a torn part counted as received. Completing the session
+ * renames the file into storage as the next version of the target, without
+ * copying it.
+ *
+ * Layout: .uploads/&lt;id&gt;.data (the file), &lt;id&gt;.session (name, size,
+ * part size, creation time) and &lt;id&gt;.parts (part numbers received, as
+ * 4-byte ints appended once each part is synced, and negated when a part is
+ * taken off record to be overwritten), so sessions survive a restart.
+ * Sessions idle for longer than the TTL are aborted.
+ */
+@Slf4j
+@Component
+public class UploadSessions {
+
+    private static final String UPLOADS_DIR = ".uploads";
+    private static final long MIN_PART_SIZE = 64 * 1024;
+    private static final int MAX_PARTS = 10_000;
+    private static final Pattern SHA256_HEX = Pattern.compile("[0-9a-fA-F]{64}");
+
+    private final class Session {
+        private final String id;
+        private final String name;
+        private final long size;
+        private final long partSize;
+        private final int partCount;
+        private final long created;
+        // Reopened only under the write lock
+        private FileChannel data;
+        private FileChannel parts;
+        // Parts hold the read lock while writing; complete and abort take the write lock
+        private final ReadWriteLock lock = new ReentrantReadWriteLock();
+        // Serializes appends to the parts record; a lock, not a monitor, as it is held across a sync
+        private final Lock recordLock = new ReentrantLock();
+        // Guarded by this
+        private final BitSet received = new BitSet();
+        private final BitSet writing = new BitSet();
+        private long lastActivity;
+        private boolean closed;
+
+        private Session(String id, String name, long size, long partSize, long created) throws IOException {
+            this.id = id;
+            this.name = name;
+            this.size = size;
+            this.partSize = partSize;
+            this.partCount = (int) ((size + partSize - 1) / partSize);
+            this.created = created;
+            this.lastActivity = created;
+            open();
+        }
+
+        private void open() throws IOException {
+            // Not CREATE: the data file was preallocated and must still be there
+            data = FileChannel.open(dataPath(id), StandardOpenOption.READ, StandardOpenOption.WRITE);
+            parts = FileChannel.open(dir.resolve(id + ".parts"), StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        }
+
+        private long partLength(int index) {
+            return Math.min(partSize, size - index * partSize);
+        }
+
+        private void close() throws IOException {
+            data.close();
+            parts.close();
+        }
+    }
+
+    private final FileStorage fileStorage;
+    private final Path dir;
+    private final long defaultPartSize;
+    private final long ttlMillis;
+    private final int maxSessions;
+    private final Map<String, Session> sessions = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService collector;
+
+    public UploadSessions(FileStorage fileStorage,
+                          @Value("${stellarfs.upload.default-part-size:8388608}") long defaultPartSize,
+                          @Value("${stellarfs.upload.session-ttl-ms:86400000}") long ttlMillis,
+                          @Value("${stellarfs.upload.max-sessions:1000}") int maxSessions) {
+        if (defaultPartSize < MIN_PART_SIZE || ttlMillis < 1 || maxSessions < 1) {
+            throw new IllegalArgumentException("Require default-part-size >= " + MIN_PART_SIZE
+                    + ", session-ttl-ms >= 1 and max-sessions >= 1");
+        }
+        this.fileStorage = fileStorage;
+        this.dir = fileStorage.getRoot().resolve(UPLOADS_DIR);
+        this.defaultPartSize = defaultPartSize;
+        this.ttlMillis = ttlMillis;
+        this.maxSessions = maxSessions;
+        try {
+            Files.createDirectories(dir);
+            load();
+        } catch (IOException e) {
+            throw new IllegalStateException("Cannot open upload sessions in " + dir, e);
+        }
+        this.collector = Executors.newSingleThreadScheduledExecutor(DaemonThreads.factory("upload-session-gc-"));
+        long period = Math.max(1000, Math.min(ttlMillis / 4, TimeUnit.MINUTES.toMillis(10)));
+        this.collector.scheduleWithFixedDelay(this::expire, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void close() {
+        collector.shutdownNow();
+        for (Session session : sessions.values()) {
+            try {
+                session.close();
+            } catch (IOException e) {
+                // Nothing to do
+            }
+        }
+    }
+
+    /**
+     * Start an upload session.
+     * @param filename Target file name
+     * @param size Final size in bytes
+     * @param partSize Bytes per part, every part but the last; null for the default
+     * @return The new session
+     * @throws IllegalArgumentException If the name, size or part size is invalid
+     * @throws IllegalStateException If max-sessions sessions are already open
+     */
+    public UploadSessionDTO initiate(String filename, long size, Long partSize) throws IOException {
+        String name = fileStorage.resolve(filename).getFileName().toString();
+        long part = partSize != null ? partSize : defaultPartSize;
+        if (size < 0 || part < MIN_PART_SIZE) {
+            throw new IllegalArgumentException("Require size >= 0 and part size >= " + MIN_PART_SIZE);
+        }
+        if ((size + part - 1) / part > MAX_PARTS) {
+            throw new IllegalArgumentException("More than " + MAX_PARTS + " parts; use a larger part size");
+        }
+        if (sessions.size() >= maxSessions) {
+            throw new IllegalStateException("Too many upload sessions");
+        }
+
+        String id = UUID.randomUUID().toString();
+        long created = System.currentTimeMillis();
+        // Reserve the full length up front so parts can land anywhere
+        try (RandomAccessFile file = new RandomAccessFile(dataPath(id).toFile(), "rw")) {
+            file.setLength(size);
+        }
+        Path descriptor = dir.resolve(id + ".session");
+        Files.writeString(descriptor, name + "\n" + size + "\n" + part + "\n" + created + "\n",
+                StandardCharsets.UTF_8);
+        Session session = new Session(id, name, size, part, created);
+        sessions.put(id, session);
+        return status(session);
+    }
+
+    /**
+     * Write one part. Parts may be sent in any order, concurrently, and again.
+     * @param id Session ID
+     * @param partNumber 1-based part number
+     * @param in Part content, exactly the part's length; not closed
+     * @return The session after the part was recorded
+     * @throws NoSuchElementException If the session does not exist
+     * @throws IllegalArgumentException If the part number or length is wrong
+     * @throws IllegalStateException If the same part is being written by another request
+     */
+    public UploadSessionDTO uploadPart(String id, int partNumber, InputStream in) throws IOException {
+        return uploadPart(id, partNumber, in, null);
+    }
+
+    /**
+     * Write one part and check it against the digest the client computed.
+     * @param id Session ID
+     * @param partNumber 1-based part number
+     * @param in Part content, exactly the part's length; not closed
+     * @param sha256 Hex SHA-256 of the part, or null to skip the check
+     * @return The session after the part was recorded
+     * @throws NoSuchElementException If the session does not exist
+     * @throws IllegalArgumentException If the part number or length is wrong, or the part does not match its digest
+     * @throws IllegalStateException If the same part is being written by another request
+     */
+    public UploadSessionDTO uploadPart(String id, int partNumber, InputStream in, String sha256) throws IOException {
+        Session session = get(id);
+        if (partNumber < 1 || partNumber > session.partCount) {
+            throw new IllegalArgumentException("Part number must be between 1 and " + session.partCount);
+        }
+        if (sha256 != null && !SHA256_HEX.matcher(sha256).matches()) {
+            throw new IllegalArgumentException("Not a hex SHA-256: " + sha256);
+        }
+        int index = partNumber - 1;
+        long offset = index * session.partSize;
+        long length = session.partLength(index);
+
+        session.lock.readLock().lock();
+        try {
+            if (session.closed) {
+                throw new NoSuchElementException("Upload session " + id + " is closed");
+            }
+            boolean resent;
+            synchronized (session) {
+                if (session.writing.get(index)) {
+                    throw new IllegalStateException("Part " + partNumber + " is already being written");
+                }
+                session.writing.set(index);
+                resent = session.received.get(index);
+                session.received.clear(index);
+            }
+            try {
+                // Off record before its bytes are touched, so a failed or torn re-send is sent once more
+                if (resent) {
+                    record(session, -partNumber);
+                }
+                MessageDigest digest = sha256 != null ? BlockDelta.sha256() : null;
+                ReadableByteChannel source = Channels.newChannel(digest != null ? new DigestInputStream(in, digest) : in);
+                long written = 0;
+                while (written < length) {
+                    long n = session.data.transferFrom(source, offset + written, length - written);
+                    if (n <= 0) {
+                        break;
+                    }
+                    written += n;
+                }
+                if (written < length || in.read() >= 0) {
+                    throw new IllegalArgumentException("Part " + partNumber + " must be exactly " + length + " bytes");
+                }
+                if (digest != null && !HexFormat.of().formatHex(digest.digest()).equalsIgnoreCase(sha256)) {
+                    throw new IllegalArgumentException("Part " + partNumber + " does not match its SHA-256");
+                }
+                // Data first, so a part on record is always on disk
+                session.data.force(false);
+                record(session, partNumber);
+                synchronized (session) {
+                    session.received.set(index);
+                    session.lastActivity = System.currentTimeMillis();
+                }
+            } finally {
+                synchronized (session) {
+                    session.writing.clear(index);
+                }
+            }
+        } finally {
+            session.lock.readLock().unlock();
+        }
+        return status(session);
+    }
+
+    /**
+     * @param id Session ID
+     * @return The session
+     * @throws NoSuchElementException If the session does not exist
+     */
+    public UploadSessionDTO status(String id) {
+        return status(get(id));
+    }
+
+    /**
+     * Commit a session whose parts have all been received: the file is renamed
+     * into storage as the next version of its target. The content it replaces
+     * is linked into the history and nothing is hashed here, so the cost does
+     * not grow with the file's size.
+     * @param id Session ID
+     * @param history Key of the target's version history
+     * @return The new version number
+     * @throws NoSuchElementException If the session does not exist
+     * @throws IllegalStateException If parts are missing
+     */
+    public int complete(String id, String history) throws IOException {
+        Session session = get(id);
+        session.lock.writeLock().lock();
+        try {
+            if (session.closed) {
+                throw new NoSuchElementException("Upload session " + id + " is closed");
+            }
+            int received;
+            synchronized (session) {
+                received = session.received.cardinality();
+            }
+            if (received < session.partCount) {
+                throw new IllegalStateException((session.partCount - received) + " parts have not been received");
+            }
+            session.data.force(false);
+            session.close();
+            int version;
+            try {
+                version = fileStorage.commitVersion(history, session.name, dataPath(id));
+            } catch (IOException | RuntimeException e) {
+                // Keep the session for another attempt, unless the data went with the failure
+                try {
+                    session.open();
+                } catch (IOException reopen) {
+                    session.closed = true;
+                    sessions.remove(id);
+                    deleteFiles(id);
+                }
+                throw e;
+            }
+            session.closed = true;
+            sessions.remove(id);
+            deleteFiles(id);
+            return version;
+        } finally {
+            session.lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Discard a session and everything received for it.
+     * @param id Session ID
+     * @return false if there was no such session
+     */
+    public boolean abort(String id) throws IOException {
+        Session session = sessions.get(id);
+        if (session == null) {
+            return false;
+        }
+        session.lock.writeLock().lock();
+        try {
+            return discard(session);
+        } finally {
+            session.lock.writeLock().unlock();
+        }
+    }
+
+    // Open sessions
+    public int size() {
+        return sessions.size();
+    }
+
+    /**
+     * Abort sessions idle for longer than the TTL.
+     * @return Number of sessions aborted
+     */
+    public int expire() {
+        long cutoff = System.currentTimeMillis() - ttlMillis;
+        int expired = 0;
+        for (Session session : sessions.values()) {
+            long lastActivity;
+            synchronized (session) {
+                lastActivity = session.lastActivity;
+            }
+            // A part still arriving means the session is not idle after all
+            if (lastActivity >= cutoff || !session.lock.writeLock().tryLock()) {
+                continue;
+            }
+            try {
+                if (discard(session)) {
+                    expired++;
+                    log.info("Aborted upload session {} for {}, idle since {}", session.id, session.name, lastActivity);
+                }
+            } catch (IOException e) {
+                log.warn("Cannot abort upload session {}", session.id, e);
+            } finally {
+                session.lock.writeLock().unlock();
+            }
+        }
+        return expired;
+    }
+
+    // Append to the parts record: a part received, or negated, a part taken off record
+    private static void record(Session session, int partNumber) throws IOException {
+        ByteBuffer record = ByteBuffer.allocate(4).putInt(0, partNumber);
+        session.recordLock.lock();
+        try {
+            while (record.hasRemaining()) {
+                session.parts.write(record);
+            }
+            session.parts.force(false);
+        } finally {
+            session.recordLock.unlock();
+        }
+    }
+
+    // Caller holds the write lock
+    private boolean discard(Session session) throws IOException {
+        if (session.closed) {
+            return false;
+        }
+        session.closed = true;
+        sessions.remove(session.id);
+        session.close();
+        deleteFiles(session.id);
+        return true;
+    }
+
+    private UploadSessionDTO status(Session session) {
+        UploadSessionDTO dto = new UploadSessionDTO();
+        dto.setId(session.id);
+        dto.setFilename(session.name);
+        dto.setSize(session.size);
+        dto.setPartSize(session.partSize);
+        dto.setPartCount(session.partCount);
+        dto.setCreatedAt(toDateTime(session.created));
+        List<Integer> received = new ArrayList<>();
+        synchronized (session) {
+            session.received.stream().forEach(part -> received.add(part + 1));
+            dto.setExpiresAt(toDateTime(session.lastActivity + ttlMillis));
+        }
+        dto.setReceivedParts(received);
+        return dto;
+    }
+
+    private static LocalDateTime toDateTime(long epochMillis) {
+        return LocalDateTime.ofInstant(Instant.ofEpochMilli(epochMillis), ZoneId.systemDefault());
+    }
+
+    private Session get(String id) {
+        Session session = id != null ? sessions.get(id) : null;
+        if (session == null) {
+            throw new NoSuchElementException("No upload session " + id);
+        }
+        return session;
+    }
+
+    // Reopen the sessions left by a previous run; ones that cannot be read are dropped
+    private void load() throws IOException {
+        List<String> ids = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, "*.session")) {
+            for (Path path : stream) {
+                String file = path.getFileName().toString();
+                ids.add(file.substring(0, file.length() - ".session".length()));
+            }
+        }
+        for (String id : ids) {
+            try {
+                String[] fields = Files.readString(dir.resolve(id + ".session"), StandardCharsets.UTF_8).split("\n");
+                long size = Long.parseLong(fields[1]);
+                if (!Files.exists(dataPath(id)) || Files.size(dataPath(id)) != size) {
+                    throw new IOException("Data file missing or truncated");
+                }
+                Session session = new Session(id, fields[0], size, Long.parseLong(fields[2]), Long.parseLong(fields[3]));
+                try (DataInputStream in = new DataInputStream(Files.newInputStream(dir.resolve(id + ".parts")))) {
+                    while (true) {
+                        int part = in.readInt();
+                        if (part >= 1 && part <= session.partCount) {
+                            session.received.set(part - 1);
+                        } else if (part <= -1 && part >= -session.partCount) {
+                            session.received.clear(-part - 1);
+                        }
+                    }
+                } catch (EOFException e) {
+                    // A torn last record is ignored; that part is sent again
+                }
+                session.lastActivity = Math.max(session.created,
+                        Files.getLastModifiedTime(dir.resolve(id + ".parts")).toMillis());
+                sessions.put(id, session);
+            } catch (IOException | RuntimeException e) {
+                log.warn("Dropping unreadable upload session {}: {}", id, e.toString());
+                deleteFiles(id);
+            }
+        }
+        // Data files whose descriptor never made it to disk
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, "*.data")) {
+            for (Path path : stream) {
+                String file = path.getFileName().toString();
+                if (!sessions.containsKey(file.substring(0, file.length() - ".data".length()))) {
+                    Files.deleteIfExists(path);
+                }
+            }
+        }
+    }
+
+    private void deleteFiles(String id) throws IOException {
+        Files.deleteIfExists(dir.resolve(id + ".session"));
+        Files.deleteIfExists(dir.resolve(id + ".parts"));
+        Files.deleteIfExists(dataPath(id));
+    }
+
+    private Path dataPath(String id) {
+        return dir.resolve(id + ".data");
+    }
+}
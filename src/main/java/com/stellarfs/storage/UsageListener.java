@@ -0,0 +1,12 @@
+package com.stellarfs.storage;
+
+/**
+ * Notified when a store takes or frees space on disk.
+ */
+@FunctionalInterface
+public interface UsageListener {
+    /**
+     * @param deltaBytes Bytes newly taken, negative when space was freed
+     */
+    void usageChanged(long deltaBytes);
+}
@@ -0,0 +1,996 @@
+package com.stellarfs.storage;
+
+import com.stellarfs.concurrent.DaemonThreads;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystemException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Stream;
+
+/**
+ * Version history of stored files, kept as reverse deltas. The live file is
+ * always a full copy of the newest content. Committing new content links the
+ * file it replaces into the history as a full copy, so a commit costs a link,
+ * a rename and an index append however large the file is. A background pass
+ * later turns full copies into deltas against the version after them. Every
+ * version whose number is a multiple of keyframe-interval stays full, so
+ * rebuilding any version applies fewer than keyframe-interval deltas, and
+ * those keyframes do not move as versions are added. Only the newest
+ * max-versions versions are kept; the oldest version is never the base of a
+ * delta, so pruning it is a delete.
+ *
+ * Replaced content that was deduplicated is kept as its chunk manifest, so it
+ * stays deduplicated and the chunk store keeps its chunks.
+ *
+ * Histories are keyed by the caller, for example by catalog ID, and each
+ * belongs to one stored name. Layout: .versions/&lt;key&gt;/index plus
+ * v&lt;n&gt;.full, v&lt;n&gt;.delta or v&lt;n&gt;.manifest per version. The index is appended to,
+ * one line per change, and rewritten once it grows long. Checksums are filled
+ * in by the background pass, so a version may not have one yet. Callers must
+ * serialize commits and restores of the same stored name.
+ */
+@Slf4j
+@Component
+public class VersionStore {
+
+    private static final String VERSIONS_DIR = ".versions";
+    private static final String TEMP_DIR = ".tmp";
+    private static final String HEADER = "stellarfs-versions 2";
+    private static final int LOCK_STRIPES = 64;
+
+    /**
+     * Reads content that is not stored as a flat file.
+     */
+    public interface ContentSource {
+        /**
+         * @param name Stored name of a file whose live content is not flat, such as a deduplicated one
+         * @return Stream of the live content
+         */
+        InputStream openLive(String name) throws IOException;
+
+        /**
+         * @param manifest Chunk manifest kept as a version
+         * @return Stream of the content it describes
+         */
+        InputStream openManifest(Path manifest) throws IOException;
+    }
+
+    public static class Version {
+        private final int number;
+        private final boolean live;
+        private final int base; // version a delta is rebuilt from, 0 if stored in full
+        private final boolean chunked;
+        private final long size;
+        private final String sha256;
+        private final long created;
+
+        public Version(int number, boolean live, int base, boolean chunked, long size, String sha256, long created) {
+            this.number = number;
+            this.live = live;
+            this.base = base;
+            this.chunked = chunked;
+            this.size = size;
+            this.sha256 = sha256;
+            this.created = created;
+        }
+
+        public int getNumber() { return number; }
+        // The content under the file's name
+        public boolean isLive() { return live; }
+        // Live or stored in full, so rebuilding it applies no delta
+        public boolean isKeyframe() { return base == 0; }
+        // Kept as the chunk manifest of deduplicated content
+        public boolean isChunked() { return chunked; }
+        public long getSize() { return size; }
+        // Null until the background pass has hashed the version
+        public String getSha256() { return sha256; }
+        public long getCreated() { return created; }
+    }
+
+    // Versions by number, as replayed from the index
+    private static final class History {
+        private String name;
+        private final TreeMap<Integer, Version> versions = new TreeMap<>();
+        private boolean exists;
+        private int lines;
+        private long validBytes;
+
+        private Version live() {
+            for (Version version : versions.values()) {
+                if (version.live) {
+                    return version;
+                }
+            }
+            return null;
+        }
+
+        private int next() {
+            return versions.isEmpty() ? 1 : versions.lastKey() + 1;
+        }
+    }
+
+    private final Path root;
+    private final Path versionsDir;
+    private final Path tempDir;
+    private final int keyframeInterval;
+    private final int maxVersions;
+    private final int blockSize;
+    private final Lock[] locks = new Lock[LOCK_STRIPES];
+    private final List<UsageListener> usageListeners = new CopyOnWriteArrayList<>();
+    private final Set<String> queued = ConcurrentHashMap.newKeySet();
+    private final ExecutorService compactor =
+            Executors.newSingleThreadExecutor(DaemonThreads.factory("version-compactor-"));
+    private volatile ContentSource contentSource;
+
+    public VersionStore(@Value("${stellarfs.storage.upload-dir:uploads}") String uploadDir,
+                        @Value("${stellarfs.versions.keyframe-interval:5}") int keyframeInterval,
+                        @Value("${stellarfs.versions.max-versions:10}") int maxVersions,
+                        @Value("${stellarfs.versions.block-size:4096}") int blockSize) {
+        if (keyframeInterval < 1 || maxVersions < 1 || blockSize < 64) {
+            throw new IllegalArgumentException("Require keyframe interval >= 1, max versions >= 1, block size >= 64");
+        }
+        this.root = Paths.get(uploadDir).toAbsolutePath().normalize();
+        this.versionsDir = root.resolve(VERSIONS_DIR);
+        this.tempDir = root.resolve(TEMP_DIR);
+        this.keyframeInterval = keyframeInterval;
+        this.maxVersions = maxVersions;
+        this.blockSize = blockSize;
+        for (int i = 0; i < locks.length; i++) {
+            locks[i] = new ReentrantLock();
+        }
+        try {
+            Files.createDirectories(versionsDir);
+            Files.createDirectories(tempDir);
+        } catch (IOException e) {
+            throw new IllegalStateException("Cannot create version directory " + versionsDir, e);
+        }
+    }
+
+    @PreDestroy
+    public void close() {
+        compactor.shutdownNow();
+    }
+
+    /**
+     * Set where content that is not a flat file is read from.
+     * @param contentSource Reader of deduplicated live content and kept manifests
+     */
+    public void setContentSource(ContentSource contentSource) {
+        this.contentSource = contentSource;
+    }
+
+    /**
+     * Keep the content about to be replaced in a file's history. The live
+     * version, or content stored before the history existed, becomes a full
+     * copy by linking to the file, so nothing is copied. Call before renaming
+     * the new content into place, then call {@link #add}.
+     * @param key History key
+     * @param name Stored file name
+     * @param previous Content about to be replaced, or null if there is none; the caller may delete it afterwards
+     */
+    public void keep(String key, String name, Path previous) throws IOException {
+        keep(key, name, previous, previous != null ? Files.size(previous) : 0, false);
+    }
+
+    /**
+     * Keep deduplicated content about to be replaced by linking to its chunk
+     * manifest, like {@link #keep}.
+     * @param key History key
+     * @param name Stored file name
+     * @param manifest Chunk manifest of the content; the caller may delete it afterwards
+     * @param size Size of the content the manifest describes
+     */
+    public void keepManifest(String key, String name, Path manifest, long size) throws IOException {
+        keep(key, name, manifest, size, true);
+    }
+
+    private void keep(String key, String name, Path previous, long size, boolean chunked) throws IOException {
+        Lock lock = lockFor(key);
+        lock.lock();
+        try {
+            Path dir = dir(key);
+            long before = dirBytes(dir);
+            History history = open(key, name);
+            Version live = history.live();
+            List<String> lines = new ArrayList<>();
+            List<Integer> dropped = new ArrayList<>();
+
+            if (previous != null) {
+                int number = live != null ? live.number : history.next();
+                if (live == null) {
+                    // Stored before this history existed
+                    lines.add("add " + number + " " + size + " " + Files.getLastModifiedTime(previous).toMillis());
+                } else if (size != live.size) {
+                    log.warn("Live content of {} changed outside the version store; dropping the versions "
+                            + "rebuilt from it", name);
+                    dropped = dependents(history, live.number);
+                }
+                if (chunked) {
+                    link(previous, manifestPath(key, number));
+                    lines.add("manifest " + number + " " + size);
+                } else {
+                    link(previous, fullPath(key, number));
+                    lines.add("full " + number + " " + size);
+                }
+            } else if (live != null) {
+                // The live file is gone, and with it the version and every delta rebuilt from it
+                log.warn("Live content of {} is missing; dropping version {}", name, live.number);
+                dropped = dependents(history, live.number);
+                dropped.add(live.number);
+            }
+
+            for (int number : dropped) {
+                lines.add("drop " + number);
+            }
+            if (!lines.isEmpty()) {
+                append(key, history, lines);
+            }
+            deleteFiles(key, dropped);
+            usageChanged(dirBytes(dir) - before);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Record the content the caller has just put in place under the file's
+     * name as its newest version, and prune the oldest beyond max-versions.
+     * @param key History key
+     * @param name Stored file name
+     * @param size Size of the new content
+     * @return The new version number
+     */
+    public int add(String key, String name, long size) throws IOException {
+        Lock lock = lockFor(key);
+        lock.lock();
+        try {
+            Path dir = dir(key);
+            long before = dirBytes(dir);
+            History history = open(key, name);
+            if (history.live() != null) {
+                throw new IllegalStateException("Version " + history.live().number + " of " + key
+                        + " has not been kept");
+            }
+            int number = history.next();
+            List<String> lines = new ArrayList<>();
+            lines.add("add " + number + " " + size + " " + System.currentTimeMillis());
+            // Deltas are rebuilt from newer versions, so the oldest can always go
+            List<Integer> pruned = new ArrayList<>();
+            int retained = history.versions.size() + 1;
+            for (int old : history.versions.keySet()) {
+                if (retained <= maxVersions) {
+                    break;
+                }
+                pruned.add(old);
+                lines.add("drop " + old);
+                retained--;
+            }
+            append(key, history, lines);
+            deleteFiles(key, pruned);
+            usageChanged(dirBytes(dir) - before);
+            schedule(key);
+            return number;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Rebuild a version into a temp file next to the upload directory.
+     * @param key History key
+     * @param number Version number
+     * @return The temp file, owned by the caller, or null if the version does not exist
+     */
+    public Path materialize(String key, int number) throws IOException {
+        Version top;
+        FileChannel base;
+        List<Version> chain = new ArrayList<>();
+        List<InputStream> deltas = new ArrayList<>();
+        Lock lock = lockFor(key);
+        lock.lock();
+        try {
+            History history = read(key);
+            Version version = history.versions.get(number);
+            if (version == null) {
+                return null;
+            }
+            // Walk up to the nearest full copy; files opened now stay readable if they are replaced
+            Version v = version;
+            while (!v.isKeyframe()) {
+                chain.add(v);
+                v = history.versions.get(v.base);
+                if (v == null) {
+                    throw new IOException("Broken version chain for " + key + " at version " + number);
+                }
+            }
+            top = v;
+            base = openContent(key, history, top);
+            try {
+                for (Version delta : chain) {
+                    deltas.add(Files.newInputStream(deltaPath(key, delta.number)));
+                }
+            } catch (IOException e) {
+                closeAll(base, deltas);
+                throw e;
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        Path current = tempDir.resolve(UUID.randomUUID() + ".version");
+        try {
+            try (FileChannel in = base) {
+                verify(key, top, copy(in, current), current);
+            }
+            // Apply the deltas from the newest down to the requested version
+            for (int i = chain.size() - 1; i >= 0; i--) {
+                Path next = tempDir.resolve(UUID.randomUUID() + ".version");
+                String sha;
+                try (FileChannel from = FileChannel.open(current, StandardOpenOption.READ);
+                     InputStream in = deltas.get(i);
+                     FileChannel out = FileChannel.open(next, StandardOpenOption.CREATE_NEW,
+                             StandardOpenOption.WRITE)) {
+                    sha = hex(BlockDelta.apply(from, in, out));
+                } catch (IOException e) {
+                    Files.deleteIfExists(next);
+                    throw e;
+                }
+                Files.delete(current);
+                current = next;
+                verify(key, chain.get(i), sha, current);
+            }
+            return current;
+        } catch (IOException e) {
+            closeAll(base, deltas);
+            Files.deleteIfExists(current);
+            throw e;
+        }
+    }
+
+    /**
+     * Mark a version as the live content after the caller put it in place,
+     * having kept the content it replaced with {@link #keep}.
+     * @param key History key
+     * @param number Version number
+     */
+    public void setCurrent(String key, int number) throws IOException {
+        Lock lock = lockFor(key);
+        lock.lock();
+        try {
+            Path dir = dir(key);
+            long before = dirBytes(dir);
+            History history = read(key);
+            if (history.versions.get(number) == null) {
+                throw new IllegalArgumentException("No version " + number + " of " + key);
+            }
+            append(key, history, List.of("live " + number));
+            // The live file is now the copy; deltas rebuilt from this version read it from there
+            deleteFiles(key, List.of(number));
+            usageChanged(dirBytes(dir) - before);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Versions of a file, oldest first.
+     * @param key History key
+     * @return Retained versions, empty if there is no history
+     */
+    public List<Version> list(String key) throws IOException {
+        Lock lock = lockFor(key);
+        lock.lock();
+        try {
+            return Collections.unmodifiableList(new ArrayList<>(read(key).versions.values()));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @param key History key
+     * @return Number of the live version, 0 if none is live
+     */
+    public int currentVersion(String key) throws IOException {
+        Lock lock = lockFor(key);
+        lock.lock();
+        try {
+            Version live = read(key).live();
+            return live != null ? live.number : 0;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Drop a file's whole history.
+     * @param key History key
+     */
+    public void delete(String key) throws IOException {
+        Lock lock = lockFor(key);
+        lock.lock();
+        try {
+            Path dir = dir(key);
+            long before = dirBytes(dir);
+            // The index goes first: without it anything left over is a stray
+            Files.deleteIfExists(dir.resolve("index"));
+            deleteFiles(key, null);
+            Files.deleteIfExists(dir);
+            DurableFiles.forceDirectory(versionsDir);
+            usageChanged(-before);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Wait until the background work queued so far has finished, for example
+     * before measuring the space taken by history.
+     */
+    public void awaitCompaction() throws InterruptedIOException {
+        try {
+            compactor.submit(() -> { }).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for version compaction");
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    /**
+     * Register a listener for changes in the space taken by version history.
+     * @param listener Called on the writing thread, so it must not block
+     */
+    public void addUsageListener(UsageListener listener) {
+        usageListeners.add(listener);
+    }
+
+    /**
+     * Total bytes held by the version store on disk, by walking it.
+     * @return Size of every version and index
+     */
+    public long physicalBytes() throws IOException {
+        try (Stream<Path> paths = Files.walk(versionsDir)) {
+            return paths.mapToLong(path -> Files.isRegularFile(path) ? path.toFile().length() : 0).sum();
+        }
+    }
+
+    private void schedule(String key) {
+        if (!queued.add(key)) {
+            return;
+        }
+        compactor.execute(() -> {
+            queued.remove(key);
+            try {
+                compact(key);
+            } catch (IOException | RuntimeException e) {
+                log.warn("Compacting the history of {} failed; it is retried after its next version", key, e);
+            }
+        });
+    }
+
+    // Turn full copies into deltas against their successor and hash the keyframes
+    private void compact(String key) throws IOException {
+        removeStrays(key);
+        while (true) {
+            Version candidate = null;
+            Integer successor;
+            FileChannel base = null;
+            Lock lock = lockFor(key);
+            lock.lock();
+            try {
+                History history = read(key);
+                for (Version version : history.versions.values()) {
+                    // Manifests are already deduplicated, so they are left as they are
+                    if (!version.live && version.isKeyframe() && !version.chunked && version.sha256 == null) {
+                        candidate = version;
+                        break;
+                    }
+                }
+                if (candidate == null) {
+                    return;
+                }
+                successor = candidate.number % keyframeInterval == 0 ? null
+                        : history.versions.higherKey(candidate.number);
+                if (successor != null && history.versions.get(successor).isKeyframe()) {
+                    base = openContent(key, history, history.versions.get(successor));
+                }
+            } finally {
+                lock.unlock();
+            }
+
+            if (successor == null) {
+                recordSha(key, candidate.number, hash(fullPath(key, candidate.number)));
+                continue;
+            }
+            if (base == null) {
+                // The successor is itself a delta; rebuild it outside the lock
+                Path rebuilt = materialize(key, successor);
+                if (rebuilt == null) {
+                    continue;
+                }
+                base = FileChannel.open(rebuilt, StandardOpenOption.READ, StandardOpenOption.DELETE_ON_CLOSE);
+            }
+            encodeDelta(key, candidate, successor, base);
+        }
+    }
+
+    private void encodeDelta(String key, Version version, int successor, FileChannel base) throws IOException {
+        Path temp = tempDir.resolve(UUID.randomUUID() + ".delta");
+        String sha;
+        try (FileChannel in = base;
+             InputStream target = Files.newInputStream(fullPath(key, version.number));
+             FileChannel out = FileChannel.open(temp, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+            DataOutputStream data = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(out),
+                    1 << 16));
+            sha = hex(BlockDelta.encode(in, target, data, blockSize));
+            data.flush();
+            out.force(true);
+        } catch (IOException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+
+        Lock lock = lockFor(key);
+        lock.lock();
+        try {
+            History history = read(key);
+            Version current = history.versions.get(version.number);
+            // Restored or pruned while encoding
+            if (current == null || current.live || !current.isKeyframe() || current.chunked
+                    || !history.versions.containsKey(successor)) {
+                Files.deleteIfExists(temp);
+                return;
+            }
+            Path dir = dir(key);
+            long before = dirBytes(dir);
+            // A delta of unrelated content saves nothing; keep the full copy
+            if (Files.size(temp) >= current.size) {
+                Files.delete(temp);
+                append(key, history, List.of("sha " + version.number + " " + sha));
+                usageChanged(dirBytes(dir) - before);
+                return;
+            }
+            DurableFiles.move(temp, deltaPath(key, version.number));
+            DurableFiles.forceDirectory(dir);
+            append(key, history, List.of("delta " + version.number + " " + successor + " " + sha));
+            Files.deleteIfExists(fullPath(key, version.number));
+            usageChanged(dirBytes(dir) - before);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void recordSha(String key, int number, String sha) throws IOException {
+        Lock lock = lockFor(key);
+        lock.lock();
+        try {
+            History history = read(key);
+            Version version = history.versions.get(number);
+            if (version != null && !version.live && version.isKeyframe() && !version.chunked) {
+                Path dir = dir(key);
+                long before = dirBytes(dir);
+                append(key, history, List.of("sha " + number + " " + sha));
+                usageChanged(dirBytes(dir) - before);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Version files an interrupted commit or pass left behind that the index does not refer to
+    private void removeStrays(String key) throws IOException {
+        Lock lock = lockFor(key);
+        lock.lock();
+        try {
+            Path dir = dir(key);
+            History history = read(key);
+            if (!history.exists) {
+                return;
+            }
+            long before = dirBytes(dir);
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, "v*")) {
+                for (Path path : stream) {
+                    String file = path.getFileName().toString();
+                    int dot = file.indexOf('.');
+                    Version version;
+                    try {
+                        version = history.versions.get(Integer.parseInt(file.substring(1, dot)));
+                    } catch (NumberFormatException | StringIndexOutOfBoundsException e) {
+                        continue;
+                    }
+                    boolean wanted = version != null && !version.live
+                            && file.equals(fileFor(key, version).getFileName().toString());
+                    if (!wanted) {
+                        Files.deleteIfExists(path);
+                    }
+                }
+            }
+            usageChanged(dirBytes(dir) - before);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Full copy of a version: its file, its manifest's content, or the live file under the history's name
+    private FileChannel openContent(String key, History history, Version version) throws IOException {
+        ContentSource source = contentSource;
+        if (version.chunked) {
+            if (source == null) {
+                throw new IOException("No reader for the chunk manifest of version " + version.number + " of " + key);
+            }
+            return copy(source.openManifest(manifestPath(key, version.number)));
+        }
+        if (!version.live) {
+            return FileChannel.open(fullPath(key, version.number), StandardOpenOption.READ);
+        }
+        Path path = root.resolve(history.name);
+        try {
+            FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+            if (channel.size() != version.size) {
+                channel.close();
+                throw new IOException("Live content of " + history.name + " no longer matches version "
+                        + version.number);
+            }
+            return channel;
+        } catch (NoSuchFileException e) {
+            if (source == null) {
+                throw e;
+            }
+        }
+        return copy(source.openLive(history.name));
+    }
+
+    // Not stored flat, so rebuild it where positional reads work
+    private FileChannel copy(InputStream content) throws IOException {
+        Path copy = tempDir.resolve(UUID.randomUUID() + ".version");
+        try (InputStream in = content) {
+            Files.copy(in, copy);
+        } catch (IOException e) {
+            Files.deleteIfExists(copy);
+            throw e;
+        }
+        return FileChannel.open(copy, StandardOpenOption.READ, StandardOpenOption.DELETE_ON_CLOSE);
+    }
+
+    // Versions whose delta chain passes through the given one, newest first
+    private static List<Integer> dependents(History history, int number) {
+        List<Integer> dependents = new ArrayList<>();
+        Set<Integer> gone = new HashSet<>();
+        gone.add(number);
+        for (Version version : history.versions.headMap(number, false).descendingMap().values()) {
+            if (gone.contains(version.base)) {
+                gone.add(version.number);
+                dependents.add(version.number);
+            }
+        }
+        return dependents;
+    }
+
+    private void verify(String key, Version version, String sha, Path rebuilt) throws IOException {
+        if (version.sha256 != null && !version.sha256.equals(sha)) {
+            Files.deleteIfExists(rebuilt);
+            throw new IOException("Version " + version.number + " of " + key + " failed its checksum");
+        }
+    }
+
+    // Read a history for writing, starting it if needed
+    private History open(String key, String name) throws IOException {
+        History history = read(key);
+        if (history.exists && !name.equals(history.name)) {
+            throw new IllegalStateException("History " + key + " belongs to " + history.name + ", not " + name);
+        }
+        if (!history.exists) {
+            Files.createDirectories(dir(key));
+            DurableFiles.forceDirectory(versionsDir);
+            history.name = name;
+            rewrite(key, history);
+        }
+        return history;
+    }
+
+    private History read(String key) throws IOException {
+        History history = new History();
+        Path index = dir(key).resolve("index");
+        byte[] bytes;
+        try {
+            bytes = Files.readAllBytes(index);
+        } catch (NoSuchFileException e) {
+            return history;
+        }
+        history.exists = true;
+        String text = new String(bytes, StandardCharsets.US_ASCII);
+        // A line cut short by a crash has no newline yet; it is ignored and overwritten
+        int end = text.lastIndexOf('\n');
+        String[] lines = end < 0 ? new String[0] : text.substring(0, end).split("\n");
+        if (lines.length < 2 || !HEADER.equals(lines[0]) || !lines[1].startsWith("name ")) {
+            throw new IOException("Not a version index: " + index);
+        }
+        history.name = lines[1].substring("name ".length());
+        try {
+            for (int i = 2; i < lines.length; i++) {
+                apply(history, lines[i]);
+            }
+        } catch (RuntimeException e) {
+            throw new IOException("Corrupt version index: " + index, e);
+        }
+        history.lines = lines.length - 2;
+        history.validBytes = end + 1;
+        return history;
+    }
+
+    // One index line: add, full, manifest, delta, sha, live or drop, followed by the version number
+    private static void apply(History history, String line) {
+        String[] fields = line.split(" ");
+        int number = Integer.parseInt(fields[1]);
+        Version v = history.versions.get(number);
+        switch (fields[0]) {
+            case "add":
+                history.versions.put(number, new Version(number, true, 0, false, Long.parseLong(fields[2]), null,
+                        Long.parseLong(fields[3])));
+                break;
+            case "full":
+            case "manifest":
+                // A full copy is left for the background pass to hash or turn into a delta
+                history.versions.put(number, new Version(number, false, 0, fields[0].equals("manifest"),
+                        Long.parseLong(fields[2]), null, v.created));
+                break;
+            case "delta":
+                history.versions.put(number, new Version(number, false, Integer.parseInt(fields[2]), false, v.size,
+                        fields[3], v.created));
+                break;
+            case "sha":
+                history.versions.put(number, new Version(number, v.live, v.base, v.chunked, v.size, fields[2],
+                        v.created));
+                break;
+            case "live":
+                history.versions.put(number, new Version(number, true, 0, false, v.size, v.sha256, v.created));
+                break;
+            case "drop":
+                history.versions.remove(number);
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown index line: " + line);
+        }
+    }
+
+    private void append(String key, History history, List<String> lines) throws IOException {
+        StringBuilder text = new StringBuilder();
+        for (String line : lines) {
+            apply(history, line);
+            text.append(line).append('\n');
+        }
+        if (history.lines + lines.size() > 16 + 4 * maxVersions) {
+            rewrite(key, history);
+            return;
+        }
+        ByteBuffer data = ByteBuffer.wrap(text.toString().getBytes(StandardCharsets.US_ASCII));
+        try (FileChannel out = FileChannel.open(dir(key).resolve("index"), StandardOpenOption.WRITE)) {
+            if (out.size() > history.validBytes) {
+                // Drop a torn line left by a crash
+                out.truncate(history.validBytes);
+            }
+            long position = history.validBytes;
+            while (data.hasRemaining()) {
+                position += out.write(data, position);
+            }
+            out.force(false);
+            history.validBytes = position;
+        }
+        history.lines += lines.size();
+    }
+
+    // Write the index afresh, one add line per version followed by what has happened to it since
+    private void rewrite(String key, History history) throws IOException {
+        StringBuilder text = new StringBuilder(HEADER).append('\n');
+        text.append("name ").append(history.name).append('\n');
+        int lines = 0;
+        for (Version version : history.versions.values()) {
+            text.append("add ").append(version.number).append(' ').append(version.size).append(' ')
+                    .append(version.created).append('\n');
+            lines++;
+            if (!version.isKeyframe()) {
+                text.append("delta ").append(version.number).append(' ').append(version.base).append(' ')
+                        .append(version.sha256).append('\n');
+                lines++;
+                continue;
+            }
+            if (!version.live) {
+                text.append(version.chunked ? "manifest " : "full ").append(version.number).append(' ')
+                        .append(version.size).append('\n');
+                lines++;
+            }
+            if (version.sha256 != null) {
+                text.append("sha ").append(version.number).append(' ').append(version.sha256).append('\n');
+                lines++;
+            }
+        }
+        byte[] bytes = text.toString().getBytes(StandardCharsets.US_ASCII);
+
+        Path dir = dir(key);
+        Path temp = dir.resolve("index.tmp");
+        try (FileChannel out = FileChannel.open(temp, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            ByteBuffer data = ByteBuffer.wrap(bytes);
+            while (data.hasRemaining()) {
+                out.write(data);
+            }
+            out.force(true);
+        }
+        DurableFiles.move(temp, dir.resolve("index"));
+        DurableFiles.forceDirectory(dir);
+        history.exists = true;
+        history.lines = lines;
+        history.validBytes = bytes.length;
+    }
+
+    // A hard link shares the file's blocks, so keeping replaced content copies nothing
+    private static void link(Path source, Path target) throws IOException {
+        Files.deleteIfExists(target);
+        try {
+            Files.createLink(target, source);
+        } catch (UnsupportedOperationException | FileSystemException e) {
+            try (FileChannel in = FileChannel.open(source, StandardOpenOption.READ)) {
+                copy(in, target);
+            }
+        }
+        DurableFiles.force(target);
+        DurableFiles.forceDirectory(target.getParent());
+    }
+
+    // Delete version files, or the whole history when numbers is null
+    private void deleteFiles(String key, List<Integer> numbers) throws IOException {
+        if (numbers != null) {
+            for (int number : numbers) {
+                Files.deleteIfExists(fullPath(key, number));
+                Files.deleteIfExists(deltaPath(key, number));
+                Files.deleteIfExists(manifestPath(key, number));
+            }
+            return;
+        }
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir(key))) {
+            for (Path path : stream) {
+                Files.deleteIfExists(path);
+            }
+        } catch (NoSuchFileException e) {
+            // Nothing to delete
+        }
+    }
+
+    // A file's history is at most max-versions files plus its index, so this stays cheap
+    private static long dirBytes(Path dir) throws IOException {
+        long total = 0;
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+            for (Path path : stream) {
+                total += path.toFile().length();
+            }
+        } catch (NoSuchFileException e) {
+            return 0;
+        }
+        return total;
+    }
+
+    private void usageChanged(long deltaBytes) {
+        if (deltaBytes != 0) {
+            for (UsageListener listener : usageListeners) {
+                listener.usageChanged(deltaBytes);
+            }
+        }
+    }
+
+    private Path dir(String key) {
+        if (key == null || key.isEmpty() || FileStorage.isHidden(key)
+                || !key.equals(Paths.get(key).getFileName().toString())) {
+            throw new IllegalArgumentException("Invalid history key: " + key);
+        }
+        return versionsDir.resolve(key);
+    }
+
+    private Path fullPath(String key, int number) {
+        return dir(key).resolve("v" + number + ".full");
+    }
+
+    private Path deltaPath(String key, int number) {
+        return dir(key).resolve("v" + number + ".delta");
+    }
+
+    private Path manifestPath(String key, int number) {
+        return dir(key).resolve("v" + number + ".manifest");
+    }
+
+    // The file a stored version is kept in
+    private Path fileFor(String key, Version version) {
+        return !version.isKeyframe() ? deltaPath(key, version.number)
+                : version.chunked ? manifestPath(key, version.number) : fullPath(key, version.number);
+    }
+
+    private Lock lockFor(String key) {
+        return locks[Math.floorMod(key.hashCode(), locks.length)];
+    }
+
+    private static void closeAll(FileChannel base, List<InputStream> streams) {
+        try {
+            base.close();
+        } catch (IOException e) {
+            // Already failing
+        }
+        for (InputStream in : streams) {
+            try {
+                in.close();
+            } catch (IOException e) {
+                // Already failing
+            }
+        }
+    }
+
+    // Copy a channel to a new synced file and return the SHA-256 of what was copied
+    private static String copy(FileChannel in, Path target) throws IOException {
+        MessageDigest digest = BlockDelta.sha256();
+        ByteBuffer buffer = ByteBuffer.allocate(1 << 16);
+        long position = 0;
+        try (FileChannel out = FileChannel.open(target, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+            int read;
+            while ((read = in.read(buffer, position)) > 0) {
+                position += read;
+                buffer.flip();
+                digest.update(buffer.duplicate());
+                while (buffer.hasRemaining()) {
+                    out.write(buffer);
+                }
+                buffer.clear();
+            }
+            out.force(true);
+        }
+        return hex(digest.digest());
+    }
+
+    private static String hash(Path path) throws IOException {
+        MessageDigest digest = BlockDelta.sha256();
+        byte[] buffer = new byte[1 << 16];
+        try (InputStream in = Files.newInputStream(path)) {
+            int read;
+            while ((read = in.read(buffer)) > 0) {
+                digest.update(buffer, 0, read);
+            }
+        }
+        return hex(digest.digest());
+    }
+
+    private static String hex(byte[] bytes) {
+        return HexFormat.of().formatHex(bytes);
+    }
+}
@@ -0,0 +1,49 @@
+package com.stellarfs.controller;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ByteRangeTest {
+
+    @Test
+    void resolvesSuffixAndOpenEndedRanges() {
+        ByteRange suffix = ByteRange.parse("bytes=-100", 1000);
+        assertThat(suffix.getStart()).isEqualTo(900);
+        assertThat(suffix.getEnd()).isEqualTo(999);
+
+        // A suffix longer than the file covers all of it
+        ByteRange whole = ByteRange.parse("bytes=-5000", 1000);
+        assertThat(whole.getStart()).isZero();
+        assertThat(whole.getLength()).isEqualTo(1000);
+
+        ByteRange tail = ByteRange.parse("bytes=250-", 1000);
+        assertThat(tail.getStart()).isEqualTo(250);
+        assertThat(tail.getEnd()).isEqualTo(999);
+    }
+
+    @Test
+    void clampsEndToLastByte() {
+        ByteRange range = ByteRange.parse("bytes=10-99999", 1000);
+        assertThat(range.getStart()).isEqualTo(10);
+        assertThat(range.getEnd()).isEqualTo(999);
+        assertThat(range.getLength()).isEqualTo(990);
+    }
+
+    @Test
+    void rejectsRangesPastTheEnd() {
+        assertThat(ByteRange.parse("bytes=1000-", 1000)).isSameAs(ByteRange.UNSATISFIABLE);
+        assertThat(ByteRange.parse("bytes=5000-6000", 1000)).isSameAs(ByteRange.UNSATISFIABLE);
+        assertThat(ByteRange.parse("bytes=-0", 1000)).isSameAs(ByteRange.UNSATISFIABLE);
+        assertThat(ByteRange.parse("bytes=-10", 0)).isSameAs(ByteRange.UNSATISFIABLE);
+    }
+
+    @Test
+    void ignoresMultiRangeAndMalformedHeaders() {
+        assertThat(ByteRange.parse(null, 1000)).isNull();
+        assertThat(ByteRange.parse("bytes=0-1,5-9", 1000)).isNull();
+        assertThat(ByteRange.parse("items=0-9", 1000)).isNull();
+        assertThat(ByteRange.parse("bytes=abc-", 1000)).isNull();
+        assertThat(ByteRange.parse("bytes=9-2", 1000)).isNull();
+    }
+}
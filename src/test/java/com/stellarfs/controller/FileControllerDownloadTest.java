@@ -0,0 +1,103 @@
+package com.stellarfs.controller;
+
+import com.stellarfs.service.FileService;
+import com.stellarfs.storage.ChunkStore;
+import com.stellarfs.storage.DirectoryView;
+import com.stellarfs.storage.FileStorage;
+import com.stellarfs.storage.UploadSessions;
+import com.stellarfs.storage.VersionStore;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.http.HttpHeaders;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+
+import java.io.ByteArrayInputStream;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+class FileControllerDownloadTest {
+
+    @TempDir
+    Path dir;
+
+    private MockMvc mvc;
+    private byte[] content;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        String uploads = dir.resolve("uploads").toString();
+        FileStorage storage = new FileStorage(uploads, 1 << 20, new ChunkStore(uploads, 2048, 8192, 32768),
+                new VersionStore(uploads, 5, 10, 4096));
+        content = new byte[1000];
+        for (int i = 0; i < content.length; i++) {
+            content[i] = (byte) i;
+        }
+        storage.store("data.bin", new ByteArrayInputStream(content));
+        mvc = MockMvcBuilders.standaloneSetup(new FileController(mock(FileService.class), storage,
+                mock(DirectoryView.class), mock(UploadSessions.class))).build();
+    }
+
+    @Test
+    void servesSuffixRangeAsPartialContent() throws Exception {
+        MvcResult result = mvc.perform(get("/files/data.bin").header(HttpHeaders.RANGE, "bytes=-100"))
+                .andExpect(status().isPartialContent())
+                .andExpect(header().string(HttpHeaders.CONTENT_RANGE, "bytes 900-999/1000"))
+                .andExpect(header().longValue(HttpHeaders.CONTENT_LENGTH, 100))
+                .andReturn();
+        assertThat(result.getResponse().getContentAsByteArray()).isEqualTo(Arrays.copyOfRange(content, 900, 1000));
+    }
+
+    @Test
+    void clampsRangeEndToFileSize() throws Exception {
+        MvcResult result = mvc.perform(get("/files/data.bin").header(HttpHeaders.RANGE, "bytes=990-5000"))
+                .andExpect(status().isPartialContent())
+                .andExpect(header().string(HttpHeaders.CONTENT_RANGE, "bytes 990-999/1000"))
+                .andReturn();
+        assertThat(result.getResponse().getContentAsByteArray()).isEqualTo(Arrays.copyOfRange(content, 990, 1000));
+    }
+
+    @Test
+    void rejectsRangeStartingPastTheEnd() throws Exception {
+        mvc.perform(get("/files/data.bin").header(HttpHeaders.RANGE, "bytes=1000-"))
+                .andExpect(status().isRequestedRangeNotSatisfiable())
+                .andExpect(header().string(HttpHeaders.CONTENT_RANGE, "bytes */1000"));
+    }
+
+    @Test
+    void sendsWholeFileForMultiRange() throws Exception {
+        MvcResult result = mvc.perform(get("/files/data.bin").header(HttpHeaders.RANGE, "bytes=0-9,20-29"))
+                .andExpect(status().isOk())
+                .andExpect(header().doesNotExist(HttpHeaders.CONTENT_RANGE))
+                .andReturn();
+        assertThat(result.getResponse().getContentAsByteArray()).isEqualTo(content);
+    }
+
+    @Test
+    void honoursRangeOnlyWhenIfRangeMatches() throws Exception {
+        String etag = mvc.perform(get("/files/data.bin")).andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+
+        mvc.perform(get("/files/data.bin").header(HttpHeaders.RANGE, "bytes=0-9").header(HttpHeaders.IF_RANGE, etag))
+                .andExpect(status().isPartialContent())
+                .andExpect(header().string(HttpHeaders.CONTENT_RANGE, "bytes 0-9/1000"));
+
+        MvcResult stale = mvc.perform(get("/files/data.bin").header(HttpHeaders.RANGE, "bytes=0-9")
+                        .header(HttpHeaders.IF_RANGE, "\"0-0\""))
+                .andExpect(status().isOk())
+                .andExpect(header().doesNotExist(HttpHeaders.CONTENT_RANGE))
+                .andReturn();
+        assertThat(stale.getResponse().getContentAsByteArray()).isEqualTo(content);
+
+        // Weak validators never satisfy If-Range
+        mvc.perform(get("/files/data.bin").header(HttpHeaders.RANGE, "bytes=0-9").header(HttpHeaders.IF_RANGE, "W/" + etag))
+                .andExpect(status().isOk());
+    }
+}
@@ -0,0 +1,156 @@
+package com.stellarfs.repository;
+
+import com.stellarfs.model.dto.FileDTO;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class FileRepositoryTest {
+
+    private static final String[] WORDS = {"report", "backup", "Video", "q1", "export", "db", "x"};
+
+    @Test
+    void searchMatchesLinearScanAcrossUpdatesAndDeletes() {
+        FileRepository repository = new FileRepository();
+        Random random = new Random(7);
+        for (int i = 0; i < 2000; i++) {
+            repository.save(file(i, random));
+        }
+        // Rename some files and delete others so postings have to be maintained
+        for (int i = 0; i < 2000; i += 3) {
+            repository.save(file(i, random));
+        }
+        for (int i = 1; i < 2000; i += 5) {
+            repository.deleteById("id-" + i);
+        }
+
+        for (String query : new String[] {"rep", "Backup_", "video/", "q1", "x", "DB_X", "nomatch"}) {
+            String needle = query.toLowerCase(Locale.ROOT);
+            Set<String> expected = repository.findAll().stream()
+                    .filter(f -> f.getName().toLowerCase(Locale.ROOT).contains(needle)
+                            || f.getOwner().toLowerCase(Locale.ROOT).contains(needle)
+                            || f.getPath().toLowerCase(Locale.ROOT).contains(needle))
+                    .map(FileDTO::getId)
+                    .collect(Collectors.toSet());
+            Set<String> actual = repository.search(query, 0, Integer.MAX_VALUE).stream()
+                    .map(FileDTO::getId)
+                    .collect(Collectors.toSet());
+            assertThat(actual).as(query).isEqualTo(expected);
+        }
+        for (FileDTO file : repository.findAll()) {
+            assertThat(repository.findByName(file.getName())).contains(file)
+                    .allMatch(named -> named.getName().equals(file.getName()));
+        }
+        // Renamed and deleted files have left their old names
+        assertThat(repository.findAll().stream().map(FileDTO::getName).distinct()
+                .mapToInt(name -> repository.findByName(name).size()).sum())
+                .isEqualTo(repository.count());
+    }
+
+    @Test
+    void searchPagesAreDisjointAndOrdered() {
+        FileRepository repository = new FileRepository();
+        Random random = new Random(11);
+        for (int i = 0; i < 500; i++) {
+            repository.save(file(i, random));
+        }
+        List<FileDTO> all = repository.search("e", 0, Integer.MAX_VALUE);
+        List<FileDTO> first = repository.search("e", 0, 10);
+        List<FileDTO> second = repository.search("e", 10, 10);
+
+        assertThat(first).containsExactlyElementsOf(all.subList(0, 10));
+        assertThat(second).containsExactlyElementsOf(all.subList(10, 20));
+    }
+
+    @Test
+    void recentPagesFollowModificationOrderAcrossUpdates() {
+        FileRepository repository = new FileRepository();
+        Random random = new Random(13);
+        LocalDateTime base = LocalDateTime.of(2024, 1, 1, 0, 0);
+        for (int i = 0; i < 300; i++) {
+            FileDTO file = file(i, random);
+            // Coarse timestamps so ties have to be broken by id
+            file.setLastModified(base.plusMinutes(random.nextInt(50)));
+            repository.save(file);
+        }
+        for (int i = 0; i < 300; i += 7) {
+            FileDTO touched = repository.findById("id-" + i);
+            touched.setLastModified(base.plusMinutes(random.nextInt(100)));
+            repository.save(touched);
+        }
+        for (int i = 3; i < 300; i += 11) {
+            repository.deleteById("id-" + i);
+        }
+
+        List<FileDTO> expected = new ArrayList<>(repository.findAll());
+        expected.sort(Comparator.comparing(FileDTO::getLastModified).reversed()
+                .thenComparing(FileDTO::getId));
+        assertThat(repository.findRecent(5)).containsExactlyElementsOf(expected.subList(0, 5));
+
+        List<FileDTO> paged = new ArrayList<>();
+        List<FileDTO> page = repository.findRecent(17);
+        while (!page.isEmpty()) {
+            paged.addAll(page);
+            FileDTO last = page.get(page.size() - 1);
+            page = repository.findRecentAfter(last.getLastModified(), last.getId(), 17);
+        }
+        assertThat(paged).containsExactlyElementsOf(expected);
+    }
+
+    @Test
+    void sortedPagesListTheWholeCatalogAcrossUpdates() {
+        FileRepository repository = new FileRepository();
+        Random random = new Random(17);
+        for (int i = 0; i < 300; i++) {
+            FileDTO file = file(i, random);
+            // Few distinct names and sizes, so ties have to be broken by id
+            file.setSize((long) random.nextInt(20));
+            repository.save(file);
+        }
+        for (int i = 0; i < 300; i += 5) {
+            FileDTO touched = repository.findById("id-" + i);
+            touched.setSize((long) random.nextInt(40));
+            touched.setName(WORDS[random.nextInt(WORDS.length)] + ".bin");
+            repository.save(touched);
+        }
+        for (int i = 2; i < 300; i += 13) {
+            repository.deleteById("id-" + i);
+        }
+
+        Comparator<FileDTO> bySize = Comparator.comparing(FileDTO::getSize).thenComparing(FileDTO::getId);
+        List<FileDTO> expected = new ArrayList<>(repository.findAll());
+        expected.sort(bySize.reversed());
+        assertThat(readSorted(repository, FileRepository.Sort.SIZE, true, 23)).containsExactlyElementsOf(expected);
+
+        expected.sort(Comparator.comparing(FileDTO::getName).thenComparing(FileDTO::getId));
+        assertThat(readSorted(repository, FileRepository.Sort.NAME, false, 31)).containsExactlyElementsOf(expected);
+    }
+
+    private static List<FileDTO> readSorted(FileRepository repository, FileRepository.Sort sort, boolean descending,
+                                            int limit) {
+        List<FileDTO> files = new ArrayList<>();
+        List<FileDTO> page = repository.findSorted(sort, descending, null, limit);
+        while (!page.isEmpty()) {
+            files.addAll(page);
+            page = repository.findSorted(sort, descending, page.get(page.size() - 1), limit);
+        }
+        return files;
+    }
+
+    private static FileDTO file(int i, Random random) {
+        String name = WORDS[random.nextInt(WORDS.length)] + "_" + WORDS[random.nextInt(WORDS.length)] + ".dat";
+        return new FileDTO("id-" + i, name, "document", 1L, LocalDateTime.now(),
+                "owner " + WORDS[random.nextInt(WORDS.length)], Collections.singletonList("read"),
+                "/" + WORDS[random.nextInt(WORDS.length)].toLowerCase(Locale.ROOT) + "/", 1);
+    }
+}
@@ -0,0 +1,112 @@
+package com.stellarfs.repository;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class NodeMetricRepositoryTest {
+
+    @Test
+    void keepsTheNewestSamplesAndFindsRangesByTimestamp() {
+        NodeMetricRepository repository = new NodeMetricRepository(100);
+        for (int i = 0; i < 250; i++) {
+            repository.append("node-1", i * 1000L, i, i * 2, i * 3, i * 4);
+        }
+
+        MetricPoints all = repository.range("node-1", "memory", 0, Long.MAX_VALUE);
+        assertThat(all.size()).isEqualTo(100);
+        assertThat(all.getTimestamp(0)).isEqualTo(150_000L);
+        assertThat(all.getValue(99)).isEqualTo(249 * 2);
+
+        MetricPoints slice = repository.range("node-1", "network", 200_000L, 209_999L);
+        assertThat(slice.size()).isEqualTo(10);
+        assertThat(slice.getTimestamp(0)).isEqualTo(200_000L);
+        assertThat(slice.getValue(9)).isEqualTo(209 * 4);
+
+        assertThat(repository.range("node-1", "gpu", 0, Long.MAX_VALUE).size()).isZero();
+        assertThat(repository.range("node-2", "cpu", 0, Long.MAX_VALUE).size()).isZero();
+    }
+
+    @Test
+    void rollsSamplesUpIntoBucketsAsTheyArrive() {
+        NodeMetricRepository repository = new NodeMetricRepository(100);
+        // One sample every 10 seconds for 10 minutes; cpu counts up from 0
+        for (int i = 0; i < 60; i++) {
+            repository.append("node-1", i * 10_000L, i, 0, 0, 0);
+        }
+
+        MetricPoints minutes = repository.range("node-1", "cpu", MetricResolution.MINUTE, 0, Long.MAX_VALUE);
+        assertThat(minutes.size()).isEqualTo(10);
+        assertThat(minutes.isRollup()).isTrue();
+        assertThat(minutes.getTimestamp(1)).isEqualTo(60_000L);
+        assertThat(minutes.getCount(1)).isEqualTo(6);
+        assertThat(minutes.getMin(1)).isEqualTo(6);
+        assertThat(minutes.getMax(1)).isEqualTo(11);
+        assertThat(minutes.getValue(1)).isEqualTo(8.5);
+        assertThat(minutes.getLast(9)).isEqualTo(59);
+
+        MetricPoints fiveMinutes = repository.range("node-1", "cpu", MetricResolution.FIVE_MINUTES, 0,
+                Long.MAX_VALUE);
+        assertThat(fiveMinutes.size()).isEqualTo(2);
+        assertThat(fiveMinutes.getCount(1)).isEqualTo(30);
+        assertThat(fiveMinutes.getValue(1)).isEqualTo(44.5);
+
+        // A range starting mid-bucket includes that bucket
+        assertThat(repository.range("node-1", "cpu", MetricResolution.MINUTE, 90_000L, 179_999L).size())
+                .isEqualTo(2);
+        // 60 samples still fit the 100-sample raw ring; 41 more push the first out
+        assertThat(repository.covers("node-1", MetricResolution.RAW, 0)).isTrue();
+        for (int i = 60; i < 101; i++) {
+            repository.append("node-1", i * 10_000L, i, 0, 0, 0);
+        }
+        assertThat(repository.covers("node-1", MetricResolution.RAW, 0)).isFalse();
+        assertThat(repository.covers("node-1", MetricResolution.MINUTE, 0)).isTrue();
+    }
+
+    @Test
+    void lttbKeepsTheEndsAndThePeaks() {
+        double[] y = new double[1000];
+        y[500] = 100;
+        y[730] = -50;
+        int[] kept = Downsampler.lttb(y.length, i -> i, i -> y[i], 20);
+
+        assertThat(kept).hasSize(20);
+        assertThat(kept[0]).isZero();
+        assertThat(kept[19]).isEqualTo(999);
+        assertThat(kept).contains(500, 730);
+        for (int i = 1; i < kept.length; i++) {
+            assertThat(kept[i]).isGreaterThan(kept[i - 1]);
+        }
+        assertThat(Downsampler.lttb(5, i -> i, i -> 0, 20)).containsExactly(0, 1, 2, 3, 4);
+    }
+
+    @Test
+    void readersNeverSeeTornSamplesWhileTheWriterLaps() throws Exception {
+        NodeMetricRepository repository = new NodeMetricRepository(64);
+        AtomicBoolean done = new AtomicBoolean();
+        Thread writer = new Thread(() -> {
+            for (long t = 0; t < 2_000_000; t++) {
+                repository.append("node-1", t, t, 0, 0, 0);
+            }
+            done.set(true);
+        });
+        writer.start();
+
+        AtomicReference<String> error = new AtomicReference<>();
+        while (!done.get() && error.get() == null) {
+            MetricPoints points = repository.range("node-1", "cpu", 0, Long.MAX_VALUE);
+            for (int i = 0; i < points.size(); i++) {
+                // Each sample's value equals its timestamp, and timestamps are consecutive
+                if (points.getValue(i) != points.getTimestamp(i)
+                        || (i > 0 && points.getTimestamp(i) != points.getTimestamp(i - 1) + 1)) {
+                    error.set("Inconsistent sample at " + i + ": " + points.getTimestamp(i));
+                }
+            }
+        }
+        writer.join();
+        assertThat(error.get()).isNull();
+    }
+}
@@ -0,0 +1,130 @@
+package com.stellarfs.service.impl;
+
+import com.stellarfs.model.dto.FileDTO;
+import com.stellarfs.repository.FileRepository;
+import com.stellarfs.storage.ChunkCodec;
+import com.stellarfs.storage.ChunkStore;
+import com.stellarfs.storage.FileStorage;
+import com.stellarfs.storage.Replicator;
+import com.stellarfs.storage.VersionStore;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class CapacityLedgerTest {
+
+    private static final List<String> NODES = Arrays.asList("node-1", "node-2", "node-3");
+
+    @TempDir
+    Path dir;
+
+    private Replicator replicator;
+    private CapacityLedger ledger;
+
+    @AfterEach
+    void close() {
+        if (ledger != null) {
+            ledger.close();
+        }
+        if (replicator != null) {
+            replicator.close();
+        }
+    }
+
+    @Test
+    void countersFollowStorageChangesWithoutRescanning() throws Exception {
+        String uploads = dir.resolve("uploads").toString();
+        ChunkStore chunkStore = new ChunkStore(uploads, 2048, 8192, 32768);
+        VersionStore versionStore = new VersionStore(uploads, 3, 4, 1024);
+        FileStorage storage = new FileStorage(uploads, 1 << 20, chunkStore, versionStore);
+        replicator = new Replicator(storage, dir.resolve("replicas").toString(), 2, 4096, 16384, 2);
+        FileRepository files = new FileRepository();
+
+        // Stored before the ledger exists, so only the first scan can see it
+        Random random = new Random(3);
+        storage.store("existing.bin", new ByteArrayInputStream(bytes(random, 50_000)));
+        files.save(file("1", "alice", "document", 50_000L));
+
+        ledger = new CapacityLedger(storage, chunkStore, versionStore, replicator, files, "node-1", 0, 3_600_000);
+        assertThat(ledger.usedBytes("node-1")).isEqualTo(storage.flatBytes() + versionStore.physicalBytes());
+        assertThat(ledger.getCatalogBytes()).isEqualTo(50_000L);
+
+        for (int i = 0; i < 6; i++) {
+            storage.store("a.bin", new ByteArrayInputStream(bytes(random, 20_000 + i * 1000)));
+        }
+        storage.restoreVersion("a.bin", "a.bin", 4);
+        storage.chunk("existing.bin", ChunkCodec.FAST);
+        storage.store("existing.bin", new ByteArrayInputStream(bytes(random, 10_000)));
+        chunkStore.sweep(Instant.now().plusSeconds(60));
+        for (String node : NODES) {
+            replicator.replicate(node, NODES, 2).get(30, TimeUnit.SECONDS);
+        }
+        replicator.store("node-2").delete("a.bin");
+
+        files.save(file("2", "bob", "image", 7_000L));
+        files.save(file("1", "alice", "archive", 60_000L));
+        files.save(file("3", null, "image", 1_000L));
+        files.deleteById("2");
+
+        // Nothing left for the scan to correct
+        versionStore.awaitCompaction();
+        assertThat(ledger.reconcile()).isZero();
+        assertThat(ledger.nodes()).containsExactly("node-1", "node-2", "node-3");
+        assertThat(ledger.usedBytes("node-2")).isEqualTo(replicator.store("node-2").physicalBytes());
+        assertThat(ledger.bytesByOwner()).isEqualTo(Map.of("alice", 60_000L, CapacityLedger.UNKNOWN, 1_000L));
+        assertThat(ledger.bytesByType()).isEqualTo(Map.of("archive", 60_000L, "image", 1_000L));
+        assertThat(ledger.getCatalogFiles()).isEqualTo(2);
+
+        // Every store sits on the temp dir's file system, which is counted once
+        assertThat(ledger.capacityBytes("node-2")).isEqualTo(ledger.capacityBytes("node-1"));
+        assertThat(ledger.totalCapacityBytes()).isEqualTo(ledger.capacityBytes("node-1"));
+    }
+
+    @Test
+    void scanCorrectsChangesMadeBehindTheLedgersBack() throws Exception {
+        String uploads = dir.resolve("uploads").toString();
+        ChunkStore chunkStore = new ChunkStore(uploads, 2048, 8192, 32768);
+        VersionStore versionStore = new VersionStore(uploads, 3, 4, 1024);
+        FileStorage storage = new FileStorage(uploads, 1 << 20, chunkStore, versionStore);
+        replicator = new Replicator(storage, dir.resolve("replicas").toString(), 2, 4096, 16384, 2);
+        ledger = new CapacityLedger(storage, chunkStore, versionStore, replicator, new FileRepository(),
+                "node-1", 0, 3_600_000);
+
+        storage.store("a.bin", new ByteArrayInputStream(new byte[4096]));
+        long used = ledger.usedBytes("node-1");
+        Files.write(storage.getRoot().resolve("b.bin"), new byte[1000]);
+
+        assertThat(ledger.reconcile()).isEqualTo(1000);
+        assertThat(ledger.usedBytes("node-1")).isEqualTo(used + 1000);
+        assertThat(ledger.getLastDriftBytes()).isEqualTo(1000);
+        assertThat(ledger.getReconciledAt()).isNotNull();
+    }
+
+    private static byte[] bytes(Random random, int length) {
+        byte[] data = new byte[length];
+        random.nextBytes(data);
+        return data;
+    }
+
+    private static FileDTO file(String id, String owner, String type, Long size) {
+        FileDTO file = new FileDTO();
+        file.setId(id);
+        file.setName("file-" + id);
+        file.setOwner(owner);
+        file.setType(type);
+        file.setSize(size);
+        return file;
+    }
+}
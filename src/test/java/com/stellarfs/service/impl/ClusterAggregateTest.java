@@ -0,0 +1,45 @@
+package com.stellarfs.service.impl;
+
+import com.stellarfs.model.dto.NodeDTO;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+
+class ClusterAggregateTest {
+
+    @Test
+    void tracksAveragesAndTotalsAcrossRepeatedReports() {
+        ClusterAggregate aggregate = new ClusterAggregate();
+        NodeDTO first = node("node-1", 10.0, 100);
+        NodeDTO second = node("node-2", 30.0, 50);
+        aggregate.report(first);
+        aggregate.report(second);
+
+        // Many small changes must not leave floating-point residue behind
+        for (int i = 0; i < 100_000; i++) {
+            first.setCpuUsage(0.1 * (i % 7));
+            aggregate.report(first);
+        }
+        first.setCpuUsage(20.0);
+        aggregate.report(first);
+
+        Map<String, Double> summary = aggregate.summary();
+        assertThat(summary.get("cpuUsage")).isEqualTo(25.0);
+        assertThat(summary.get("activeConnections")).isEqualTo(150.0);
+        assertThat(summary.get("networkThroughput")).isCloseTo(2.2, within(1e-9));
+
+        aggregate.remove("node-2");
+        assertThat(aggregate.summary().get("cpuUsage")).isEqualTo(20.0);
+        assertThat(aggregate.summary().get("activeConnections")).isEqualTo(100.0);
+    }
+
+    private static NodeDTO node(String id, double cpu, int connections) {
+        return new NodeDTO(id, id, "127.0.0.1", "online", cpu, 50.0, 50.0, 1.1, connections,
+                LocalDateTime.now(), new HashMap<>(), "local", "storage", 0);
+    }
+}
@@ -0,0 +1,102 @@
+package com.stellarfs.service.impl;
+
+import com.stellarfs.model.dto.FileDTO;
+import com.stellarfs.model.dto.UploadSessionDTO;
+import com.stellarfs.repository.FileRepository;
+import com.stellarfs.repository.FileVersionRepository;
+import com.stellarfs.storage.ChunkStore;
+import com.stellarfs.storage.FileStorage;
+import com.stellarfs.storage.UploadSessions;
+import com.stellarfs.storage.VersionStore;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.mock.web.MockMultipartFile;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class FileServiceImplTest {
+
+    @TempDir
+    Path dir;
+
+    private UploadSessions sessions;
+
+    @AfterEach
+    void close() {
+        if (sessions != null) {
+            sessions.close();
+        }
+    }
+
+    @Test
+    void uploadsAreVersionedUnderTheirCatalogEntry() throws Exception {
+        String uploads = dir.toString();
+        FileStorage storage = new FileStorage(uploads, 1 << 20, new ChunkStore(uploads, 2048, 8192, 32768),
+                new VersionStore(uploads, 5, 10, 4096));
+        sessions = new UploadSessions(storage, 5 << 20, 60_000, 10);
+        // Seeded mock entries have no stored content
+        FileServiceImpl service = new FileServiceImpl(new FileRepository(), new FileVersionRepository(),
+                storage, sessions);
+
+        FileDTO first = service.uploadFile(file("notes.txt", "first"), "/docs/", "alice");
+        String id = first.getId();
+        assertThat(storage.listVersions(id)).hasSize(1);
+        UploadSessionDTO session = sessions.initiate("notes.txt", 6, null);
+        sessions.uploadPart(session.getId(), 1, new ByteArrayInputStream(bytes("second")));
+        FileDTO second = service.completeUpload(session.getId(), null, "alice");
+        assertThat(second.getId()).isEqualTo(id);
+        assertThat(second.getVersion()).isEqualTo(2);
+
+        // Storage is flat by name, so the same name cannot be catalogued under another path
+        assertThatThrownBy(() -> service.uploadFile(file("notes.txt", "other"), "/other/", "bob"))
+                .isInstanceOf(IllegalStateException.class);
+
+        assertThat(service.restoreVersion(id, 1).getVersion()).isEqualTo(1);
+        try (InputStream in = storage.open("notes.txt")) {
+            assertThat(in.readAllBytes()).isEqualTo(bytes("first"));
+        }
+        assertThat(service.getFileVersions(id)).hasSize(2);
+        assertThatThrownBy(() -> service.restoreVersion("1", 1)).isInstanceOf(IllegalStateException.class);
+    }
+
+    @Test
+    void deleteRemovesStoredContentAndHistory() throws Exception {
+        String uploads = dir.toString();
+        FileStorage storage = new FileStorage(uploads, 1 << 20, new ChunkStore(uploads, 2048, 8192, 32768),
+                new VersionStore(uploads, 5, 10, 4096));
+        sessions = new UploadSessions(storage, 5 << 20, 60_000, 10);
+        FileServiceImpl service = new FileServiceImpl(new FileRepository(), new FileVersionRepository(),
+                storage, sessions);
+
+        String id = service.uploadFile(file("notes.txt", "first"), "/docs/", "alice").getId();
+        service.uploadFile(file("notes.txt", "second"), "/docs/", "alice");
+        assertThat(storage.listVersions(id)).hasSize(2);
+
+        assertThat(service.deleteFile(id)).isTrue();
+        assertThat(storage.stat("notes.txt")).isNull();
+        assertThat(storage.listVersions(id)).isEmpty();
+        assertThat(dir.resolve(".versions").resolve(id)).doesNotExist();
+        assertThat(service.getFileById(id)).isNull();
+        assertThat(service.deleteFile(id)).isFalse();
+
+        // The name starts a fresh history
+        FileDTO again = service.uploadFile(file("notes.txt", "third"), "/other/", "bob");
+        assertThat(again.getId()).isNotEqualTo(id);
+        assertThat(again.getVersion()).isEqualTo(1);
+    }
+
+    private static MockMultipartFile file(String name, String content) {
+        return new MockMultipartFile("file", name, "text/plain", bytes(content));
+    }
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,60 @@
+package com.stellarfs.service.impl;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+
+class HostMetricsProbeTest {
+
+    @TempDir
+    Path proc;
+
+    @Test
+    void computesUsageAndRatesFromProcFiles() throws Exception {
+        Files.createDirectories(proc.resolve("net"));
+        writeStat(1000, 0, 500, 8000, 500);
+        Files.writeString(proc.resolve("meminfo"),
+                "MemTotal:        8000000 kB\nMemFree:         1000000 kB\nMemAvailable:    2000000 kB\n");
+        writeNetDev(5_000_000, 1_000_000);
+
+        HostMetricsProbe probe = new HostMetricsProbe(true, proc.toString(), proc.toString());
+        assertThat(probe.isAvailable()).isTrue();
+        // Since boot: 1500 busy of 10000
+        assertThat(probe.getCpuUsage()).isCloseTo(15.0, within(1e-9));
+        assertThat(probe.getMemoryUsage()).isCloseTo(75.0, within(1e-9));
+        assertThat(probe.getDiskUsage()).isBetween(0.0, 100.0);
+
+        // 600 busy of 1000 more jiffies; 2 MB more on the non-loopback interface
+        writeStat(1400, 0, 700, 8300, 600);
+        writeNetDev(6_000_000, 2_000_000);
+        assertThat(probe.sample()).isTrue();
+        assertThat(probe.getCpuUsage()).isCloseTo(60.0, within(1e-9));
+        assertThat(probe.getNetworkThroughput()).isGreaterThan(0);
+        probe.close();
+    }
+
+    @Test
+    void isUnavailableWithoutProc() {
+        HostMetricsProbe probe = new HostMetricsProbe(true, proc.resolve("missing").toString(), proc.toString());
+        assertThat(probe.isAvailable()).isFalse();
+    }
+
+    private void writeStat(long user, long nice, long system, long idle, long iowait) throws Exception {
+        Files.writeString(proc.resolve("stat"), String.format(
+                "cpu  %d %d %d %d %d 0 0 0 0 0%ncpu0 1 2 3 4 5 0 0 0 0 0%nintr 12345%n",
+                user, nice, system, idle, iowait));
+    }
+
+    private void writeNetDev(long rx, long tx) throws Exception {
+        Files.writeString(proc.resolve("net/dev"),
+                "Inter-|   Receive                                                |  Transmit\n"
+                        + " face |bytes    packets errs drop fifo frame compressed multicast|bytes    packets\n"
+                        + "    lo: 999999999 1 0 0 0 0 0 0 999999999 1 0 0 0 0 0 0\n"
+                        + "  eth0:" + rx + " 10 0 0 0 0 0 0 " + tx + " 8 0 0 0 0 0 0\n");
+    }
+}
@@ -0,0 +1,53 @@
+package com.stellarfs.service.impl;
+
+import com.stellarfs.model.dto.CollectorStatsDTO;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class MetricCollectorTest {
+
+    @Test
+    void keepsCollectingAfterFailuresAndSkipsSlotsOnOverrun() throws Exception {
+        MetricCollector collector = new MetricCollector(2, 20, 0, "slow=20");
+        try {
+            CountDownLatch failing = new CountDownLatch(3);
+            collector.schedule("failing", () -> {
+                failing.countDown();
+                throw new IllegalStateException("probe down");
+            });
+            AtomicInteger slowRuns = new AtomicInteger();
+            collector.schedule("slow", () -> {
+                slowRuns.incrementAndGet();
+                sleep(70);
+            });
+
+            assertThat(failing.await(5, TimeUnit.SECONDS)).isTrue();
+            Thread.sleep(400);
+            collector.unschedule("slow");
+            collector.unschedule("failing");
+
+            CollectorStatsDTO stats = collector.getStats();
+            assertThat(stats.getFailures()).isGreaterThanOrEqualTo(3);
+            assertThat(stats.getOverruns()).isGreaterThan(0);
+            assertThat(stats.getMissedIntervals()).isGreaterThanOrEqualTo(stats.getOverruns() * 3);
+            // Overrun slots are skipped, not replayed back to back
+            assertThat(slowRuns.get()).isLessThanOrEqualTo(8);
+            assertThat(stats.getSchedules()).isZero();
+        } finally {
+            collector.close();
+        }
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package com.stellarfs.service.impl;
+
+import com.stellarfs.model.dto.NodeJobDTO;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class NodeJobRunnerTest {
+
+    @Test
+    void runsOneJobPerNodeInOrderAndBoundsTheQueue() throws Exception {
+        NodeJobRunner runner = new NodeJobRunner(4, 2, 100);
+        try {
+            CompletableFuture<Void> gate = new CompletableFuture<>();
+            List<String> order = Collections.synchronizedList(new ArrayList<>());
+            NodeJobDTO first = runner.submit("node-1", "restart", progress -> {
+                order.add("restart");
+                progress.update(0.5, "Waiting");
+                return gate;
+            });
+            awaitStatus(runner, first.getId(), "running");
+            runner.submit("node-1", "pause", progress -> {
+                order.add("pause");
+                return CompletableFuture.completedFuture(null);
+            });
+            NodeJobDTO failing = runner.submit("node-1", "resume", progress -> {
+                throw new IllegalStateException("node unreachable");
+            });
+            // Two are waiting behind the running restart
+            assertThatThrownBy(() -> runner.submit("node-1", "pause",
+                    progress -> CompletableFuture.completedFuture(null)))
+                    .isInstanceOf(IllegalStateException.class);
+
+            // Other nodes are not held up
+            NodeJobDTO other = runner.submit("node-2", "pause", progress -> CompletableFuture.completedFuture(null));
+            awaitStatus(runner, other.getId(), "succeeded");
+
+            assertThat(runner.get(first.getId()).getStatus()).isEqualTo("running");
+            assertThat(runner.get(first.getId()).getProgress()).isEqualTo(0.5);
+            assertThat(order).containsExactly("restart");
+
+            gate.complete(null);
+            awaitStatus(runner, failing.getId(), "failed");
+            assertThat(order).containsExactly("restart", "pause");
+            assertThat(runner.get(first.getId()).getProgress()).isEqualTo(1.0);
+            assertThat(runner.get(failing.getId()).getMessage()).isEqualTo("node unreachable");
+            assertThat(runner.list("node-1")).hasSize(3);
+        } finally {
+            runner.close();
+        }
+    }
+
+    private static void awaitStatus(NodeJobRunner runner, String jobId, String status) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!status.equals(runner.get(jobId).getStatus()) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertThat(runner.get(jobId).getStatus()).isEqualTo(status);
+    }
+}
@@ -0,0 +1,196 @@
+package com.stellarfs.service.impl;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.stellarfs.model.dto.NodeDTO;
+import org.junit.jupiter.api.Test;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class NodeMetricStreamTest {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private static final Map<String, Double> SUMMARY = Map.of("totalNodes", 2.0);
+
+    @Test
+    void deltaHoldsOnlyTheFieldsThatChanged() throws Exception {
+        NodeMetricStream stream = new NodeMetricStream(MAPPER, 16, 1, 60_000, 4, 5_000);
+        try {
+            stream.publish(List.of(node("node-1", 10.0), node("node-2", 20.0)), SUMMARY);
+            RecordingEmitter emitter = new RecordingEmitter(new CountDownLatch(0));
+            stream.subscribe(emitter);
+
+            Event snapshot = emitter.next();
+            assertThat(snapshot.name).isEqualTo("snapshot");
+            assertThat(snapshot.sequence).isEqualTo(1);
+            assertThat(snapshot.body.get("nodes")).hasSize(2);
+
+            stream.publish(List.of(node("node-1", 10.0), node("node-2", 35.0)), SUMMARY);
+            Event delta = emitter.next();
+            assertThat(delta.name).isEqualTo("delta");
+            assertThat(delta.sequence).isEqualTo(2);
+            assertThat(delta.body.get("nodes")).hasSize(1);
+            JsonNode changed = delta.body.get("nodes").get(0);
+            List<String> fields = new ArrayList<>();
+            changed.fieldNames().forEachRemaining(fields::add);
+            assertThat(fields).containsExactly("id", "cpuUsage");
+            assertThat(changed.get("id").asText()).isEqualTo("node-2");
+            assertThat(changed.get("cpuUsage").asDouble()).isEqualTo(35.0);
+
+            // A tick that changes nothing sends nothing
+            stream.publish(List.of(node("node-1", 10.0), node("node-2", 35.0)), SUMMARY);
+            stream.publish(List.of(node("node-1", 11.0), node("node-2", 35.0)), SUMMARY);
+            assertThat(emitter.next().sequence).isEqualTo(4);
+        } finally {
+            stream.close();
+        }
+    }
+
+    @Test
+    void overflowDropsTheOldestAndResyncsWithASnapshot() throws Exception {
+        NodeMetricStream stream = new NodeMetricStream(MAPPER, 2, 1, 60_000, 4, 60_000);
+        try {
+            stream.publish(List.of(node("node-1", 0.0)), SUMMARY);
+            CountDownLatch gate = new CountDownLatch(1);
+            RecordingEmitter emitter = new RecordingEmitter(gate);
+            stream.subscribe(emitter);
+            // The first snapshot is held in its send while four deltas queue up behind it
+            assertThat(emitter.entered.await(5, TimeUnit.SECONDS)).isTrue();
+            for (int i = 1; i <= 4; i++) {
+                stream.publish(List.of(node("node-1", (double) i)), SUMMARY);
+            }
+            assertThat(stream.getFramesDropped()).isEqualTo(2);
+
+            gate.countDown();
+            assertThat(emitter.next().sequence).isEqualTo(1);
+            Event resync = emitter.next();
+            assertThat(resync.name).isEqualTo("snapshot");
+            assertThat(resync.sequence).isEqualTo(5);
+            assertThat(resync.body.get("nodes").get(0).get("cpuUsage").asDouble()).isEqualTo(4.0);
+
+            // Deltas 4 and 5 were in the snapshot, so the next frame is the next tick's
+            stream.publish(List.of(node("node-1", 5.0)), SUMMARY);
+            Event delta = emitter.next();
+            assertThat(delta.name).isEqualTo("delta");
+            assertThat(delta.sequence).isEqualTo(6);
+        } finally {
+            stream.close();
+        }
+    }
+
+    @Test
+    void stalledSendIsEvictedAndFreesItsThread() throws Exception {
+        NodeMetricStream stream = new NodeMetricStream(MAPPER, 16, 1, 60_000, 4, 100);
+        try {
+            stream.publish(List.of(node("node-1", 10.0)), SUMMARY);
+            RecordingEmitter stalled = new RecordingEmitter(new CountDownLatch(1));
+            stream.subscribe(stalled);
+
+            awaitTrue(() -> stream.getSubscribersEvicted() == 1);
+            assertThat(stream.getSubscriberCount()).isZero();
+            assertThat(stalled.failure).isInstanceOf(IOException.class);
+            awaitTrue(() -> stalled.interrupted);
+
+            // The only sender thread is free again
+            RecordingEmitter next = new RecordingEmitter(new CountDownLatch(0));
+            stream.subscribe(next);
+            assertThat(next.next().name).isEqualTo("snapshot");
+        } finally {
+            stream.close();
+        }
+    }
+
+    private static NodeDTO node(String id, double cpuUsage) {
+        NodeDTO node = new NodeDTO();
+        node.setId(id);
+        node.setStatus("online");
+        node.setCpuUsage(cpuUsage);
+        return node;
+    }
+
+    private static void awaitTrue(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (!condition.getAsBoolean()) {
+            assertThat(System.currentTimeMillis()).isLessThan(deadline);
+            Thread.sleep(20);
+        }
+    }
+
+    private static final class Event {
+        private final long sequence;
+        private final String name;
+        private final JsonNode body;
+
+        private Event(long sequence, String name, JsonNode body) {
+            this.sequence = sequence;
+            this.name = name;
+            this.body = body;
+        }
+    }
+
+    // Records each event sent; every send waits for the gate first
+    private static final class RecordingEmitter extends SseEmitter {
+        private final CountDownLatch gate;
+        private final CountDownLatch entered = new CountDownLatch(1);
+        private final BlockingQueue<Event> events = new LinkedBlockingQueue<>();
+        private volatile boolean interrupted;
+        private volatile Throwable failure;
+
+        private RecordingEmitter(CountDownLatch gate) {
+            this.gate = gate;
+        }
+
+        @Override
+        public void send(SseEventBuilder builder) throws IOException {
+            entered.countDown();
+            try {
+                gate.await();
+            } catch (InterruptedException e) {
+                interrupted = true;
+                throw new InterruptedIOException("Interrupted in send");
+            }
+            StringBuilder text = new StringBuilder();
+            for (ResponseBodyEmitter.DataWithMediaType part : builder.build()) {
+                text.append(part.getData());
+            }
+            long sequence = 0;
+            String name = null;
+            JsonNode body = null;
+            for (String line : text.toString().split("\n")) {
+                if (line.startsWith("id:")) {
+                    sequence = Long.parseLong(line.substring(3));
+                } else if (line.startsWith("event:")) {
+                    name = line.substring(6);
+                } else if (line.startsWith("data:")) {
+                    body = MAPPER.readTree(line.substring(5));
+                }
+            }
+            events.add(new Event(sequence, name, body));
+        }
+
+        @Override
+        public synchronized void completeWithError(Throwable ex) {
+            failure = ex;
+            super.completeWithError(ex);
+        }
+
+        private Event next() throws InterruptedException {
+            Event event = events.poll(5, TimeUnit.SECONDS);
+            assertThat(event).isNotNull();
+            return event;
+        }
+    }
+}
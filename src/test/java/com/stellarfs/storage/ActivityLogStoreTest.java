@@ -0,0 +1,133 @@
+package com.stellarfs.storage;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class ActivityLogStoreTest {
+
+    private static final long SEGMENT_BYTES = 64 * 1024;
+    private static final long DAY = 86_400_000L;
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void pagesByUserAndTimeAcrossSegmentsAndRestart() throws Exception {
+        ActivityLogStore store = new ActivityLogStore(dir.toString(), SEGMENT_BYTES, 0, 0, false);
+        // Entry i at time i, from users 0 to 6 in turn, about 100 bytes each: several segments
+        for (int i = 0; i < 5000; i++) {
+            store.append(i, "user-" + (i % 7), bytes("entry-" + i + "-" + "x".repeat(64)));
+        }
+        assertThat(files(".log").size()).isGreaterThan(3);
+        assertThat(files(".idx")).hasSize(files(".log").size() - 1);
+
+        List<String> expected = new ArrayList<>();
+        for (int i = 3999; i >= 1000; i--) {
+            if (i % 7 == 3) {
+                expected.add("entry-" + i);
+            }
+        }
+        assertThat(readAll(store, "user-3", 1000, 3999, 37)).isEqualTo(expected);
+        assertThat(readAll(store, null, Long.MIN_VALUE, Long.MAX_VALUE, 500)).hasSize(5000)
+                .startsWith("entry-4999", "entry-4998");
+        store.close();
+
+        // Sealed segments come back from their index files
+        ActivityLogStore reopened = new ActivityLogStore(dir.toString(), SEGMENT_BYTES, 0, 0, false);
+        assertThat(reopened.count()).isEqualTo(5000);
+        assertThat(readAll(reopened, "user-3", 1000, 3999, 37)).isEqualTo(expected);
+        assertThat(readAll(reopened, "nobody", Long.MIN_VALUE, Long.MAX_VALUE, 10)).isEmpty();
+        reopened.close();
+    }
+
+    @Test
+    void tornTailIsTruncatedOnRecovery() throws Exception {
+        ActivityLogStore store = new ActivityLogStore(dir.toString(), SEGMENT_BYTES, 0, 0, true);
+        store.append(1, "user-1", bytes("first"));
+        store.append(2, "user-1", bytes("second"));
+        store.close();
+        Path segment = files(".log").get(0);
+        Files.write(segment, new byte[]{0, 0, 0, 40, 1, 2, 3}, StandardOpenOption.APPEND);
+
+        ActivityLogStore reopened = new ActivityLogStore(dir.toString(), SEGMENT_BYTES, 0, 0, true);
+        reopened.append(3, "user-1", bytes("third"));
+        assertThat(readAll(reopened, "user-1", Long.MIN_VALUE, Long.MAX_VALUE, 10))
+                .containsExactly("third", "second", "first");
+        reopened.close();
+    }
+
+    @Test
+    void rollsByTimeAndDropsSegmentsPastRetention() throws Exception {
+        ActivityLogStore store = new ActivityLogStore(dir.toString(), SEGMENT_BYTES, DAY, 2, false);
+        for (int day = 0; day < 6; day++) {
+            store.append(day * DAY, "user-1", bytes("day-" + day));
+        }
+        // One segment a day; sealing day 5's predecessor drops days 0 to 2
+        assertThat(readAll(store, null, Long.MIN_VALUE, Long.MAX_VALUE, 10))
+                .containsExactly("day-5", "day-4", "day-3");
+        assertThat(files(".log")).hasSize(3);
+        store.close();
+    }
+
+    @Test
+    void readsTheActiveSegmentWhileItGrows() throws Exception {
+        // One segment, queried between appends: the tail past the mapping is read through the channel
+        ActivityLogStore store = new ActivityLogStore(dir.toString(), 16 * SEGMENT_BYTES, 0, 0, false);
+        for (int i = 0; i < 8000; i++) {
+            store.append(i, "user-" + (i % 3), bytes("entry-" + i + "-" + "x".repeat(64)));
+            if (i % 500 == 499) {
+                assertThat(readAll(store, "user-1", Long.MIN_VALUE, Long.MAX_VALUE, 200))
+                        .hasSize((i + 2) / 3).startsWith("entry-" + (i - (i - 1) % 3));
+            }
+        }
+        assertThat(files(".log")).hasSize(1);
+        store.close();
+        assertThat(readAll(store, null, 7990, Long.MAX_VALUE, 4)).hasSize(10).startsWith("entry-7999");
+    }
+
+    @Test
+    void rejectsMalformedCursor() throws Exception {
+        ActivityLogStore store = new ActivityLogStore(dir.toString(), SEGMENT_BYTES, 0, 0, false);
+        assertThatThrownBy(() -> store.query(null, 0, 1, "not a cursor", 10))
+                .isInstanceOf(IllegalArgumentException.class);
+        store.close();
+    }
+
+    private static List<String> readAll(ActivityLogStore store, String user, long from, long to, int limit) {
+        List<String> entries = new ArrayList<>();
+        String cursor = null;
+        do {
+            ActivityLogStore.Page page = store.query(user, from, to, cursor, limit);
+            assertThat(page.getEntries().size()).isLessThanOrEqualTo(limit);
+            for (byte[] entry : page.getEntries()) {
+                String text = new String(entry, StandardCharsets.UTF_8);
+                int padding = text.indexOf("-x");
+                entries.add(padding < 0 ? text : text.substring(0, padding));
+            }
+            cursor = page.getNextCursor();
+        } while (cursor != null);
+        return entries;
+    }
+
+    private List<Path> files(String suffix) throws Exception {
+        try (Stream<Path> paths = Files.list(dir)) {
+            return paths.filter(path -> path.toString().endsWith(suffix)).sorted().collect(Collectors.toList());
+        }
+    }
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,65 @@
+package com.stellarfs.storage;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ChunkStoreTest {
+
+    @TempDir
+    Path uploadDir;
+
+    @Test
+    void sharesChunksBetweenNearIdenticalFiles() throws Exception {
+        ChunkStore store = new ChunkStore(uploadDir.toString(), 2048, 8192, 32768);
+        byte[] original = new byte[1 << 20];
+        new Random(42).nextBytes(original);
+
+        // Same content with a few bytes inserted near the start
+        byte[] edited = new byte[original.length + 5];
+        System.arraycopy(original, 0, edited, 0, 1000);
+        System.arraycopy(original, 1000, edited, 1005, original.length - 1000);
+
+        ChunkStore.IngestResult first = store.ingest(new ByteArrayInputStream(original));
+        ChunkStore.IngestResult second = store.ingest(new ByteArrayInputStream(edited));
+
+        assertThat(first.getStoredBytes()).isEqualTo(original.length);
+        assertThat(second.getStoredBytes()).isLessThan(edited.length / 10);
+
+        try (InputStream in = store.open(second.getManifest())) {
+            assertThat(in.readAllBytes()).isEqualTo(edited);
+        }
+    }
+
+    @Test
+    void compressesChunksAndReadsThemBack() throws Exception {
+        ChunkStore store = new ChunkStore(uploadDir.toString(), 2048, 8192, 32768);
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; text.length() < 1 << 18; i++) {
+            text.append("line ").append(i).append(" of a compressible log file\n");
+        }
+        byte[] data = text.toString().getBytes(StandardCharsets.UTF_8);
+
+        ChunkStore.IngestResult result = store.ingest(new ByteArrayInputStream(data), ChunkCodec.FAST);
+        assertThat(result.getNewBytes()).isEqualTo(data.length);
+        assertThat(result.getStoredBytes()).isLessThan(data.length / 2);
+        assertThat(store.physicalBytes()).isEqualTo(result.getStoredBytes());
+
+        String hash = result.getManifest().getEntries().get(0).getHash();
+        long fast = store.physicalSize(hash);
+        assertThat(store.recompress(hash, ChunkCodec.MAX)).isEqualTo(fast - store.physicalSize(hash));
+        // Already at the strongest level
+        assertThat(store.recompress(hash, ChunkCodec.MAX)).isZero();
+
+        try (InputStream in = store.open(result.getManifest())) {
+            assertThat(in.readAllBytes()).isEqualTo(data);
+        }
+    }
+}
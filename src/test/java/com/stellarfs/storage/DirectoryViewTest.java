@@ -0,0 +1,72 @@
+package com.stellarfs.storage;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.function.BooleanSupplier;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class DirectoryViewTest {
+
+    @TempDir
+    Path dir;
+
+    private DirectoryView view;
+
+    @AfterEach
+    void close() {
+        if (view != null) {
+            view.close();
+        }
+    }
+
+    @Test
+    void cachesTheStatOfEveryStoredFile() throws Exception {
+        FileStorage storage = storage();
+        for (int i = 0; i < 25; i++) {
+            storage.store(String.format("file-%02d.bin", i), new ByteArrayInputStream(new byte[i + 1]));
+        }
+        view = new DirectoryView(storage);
+
+        assertThat(view.size()).isEqualTo(25);
+        assertThat(view.get("file-06.bin").getSize()).isEqualTo(7);
+        assertThat(view.get("file-06.bin").isChunked()).isFalse();
+        assertThat(view.get("missing.bin")).isNull();
+    }
+
+    @Test
+    void followsChangesMadeThroughStorageAndBehindItsBack() throws Exception {
+        FileStorage storage = storage();
+        view = new DirectoryView(storage);
+
+        // Seen at once, without waiting for the watcher
+        storage.store("a.txt", new ByteArrayInputStream(new byte[10]));
+        assertThat(view.size()).isEqualTo(1);
+
+        Files.write(storage.getRoot().resolve("b.txt"), new byte[20]);
+        awaitTrue(() -> view.size() == 2);
+        Files.write(storage.getRoot().resolve("b.txt"), new byte[30]);
+        awaitTrue(() -> view.get("b.txt").getSize() == 30);
+        Files.delete(storage.getRoot().resolve("a.txt"));
+        awaitTrue(() -> view.size() == 1);
+    }
+
+    private FileStorage storage() {
+        String uploads = dir.resolve("uploads").toString();
+        return new FileStorage(uploads, 1 << 20, new ChunkStore(uploads, 2048, 8192, 32768),
+                new VersionStore(uploads, 5, 10, 4096));
+    }
+
+    private static void awaitTrue(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (!condition.getAsBoolean()) {
+            assertThat(System.currentTimeMillis()).isLessThan(deadline);
+            Thread.sleep(20);
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package com.stellarfs.storage;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class MetadataLogTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void concurrentWritesSurviveRestartAcrossSnapshots() throws Exception {
+        MetadataLog log = new MetadataLog(dir.toString(), true, 500);
+        ExecutorService writers = Executors.newFixedThreadPool(8);
+        List<Future<?>> done = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            int thread = t;
+            done.add(writers.submit(() -> {
+                for (int i = 0; i < 300; i++) {
+                    log.put("files", thread + "-" + i, bytes("v" + i));
+                    if (i % 3 == 0) {
+                        log.delete("files", thread + "-" + i);
+                    }
+                }
+            }));
+        }
+        for (Future<?> future : done) {
+            future.get();
+        }
+        writers.shutdown();
+        log.put("users", "1", bytes("admin"));
+        log.close();
+
+        MetadataLog reopened = new MetadataLog(dir.toString(), true, 500);
+        assertThat(reopened.load("files")).hasSize(8 * 200);
+        assertThat(reopened.load("files").get("7-299")).isEqualTo(bytes("v299"));
+        assertThat(reopened.load("files")).doesNotContainKey("7-297");
+        assertThat(reopened.load("users").get("1")).isEqualTo(bytes("admin"));
+        // Snapshots have replaced the segments they cover
+        assertThat(files("snapshot-")).hasSize(1);
+        assertThat(files("wal-").size()).isLessThanOrEqualTo(2);
+        reopened.close();
+    }
+
+    @Test
+    void tornTailIsTruncatedOnRecovery() throws Exception {
+        MetadataLog log = new MetadataLog(dir.toString(), true, 1000);
+        log.put("files", "a", bytes("1"));
+        log.put("files", "b", bytes("2"));
+        log.close();
+
+        // Simulate a crash part-way through appending the next record
+        Path segment = dir.resolve(files("wal-").get(0));
+        Files.write(segment, new byte[] {0, 0, 0, 40, 1, 2, 3}, StandardOpenOption.APPEND);
+
+        MetadataLog recovered = new MetadataLog(dir.toString(), true, 1000);
+        assertThat(recovered.load("files")).containsOnlyKeys("a", "b");
+        recovered.put("files", "c", bytes("3"));
+        recovered.close();
+
+        MetadataLog again = new MetadataLog(dir.toString(), true, 1000);
+        assertThat(again.load("files")).containsOnlyKeys("a", "b", "c");
+        again.close();
+    }
+
+    @Test
+    @Timeout(10)
+    void unexpectedWriterErrorFailsWritesInsteadOfHanging() throws Exception {
+        MetadataLog log = new MetadataLog(dir.toString(), true, 1000);
+        log.put("files", "a", bytes("1"));
+
+        // A null key cannot be encoded and blows up on the writer thread
+        assertThatThrownBy(() -> log.put("files", null, bytes("2"))).isInstanceOf(UncheckedIOException.class);
+        assertThatThrownBy(() -> log.put("files", "b", bytes("3")))
+                .isInstanceOf(UncheckedIOException.class)
+                .hasMessageContaining("failed earlier");
+        log.close();
+
+        MetadataLog reopened = new MetadataLog(dir.toString(), true, 1000);
+        assertThat(reopened.load("files")).containsOnlyKeys("a");
+        reopened.close();
+    }
+
+    private List<String> files(String prefix) throws Exception {
+        try (Stream<Path> entries = Files.list(dir)) {
+            return entries.map(p -> p.getFileName().toString())
+                    .filter(name -> name.startsWith(prefix))
+                    .collect(Collectors.toList());
+        }
+    }
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,119 @@
+package com.stellarfs.storage;
+
+import com.stellarfs.model.dto.ReplicationValidationDTO;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class ReplicatorTest {
+
+    private static final List<String> NODES = Arrays.asList("node-1", "node-2", "node-3", "node-4");
+
+    @TempDir
+    Path dir;
+
+    private Replicator replicator;
+
+    @AfterEach
+    void close() {
+        if (replicator != null) {
+            replicator.close();
+        }
+    }
+
+    @Test
+    void copiesPlacedFilesOnceAndVerifiesThem() throws Exception {
+        String uploads = dir.resolve("uploads").toString();
+        FileStorage storage = new FileStorage(uploads, 1 << 20, new ChunkStore(uploads, 2048, 8192, 32768),
+                new VersionStore(uploads, 5, 10, 4096));
+        // Small segments and in-flight limit so every file is cut into many pipelined writes
+        replicator = new Replicator(storage, dir.resolve("replicas").toString(), 3, 4096, 16384, 2);
+
+        Random random = new Random(7);
+        Map<String, byte[]> contents = new HashMap<>();
+        for (int i = 0; i < 20; i++) {
+            byte[] data = new byte[random.nextInt(100_000)];
+            random.nextBytes(data);
+            storage.store("file-" + i + ".bin", new ByteArrayInputStream(data));
+            contents.put("file-" + i + ".bin", data);
+        }
+
+        for (String node : NODES) {
+            replicator.replicate(node, NODES, 2).get(30, TimeUnit.SECONDS);
+        }
+
+        int copies = 0;
+        for (String node : NODES) {
+            ReplicaStore store = replicator.store(node);
+            for (StoredFile file : store.list()) {
+                assertThat(Replicator.placement(file.getName(), NODES, 2)).contains(node);
+                try (InputStream in = store.open(file.getName())) {
+                    assertThat(in.readAllBytes()).isEqualTo(contents.get(file.getName()));
+                }
+                copies++;
+            }
+        }
+        assertThat(copies).isEqualTo(contents.size() * 2);
+        assertThat(replicator.getReplicated()).isEqualTo(copies);
+        assertThat(replicator.getFailed()).isZero();
+        assertThat(replicator.getPending()).isZero();
+
+        // Up-to-date replicas are not copied again
+        replicator.replicate("node-1", NODES, 2).get(30, TimeUnit.SECONDS);
+        assertThat(replicator.getReplicated()).isEqualTo(copies);
+
+        // In sync: the roots match, so nothing below them is compared
+        ReplicationValidationDTO clean = replicator.validate("node-1", NODES, 2).get(30, TimeUnit.SECONDS);
+        assertThat(clean.isInSync()).isTrue();
+        assertThat(clean.getTreeNodesCompared()).isEqualTo(1);
+
+        // A lost replica and a file updated at the source are found and repaired
+        ReplicaStore store = replicator.store("node-1");
+        List<String> held = new ArrayList<>();
+        store.list().forEach(file -> held.add(file.getName()));
+        store.delete(held.get(0));
+        String updated = held.get(1);
+        byte[] newContent = "new content".getBytes(StandardCharsets.UTF_8);
+        storage.store(updated, new ByteArrayInputStream(newContent));
+
+        ReplicationValidationDTO repaired = replicator.validate("node-1", NODES, 2).get(30, TimeUnit.SECONDS);
+        assertThat(repaired.isInSync()).isFalse();
+        assertThat(repaired.getFilesRepaired()).isEqualTo(2);
+        // Only the paths down to the two changed leaves are expanded
+        assertThat(repaired.getTreeNodesCompared()).isLessThanOrEqualTo(1 + 2 * 16 + 16);
+        try (InputStream in = store.open(updated)) {
+            assertThat(in.readAllBytes()).isEqualTo(newContent);
+        }
+        assertThat(replicator.validate("node-1", NODES, 2).get(30, TimeUnit.SECONDS).isInSync()).isTrue();
+
+        // The tree is rebuilt from the recorded hashes after a restart
+        assertThat(new ReplicaStore(store.getRoot(), 2).tree().rootDigest()).isEqualTo(store.tree().rootDigest());
+    }
+
+    @Test
+    void rejectsCorruptSegments() throws IOException {
+        ReplicaStore store = new ReplicaStore(dir.resolve("replica"), 2);
+        ReplicaStore.Upload upload = store.begin("a.bin", 3);
+        assertThatThrownBy(() -> store.write(upload, 0, ByteBuffer.wrap(new byte[] {1, 2, 3}), 0))
+                .isInstanceOf(IOException.class);
+        store.abort(upload);
+        assertThat(store.list()).isEmpty();
+    }
+}
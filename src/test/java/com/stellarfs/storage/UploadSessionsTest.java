@@ -0,0 +1,192 @@
+package com.stellarfs.storage;
+
+import com.stellarfs.model.dto.UploadSessionDTO;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class UploadSessionsTest {
+
+    private static final int PART = 64 * 1024;
+
+    @TempDir
+    Path dir;
+
+    private final List<UploadSessions> opened = new ArrayList<>();
+
+    @AfterEach
+    void close() {
+        opened.forEach(UploadSessions::close);
+    }
+
+    @Test
+    void assemblesPartsSentInParallelAndOutOfOrder() throws Exception {
+        FileStorage storage = storage();
+        UploadSessions sessions = sessions(storage, 60_000);
+        byte[] content = new byte[PART * 5 + 123];
+        new Random(5).nextBytes(content);
+
+        UploadSessionDTO session = sessions.initiate("backup.bin", content.length, (long) PART);
+        assertThat(session.getPartCount()).isEqualTo(6);
+        assertThatThrownBy(() -> sessions.complete(session.getId(), "backup.bin")).isInstanceOf(IllegalStateException.class);
+
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<?>> parts = new ArrayList<>();
+            for (int part : new int[]{6, 2, 4, 1, 5, 3}) {
+                parts.add(pool.submit(() -> sessions.uploadPart(session.getId(), part, part(content, part))));
+            }
+            for (Future<?> part : parts) {
+                part.get();
+            }
+        } finally {
+            pool.shutdown();
+        }
+        assertThat(sessions.status(session.getId()).getReceivedParts()).containsExactly(1, 2, 3, 4, 5, 6);
+
+        assertThat(sessions.complete(session.getId(), "backup.bin")).isEqualTo(1);
+        assertThat(storage.stat("backup.bin").getSize()).isEqualTo(content.length);
+        try (InputStream in = storage.open("backup.bin")) {
+            assertThat(in.readAllBytes()).isEqualTo(content);
+        }
+        assertThat(storage.listVersions("backup.bin")).hasSize(1);
+        assertThat(sessions.size()).isZero();
+        assertThatThrownBy(() -> sessions.status(session.getId())).isInstanceOf(NoSuchElementException.class);
+    }
+
+    @Test
+    void resumesAfterRestartAndRejectsMisfitParts() throws Exception {
+        FileStorage storage = storage();
+        UploadSessions sessions = sessions(storage, 60_000);
+        byte[] content = new byte[PART * 2 + 10];
+        new Random(9).nextBytes(content);
+        UploadSessionDTO session = sessions.initiate("video.mp4", content.length, (long) PART);
+
+        sessions.uploadPart(session.getId(), 2, part(content, 2));
+        assertThatThrownBy(() -> sessions.uploadPart(session.getId(), 3, new ByteArrayInputStream(new byte[5])))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> sessions.uploadPart(session.getId(), 4, part(content, 3)))
+                .isInstanceOf(IllegalArgumentException.class);
+        sessions.close();
+
+        UploadSessions restarted = sessions(storage, 60_000);
+        assertThat(restarted.status(session.getId()).getReceivedParts()).containsExactly(2);
+        restarted.uploadPart(session.getId(), 1, part(content, 1));
+        restarted.uploadPart(session.getId(), 3, part(content, 3));
+        restarted.complete(session.getId(), "video.mp4");
+        try (InputStream in = storage.open("video.mp4")) {
+            assertThat(in.readAllBytes()).isEqualTo(content);
+        }
+    }
+
+    @Test
+    void failedResendTakesThePartOffRecord() throws Exception {
+        FileStorage storage = storage();
+        UploadSessions sessions = sessions(storage, 60_000);
+        byte[] content = new byte[PART * 2];
+        new Random(3).nextBytes(content);
+        UploadSessionDTO session = sessions.initiate("photo.raw", content.length, (long) PART);
+        sessions.uploadPart(session.getId(), 1, part(content, 1));
+        sessions.uploadPart(session.getId(), 2, part(content, 2));
+
+        // The re-send overwrites half the part with other bytes, then the connection drops
+        InputStream torn = new SequenceInputStream(new ByteArrayInputStream(new byte[PART / 2]), new InputStream() {
+            @Override
+            public int read() throws IOException {
+                throw new IOException("Connection reset");
+            }
+        });
+        assertThatThrownBy(() -> sessions.uploadPart(session.getId(), 2, torn)).isInstanceOf(IOException.class);
+        assertThat(sessions.status(session.getId()).getReceivedParts()).containsExactly(1);
+        assertThatThrownBy(() -> sessions.complete(session.getId(), "photo.raw"))
+                .isInstanceOf(IllegalStateException.class);
+        sessions.close();
+
+        // Still off record after a restart; a part that fails its digest stays off too
+        UploadSessions restarted = sessions(storage, 60_000);
+        assertThat(restarted.status(session.getId()).getReceivedParts()).containsExactly(1);
+        assertThatThrownBy(() -> restarted.uploadPart(session.getId(), 2, part(content, 2), sha256(new byte[PART])))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThat(restarted.status(session.getId()).getReceivedParts()).containsExactly(1);
+        restarted.uploadPart(session.getId(), 2, part(content, 2),
+                sha256(Arrays.copyOfRange(content, PART, 2 * PART)));
+        restarted.complete(session.getId(), "photo.raw");
+        try (InputStream in = storage.open("photo.raw")) {
+            assertThat(in.readAllBytes()).isEqualTo(content);
+        }
+    }
+
+    @Test
+    void replacedDeduplicatedContentIsKeptAsItsManifest() throws Exception {
+        FileStorage storage = storage();
+        UploadSessions sessions = sessions(storage, 60_000);
+        byte[] original = new byte[PART * 2];
+        new Random(9).nextBytes(original);
+        storage.store("disk.img", new ByteArrayInputStream(original));
+        storage.chunk("disk.img", ChunkCodec.STORE);
+
+        UploadSessionDTO session = sessions.initiate("disk.img", PART, null);
+        sessions.uploadPart(session.getId(), 1, new ByteArrayInputStream(new byte[PART]));
+        assertThat(sessions.complete(session.getId(), "disk.img")).isEqualTo(2);
+        assertThat(storage.listVersions("disk.img").get(0).isChunked()).isTrue();
+        assertThat(storage.getRoot().resolve(".versions/disk.img/v1.manifest")).exists();
+
+        // Its chunks are still referenced, so a sweep leaves them for a restore
+        ChunkStore chunks = new ChunkStore(storage.getRoot().toString(), 2048, 8192, 32768);
+        assertThat(chunks.sweep(Instant.now().plusSeconds(60))).isZero();
+        assertThat(storage.restoreVersion("disk.img", "disk.img", 1)).isTrue();
+        try (InputStream in = storage.open("disk.img")) {
+            assertThat(in.readAllBytes()).isEqualTo(original);
+        }
+    }
+
+    @Test
+    void expiresIdleSessions() throws Exception {
+        UploadSessions sessions = sessions(storage(), 1);
+        UploadSessionDTO session = sessions.initiate("idle.bin", PART, null);
+        Thread.sleep(10);
+        assertThat(sessions.expire()).isEqualTo(1);
+        assertThat(sessions.size()).isZero();
+        assertThat(sessions.abort(session.getId())).isFalse();
+    }
+
+    private UploadSessions sessions(FileStorage storage, long ttlMillis) {
+        UploadSessions sessions = new UploadSessions(storage, PART, ttlMillis, 10);
+        opened.add(sessions);
+        return sessions;
+    }
+
+    private FileStorage storage() {
+        String uploads = dir.resolve("uploads").toString();
+        return new FileStorage(uploads, 1 << 20, new ChunkStore(uploads, 2048, 8192, 32768),
+                new VersionStore(uploads, 5, 10, 4096));
+    }
+
+    private static String sha256(byte[] bytes) {
+        return HexFormat.of().formatHex(BlockDelta.sha256().digest(bytes));
+    }
+
+    private static InputStream part(byte[] content, int number) {
+        int from = (number - 1) * PART;
+        return new ByteArrayInputStream(Arrays.copyOfRange(content, from, Math.min(content.length, from + PART)));
+    }
+}
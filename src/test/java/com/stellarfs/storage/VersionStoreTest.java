@@ -0,0 +1,129 @@
+package com.stellarfs.storage;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class VersionStoreTest {
+
+    @TempDir
+    Path uploadDir;
+
+    @Test
+    void replacedVersionsBecomeSmallDeltasAndRebuildExactly() throws Exception {
+        VersionStore store = new VersionStore(uploadDir.toString(), 4, 6, 1024);
+        Random random = new Random(3);
+        List<byte[]> history = commit(store, 9, random);
+
+        List<VersionStore.Version> versions = store.list("archive.zip");
+        assertThat(versions).extracting(VersionStore.Version::getNumber).containsExactly(4, 5, 6, 7, 8, 9);
+        assertThat(versions.get(5).isLive()).isTrue();
+        store.awaitCompaction();
+        versions = store.list("archive.zip");
+        assertThat(versions.get(0).isKeyframe()).isTrue();
+        assertThat(versions.get(4).isKeyframe()).isTrue();
+        assertRebuilds(store, history);
+
+        // Keyframes at every fourth version; the deltas in between only hold the edits
+        List<Path> deltas = files(".delta");
+        assertThat(deltas).hasSize(3);
+        for (Path delta : deltas) {
+            assertThat(Files.size(delta)).isLessThan(history.get(8).length / 50);
+        }
+        store.close();
+    }
+
+    @Test
+    void restoredVersionBecomesLiveAndSurvivesATornIndex() throws Exception {
+        VersionStore store = new VersionStore(uploadDir.toString(), 4, 6, 1024);
+        Random random = new Random(5);
+        List<byte[]> history = commit(store, 7, random);
+        store.awaitCompaction();
+
+        // What FileStorage does to restore version 3
+        Path live = uploadDir.resolve("archive.zip");
+        Path rebuilt = store.materialize("archive.zip", 3);
+        store.keep("archive.zip", "archive.zip", live);
+        Files.move(rebuilt, live, StandardCopyOption.REPLACE_EXISTING);
+        store.setCurrent("archive.zip", 3);
+        assertThat(Files.readAllBytes(live)).isEqualTo(history.get(2));
+        assertThat(store.currentVersion("archive.zip")).isEqualTo(3);
+        store.close();
+
+        Files.write(uploadDir.resolve(".versions/archive.zip/index"), "drop 7".getBytes(StandardCharsets.US_ASCII),
+                StandardOpenOption.APPEND);
+        VersionStore reopened = new VersionStore(uploadDir.toString(), 4, 6, 1024);
+        assertThat(reopened.list("archive.zip")).extracting(VersionStore.Version::getNumber)
+                .containsExactly(2, 3, 4, 5, 6, 7);
+        assertRebuilds(reopened, history);
+        reopened.close();
+    }
+
+    // Commit edited content the way FileStorage does: keep the live file, rename the new one over it
+    private List<byte[]> commit(VersionStore store, int count, Random random) throws Exception {
+        byte[] content = new byte[512 * 1024];
+        random.nextBytes(content);
+        List<byte[]> history = new ArrayList<>();
+        Path live = uploadDir.resolve("archive.zip");
+        for (int i = 0; i < count; i++) {
+            if (i > 0) {
+                content = edit(content, random);
+            }
+            Path next = uploadDir.resolve("next");
+            Files.write(next, content);
+            store.keep("archive.zip", "archive.zip", Files.exists(live) ? live : null);
+            Files.move(next, live, StandardCopyOption.REPLACE_EXISTING);
+            assertThat(store.add("archive.zip", "archive.zip", content.length)).isEqualTo(i + 1);
+            history.add(content);
+        }
+        return history;
+    }
+
+    private static void assertRebuilds(VersionStore store, List<byte[]> history) throws Exception {
+        for (VersionStore.Version version : store.list("archive.zip")) {
+            Path rebuilt = store.materialize("archive.zip", version.getNumber());
+            assertThat(Files.readAllBytes(rebuilt)).isEqualTo(history.get(version.getNumber() - 1));
+            Files.delete(rebuilt);
+        }
+    }
+
+    private List<Path> files(String suffix) throws Exception {
+        try (Stream<Path> files = Files.list(uploadDir.resolve(".versions/archive.zip"))) {
+            return files.filter(path -> path.toString().endsWith(suffix)).collect(Collectors.toList());
+        }
+    }
+
+    // Insert, overwrite and delete a few small ranges
+    private static byte[] edit(byte[] content, Random random) {
+        byte[] inserted = new byte[1 + random.nextInt(200)];
+        random.nextBytes(inserted);
+        int at = random.nextInt(content.length);
+        byte[] out = new byte[content.length + inserted.length];
+        System.arraycopy(content, 0, out, 0, at);
+        System.arraycopy(inserted, 0, out, at, inserted.length);
+        System.arraycopy(content, at, out, at + inserted.length, content.length - at);
+
+        int overwrite = random.nextInt(out.length - 100);
+        for (int i = 0; i < 100; i++) {
+            out[overwrite + i] ^= 0x5a;
+        }
+
+        int cut = random.nextInt(out.length - 300);
+        byte[] shorter = new byte[out.length - 300];
+        System.arraycopy(out, 0, shorter, 0, cut);
+        System.arraycopy(out, cut + 300, shorter, cut, out.length - cut - 300);
+        return shorter;
+    }
+}